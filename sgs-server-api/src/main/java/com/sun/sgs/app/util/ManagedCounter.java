@@ -0,0 +1,369 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Sun designates this particular file as subject to the "Classpath"
+ * exception as provided by Sun in the LICENSE file that accompanied
+ * this code.
+ *
+ * --
+ */
+package com.sun.sgs.app.util;
+
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.DataManager;
+import com.sun.sgs.app.ManagedObject;
+import com.sun.sgs.app.ManagedObjectRemoval;
+import com.sun.sgs.app.ManagedReference;
+import com.sun.sgs.app.TransactionConflictException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A scalable counter for values that many tasks update concurrently, such as
+ * the number of players online or the total amount of a resource in
+ * circulation.  Instead of storing its value in a single managed object,
+ * this class spreads its value over a fixed number of shards, each of which
+ * is a separate managed object.  An update modifies only one shard, chosen
+ * at random when the counter is first used in a task, so tasks that update
+ * the counter concurrently only conflict if they choose the same shard.
+ *
+ * <p>
+ *
+ * A counter combines values using one of the commutative {@linkplain
+ * Operation operations}: {@link Operation#SUM SUM}, {@link Operation#MAX
+ * MAX}, or {@link Operation#MIN MIN}.  Because the operations are
+ * commutative, the value of the counter does not depend on which shards
+ * were updated, or on the order in which updates were made.
+ *
+ * <p>
+ *
+ * The {@link #get get} method reads all of the shards to compute the exact
+ * value of the counter, so it takes time proportional to the number of
+ * shards, and conflicts with any concurrent update.  Applications that
+ * update a counter frequently but read it rarely will see the most benefit.
+ * Increasing the number of shards reduces conflicts between updates, at the
+ * cost of making reads more expensive.
+ *
+ * <p>
+ *
+ * This class will mark its shards for update as necessary; no additional
+ * calls to the {@link DataManager} are necessary when updating the counter.
+ * The counter itself is not modified after it is created, so it does not
+ * need to be marked for update.  Removing the counter from the data manager
+ * also removes its shards.
+ *
+ * <p>
+ *
+ * This class is not thread-safe.  Instances should only be accessed by a
+ * single task at a time, which is the normal case for managed objects.
+ *
+ * @see ManagedObjectRemoval
+ */
+public class ManagedCounter
+    implements ManagedObject, ManagedObjectRemoval, Serializable
+{
+    /** The version of the serialized form. */
+    private static final long serialVersionUID = 1;
+
+    /** The default number of shards. */
+    public static final int DEFAULT_NUM_SHARDS = 8;
+
+    /** The random number generator used for choosing shards. */
+    private static final Random random = new Random();
+
+    /**
+     * The commutative operations that a counter can use to combine values.
+     */
+    public enum Operation {
+
+	/**
+	 * Adds values to the counter.  The initial value is {@code 0}.
+	 * Overflow is not detected.
+	 */
+	SUM(0L),
+
+	/**
+	 * Sets the counter to the maximum of the values supplied.  The
+	 * initial value is {@link Long#MIN_VALUE}.
+	 */
+	MAX(Long.MIN_VALUE),
+
+	/**
+	 * Sets the counter to the minimum of the values supplied.  The
+	 * initial value is {@link Long#MAX_VALUE}.
+	 */
+	MIN(Long.MAX_VALUE);
+
+	/** The initial value for this operation. */
+	private final long identity;
+
+	/**
+	 * Creates an instance with the specified initial value.
+	 *
+	 * @param identity the initial value
+	 */
+	private Operation(long identity) {
+	    this.identity = identity;
+	}
+
+	/**
+	 * Combines two values using this operation.
+	 *
+	 * @param x the first value
+	 * @param y the second value
+	 * @return the combined value
+	 */
+	long combine(long x, long y) {
+	    switch (this) {
+	    case SUM:
+		return x + y;
+	    case MAX:
+		return Math.max(x, y);
+	    case MIN:
+		return Math.min(x, y);
+	    default:
+		throw new AssertionError();
+	    }
+	}
+    }
+
+    /**
+     * The operation used to combine values.
+     *
+     * @serial
+     */
+    private final Operation operation;
+
+    /**
+     * References to the shards that hold the value of the counter.
+     *
+     * @serial
+     */
+    private final List<ManagedReference<Shard>> shards;
+
+    /**
+     * One more than the index of the shard to update in the current task, or
+     * {@code 0} if not yet chosen.  Since managed objects are deserialized
+     * anew for each task, this field lets all of the updates made by a task
+     * use the same shard, while retried and concurrent tasks choose again.
+     */
+    private transient int currentShard;
+
+    /**
+     * Creates a counter that sums values, using the default number of
+     * shards.
+     */
+    public ManagedCounter() {
+	this(Operation.SUM, DEFAULT_NUM_SHARDS);
+    }
+
+    /**
+     * Creates a counter that uses the specified operation and number of
+     * shards.
+     *
+     * @param operation the operation used to combine values
+     * @param numShards the number of shards
+     *
+     * @throws IllegalArgumentException if {@code numShards} is less than
+     *         {@code 1}
+     */
+    public ManagedCounter(Operation operation, int numShards) {
+	if (operation == null) {
+	    throw new NullPointerException("The operation must not be null");
+	} else if (numShards < 1) {
+	    throw new IllegalArgumentException(
+		"The number of shards must be greater than 0: " + numShards);
+	}
+	this.operation = operation;
+	DataManager dm = AppContext.getDataManager();
+	shards = new ArrayList<ManagedReference<Shard>>(numShards);
+	for (int i = 0; i < numShards; i++) {
+	    shards.add(dm.createReference(new Shard(operation.identity)));
+	}
+    }
+
+    /**
+     * Returns the operation this counter uses to combine values.
+     *
+     * @return the operation
+     */
+    public Operation getOperation() {
+	return operation;
+    }
+
+    /**
+     * Returns the number of shards this counter uses.
+     *
+     * @return the number of shards
+     */
+    public int getNumShards() {
+	return shards.size();
+    }
+
+    /**
+     * Combines the specified value with the value of this counter, using
+     * the counter's operation.  If the operation is {@link Operation#MAX
+     * MAX} or {@link Operation#MIN MIN}, and the value would not change the
+     * shard being updated, then the shard is only read, not modified.
+     *
+     * @param value the value
+     *
+     * @throws TransactionConflictException if the operation conflicts with
+     *	       another task updating the same shard
+     */
+    public void accumulate(long value) {
+	ManagedReference<Shard> ref = shards.get(chooseShard());
+	if (operation == Operation.SUM) {
+	    if (value != 0) {
+		ref.getForUpdate().value += value;
+	    }
+	} else {
+	    Shard shard = ref.get();
+	    long newValue = operation.combine(shard.value, value);
+	    if (newValue != shard.value) {
+		AppContext.getDataManager().markForUpdate(shard);
+		shard.value = newValue;
+	    }
+	}
+    }
+
+    /**
+     * Adds the specified amount to this counter, which must use the {@link
+     * Operation#SUM SUM} operation.
+     *
+     * @param delta the amount to add, which may be negative
+     *
+     * @throws IllegalStateException if this counter does not use the {@code
+     *	       SUM} operation
+     * @throws TransactionConflictException if the operation conflicts with
+     *	       another task updating the same shard
+     */
+    public void add(long delta) {
+	if (operation != Operation.SUM) {
+	    throw new IllegalStateException(
+		"The add method is only supported for SUM counters");
+	}
+	accumulate(delta);
+    }
+
+    /**
+     * Adds one to this counter, which must use the {@link Operation#SUM SUM}
+     * operation.
+     *
+     * @throws IllegalStateException if this counter does not use the {@code
+     *	       SUM} operation
+     * @throws TransactionConflictException if the operation conflicts with
+     *	       another task updating the same shard
+     */
+    public void increment() {
+	add(1);
+    }
+
+    /**
+     * Subtracts one from this counter, which must use the {@link
+     * Operation#SUM SUM} operation.
+     *
+     * @throws IllegalStateException if this counter does not use the {@code
+     *	       SUM} operation
+     * @throws TransactionConflictException if the operation conflicts with
+     *	       another task updating the same shard
+     */
+    public void decrement() {
+	add(-1);
+    }
+
+    /**
+     * Returns the exact value of this counter, combining the values of all
+     * of its shards.  This operation runs in time proportional to the
+     * number of shards.
+     *
+     * @return the value of this counter
+     *
+     * @throws TransactionConflictException if the operation conflicts with
+     *	       another task updating the counter
+     */
+    public long get() {
+	long result = operation.identity;
+	for (ManagedReference<Shard> ref : shards) {
+	    result = operation.combine(result, ref.get().value);
+	}
+	return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation removes the shards of this counter.
+     */
+    public void removingObject() {
+	DataManager dm = AppContext.getDataManager();
+	for (ManagedReference<Shard> ref : shards) {
+	    dm.removeObject(ref.get());
+	}
+    }
+
+    /**
+     * Returns a string representation of this counter, which does not
+     * include its value, to avoid reading all of its shards.
+     *
+     * @return a string representation of this counter
+     */
+    @Override
+    public String toString() {
+	return "ManagedCounter[operation:" + operation +
+	    ", numShards:" + shards.size() + "]";
+    }
+
+    /**
+     * Returns the index of the shard to update in the current task,
+     * choosing one at random if needed.
+     *
+     * @return the index of the shard
+     */
+    private int chooseShard() {
+	if (currentShard == 0) {
+	    currentShard = random.nextInt(shards.size()) + 1;
+	}
+	return currentShard - 1;
+    }
+
+    /** A managed object that holds the value of one shard of a counter. */
+    private static final class Shard implements ManagedObject, Serializable {
+
+	/** The version of the serialized form. */
+	private static final long serialVersionUID = 1;
+
+	/**
+	 * The value of this shard.
+	 *
+	 * @serial
+	 */
+	long value;
+
+	/**
+	 * Creates a shard with the specified initial value.
+	 *
+	 * @param value the initial value
+	 */
+	Shard(long value) {
+	    this.value = value;
+	}
+    }
+}
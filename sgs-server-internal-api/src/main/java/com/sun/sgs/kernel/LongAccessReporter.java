@@ -0,0 +1,61 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Sun designates this particular file as subject to the "Classpath"
+ * exception as provided by Sun in the LICENSE file that accompanied
+ * this code.
+ *
+ * --
+ */
+
+package com.sun.sgs.kernel;
+
+import com.sun.sgs.app.TransactionAbortedException;
+
+import com.sun.sgs.service.Transaction;
+
+
+/**
+ * An {@link AccessReporter} for objects identified by {@code long} values
+ * that accepts the identifiers as primitives, avoiding the need to box them
+ * on each report.  An {@link AccessCoordinator} may return an instance of
+ * this interface from {@link AccessCoordinator#registerAccessSource
+ * registerAccessSource} when the object identifier type is {@code
+ * Long.class}.  Callers can check for this interface and use the primitive
+ * overloading when it is available.
+ */
+public interface LongAccessReporter extends AccessReporter<Long> {
+
+    /**
+     * Reports to the coordinator that object access has been requested in
+     * the context of the provided transaction.  This method is equivalent to
+     * calling {@link AccessReporter#reportObjectAccess(Transaction, Object,
+     * AccessType) reportObjectAccess(txn, Long.valueOf(objId), type)}.
+     *
+     * @param txn the transaction in which the provided {@code objId}
+     *        was accessed
+     * @param objId an identifier for the object being accessed
+     * @param type the {@code AccessType} being requested
+     *
+     * @throws IllegalArgumentException if the provided transaction is invalid,
+     *                                  has already committed, or is otherwise
+     *                                  unknown to the {@code AccessCoordinator}
+     * @throws TransactionAbortedException if access failed due to a conflict 
+     */
+    void reportObjectAccess(Transaction txn, long objId, AccessType type);
+}
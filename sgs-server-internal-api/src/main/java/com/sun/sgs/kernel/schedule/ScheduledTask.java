@@ -79,6 +79,28 @@ public interface ScheduledTask {
      */
     long getStartTime();
 
+    /**
+     * Returns the earliest time at which this task should next be run.
+     * This is the same as the value returned by {@link #getStartTime}
+     * unless a retry of this task has been delayed by a call to
+     * {@link #setRetryTime setRetryTime}.
+     *
+     * @return the time at which this task should next be run
+     */
+    long getNextRunTime();
+
+    /**
+     * Delays the next attempt to run this task until the given time.  A
+     * {@link SchedulerRetryPolicy} may call this method before returning
+     * {@link SchedulerRetryAction#RETRY_LATER} so that the task is not
+     * retried before the given time.  Unlike the start time, the retry time
+     * is not used to determine the age of the task.
+     *
+     * @param retryTime the time, in milliseconds since January 1, 1970,
+     *                  before which this task should not be retried
+     */
+    void setRetryTime(long retryTime);
+
     /**
      * Returns the period for the task if it's recurring, or
      * {@code NON_RECURRING} if this is not a recurring task.
@@ -75,6 +75,59 @@ public interface ClientSessionServiceMXBean {
      */
     void setLoginHighWater(int highWater);
 
+    /**
+     * Returns the total number of bytes of messages waiting to be written
+     * to the clients of the sessions connected to this node.
+     *
+     * @return the number of bytes waiting to be written to clients
+     */
+    long getPendingWriteBytes();
+
+    /**
+     * Returns the largest number of bytes of messages waiting to be
+     * written to the client of any single session connected to this node.
+     *
+     * @return the largest number of bytes waiting to be written to a
+     *         single client
+     */
+    long getMaxSessionPendingWriteBytes();
+
+    /**
+     * Returns the total number of bytes of the messages written to the
+     * clients of sessions connected to this node, before any compression.
+     *
+     * @return the number of bytes written to clients, before compression
+     */
+    long getUncompressedBytesWritten();
+
+    /**
+     * Returns the total number of bytes of the messages written to the
+     * clients of sessions connected to this node, after any compression.
+     * Messages that are not compressed count at their original size.
+     *
+     * @return the number of bytes written to clients, after compression
+     */
+    long getCompressedBytesWritten();
+
+    /**
+     * Returns the total number of bytes of the messages read from the
+     * clients of sessions connected to this node, after any
+     * decompression.
+     *
+     * @return the number of bytes read from clients, after decompression
+     */
+    long getUncompressedBytesRead();
+
+    /**
+     * Returns the total number of bytes of the messages read from the
+     * clients of sessions connected to this node, before any
+     * decompression.  Messages that are not compressed count at their
+     * original size.
+     *
+     * @return the number of bytes read from clients, before decompression
+     */
+    long getCompressedBytesRead();
+
     /**
      * Returns the number of times {@link 
      * ClientSessionService#addSessionStatusListener
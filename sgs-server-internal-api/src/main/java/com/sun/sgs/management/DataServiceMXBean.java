@@ -177,4 +177,34 @@ public interface DataServiceMXBean {
      * @return the number of times {@code setServiceBinding} has been called
      */
     long getSetServiceBindingCalls();
+
+    /**
+     * Returns the number of times an object was locked for write when it was
+     * read, because the task reading it was predicted to modify it.  Write
+     * intent is only predicted if the {@code
+     * com.sun.sgs.impl.service.data.DataServiceImpl.predict.write.intent}
+     * property is {@code true}.
+     *
+     * @return the number of reads that obtained write locks because of a
+     *         prediction
+     */
+    long getWriteIntentPredictions();
+
+    /**
+     * Returns the number of times an object was locked for write because it
+     * was predicted to be modified, but was not modified.
+     *
+     * @return the number of incorrect write intent predictions
+     */
+    long getWriteIntentMispredictions();
+
+    /**
+     * Returns the number of times an object was read and then modified by
+     * the same task without a write being predicted, requiring its read lock
+     * to be upgraded to a write lock.  This value is only tracked when write
+     * intent is being predicted.
+     *
+     * @return the number of read lock upgrades
+     */
+    long getReadLockUpgrades();
 }
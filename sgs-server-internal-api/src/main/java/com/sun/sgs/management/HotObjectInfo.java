@@ -0,0 +1,162 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * Portions of this distribution have been modified as part of RedDwarf
+ * The source code is governed by a GPLv2 license with "Classpath"
+ * exception that can be found in the LICENSE file.
+ */
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Sun designates this particular file as subject to the "Classpath"
+ * exception as provided by Sun in the LICENSE file that accompanied
+ * this code.
+ *
+ * --
+ */
+
+package com.sun.sgs.management;
+
+import java.beans.ConstructorProperties;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Management information about a single contended object, as reported by
+ * {@link HotObjectsMXBean}.  Access and conflict counts are estimates for
+ * the current window.  The task types and wait time describe the conflicts
+ * seen since the object was first reported as contended.
+ */
+public class HotObjectInfo implements Serializable {
+    /** The serialVersionUID of this class. */
+    private static final long serialVersionUID = 1L;
+
+    private final String source;
+    private final String objectId;
+    private final String description;
+    private final long accessCount;
+    private final long conflictCount;
+    private final String[] taskTypes;
+    private final long averageWaitTime;
+
+    /**
+     * Creates a HotObjectInfo object.
+     *
+     * @param source the source of the object, such as the data store
+     * @param objectId the identifier of the object
+     * @param description a description of the object, or {@code null}
+     * @param accessCount the estimated number of accesses
+     * @param conflictCount the estimated number of conflicts
+     * @param taskTypes the types of the tasks that failed due to conflicts
+     *        on the object
+     * @param averageWaitTime the average time, in nanoseconds, that the
+     *        failed tasks spent waiting for locks, or {@code -1} if not
+     *        measured
+     */
+    @ConstructorProperties({"source", "objectId", "description",
+                            "accessCount", "conflictCount", "taskTypes",
+                            "averageWaitTime" })
+    public HotObjectInfo(String source, String objectId, String description,
+                         long accessCount, long conflictCount,
+                         String[] taskTypes, long averageWaitTime)
+    {
+        this.source = source;
+        this.objectId = objectId;
+        this.description = description;
+        this.accessCount = accessCount;
+        this.conflictCount = conflictCount;
+        this.taskTypes = taskTypes.clone();
+        this.averageWaitTime = averageWaitTime;
+    }
+
+    /**
+     * Returns the source of the object, such as the data store.
+     *
+     * @return the source of the object
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the identifier of the object.
+     *
+     * @return the identifier of the object
+     */
+    public String getObjectId() {
+        return objectId;
+    }
+
+    /**
+     * Returns a description of the object, or {@code null} if no
+     * description was supplied when the object was accessed.
+     *
+     * @return a description of the object or {@code null}
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Returns the estimated number of accesses to the object during the
+     * current window.
+     *
+     * @return the estimated number of accesses
+     */
+    public long getAccessCount() {
+        return accessCount;
+    }
+
+    /**
+     * Returns the estimated number of transaction conflicts caused by the
+     * object during the current window.
+     *
+     * @return the estimated number of conflicts
+     */
+    public long getConflictCount() {
+        return conflictCount;
+    }
+
+    /**
+     * Returns the types of the tasks that failed due to conflicts on the
+     * object.
+     *
+     * @return the task types
+     */
+    public String[] getTaskTypes() {
+        return taskTypes.clone();
+    }
+
+    /**
+     * Returns the average time, in nanoseconds, that the tasks which failed
+     * due to conflicts on the object spent waiting for locks, or {@code -1}
+     * if lock wait times were not being measured.
+     *
+     * @return the average lock wait time or {@code -1}
+     */
+    public long getAverageWaitTime() {
+        return averageWaitTime;
+    }
+
+    /** {@inheritDoc} */
+    public String toString() {
+        return source + ":" + objectId + "[conflicts:" + conflictCount +
+            ", accesses:" + accessCount + ", averageWait:" +
+            averageWaitTime + ", taskTypes:" +
+            Arrays.toString(taskTypes) + "]";
+    }
+}
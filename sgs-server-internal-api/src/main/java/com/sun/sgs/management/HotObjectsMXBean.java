@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * Portions of this distribution have been modified as part of RedDwarf
+ * The source code is governed by a GPLv2 license with "Classpath"
+ * exception that can be found in the LICENSE file.
+ */
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Sun designates this particular file as subject to the "Classpath"
+ * exception as provided by Sun in the LICENSE file that accompanied
+ * this code.
+ *
+ * --
+ */
+
+package com.sun.sgs.management;
+
+/**
+ * The management interface for the objects that have recently caused the
+ * most transaction conflicts on the local node.  Conflicts are counted over
+ * a sliding time window using approximate counts, so the values reported
+ * are estimates that may be slightly higher than the actual counts.  Data
+ * is only gathered when the
+ * {@code com.sun.sgs.impl.profile.listener.HotObjectsListener} profile
+ * listener is configured.
+ * <p>
+ * An instance implementing this MBean can be obtained from the from the 
+ * {@link java.lang.management.ManagementFactory.html#getPlatformMBeanServer() 
+ * getPlatformMBeanServer} method.
+ * <p>
+ * The {@code ObjectName} for uniquely identifying this MBean is
+ * {@value #MXBEAN_NAME}.
+ */
+public interface HotObjectsMXBean {
+    /** The name for uniquely identifying this MBean. */
+    String MXBEAN_NAME = "com.sun.sgs:type=HotObjects";
+
+    /**
+     * Returns information about the objects that caused the most conflicts
+     * during the current window, ordered with the most contended object
+     * first.
+     *
+     * @return information about the most contended objects
+     */
+    HotObjectInfo[] getHotObjects();
+
+    /**
+     * Returns the length of the sliding window, in milliseconds, over which
+     * accesses and conflicts are counted.
+     *
+     * @return the length of the window in milliseconds
+     */
+    long getWindowLength();
+
+    /**
+     * Returns the maximum number of objects reported by
+     * {@link #getHotObjects}.
+     *
+     * @return the maximum number of objects reported
+     */
+    int getMaxHotObjects();
+
+    /**
+     * Clears all data values.
+     */
+    void clear();
+
+    /**
+     * Returns the time of the last call to {@link #clear}, or the time
+     * this MBean was created if {@code clear} has never been called.  The
+     * time is the difference, measured in milliseconds, between the time at 
+     * which this was last cleared and midnight, January 1, 1970 UTC.
+     * 
+     * @return the time of the last call to {@code clear}
+     */
+    long getLastClearTime();
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2010 The RedDwarf Authors.  All rights reserved
+ * Portions of this distribution have been modified as part of RedDwarf
+ * The source code is governed by a GPLv2 license with "Classpath"
+ * exception that can be found in the LICENSE file.
+ */
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Sun designates this particular file as subject to the "Classpath"
+ * exception as provided by Sun in the LICENSE file that accompanied
+ * this code.
+ *
+ * --
+ */
+
+package com.sun.sgs.management;
+
+import java.beans.ConstructorProperties;
+import java.io.Serializable;
+
+/**
+ * Management information about the resources used by all tasks of a single
+ * type, as reported by {@link TaskTypeMXBean}.  The task type is the base
+ * type reported by the task's {@code KernelRunnable}.  Times are totals, in
+ * nanoseconds, for all tries of the tasks, and are {@code -1} if they could
+ * not be measured on this platform.
+ */
+public class TaskTypeInfo implements Serializable {
+    /** The serialVersionUID of this class. */
+    private static final long serialVersionUID = 1L;
+
+    private final String taskType;
+    private final long taskCount;
+    private final long cpuTime;
+    private final long allocatedBytes;
+    private final long lockWaitTime;
+    private final long storeWaitTime;
+
+    /**
+     * Creates a TaskTypeInfo object.
+     *
+     * @param taskType the task type
+     * @param taskCount the number of task runs measured
+     * @param cpuTime the total processor time, in nanoseconds
+     * @param allocatedBytes the total number of bytes allocated
+     * @param lockWaitTime the total time waiting for locks, in nanoseconds
+     * @param storeWaitTime the total time waiting for the data store, in
+     *        nanoseconds
+     */
+    @ConstructorProperties({"taskType", "taskCount", "cpuTime",
+                            "allocatedBytes", "lockWaitTime",
+                            "storeWaitTime" })
+    public TaskTypeInfo(String taskType, long taskCount, long cpuTime,
+                        long allocatedBytes, long lockWaitTime,
+                        long storeWaitTime)
+    {
+        this.taskType = taskType;
+        this.taskCount = taskCount;
+        this.cpuTime = cpuTime;
+        this.allocatedBytes = allocatedBytes;
+        this.lockWaitTime = lockWaitTime;
+        this.storeWaitTime = storeWaitTime;
+    }
+
+    /**
+     * Returns the task type.
+     *
+     * @return the task type
+     */
+    public String getTaskType() {
+        return taskType;
+    }
+
+    /**
+     * Returns the number of task runs measured, counting each try of a
+     * task separately.
+     *
+     * @return the number of task runs measured
+     */
+    public long getTaskCount() {
+        return taskCount;
+    }
+
+    /**
+     * Returns the total processor time used, in nanoseconds, or {@code -1}
+     * if processor time could not be measured.
+     *
+     * @return the total processor time used
+     */
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * Returns the total number of bytes allocated, or {@code -1} if
+     * allocation could not be measured.
+     *
+     * @return the total number of bytes allocated
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Returns the total time spent waiting for locks, in nanoseconds.
+     *
+     * @return the total time spent waiting for locks
+     */
+    public long getLockWaitTime() {
+        return lockWaitTime;
+    }
+
+    /**
+     * Returns the total time spent waiting for the data store, in
+     * nanoseconds.
+     *
+     * @return the total time spent waiting for the data store
+     */
+    public long getStoreWaitTime() {
+        return storeWaitTime;
+    }
+
+    /** {@inheritDoc} */
+    public String toString() {
+        return taskType + "[count:" + taskCount + ", cpu:" + cpuTime +
+            ", allocated:" + allocatedBytes + ", lockWait:" + lockWaitTime +
+            ", storeWait:" + storeWaitTime + "]";
+    }
+}
@@ -122,6 +122,44 @@ public interface ProfileReport {
      */
     long getRunningTime();
 
+    /**
+     * Returns the processor time used by the thread running the task,
+     * including any nested tasks.  Resource usage is only measured if
+     * enabled by the profile level of the {@code com.sun.sgs.TaskTypeStats}
+     * profile consumer.
+     *
+     * @return the processor time in nanoseconds, or {@code -1} if it was
+     *         not measured
+     */
+    long getCpuTime();
+
+    /**
+     * Returns the number of bytes allocated by the thread running the task,
+     * including any nested tasks.
+     *
+     * @return the number of bytes allocated, or {@code -1} if it was not
+     *         measured
+     */
+    long getAllocatedBytes();
+
+    /**
+     * Returns the time the task spent waiting to acquire locks.
+     *
+     * @return the lock wait time in nanoseconds, or {@code -1} if it was
+     *         not measured
+     */
+    long getLockWaitTime();
+
+    /**
+     * Returns the time the task spent waiting for data store operations,
+     * not including time spent waiting to acquire locks during those
+     * operations.
+     *
+     * @return the data store wait time in nanoseconds, or {@code -1} if it
+     *         was not measured
+     */
+    long getStoreWaitTime();
+
     /**
      * Returns the number of times this task has been tried. If this is
      * the first time the task has been run, then this method returns 1.
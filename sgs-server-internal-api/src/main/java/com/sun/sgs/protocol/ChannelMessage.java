@@ -0,0 +1,164 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Sun designates this particular file as subject to the "Classpath"
+ * exception as provided by Sun in the LICENSE file that accompanied
+ * this code.
+ *
+ * --
+ */
+
+package com.sun.sgs.protocol;
+
+import com.sun.sgs.app.Delivery;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A channel message to be sent to the local members of a channel.  An
+ * instance is shared by all of the {@link SessionProtocol} instances that
+ * send the message to their clients, and caches the encoded form of the
+ * message, keyed by protocol-specific keys, so that a protocol can encode
+ * the message once and reuse the encoding for each of its sessions. <p>
+ *
+ * Instances of this class are safe for use by multiple threads.
+ */
+public final class ChannelMessage {
+
+    /** The channel ID. */
+    private final BigInteger channelId;
+
+    /** A read-only view of the message. */
+    private final ByteBuffer message;
+
+    /** The delivery guarantee. */
+    private final Delivery delivery;
+
+    /** The key for {@code frame}, or {@code null}. */
+    private Object frameKey = null;
+
+    /** The encoded message for {@code frameKey}, or {@code null}. */
+    private ByteBuffer frame = null;
+
+    /**
+     * The encoded messages for keys other than {@code frameKey}, or
+     * {@code null} if only one encoding has been stored.
+     */
+    private Map<Object, ByteBuffer> otherFrames = null;
+
+    /**
+     * Constructs an instance with the specified channel ID, message, and
+     * delivery guarantee.  The message is not copied, and should not be
+     * modified after this instance is created.
+     *
+     * @param	channelId a channel ID
+     * @param	message a channel message
+     * @param	delivery the channel's delivery guarantee
+     */
+    public ChannelMessage(
+	BigInteger channelId, ByteBuffer message, Delivery delivery)
+    {
+	if (channelId == null) {
+	    throw new NullPointerException("null channelId");
+	} else if (message == null) {
+	    throw new NullPointerException("null message");
+	} else if (delivery == null) {
+	    throw new NullPointerException("null delivery");
+	}
+	this.channelId = channelId;
+	this.message = message.asReadOnlyBuffer();
+	this.delivery = delivery;
+    }
+
+    /**
+     * Returns the channel ID.
+     *
+     * @return	the channel ID
+     */
+    public BigInteger getChannelId() {
+	return channelId;
+    }
+
+    /**
+     * Returns a new read-only view of the message, with its own position
+     * and limit.
+     *
+     * @return	a read-only view of the message
+     */
+    public ByteBuffer getMessage() {
+	return message.duplicate();
+    }
+
+    /**
+     * Returns the channel's delivery guarantee.
+     *
+     * @return	the delivery guarantee
+     */
+    public Delivery getDelivery() {
+	return delivery;
+    }
+
+    /**
+     * Returns a new read-only view of the encoded message stored for the
+     * specified {@code key}, or {@code null} if none has been stored.
+     *
+     * @param	key the key for the encoding
+     * @return	a read-only view of the encoded message, or {@code null}
+     */
+    public synchronized ByteBuffer getFrame(Object key) {
+	ByteBuffer result;
+	if (key.equals(frameKey)) {
+	    result = frame;
+	} else if (otherFrames != null) {
+	    result = otherFrames.get(key);
+	} else {
+	    result = null;
+	}
+	return result != null ? result.duplicate() : null;
+    }
+
+    /**
+     * Stores the encoded message for the specified {@code key}, unless an
+     * encoding has already been stored for that key, and returns a new
+     * read-only view of the stored encoding.  The contents of {@code
+     * encoded} should not be modified after this method is called.
+     *
+     * @param	key the key for the encoding
+     * @param	encoded the encoded message
+     * @return	a read-only view of the stored encoding
+     */
+    public synchronized ByteBuffer putFrame(Object key, ByteBuffer encoded) {
+	ByteBuffer existing = getFrame(key);
+	if (existing != null) {
+	    return existing;
+	}
+	ByteBuffer stored = encoded.asReadOnlyBuffer();
+	if (frameKey == null) {
+	    frameKey = key;
+	    frame = stored;
+	} else {
+	    if (otherFrames == null) {
+		otherFrames = new HashMap<Object, ByteBuffer>();
+	    }
+	    otherFrames.put(key, stored);
+	}
+	return stored.duplicate();
+    }
+}
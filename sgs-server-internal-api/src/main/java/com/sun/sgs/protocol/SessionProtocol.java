@@ -183,6 +183,72 @@ public interface SessionProtocol extends Channel {
 	BigInteger channelId, ByteBuffer message, Delivery delivery)
         throws IOException;
 
+    /**
+     * Sends the associated client the specified channel {@code message}
+     * in a manner that satisfies the message's delivery guarantee.  This
+     * method is equivalent to {@link #channelMessage(BigInteger,
+     * ByteBuffer, Delivery) channelMessage} with the message's channel
+     * ID, contents, and delivery guarantee, except that the same {@code
+     * message} instance may be passed to the protocols for all of the
+     * channel's local members, so the protocol can encode the message
+     * once and share the encoding among its sessions.
+     *
+     * @param	message a channel message
+     *
+     * @throws	IllegalArgumentException if the message size is greater
+     *          than {@link #getMaxMessageLength}
+     * @throws	IllegalStateException if the associated session was
+     *		requested to suspend messages (explicitly or due to
+     *		relocation) 
+     * @throws	DeliveryNotSupportedException if the message's delivery
+     *		guarantee cannot be satisfied by this protocol
+     * @throws	IOException if an I/O error occurs
+     */
+    void channelMessage(ChannelMessage message) throws IOException;
+
+    /**
+     * Returns the number of bytes of messages that have been accepted for
+     * sending to the associated client but have not yet been written to
+     * the underlying connection.
+     *
+     * @return	the number of bytes waiting to be written
+     */
+    long getPendingWriteBytes();
+
+    /**
+     * Returns the number of bytes of the messages written to the
+     * associated client, before any compression.
+     *
+     * @return	the uncompressed number of bytes written
+     */
+    long getUncompressedBytesWritten();
+
+    /**
+     * Returns the number of bytes of the messages written to the
+     * associated client, after any compression.  Messages that are not
+     * compressed count at their original size.
+     *
+     * @return	the compressed number of bytes written
+     */
+    long getCompressedBytesWritten();
+
+    /**
+     * Returns the number of bytes of the messages read from the associated
+     * client, after any decompression.
+     *
+     * @return	the uncompressed number of bytes read
+     */
+    long getUncompressedBytesRead();
+
+    /**
+     * Returns the number of bytes of the messages read from the associated
+     * client, before any decompression.  Messages that are not compressed
+     * count at their original size.
+     *
+     * @return	the compressed number of bytes read
+     */
+    long getCompressedBytesRead();
+
     /**
      * Disconnects the associated session for the specified {@code reason}.
      * The protocol may send a message to the associated client indicating
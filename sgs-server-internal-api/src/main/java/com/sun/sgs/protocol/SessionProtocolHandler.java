@@ -76,9 +76,11 @@ public interface SessionProtocolHandler {
      * position and ends at the buffer's limit.  The buffer's position is
      * not modified by this operation.
      * 
-     * <p>The {@code ByteBuffer} may be reused immediately after this method
-     * returns.  Changes made to the buffer after this method returns will
-     * have no effect on the message supplied to this method.
+     * <p>This handler takes ownership of the buffer's contents, so that the
+     * message can be delivered without being copied.  The caller must not
+     * modify the contents of the buffer after invoking this method, and
+     * should supply a read-only buffer if the contents are not otherwise
+     * protected from modification.
      *
      * @param	message a message
      * @param	completionHandler a completion handler
@@ -95,9 +97,11 @@ public interface SessionProtocolHandler {
      * current position and ends at the buffer's limit.  The buffer's position
      * is not modified by this operation.
      * 
-     * <p>The {@code ByteBuffer} may be reused immediately after this method
-     * returns.  Changes made to the buffer after this method returns will
-     * have no effect on the message supplied to this method.
+     * <p>This handler takes ownership of the buffer's contents, so that the
+     * message can be delivered without being copied.  The caller must not
+     * modify the contents of the buffer after invoking this method, and
+     * should supply a read-only buffer if the contents are not otherwise
+     * protected from modification.
      *
      * @param	channelId a channel ID
      * @param	message a message
@@ -133,7 +133,10 @@ import javax.management.JMException;
  *      name of a public, non-abstract class that implements the
  *      {@link AccessCoordinatorHandle} interface, and that provides a public
  *      constructor with the three parameters {@link Properties},
- *      {@link TransactionProxy}, and {@link ProfileCollectorHandle}.<p>
+ *      {@link TransactionProxy}, and {@link ProfileCollectorHandle}.
+ *      Specify {@link OptimisticAccessCoordinator} to use optimistic
+ *      concurrency control, which validates accesses when transactions
+ *      prepare rather than blocking on locks.<p>
  *
  * 
  * </dl>
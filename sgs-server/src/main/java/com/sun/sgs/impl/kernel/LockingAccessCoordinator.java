@@ -40,6 +40,7 @@ import com.sun.sgs.kernel.AccessCoordinator;
 import com.sun.sgs.kernel.AccessReporter;
 import com.sun.sgs.kernel.AccessReporter.AccessType;
 import com.sun.sgs.kernel.AccessedObject;
+import com.sun.sgs.kernel.LongAccessReporter;
 import com.sun.sgs.profile.AccessedObjectsDetail;
 import com.sun.sgs.profile.AccessedObjectsDetail.ConflictType;
 import com.sun.sgs.service.Transaction;
@@ -70,6 +71,16 @@ import java.util.logging.Logger;
  * not deny requests that would not result in deadlock.  When requests block,
  * it services the requests in the order that they arrive. <p>
  *
+ * Sources registered with an object ID type of {@code Long} are given
+ * reporters that implement {@link LongAccessReporter}, so that callers can
+ * report accesses without boxing object IDs.  Repeated accesses by a
+ * transaction to an object it has already locked with a {@code long} ID are
+ * satisfied from a table held by the transaction's locker, without
+ * allocating or consulting the lock manager.  The locker for the transaction
+ * most recently started on the current thread is remembered in a thread
+ * local, so that the common case of reporting accesses on the thread running
+ * the transaction does not need to look up the locker in a shared map. <p>
+ *
  * The methods that this class provides to implement {@code AccessReporter} are
  * not thread safe, and should either be called from a single thread or else
  * protected with external synchronization. <p>
@@ -97,6 +108,18 @@ import java.util.logging.Logger;
  *	number of active threads.  The value must be greater than {@code
  *	0}. <p>
  *
+ * <dt> <i>Property:</i> <b>{@value #PRIORITY_TRY_COUNT_PROPERTY}</b> <br>
+ *	<i>Default:</i> {@value #PRIORITY_TRY_COUNT_DEFAULT}
+ *
+ * <dd style="padding-top: .5em">The number of times a task must have been
+ *	tried before its transactions are given elevated lock priority.  A
+ *	transaction on try number {@code n}, where {@code n} is at least this
+ *	value, gets priority {@code n - value + 1}.  Its waiting lock requests
+ *	are queued ahead of those of lower priority transactions, and it
+ *	preempts conflicting transactions with lower priority that were
+ *	requested to start later, causing them to abort.  The value must be
+ *	greater than {@code 1}. <p>
+ *
  * </dl> <p>
  *
  * This class uses the {@link Logger} named {@code
@@ -137,6 +160,16 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
     /** The default number of key maps. */
     public static final int NUM_KEY_MAPS_DEFAULT = 8;
 
+    /**
+     * The property for specifying the number of tries after which
+     * transactions are given elevated lock priority.
+     */
+    public static final String PRIORITY_TRY_COUNT_PROPERTY =
+	CLASS + ".priority.try.count";
+
+    /** The default try count for elevated lock priority. */
+    public static final int PRIORITY_TRY_COUNT_DEFAULT = 3;
+
     /** The logger for this class. */
     static final LoggerWrapper logger = new LoggerWrapper(
 	Logger.getLogger(LockingAccessCoordinator.class.getName()));
@@ -145,9 +178,23 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
     private final ConcurrentMap<Transaction, LockerImpl> txnMap =
 	new ConcurrentHashMap<Transaction, LockerImpl>();
 
+    /**
+     * The locker for the transaction most recently started on the current
+     * thread, or {@code null}.
+     */
+    private final ThreadLocal<LockerImpl> currentLocker =
+	new ThreadLocal<LockerImpl>();
+
+    /** Maps source names to the small integer IDs used in keys. */
+    private final Map<String, Integer> sourceIds =
+	new HashMap<String, Integer>();
+
     /** The lock manager. */
     private final TxnLockManager<Key> lockManager;
 
+    /** The try count at which transactions get elevated lock priority. */
+    private final int priorityTryCount;
+
     /* -- Public constructor -- */
 
     /**
@@ -175,13 +222,17 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 	    LOCK_TIMEOUT_PROPERTY, defaultLockTimeout, 1, Long.MAX_VALUE);
 	int numKeyMaps = wrappedProps.getIntProperty(
 	    NUM_KEY_MAPS_PROPERTY, NUM_KEY_MAPS_DEFAULT, 1, Integer.MAX_VALUE);
+	priorityTryCount = wrappedProps.getIntProperty(
+	    PRIORITY_TRY_COUNT_PROPERTY, PRIORITY_TRY_COUNT_DEFAULT,
+	    2, Integer.MAX_VALUE);
 	lockManager = new TxnLockManager<Key>(lockTimeout, numKeyMaps);
 	if (logger.isLoggable(CONFIG)) {
 	    logger.log(CONFIG,
 		       "Created LockingAccessCoordinator with properties:" +
 		       "\n  txn timeout: " + txnTimeout +
 		       "\n  lock timeout: " + lockTimeout +
-		       "\n  num key maps: " + numKeyMaps);
+		       "\n  num key maps: " + numKeyMaps +
+		       "\n  priority try count: " + priorityTryCount);
 	}
     }
 
@@ -192,7 +243,15 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 	String sourceName, Class<T> objectIdType)
     {
 	checkNull("objectIdType", objectIdType);
-	return new AccessReporterImpl<T>(sourceName);
+	checkNull("sourceName", sourceName);
+	int sourceId = internSource(sourceName);
+	if (objectIdType == Long.class) {
+	    @SuppressWarnings("unchecked")
+	    AccessReporter<T> result = (AccessReporter<T>)
+		new LongAccessReporterImpl(sourceName, sourceId);
+	    return result;
+	}
+	return new AccessReporterImpl<T>(sourceName, sourceId);
     }
 
     /**
@@ -216,17 +275,20 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 	    throw new IllegalArgumentException(
 		"The tryCount must not be less than 1");
 	}
+	int priority = (tryCount < priorityTryCount)
+	    ? 0 : tryCount - priorityTryCount + 1;
 	LockerImpl locker =
-	    new LockerImpl(lockManager, txn, requestedStartTime);
+	    new LockerImpl(lockManager, txn, requestedStartTime, priority);
 	LockerImpl existing = txnMap.putIfAbsent(txn, locker);
 	if (existing != null) {
 	    throw new IllegalStateException("Transaction already started");
 	}
+	currentLocker.set(locker);
 	if (logger.isLoggable(FINER)) {
 	    logger.log(FINER, "begin {0}, requestedStartTime:{1,number,#}",
 		       locker, requestedStartTime);
 	}
-	txn.registerListener(new TxnListener(txn));
+	txn.registerListener(new TxnListener(locker));
     }
 
     /* -- Other methods -- */
@@ -240,7 +302,11 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
      */
     LockerImpl getLocker(Transaction txn) {
 	checkNull("txn", txn);
-	LockerImpl locker = txnMap.get(txn);
+	LockerImpl locker = currentLocker.get();
+	if (locker != null && locker.getTransaction() == txn && !locker.released) {
+	    return locker;
+	}
+	locker = txnMap.get(txn);
 	if (locker == null) {
 	    throw new IllegalArgumentException(
 		"Transaction not active: " + txn);
@@ -248,17 +314,36 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 	return locker;
     }
 
+    /**
+     * Returns the integer ID for the source with the specified name,
+     * assigning a new one if needed.
+     *
+     * @param	sourceName the source name
+     * @return	the source ID
+     */
+    private synchronized int internSource(String sourceName) {
+	Integer id = sourceIds.get(sourceName);
+	if (id == null) {
+	    id = sourceIds.size();
+	    sourceIds.put(sourceName, id);
+	}
+	return id;
+    }
+
     /**
      * Releases the locks for the transaction and reports object accesses to
      * the profiling system.
      *
-     * @param	txn the finished transaction
+     * @param	locker the locker for the finished transaction
      */
-    private void endTransaction(Transaction txn) {
-	LockerImpl locker = getLocker(txn);
+    private void endTransaction(LockerImpl locker) {
 	logger.log(FINER, "end {0}", locker);
+	locker.released = true;
+	if (currentLocker.get() == locker) {
+	    currentLocker.remove();
+	}
 	locker.releaseAll();
-	txnMap.remove(txn);
+	txnMap.remove(locker.getTransaction());
 	profileCollectorHandle.setAccessedObjectsDetail(locker);
     }
 
@@ -278,6 +363,18 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 	/** A map from keys to descriptions, or {@code null}. */
 	private Map<Key, Object> keyToDescriptionMap = null;
 
+	/**
+	 * The locks granted to this locker for keys with {@code long}
+	 * object IDs, or {@code null}.
+	 */
+	private LongKeyLocks longKeyLocks = null;
+
+	/**
+	 * Whether the transaction has ended and its locks are being
+	 * released.
+	 */
+	volatile boolean released = false;
+
 	/**
 	 * Whether the transaction has ended.  Used when assertions are enabled
 	 * to check the thread safety of accesses to the requests field.
@@ -294,14 +391,16 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 	 * @param	requestedStartTime the time milliseconds that the task
 	 *		associated with the transaction was originally
 	 *		requested to start
+	 * @param	priority the priority of the locker's lock requests
 	 * @throws	IllegalArgumentException if {@code requestedStartTime}
-	 *		is less than {@code 0}
+	 *		or {@code priority} is less than {@code 0}
 	 */
 	LockerImpl(TxnLockManager<Key> lockManager,
 		   Transaction txn,
-		   long requestedStartTime)
+		   long requestedStartTime,
+		   int priority)
 	{
-	    super(lockManager, txn, requestedStartTime);
+	    super(lockManager, txn, requestedStartTime, priority);
 	}
 
 	/**
@@ -404,6 +503,38 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 		? null : keyToDescriptionMap.get(key);
 	}
 
+	/**
+	 * Checks if this locker already holds a lock that satisfies a request
+	 * for the key with the specified source and {@code long} object ID.
+	 * Returns {@code false} if the locker has a conflict, so that the lock
+	 * manager can report or clear it.
+	 *
+	 * @param	sourceId the source ID
+	 * @param	objectId the object ID
+	 * @param	forWrite whether a write lock is needed
+	 * @return	whether a suitable lock is already held
+	 */
+	boolean holdsLock(int sourceId, long objectId, boolean forWrite) {
+	    return longKeyLocks != null &&
+		longKeyLocks.holds(sourceId, objectId, forWrite) &&
+		getConflict() == null;
+	}
+
+	/**
+	 * Notes that a lock was granted for a key with a {@code long} object
+	 * ID.
+	 *
+	 * @param	key the key
+	 * @param	forWrite whether a write lock was granted
+	 */
+	void noteLockGranted(Key key, boolean forWrite) {
+	    assert key.objectId == null;
+	    if (longKeyLocks == null) {
+		longKeyLocks = new LongKeyLocks();
+	    }
+	    longKeyLocks.add(key.sourceId, key.longId, forWrite);
+	}
+
 	/**
 	 * Sets the specified conflict if this locker does not have a conflict
 	 * set.
@@ -467,7 +598,7 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 
 	/** {@inheritDoc} */
 	public Object getObjectId() {
-	    return getKey().objectId;
+	    return getKey().getObjectId();
 	}
 
 	/** {@inheritDoc} */
@@ -517,26 +648,69 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 	}
     }
 
-    /** Represents an object as identified by a source and an object ID. */
+    /**
+     * Represents an object as identified by a source and an object ID.  Keys
+     * compare sources by their interned IDs, and store {@code Long} object
+     * IDs as primitives.
+     */
     private static final class Key {
 
+	/** The interned source ID. */
+	final int sourceId;
+
 	/** The source. */
 	final String source;
 
-	/** The object ID. */
+	/**
+	 * The object ID, or {@code null} if the object ID is a {@code long}
+	 * stored in {@link #longId}.
+	 */
 	final Object objectId;
 
+	/** The object ID if {@link #objectId} is {@code null}. */
+	final long longId;
+
 	/**
 	 * Creates an instance of this class.
 	 *
+	 * @param	sourceId the interned ID of the source
 	 * @param	source the source of the object
 	 * @param	objectId the object ID of the object
 	 */
-	Key(String source, Object objectId) {
-	    checkNull("source", source);
+	Key(int sourceId, String source, Object objectId) {
 	    checkNull("objectId", objectId);
+	    this.sourceId = sourceId;
 	    this.source = source;
-	    this.objectId = objectId;
+	    if (objectId instanceof Long) {
+		this.objectId = null;
+		longId = (Long) objectId;
+	    } else {
+		this.objectId = objectId;
+		longId = 0;
+	    }
+	}
+
+	/**
+	 * Creates an instance of this class for a {@code long} object ID.
+	 *
+	 * @param	sourceId the interned ID of the source
+	 * @param	source the source of the object
+	 * @param	objectId the object ID of the object
+	 */
+	Key(int sourceId, String source, long objectId) {
+	    this.sourceId = sourceId;
+	    this.source = source;
+	    this.objectId = null;
+	    longId = objectId;
+	}
+
+	/**
+	 * Returns the object ID, boxing it if it is a {@code long}.
+	 *
+	 * @return	the object ID
+	 */
+	Object getObjectId() {
+	    return (objectId != null) ? objectId : Long.valueOf(longId);
 	}
 
 	/* -- Compare source and object ID -- */
@@ -547,8 +721,13 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 		return true;
 	    } else if (object instanceof Key) {
 		Key key = (Key) object;
-		return source.equals(key.source) &&
-		    objectId.equals(key.objectId);
+		if (sourceId != key.sourceId) {
+		    return false;
+		} else if (objectId == null) {
+		    return key.objectId == null && longId == key.longId;
+		} else {
+		    return objectId.equals(key.objectId);
+		}
 	    } else {
 		return false;
 	    }
@@ -556,27 +735,139 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 
 	@Override
 	public int hashCode() {
-	    return source.hashCode() ^ objectId.hashCode();
+	    int objectHash = (objectId != null)
+		? objectId.hashCode() : (int) (longId ^ (longId >>> 32));
+	    return (sourceId * 0x9E3779B9) ^ objectHash;
 	}
 
 	/** Print fields, for debugging. */
 	@Override
 	public String toString() {
-	    return source + ":" + objectId;
+	    return source + ":" + getObjectId();
+	}
+    }
+
+    /**
+     * An open addressing hash table recording the strongest lock a locker
+     * holds for keys with {@code long} object IDs.  Instances are only used
+     * by the thread reporting accesses for a transaction, and are not
+     * synchronized.
+     */
+    private static final class LongKeyLocks {
+
+	/** The initial table size, which must be a power of two. */
+	private static final int INITIAL_SIZE = 16;
+
+	/** The value of {@link #modes} for an empty slot. */
+	private static final byte NONE = 0;
+
+	/** The value of {@link #modes} for a read lock. */
+	private static final byte READ = 1;
+
+	/** The value of {@link #modes} for a write lock. */
+	private static final byte WRITE = 2;
+
+	/** The source IDs. */
+	private int[] sourceIds = new int[INITIAL_SIZE];
+
+	/** The object IDs. */
+	private long[] objectIds = new long[INITIAL_SIZE];
+
+	/** The lock modes. */
+	private byte[] modes = new byte[INITIAL_SIZE];
+
+	/** The number of slots in use. */
+	private int size = 0;
+
+	/** Creates an instance of this class. */
+	LongKeyLocks() { }
+
+	/**
+	 * Returns whether a lock is held that satisfies the request.
+	 *
+	 * @param	sourceId the source ID
+	 * @param	objectId the object ID
+	 * @param	forWrite whether a write lock is needed
+	 * @return	whether a suitable lock is held
+	 */
+	boolean holds(int sourceId, long objectId, boolean forWrite) {
+	    byte mode = modes[find(sourceId, objectId)];
+	    return mode == WRITE || (mode == READ && !forWrite);
+	}
+
+	/**
+	 * Records that a lock was granted.
+	 *
+	 * @param	sourceId the source ID
+	 * @param	objectId the object ID
+	 * @param	forWrite whether a write lock was granted
+	 */
+	void add(int sourceId, long objectId, boolean forWrite) {
+	    int i = find(sourceId, objectId);
+	    if (modes[i] == NONE) {
+		sourceIds[i] = sourceId;
+		objectIds[i] = objectId;
+		modes[i] = forWrite ? WRITE : READ;
+		if (++size * 2 > modes.length) {
+		    resize();
+		}
+	    } else if (forWrite) {
+		modes[i] = WRITE;
+	    }
+	}
+
+	/**
+	 * Returns the index of the slot for the key, or the empty slot where
+	 * it should be added.
+	 */
+	private int find(int sourceId, long objectId) {
+	    int mask = modes.length - 1;
+	    long hash = (objectId + sourceId) * 0x9E3779B97F4A7C15L;
+	    int i = (int) (hash ^ (hash >>> 32)) & mask;
+	    while (modes[i] != NONE &&
+		   (objectIds[i] != objectId || sourceIds[i] != sourceId))
+	    {
+		i = (i + 1) & mask;
+	    }
+	    return i;
+	}
+
+	/** Doubles the size of the table. */
+	private void resize() {
+	    int[] oldSourceIds = sourceIds;
+	    long[] oldObjectIds = objectIds;
+	    byte[] oldModes = modes;
+	    int newSize = oldModes.length * 2;
+	    sourceIds = new int[newSize];
+	    objectIds = new long[newSize];
+	    modes = new byte[newSize];
+	    for (int j = 0; j < oldModes.length; j++) {
+		if (oldModes[j] != NONE) {
+		    int i = find(oldSourceIds[j], oldObjectIds[j]);
+		    sourceIds[i] = oldSourceIds[j];
+		    objectIds[i] = oldObjectIds[j];
+		    modes[i] = oldModes[j];
+		}
+	    }
 	}
     }
 
     /** Implement {@link AccessReporter}. */
     private class AccessReporterImpl<T> extends AbstractAccessReporter<T> {
 
+	/** The interned ID of the source. */
+	final int sourceId;
+
 	/**
 	 * Creates an instance of this class.
 	 *
 	 * @param	source the source of the objects managed by this
 	 *		reporter
+	 * @param	sourceId the interned ID of the source
 	 */
-	AccessReporterImpl(String source) {
+	AccessReporterImpl(String source, int sourceId) {
 	    super(source);
+	    this.sourceId = sourceId;
 	}
 
 	/* -- Implement AccessReporter -- */
@@ -587,56 +878,15 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 	{
 	    checkNull("type", type);
 	    LockerImpl locker = getLocker(txn);
-	    Key key = new Key(source, objectId);
+	    if (description == null && objectId instanceof Long) {
+		reportLongAccess(locker, (Long) objectId, type);
+		return;
+	    }
+	    Key key = new Key(sourceId, source, objectId);
 	    if (description != null) {
 		locker.setDescription(key, description);
 	    }
-	    LockConflict<Key> conflict =
-		lockManager.lock(locker, key, type == AccessType.WRITE);
-	    if (conflict != null) {
-		locker.setConflictIfNeeded(conflict);
-		String descriptionMsg = "";
-		if (description != null) {
-		    try {
-			descriptionMsg = ", description:" + description;
-		    } catch (RuntimeException e) {
-		    }
-		}
-		String accessMsg = "Access txn:" + txn +
-		    ", type:" + type +
-		    ", source:" + source +
-		    ", objectId:" + objectId +
-		    descriptionMsg +
-		    " failed: ";
-		LockerImpl conflictingLocker =
-		    (LockerImpl) conflict.getConflictingLocker();
-		String conflictMsg = ", with conflicting transaction " +
-		    conflictingLocker.getTransaction();
-		TransactionAbortedException exception;
-		switch (conflict.getType()) {
-		case TIMEOUT:
-		    exception = new TransactionTimeoutException(
-			accessMsg + "Transaction timed out" + conflictMsg);
-		    break;
-		case DENIED:
-		    exception = new TransactionConflictException(
-			accessMsg + "Access denied" + conflictMsg);
-		    break;
-		case INTERRUPTED:
-		    exception = new TransactionInterruptedException(
-			accessMsg + "Transaction interrupted" + conflictMsg);
-		    break;
-		case DEADLOCK:
-		    exception = new TransactionConflictException(
-			accessMsg + "Transaction deadlock" + conflictMsg);
-		    break;
-		default:
-		    throw new AssertionError(
-			"Should not be " + conflict.getType());
-		}
-		txn.abort(exception);
-		throw exception;
-	    }
+	    lock(locker, key, type, description);
 	}
 
 	/** {@inheritDoc} */
@@ -647,8 +897,129 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 	    if (description == null) {
 		checkNull("objectId", objectId);
 	    } else {
-		locker.setDescription(new Key(source, objectId), description);
+		locker.setDescription(
+		    new Key(sourceId, source, objectId), description);
+	    }
+	}
+
+	/* -- Other methods -- */
+
+	/**
+	 * Reports an access to an object with a {@code long} object ID and no
+	 * description, skipping the lock manager if the locker already holds
+	 * a suitable lock.
+	 *
+	 * @param	locker the locker
+	 * @param	objectId the object ID
+	 * @param	type the access type
+	 */
+	void reportLongAccess(
+	    LockerImpl locker, long objectId, AccessType type)
+	{
+	    boolean forWrite = (type == AccessType.WRITE);
+	    if (!locker.holdsLock(sourceId, objectId, forWrite)) {
+		lock(locker, new Key(sourceId, source, objectId), type, null);
+	    }
+	}
+
+	/**
+	 * Obtains a lock for the locker, aborting the transaction and
+	 * throwing an exception if the lock is not granted.
+	 *
+	 * @param	locker the locker
+	 * @param	key the key
+	 * @param	type the access type
+	 * @param	description the description or {@code null}
+	 * @throws	TransactionAbortedException if the lock is not granted
+	 */
+	private void lock(LockerImpl locker,
+			  Key key,
+			  AccessType type,
+			  Object description)
+	{
+	    boolean forWrite = (type == AccessType.WRITE);
+	    LockConflict<Key> conflict =
+		lockManager.lock(locker, key, forWrite);
+	    if (conflict == null) {
+		if (key.objectId == null) {
+		    locker.noteLockGranted(key, forWrite);
+		}
+		return;
+	    }
+	    Transaction txn = locker.getTransaction();
+	    locker.setConflictIfNeeded(conflict);
+	    String descriptionMsg = "";
+	    if (description != null) {
+		try {
+		    descriptionMsg = ", description:" + description;
+		} catch (RuntimeException e) {
+		}
+	    }
+	    String accessMsg = "Access txn:" + txn +
+		", type:" + type +
+		", source:" + source +
+		", objectId:" + key.getObjectId() +
+		descriptionMsg +
+		" failed: ";
+	    LockerImpl conflictingLocker =
+		(LockerImpl) conflict.getConflictingLocker();
+	    String conflictMsg = ", with conflicting transaction " +
+		conflictingLocker.getTransaction();
+	    TransactionAbortedException exception;
+	    switch (conflict.getType()) {
+	    case TIMEOUT:
+		exception = new TransactionTimeoutException(
+		    accessMsg + "Transaction timed out" + conflictMsg);
+		break;
+	    case DENIED:
+		exception = new TransactionConflictException(
+		    accessMsg + "Access denied" + conflictMsg);
+		break;
+	    case INTERRUPTED:
+		exception = new TransactionInterruptedException(
+		    accessMsg + "Transaction interrupted" + conflictMsg);
+		break;
+	    case DEADLOCK:
+		exception = new TransactionConflictException(
+		    accessMsg + "Transaction deadlock" + conflictMsg);
+		break;
+	    case PREEMPTED:
+		exception = new TransactionConflictException(
+		    accessMsg + "Transaction preempted" + conflictMsg);
+		break;
+	    default:
+		throw new AssertionError(
+		    "Should not be " + conflict.getType());
 	    }
+	    txn.abort(exception);
+	    throw exception;
+	}
+    }
+
+    /**
+     * Implement {@link LongAccessReporter}, for sources with {@code Long}
+     * object IDs.
+     */
+    private class LongAccessReporterImpl extends AccessReporterImpl<Long>
+	implements LongAccessReporter
+    {
+	/**
+	 * Creates an instance of this class.
+	 *
+	 * @param	source the source of the objects managed by this
+	 *		reporter
+	 * @param	sourceId the interned ID of the source
+	 */
+	LongAccessReporterImpl(String source, int sourceId) {
+	    super(source, sourceId);
+	}
+
+	/** {@inheritDoc} */
+	public void reportObjectAccess(
+	    Transaction txn, long objectId, AccessType type)
+	{
+	    checkNull("type", type);
+	    reportLongAccess(getLocker(txn), objectId, type);
 	}
     }
 
@@ -660,16 +1031,16 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
      */
     private class TxnListener implements TransactionListener {
 
-	/** The transaction. */
-	private final Transaction txn;
+	/** The locker for the transaction. */
+	private final LockerImpl locker;
 
 	/**
 	 * Creates an instance of this class.
 	 *
-	 * @param	txn the transaction we're listening for
+	 * @param	locker the locker for the transaction we're listening for
 	 */
-	TxnListener(Transaction txn) {
-	    this.txn = txn;
+	TxnListener(LockerImpl locker) {
+	    this.locker = locker;
 	}
 
 	/**
@@ -685,7 +1056,7 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 	 * This implementation calls {@link #endTransaction}.
 	 */
 	public void afterCompletion(boolean committed) {
-	    endTransaction(txn);
+	    endTransaction(locker);
 	}
 
         /** {@inheritDoc} */
@@ -0,0 +1,697 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.kernel;
+
+import com.sun.sgs.app.TransactionConflictException;
+import com.sun.sgs.impl.profile.ProfileCollectorHandle;
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import static com.sun.sgs.impl.sharedutil.Objects.checkNull;
+import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
+import com.sun.sgs.kernel.AccessCoordinator;
+import com.sun.sgs.kernel.AccessReporter;
+import com.sun.sgs.kernel.AccessReporter.AccessType;
+import com.sun.sgs.kernel.AccessedObject;
+import com.sun.sgs.profile.AccessedObjectsDetail;
+import com.sun.sgs.profile.AccessedObjectsDetail.ConflictType;
+import com.sun.sgs.service.NonDurableTransactionParticipant;
+import com.sun.sgs.service.Transaction;
+import com.sun.sgs.service.TransactionListener;
+import com.sun.sgs.service.TransactionProxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import static java.util.logging.Level.CONFIG;
+import static java.util.logging.Level.FINER;
+import java.util.logging.Logger;
+
+/**
+ * An implementation of {@link AccessCoordinator} that uses optimistic
+ * concurrency control to handle conflicts. <p>
+ *
+ * This implementation never blocks when an access is reported.  Instead, it
+ * records the version of each object that a transaction reads or writes, and
+ * validates those versions when the transaction is prepared.  Versions are
+ * maintained for a fixed number of stripes, with each object assigned to a
+ * stripe by the hash code of its source and object ID, so the memory used
+ * does not grow with the number of objects.  Objects that share a stripe
+ * are treated as the same object for the purposes of conflict detection. <p>
+ *
+ * When a transaction prepares, it first claims the stripes for the objects
+ * it has written, and then checks that none of the stripes it has accessed
+ * have been changed or claimed by another transaction since they were first
+ * accessed.  If either step fails, the transaction is aborted with a {@link
+ * TransactionConflictException}; otherwise the first transaction to prepare
+ * wins.  Claimed stripes are released, with their versions incremented if
+ * the transaction committed, after all of the transaction participants have
+ * finished their work.  A transaction that accesses an object that has
+ * already been changed by another transaction since it first accessed it
+ * is aborted immediately, rather than waiting until prepare. <p>
+ *
+ * The methods that this class provides to implement {@code AccessReporter} are
+ * not thread safe, and should either be called from a single thread or else
+ * protected with external synchronization. <p>
+ *
+ * The {@link #OptimisticAccessCoordinator constructor} supports the following
+ * configuration properties: <p>
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <b>{@value #NUM_STRIPES_PROPERTY}</b> <br>
+ *	<i>Default:</i> {@value #NUM_STRIPES_DEFAULT}
+ *
+ * <dd style="padding-top: .5em">The number of stripes to use for tracking
+ *	object versions.  The value is rounded up to a power of two.  Larger
+ *	values reduce the number of false conflicts between transactions that
+ *	access different objects assigned to the same stripe.  The value must
+ *	be greater than {@code 0}. <p>
+ *
+ * </dl> <p>
+ *
+ * This class uses the {@link Logger} named {@code
+ * com.sun.sgs.impl.kernel.OptimisticAccessCoordinator} to log information at
+ * the following logging levels: <p>
+ *
+ * <ul>
+ * <li> {@link Level#CONFIG CONFIG} - Creating an instance
+ * <li> {@link Level#FINER FINER} - Beginning and ending transactions, failed
+ *	validations
+ * </ul>
+ */
+public class OptimisticAccessCoordinator extends AbstractAccessCoordinator {
+
+    /** The class name. */
+    private static final String CLASS =
+	"com.sun.sgs.impl.kernel.OptimisticAccessCoordinator";
+
+    /** The property for specifying the number of version stripes. */
+    public static final String NUM_STRIPES_PROPERTY = CLASS + ".num.stripes";
+
+    /** The default number of version stripes. */
+    public static final int NUM_STRIPES_DEFAULT = 65536;
+
+    /** The logger for this class. */
+    static final LoggerWrapper logger = new LoggerWrapper(
+	Logger.getLogger(OptimisticAccessCoordinator.class.getName()));
+
+    /** Maps transactions to their access information. */
+    private final ConcurrentMap<Transaction, TxnInfo> txnMap =
+	new ConcurrentHashMap<Transaction, TxnInfo>();
+
+    /**
+     * The version of each stripe, shifted left by one, with the low bit set
+     * if the stripe has been claimed by a preparing transaction.
+     */
+    private final AtomicLongArray stripes;
+
+    /**
+     * The ID of the transaction that most recently claimed each stripe, or
+     * {@code null}, for reporting conflicts.
+     */
+    private final AtomicReferenceArray<byte[]> lastClaimers;
+
+    /** The mask for computing the stripe for a hash code. */
+    private final int stripeMask;
+
+    /* -- Public constructor -- */
+
+    /**
+     * Creates an instance of this class.
+     *
+     * @param	properties the configuration properties
+     * @param	txnProxy the transaction proxy
+     * @param	profileCollectorHandle the profile collector handle
+     * @throws	IllegalArgumentException if the values of the configuration
+     *		properties are illegal
+     */
+    public OptimisticAccessCoordinator(
+	Properties properties,
+	TransactionProxy txnProxy,
+	ProfileCollectorHandle profileCollectorHandle)
+    {
+	super(txnProxy, profileCollectorHandle);
+	PropertiesWrapper wrappedProps = new PropertiesWrapper(properties);
+	int requestedStripes = wrappedProps.getIntProperty(
+	    NUM_STRIPES_PROPERTY, NUM_STRIPES_DEFAULT, 1, 1 << 30);
+	int numStripes = 1;
+	while (numStripes < requestedStripes) {
+	    numStripes <<= 1;
+	}
+	stripes = new AtomicLongArray(numStripes);
+	lastClaimers = new AtomicReferenceArray<byte[]>(numStripes);
+	stripeMask = numStripes - 1;
+	if (logger.isLoggable(CONFIG)) {
+	    logger.log(CONFIG,
+		       "Created OptimisticAccessCoordinator with properties:" +
+		       "\n  num stripes: " + numStripes);
+	}
+    }
+
+    /* -- Implement AccessCoordinator -- */
+
+    /** {@inheritDoc} */
+    public <T> AccessReporter<T> registerAccessSource(
+	String sourceName, Class<T> objectIdType)
+    {
+	checkNull("objectIdType", objectIdType);
+	return new AccessReporterImpl<T>(sourceName);
+    }
+
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation does not record information about completed
+     * transactions, so it always returns {@code null}.
+     */
+    public Transaction getConflictingTransaction(Transaction txn) {
+	checkNull("txn", txn);
+	return null;
+    }
+
+    /* -- Implement AccessCoordinatorHandle -- */
+
+    /** {@inheritDoc} */
+    public void notifyNewTransaction(
+	Transaction txn, long requestedStartTime, int tryCount)
+    {
+	checkNull("txn", txn);
+	if (requestedStartTime < 0) {
+	    throw new IllegalArgumentException(
+		"The requestedStartTime must not be less than 0");
+	} else if (tryCount < 1) {
+	    throw new IllegalArgumentException(
+		"The tryCount must not be less than 1");
+	}
+	TxnInfo info = new TxnInfo(txn);
+	TxnInfo existing = txnMap.putIfAbsent(txn, info);
+	if (existing != null) {
+	    throw new IllegalStateException("Transaction already started");
+	}
+	if (logger.isLoggable(FINER)) {
+	    logger.log(FINER, "begin {0}, requestedStartTime:{1,number,#}",
+		       txn, requestedStartTime);
+	}
+	boolean done = false;
+	try {
+	    TxnHandler handler = new TxnHandler(info);
+	    txn.join(handler);
+	    txn.registerListener(handler);
+	    done = true;
+	} finally {
+	    if (!done) {
+		txnMap.remove(txn);
+	    }
+	}
+    }
+
+    /* -- Other methods -- */
+
+    /**
+     * Returns the access information associated with a transaction.
+     *
+     * @param	txn the transaction
+     * @return	the access information
+     * @throws	IllegalArgumentException if the transaction is not active
+     */
+    TxnInfo getTxnInfo(Transaction txn) {
+	checkNull("txn", txn);
+	TxnInfo info = txnMap.get(txn);
+	if (info == null) {
+	    throw new IllegalArgumentException(
+		"Transaction not active: " + txn);
+	}
+	return info;
+    }
+
+    /** Returns the stripe for the specified key. */
+    private int getStripe(Key key) {
+	int h = key.hashCode();
+	h ^= (h >>> 20) ^ (h >>> 12);
+	h ^= (h >>> 7) ^ (h >>> 4);
+	return h & stripeMask;
+    }
+
+    /**
+     * Validates the accesses made by a transaction, claiming the stripes for
+     * the objects it has written.
+     *
+     * @param	info the access information for the transaction
+     * @throws	TransactionConflictException if another transaction has
+     *		changed or claimed any of the objects accessed
+     */
+    private void validate(TxnInfo info) {
+	for (KeyState state : info.keyStates.values()) {
+	    if (state.forWrite && !claim(info, state.stripe, state.version)) {
+		throw conflict(info, state.key, state.stripe);
+	    }
+	}
+	for (KeyState state : info.keyStates.values()) {
+	    Long claimed = info.claimed.get(state.stripe);
+	    if (claimed != null) {
+		if (claimed != state.version) {
+		    throw conflict(info, state.key, state.stripe);
+		}
+	    } else if (stripes.get(state.stripe) != state.version << 1) {
+		throw conflict(info, state.key, state.stripe);
+	    }
+	}
+    }
+
+    /**
+     * Claims a stripe for a transaction, if the stripe still has the
+     * specified version, returning whether the stripe was claimed.
+     */
+    private boolean claim(TxnInfo info, int stripe, long version) {
+	Long claimed = info.claimed.get(stripe);
+	if (claimed != null) {
+	    return claimed == version;
+	} else if (stripes.compareAndSet(
+		       stripe, version << 1, (version << 1) | 1))
+	{
+	    info.claimed.put(stripe, version);
+	    lastClaimers.set(stripe, info.txn.getId());
+	    return true;
+	} else {
+	    return false;
+	}
+    }
+
+    /**
+     * Releases the stripes claimed by a transaction and reports object
+     * accesses to the profiling system.
+     *
+     * @param	info the access information for the finished transaction
+     * @param	committed whether the transaction committed
+     */
+    private void endTransaction(TxnInfo info, boolean committed) {
+	logger.log(FINER, "end {0}, committed:{1}", info.txn, committed);
+	for (Map.Entry<Integer, Long> entry : info.claimed.entrySet()) {
+	    long version = entry.getValue();
+	    stripes.set(entry.getKey(),
+			(committed ? version + 1 : version) << 1);
+	}
+	info.claimed.clear();
+	txnMap.remove(info.txn);
+	profileCollectorHandle.setAccessedObjectsDetail(info);
+    }
+
+    /**
+     * Records a conflict for the specified transaction and key, and returns
+     * the exception to throw.
+     */
+    private TransactionConflictException conflict(
+	TxnInfo info, Key key, int stripe)
+    {
+	byte[] conflictingId = lastClaimers.get(stripe);
+	info.setConflict(conflictingId);
+	String msg = "Access txn:" + info.txn +
+	    ", source:" + key.source +
+	    ", objectId:" + key.objectId +
+	    " failed: Object was modified by another transaction";
+	logger.log(FINER, msg);
+	return new TransactionConflictException(msg);
+    }
+
+    /* -- Other classes -- */
+
+    /**
+     * Records the accesses made by a transaction and implements {@link
+     * AccessedObjectsDetail} to report them.
+     */
+    private static final class TxnInfo implements AccessedObjectsDetail {
+
+	/** The transaction. */
+	final Transaction txn;
+
+	/** The accesses made by this transaction, in order. */
+	private final List<AccessedObject> accesses =
+	    new ArrayList<AccessedObject>();
+
+	/** Maps accessed keys to their versions and access modes. */
+	final Map<Key, KeyState> keyStates = new HashMap<Key, KeyState>();
+
+	/** Maps the stripes claimed by this transaction to their versions. */
+	final Map<Integer, Long> claimed = new HashMap<Integer, Long>();
+
+	/** A map from keys to descriptions, or {@code null}. */
+	private Map<Key, Object> keyToDescriptionMap = null;
+
+	/** Whether a conflict was detected. */
+	private boolean conflict = false;
+
+	/** The ID of the conflicting transaction, or {@code null}. */
+	private byte[] conflictingId = null;
+
+	/**
+	 * Creates an instance of this class.
+	 *
+	 * @param	txn the transaction
+	 */
+	TxnInfo(Transaction txn) {
+	    this.txn = txn;
+	}
+
+	/**
+	 * Records an access to a key, returning the existing state for the
+	 * key or {@code null} if this is the first access.
+	 */
+	KeyState noteAccess(Key key, boolean forWrite, int stripe,
+			    long version)
+	{
+	    KeyState state = keyStates.get(key);
+	    if (state == null) {
+		keyStates.put(key, new KeyState(key, stripe, version, forWrite));
+		accesses.add(new AccessedObjectImpl(this, key, forWrite));
+	    } else if (forWrite && !state.forWrite) {
+		state.forWrite = true;
+		accesses.add(new AccessedObjectImpl(this, key, true));
+	    }
+	    return state;
+	}
+
+	/**
+	 * Sets the description associated with a key.  The description should
+	 * not be {@code null}.  Does not replace an existing description.
+	 */
+	void setDescription(Key key, Object description) {
+	    assert description != null;
+	    if (keyToDescriptionMap == null) {
+		keyToDescriptionMap = new HashMap<Key, Object>();
+	    }
+	    if (!keyToDescriptionMap.containsKey(key)) {
+		keyToDescriptionMap.put(key, description);
+	    }
+	}
+
+	/** Returns the description associated with a key or {@code null}. */
+	Object getDescription(Key key) {
+	    return (keyToDescriptionMap == null)
+		? null : keyToDescriptionMap.get(key);
+	}
+
+	/** Records a conflict if one has not already been recorded. */
+	synchronized void setConflict(byte[] conflictingId) {
+	    if (!conflict) {
+		conflict = true;
+		this.conflictingId = conflictingId;
+	    }
+	}
+
+	/* -- Implement AccessedObjectsDetail -- */
+
+	/** {@inheritDoc} */
+	public List<AccessedObject> getAccessedObjects() {
+	    return Collections.unmodifiableList(accesses);
+	}
+
+	/** {@inheritDoc} */
+	public synchronized ConflictType getConflictType() {
+	    return conflict ? ConflictType.ACCESS_NOT_GRANTED
+		: ConflictType.NONE;
+	}
+
+	/** {@inheritDoc} */
+	public synchronized byte[] getConflictingId() {
+	    return conflictingId;
+	}
+    }
+
+    /** The version and access mode recorded for an accessed key. */
+    private static final class KeyState {
+
+	/** The key. */
+	final Key key;
+
+	/** The stripe for the key. */
+	final int stripe;
+
+	/** The version of the stripe when the key was first accessed. */
+	final long version;
+
+	/** Whether the key has been accessed for write. */
+	boolean forWrite;
+
+	KeyState(Key key, int stripe, long version, boolean forWrite) {
+	    this.key = key;
+	    this.stripe = stripe;
+	    this.version = version;
+	    this.forWrite = forWrite;
+	}
+    }
+
+    /** Implement {@code AccessedObject}. */
+    private static final class AccessedObjectImpl implements AccessedObject {
+
+	/** The access information for the transaction. */
+	private final TxnInfo info;
+
+	/** The key. */
+	private final Key key;
+
+	/** Whether the access was for write. */
+	private final boolean forWrite;
+
+	AccessedObjectImpl(TxnInfo info, Key key, boolean forWrite) {
+	    this.info = info;
+	    this.key = key;
+	    this.forWrite = forWrite;
+	}
+
+	/* -- Implement AccessedObject -- */
+
+	/** {@inheritDoc} */
+	public String getSource() {
+	    return key.source;
+	}
+
+	/** {@inheritDoc} */
+	public Object getObjectId() {
+	    return key.objectId;
+	}
+
+	/** {@inheritDoc} */
+	public AccessType getAccessType() {
+	    return forWrite ? AccessType.WRITE : AccessType.READ;
+	}
+
+	/** {@inheritDoc} */
+	public Object getDescription() {
+	    return info.getDescription(key);
+	}
+
+	/** Print fields, for debugging. */
+	@Override
+	public String toString() {
+	    return "AccessedObjectImpl[" + info.txn + ", " + key + ", " +
+		(forWrite ? "WRITE" : "READ") + "]";
+	}
+    }
+
+    /** Represents an object as identified by a source and an object ID. */
+    private static final class Key {
+
+	/** The source. */
+	final String source;
+
+	/** The object ID. */
+	final Object objectId;
+
+	/**
+	 * Creates an instance of this class.
+	 *
+	 * @param	source the source of the object
+	 * @param	objectId the object ID of the object
+	 */
+	Key(String source, Object objectId) {
+	    checkNull("source", source);
+	    checkNull("objectId", objectId);
+	    this.source = source;
+	    this.objectId = objectId;
+	}
+
+	/* -- Compare source and object ID -- */
+
+	@Override
+	public boolean equals(Object object) {
+	    if (object == this) {
+		return true;
+	    } else if (object instanceof Key) {
+		Key key = (Key) object;
+		return source.equals(key.source) &&
+		    objectId.equals(key.objectId);
+	    } else {
+		return false;
+	    }
+	}
+
+	@Override
+	public int hashCode() {
+	    return source.hashCode() ^ objectId.hashCode();
+	}
+
+	/** Print fields, for debugging. */
+	@Override
+	public String toString() {
+	    return source + ":" + objectId;
+	}
+    }
+
+    /** Implement {@link AccessReporter}. */
+    private class AccessReporterImpl<T> extends AbstractAccessReporter<T> {
+
+	/**
+	 * Creates an instance of this class.
+	 *
+	 * @param	source the source of the objects managed by this
+	 *		reporter
+	 */
+	AccessReporterImpl(String source) {
+	    super(source);
+	}
+
+	/* -- Implement AccessReporter -- */
+
+	/** {@inheritDoc} */
+	public void reportObjectAccess(
+	    Transaction txn, T objectId, AccessType type, Object description)
+	{
+	    checkNull("type", type);
+	    TxnInfo info = getTxnInfo(txn);
+	    Key key = new Key(source, objectId);
+	    if (description != null) {
+		info.setDescription(key, description);
+	    }
+	    int stripe = getStripe(key);
+	    long version = stripes.get(stripe) >>> 1;
+	    KeyState state = info.noteAccess(
+		key, type == AccessType.WRITE, stripe, version);
+	    if (state != null && state.version != version) {
+		TransactionConflictException exception =
+		    conflict(info, key, stripe);
+		txn.abort(exception);
+		throw exception;
+	    }
+	}
+
+	/** {@inheritDoc} */
+	public void setObjectDescription(
+	    Transaction txn, T objectId, Object description)
+	{
+	    TxnInfo info = getTxnInfo(txn);
+	    if (description == null) {
+		checkNull("objectId", objectId);
+	    } else {
+		info.setDescription(new Key(source, objectId), description);
+	    }
+	}
+    }
+
+    /**
+     * A transaction participant that validates the transaction's accesses
+     * when it prepares, and a transaction listener that releases the
+     * transaction's claimed stripes when it completes.  The participant joins
+     * the transaction when it starts, so it is normally prepared before the
+     * participants that store data, and claimed stripes are released only
+     * after all of the participants have finished their work.
+     */
+    private class TxnHandler
+	implements NonDurableTransactionParticipant, TransactionListener
+    {
+	/** The access information for the transaction. */
+	private final TxnInfo info;
+
+	/**
+	 * Creates an instance of this class.
+	 *
+	 * @param	info the access information for the transaction
+	 */
+	TxnHandler(TxnInfo info) {
+	    this.info = info;
+	}
+
+	/* -- Implement TransactionParticipant -- */
+
+	/**
+	 * {@inheritDoc} <p>
+	 *
+	 * This implementation validates the transaction's accesses, returning
+	 * {@code true} if the transaction made no writes.
+	 */
+	public boolean prepare(Transaction txn) {
+	    validate(info);
+	    return info.claimed.isEmpty();
+	}
+
+	/**
+	 * {@inheritDoc} <p>
+	 *
+	 * This implementation does nothing.
+	 */
+	public void commit(Transaction txn) { }
+
+	/**
+	 * {@inheritDoc} <p>
+	 *
+	 * This implementation validates the transaction's accesses.
+	 */
+	public void prepareAndCommit(Transaction txn) {
+	    validate(info);
+	}
+
+	/**
+	 * {@inheritDoc} <p>
+	 *
+	 * This implementation does nothing.
+	 */
+	public void abort(Transaction txn) { }
+
+	/* -- Implement TransactionListener -- */
+
+	/**
+	 * {@inheritDoc} <p>
+	 *
+	 * This implementation does nothing.
+	 */
+	public void beforeCompletion() { }
+
+	/**
+	 * {@inheritDoc} <p>
+	 *
+	 * This implementation calls {@link #endTransaction}.
+	 */
+	public void afterCompletion(boolean committed) {
+	    endTransaction(info, committed);
+	}
+
+	/** {@inheritDoc} */
+	public String getTypeName() {
+	    return TxnHandler.class.getName();
+	}
+    }
+}
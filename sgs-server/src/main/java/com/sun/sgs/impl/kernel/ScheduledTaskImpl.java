@@ -63,12 +63,17 @@ final class ScheduledTaskImpl implements ScheduledTask {
     // the common, mutable aspects of a task
     private volatile Priority priority;
     private volatile long startTime;
+    private volatile long retryTime = 0;
     private RecurringTaskHandle recurringTaskHandle = null;
     private int tryCount = 0;
     private TaskQueue queue = null;
     private volatile long timeout;
     private volatile Throwable lastFailure = null;
 
+    // the next task in this task's dependent queue, used by the queue
+    // implementation to link its tasks without allocating separate nodes
+    volatile ScheduledTaskImpl nextDependent = null;
+
     // state associated with the lifetime of the task
     private enum State {
         /* The task can be started running. */
@@ -254,6 +259,16 @@ final class ScheduledTaskImpl implements ScheduledTask {
         return startTime;
     }
 
+    /** {@inheritDoc} */
+    public long getNextRunTime() {
+        return Math.max(startTime, retryTime);
+    }
+
+    /** {@inheritDoc} */
+    public void setRetryTime(long retryTime) {
+        this.retryTime = retryTime;
+    }
+
     /** {@inheritDoc} */
     public long getPeriod() {
         return period;
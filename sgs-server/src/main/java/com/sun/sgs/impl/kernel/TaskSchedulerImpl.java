@@ -27,6 +27,7 @@ import com.sun.sgs.auth.Identity;
 
 import com.sun.sgs.impl.profile.ProfileCollectorHandle;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
 import com.sun.sgs.impl.util.NamedThreadFactory;
 
 import com.sun.sgs.kernel.KernelRunnable;
@@ -43,6 +44,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import java.util.concurrent.atomic.AtomicInteger;
@@ -67,7 +69,22 @@ import java.util.logging.Logger;
  *	<i>Default:</i> <code>{@value #DEFAULT_CONSUMER_THREADS}</code>
  *
  * <dd style="padding-top: .5em">The number of initial threads used to process
- *      non-transactional tasks.<p>
+ *      non-transactional tasks.  If virtual threads are being used, this
+ *      property is ignored.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #VIRTUAL_THREADS_PROPERTY}
+ *	</b></code> <br>
+ *	<i>Default:</i> <code>{@value #DEFAULT_VIRTUAL_THREADS}</code>
+ *
+ * <dd style="padding-top: .5em">Whether each non-transactional task should be
+ *      run in its own virtual thread, rather than in a fixed pool of
+ *      threads, so that tasks that block, for example on calls to remote
+ *      servers, do not keep other tasks from running.  In this mode, a
+ *      single platform thread is used to time delayed and recurring tasks,
+ *      and each recurrence of a recurring task is started only after the
+ *      previous one has finished.  If the runtime does not support virtual
+ *      threads, a warning is logged and the fixed pool of threads is used
+ *      instead.<p>
  * </dl>
  * FIXME: the profiling code needs a way to learn about the thread count
  * from this scheduler separately from the transaction pool. When this gets
@@ -92,9 +109,26 @@ final class TaskSchedulerImpl implements TaskScheduler {
      */
     public static final String DEFAULT_CONSUMER_THREADS = "4";
 
-    // the executor used to run tasks
+    /**
+     * The property used to specify whether tasks should be run in virtual
+     * threads.
+     */
+    public static final String VIRTUAL_THREADS_PROPERTY =
+        "com.sun.sgs.impl.kernel.task.virtual.threads";
+
+    /**
+     * The default for whether tasks should be run in virtual threads.
+     */
+    public static final boolean DEFAULT_VIRTUAL_THREADS = false;
+
+    // the executor used to run tasks, or only to time them if tasks are
+    // run in virtual threads
     private final ScheduledExecutorService executor;
 
+    // the factory for the virtual threads used to run tasks, or null if
+    // tasks are run by the executor
+    private final ThreadFactory virtualThreadFactory;
+
     // the collector handle used for profiling data
     private final ProfileCollectorHandle profileCollectorHandle;
 
@@ -133,17 +167,53 @@ final class TaskSchedulerImpl implements TaskScheduler {
         int requestedThreads =
             Integer.parseInt(properties.getProperty(CONSUMER_THREADS_PROPERTY,
                                                     DEFAULT_CONSUMER_THREADS));
+        boolean useVirtualThreads =
+            new PropertiesWrapper(properties).getBooleanProperty(
+                VIRTUAL_THREADS_PROPERTY, DEFAULT_VIRTUAL_THREADS);
+
+        if (useVirtualThreads) {
+            this.virtualThreadFactory = createVirtualThreadFactory();
+        } else {
+            this.virtualThreadFactory = null;
+        }
 
         // NOTE: this is replicating previous behavior where there is a
         // fixed-size pool for running tasks, but in practice we may
         // want a flexible pool that allows (e.g.) for tasks that run
         // for the lifetime of a stack
         this.executor = Executors.newScheduledThreadPool(
-                requestedThreads, new NamedThreadFactory("TaskScheduler"));
+                (virtualThreadFactory == null) ? requestedThreads : 1,
+                new NamedThreadFactory("TaskScheduler"));
 
         logger.log(Level.CONFIG,
                    "Created TaskSchedulerImpl with properties:" +
-                   "\n  " + CONSUMER_THREADS_PROPERTY + "=" + requestedThreads);
+                   "\n  " + CONSUMER_THREADS_PROPERTY + "=" + requestedThreads +
+                   "\n  " + VIRTUAL_THREADS_PROPERTY + "=" +
+                   (virtualThreadFactory != null));
+    }
+
+    /**
+     * Returns a factory for virtual threads, or {@code null} if the runtime
+     * does not support them.  Virtual threads are looked up reflectively so
+     * that this class can still be compiled and run on earlier runtimes.
+     */
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod(
+                "name", String.class, long.class).invoke(
+                    builder, "TaskScheduler-virtual-", 0L);
+            return (ThreadFactory)
+                builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            if (logger.isLoggable(Level.WARNING)) {
+                logger.logThrow(Level.WARNING, e, "Virtual threads are not " +
+                                "supported by this runtime, using a fixed " +
+                                "pool of threads instead");
+            }
+            return null;
+        }
     }
 
     /**
@@ -184,7 +254,7 @@ final class TaskSchedulerImpl implements TaskScheduler {
         try {
             TaskDetail detail = new TaskDetail(task, owner,
                                                System.currentTimeMillis());
-            executor.submit(new TaskRunner(detail));
+            submit(new TaskRunner(detail));
             waitingSize.incrementAndGet();
         } catch (RejectedExecutionException ree) {
             throw new TaskRejectedException("Couldn't schedule task", ree);
@@ -199,9 +269,8 @@ final class TaskSchedulerImpl implements TaskScheduler {
     {
         try {
             TaskDetail detail = new TaskDetail(task, owner, startTime);
-            executor.schedule(new TaskRunner(detail),
-                              startTime - System.currentTimeMillis(),
-                              TimeUnit.MILLISECONDS);
+            schedule(new TaskRunner(detail),
+                     startTime - System.currentTimeMillis());
             waitingSize.incrementAndGet();
         } catch (RejectedExecutionException ree) {
             throw new TaskRejectedException("Couldn't schedule task", ree);
@@ -252,6 +321,53 @@ final class TaskSchedulerImpl implements TaskScheduler {
         }
     }
 
+    /**
+     * Runs the given task as soon as possible, either in the executor or in
+     * a new virtual thread.
+     *
+     * @param runner the task to run
+     * @throws RejectedExecutionException if the task cannot be run
+     */
+    private void submit(TaskRunner runner) {
+        if (virtualThreadFactory == null) {
+            executor.submit(runner);
+        } else {
+            if (isShutdown) {
+                throw new RejectedExecutionException("Scheduler is shutdown");
+            }
+            startVirtualThread(runner);
+        }
+    }
+
+    /**
+     * Runs the given task after the given delay, either in the executor or
+     * in a new virtual thread.
+     *
+     * @param runner the task to run
+     * @param delay the delay in milliseconds
+     * @throws RejectedExecutionException if the task cannot be scheduled
+     */
+    private void schedule(final TaskRunner runner, long delay) {
+        if (virtualThreadFactory == null) {
+            executor.schedule(runner, delay, TimeUnit.MILLISECONDS);
+        } else {
+            executor.schedule(new Runnable() {
+                    public void run() {
+                        startVirtualThread(runner);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Starts a new virtual thread to run the given {@code Runnable}.
+     *
+     * @param runnable the {@code Runnable} to run
+     */
+    private void startVirtualThread(Runnable runnable) {
+        virtualThreadFactory.newThread(runnable).start();
+    }
+
     /** Private implementation of {@code TaskReservation}. */
     private class TaskReservationImpl implements TaskReservation {
         private final TaskDetail taskDetail;
@@ -285,8 +401,7 @@ final class TaskSchedulerImpl implements TaskScheduler {
 
             try {
                 long delay = taskDetail.startTime - System.currentTimeMillis();
-                executor.schedule(new TaskRunner(taskDetail), delay,
-                                  TimeUnit.MILLISECONDS);
+                schedule(new TaskRunner(taskDetail), delay);
                 waitingSize.incrementAndGet();
             } catch (RejectedExecutionException ree) {
                 throw new TaskRejectedException("The system has run out of " +
@@ -301,7 +416,8 @@ final class TaskSchedulerImpl implements TaskScheduler {
         private final TaskDetail taskDetail;
         private boolean isCancelled = false;
         private boolean isStarted = false;
-        private volatile ScheduledFuture<?> future = null;
+        /** The current scheduled future, guarded by {@code this}. */
+        private ScheduledFuture<?> future = null;
         /** Creates an instance of {@code RecurringTaskHandleImpl}. */
         RecurringTaskHandleImpl(TaskDetail taskDetail) {
             if (isShutdown) {
@@ -311,34 +427,82 @@ final class TaskSchedulerImpl implements TaskScheduler {
         }
         /** {@inheritDoc} */
         public void cancel() {
+            ScheduledFuture<?> current;
             synchronized (this) {
                 if (isCancelled) {
                     throw new IllegalStateException("Handle already cancelled");
                 }
                 isCancelled = true;
+                current = future;
+            }
+            if (current != null) {
+                current.cancel(false);
+            }
+        }
+        /** Returns whether the handle has been cancelled. */
+        private synchronized boolean cancelled() {
+            return isCancelled;
+        }
+        /**
+         * Schedules the next recurrence of the task to be started in a
+         * virtual thread after the given delay, unless the handle is
+         * cancelled.  When that recurrence finishes, the following one is
+         * scheduled to start at its fixed-rate start time, or immediately
+         * if that time has passed.  The recurrence is skipped if the handle
+         * is cancelled before it starts running.
+         */
+        private synchronized void scheduleRecurrence(long delay) {
+            if (isCancelled) {
+                return;
             }
-            if (future != null) {
-                future.cancel(false);
+            final TaskRunner runner = new TaskRunner(taskDetail);
+            future = executor.schedule(new Runnable() {
+                    public void run() {
+                        startVirtualThread(new Runnable() {
+                                public void run() {
+                                    if (cancelled()) {
+                                        return;
+                                    }
+                                    try {
+                                        runner.run();
+                                    } finally {
+                                        scheduleNextRecurrence();
+                                    }
+                                }
+                            });
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+        }
+        /** Schedules the next recurrence unless the handle is cancelled. */
+        private void scheduleNextRecurrence() {
+            try {
+                scheduleRecurrence(
+                    taskDetail.startTime - System.currentTimeMillis());
+            } catch (RejectedExecutionException ree) {
+                // the scheduler is shutting down
+                logger.logThrow(Level.FINE, ree, "Not scheduling a " +
+                                "recurrence of task {0}", taskDetail.task);
             }
         }
         /** {@inheritDoc} */
-        public void start() {
-            synchronized (this) {
-                if (isCancelled) {
-                    throw new IllegalStateException("Handle already cancelled");
-                }
-                if ((future != null) || (isStarted)) {
-                    throw new IllegalStateException("Handle already used");
-                }
-                isStarted = true;
+        public synchronized void start() {
+            if (isCancelled) {
+                throw new IllegalStateException("Handle already cancelled");
             }
+            if ((future != null) || (isStarted)) {
+                throw new IllegalStateException("Handle already used");
+            }
+            isStarted = true;
 
             long delay = taskDetail.startTime - System.currentTimeMillis();
             try {
-                future =
-                    executor.scheduleAtFixedRate(new TaskRunner(taskDetail),
-                                                 delay, taskDetail.period,
-                                                 TimeUnit.MILLISECONDS);
+                if (virtualThreadFactory == null) {
+                    future = executor.scheduleAtFixedRate(
+                        new TaskRunner(taskDetail), delay, taskDetail.period,
+                        TimeUnit.MILLISECONDS);
+                } else {
+                    scheduleRecurrence(delay);
+                }
             } catch (RejectedExecutionException ree) {
                 throw new TaskRejectedException("The system has run out of " +
                                                 "resources and cannot start " +
@@ -465,7 +629,7 @@ final class TaskSchedulerImpl implements TaskScheduler {
                     queue.offer(detail);
                 } else {
                     inScheduler = true;
-                    executor.submit(new TaskRunner(detail));
+                    submit(new TaskRunner(detail));
                 }
             }
         }
@@ -480,7 +644,7 @@ final class TaskSchedulerImpl implements TaskScheduler {
                     // tasks ahead of it have run
                     TaskDetail detail = queue.poll();
                     detail.startTime = System.currentTimeMillis();
-                    executor.submit(new TaskRunner(detail));
+                    submit(new TaskRunner(detail));
                 }
             }
         }
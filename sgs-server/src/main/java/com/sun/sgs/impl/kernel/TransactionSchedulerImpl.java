@@ -27,9 +27,11 @@ import com.sun.sgs.auth.Identity;
 
 import com.sun.sgs.kernel.schedule.ScheduledTask;
 import com.sun.sgs.kernel.schedule.SchedulerQueue;
+import com.sun.sgs.kernel.schedule.SchedulerRetryAction;
 import com.sun.sgs.kernel.schedule.SchedulerRetryPolicy;
 
 import com.sun.sgs.impl.profile.ProfileCollectorHandle;
+import com.sun.sgs.impl.profile.ProfileCollectorImpl;
 import com.sun.sgs.impl.service.transaction.TransactionCoordinator;
 import com.sun.sgs.impl.service.transaction.TransactionHandle;
 
@@ -46,8 +48,13 @@ import com.sun.sgs.kernel.TaskQueue;
 import com.sun.sgs.kernel.TaskReservation;
 import com.sun.sgs.kernel.TransactionScheduler;
 
+import com.sun.sgs.profile.ProfileCollector.ProfileLevel;
+import com.sun.sgs.profile.ProfileConsumer;
+import com.sun.sgs.profile.ProfileConsumer.ProfileDataType;
+import com.sun.sgs.profile.ProfileCounter;
 import com.sun.sgs.profile.ProfileListener;
 import com.sun.sgs.profile.ProfileReport;
+import com.sun.sgs.profile.ProfileSample;
 
 import com.sun.sgs.service.Transaction;
 
@@ -55,14 +62,16 @@ import java.beans.PropertyChangeEvent;
 
 import java.lang.reflect.InvocationTargetException;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
-import java.util.Queue;
 
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -101,9 +110,44 @@ import java.util.logging.Logger;
  *      The value of this property should be the
  *      name of a public, non-abstract class that implements the
  *      {@link SchedulerRetryPolicy} interface, and that provides a public
- *      constructor with the parameters {@link Properties}<p>
+ *      constructor with the parameters {@link Properties}.  The
+ *      {@link com.sun.sgs.impl.kernel.schedule.BackoffRetryPolicy} class
+ *      can be used to spread out the retries of tasks that conflict.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #BATCH_SIZE_PROPERTY}
+ *	</b></code> <br>
+ *	<i>Default:</i> <code>{@value #DEFAULT_BATCH_SIZE}</code>
+ *
+ * <dd style="padding-top: .5em">The maximum number of dependent tasks, added
+ *      to the same {@link TaskQueue} by the same owner, that are run
+ *      together in a single transaction.  When a task taken from a
+ *      {@code TaskQueue} is run for the first time, up to this many of the
+ *      tasks waiting behind it in the queue with the same owner are run
+ *      with it, in order, in one transaction, so that the cost of creating
+ *      and committing the transaction is shared between them.  If the
+ *      transaction fails for any reason, each task in the batch is then run
+ *      individually, in order, in its own transaction.  The value must be
+ *      greater than or equal to {@code 1}, and the default value of
+ *      {@code 1} disables batching.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #BATCH_TIMEOUT_PROPERTY}
+ *	</b></code> <br>
+ *	<i>Default:</i> <code>{@value #DEFAULT_BATCH_TIMEOUT}</code>
+ *
+ * <dd style="padding-top: .5em">The maximum timeout, in milliseconds, of
+ *      the transaction used to run a batch of dependent tasks.  Since the
+ *      tasks in a batch run one after another, the transaction is allowed
+ *      the sum of their timeouts, but no more than this value, and never
+ *      less than the timeout of the longest task in the batch.  The value
+ *      must be greater than or equal to {@code 1}.<p>
  *
  * </dl>
+ *
+ * The decisions made by the retry policy are reported to the profiling
+ * system, at the {@code MEDIUM} profiling level, as the {@code retryNow},
+ * {@code retryLater}, and {@code retryDrop} counters and the
+ * {@code retryDelay} sample of the {@code com.sun.sgs.TransactionScheduler}
+ * profile consumer.
  */
 final class TransactionSchedulerImpl
     implements TransactionScheduler, PriorityScheduler, ProfileListener 
@@ -152,6 +196,32 @@ final class TransactionSchedulerImpl
      */
     public static final String DEFAULT_CONSUMER_THREADS = "4";
 
+    /**
+     * The property used to define the maximum number of dependent tasks
+     * that are run together in a single transaction.
+     */
+    public static final String BATCH_SIZE_PROPERTY =
+        "com.sun.sgs.impl.kernel.transaction.batch.size";
+
+    /**
+     * The default maximum number of tasks run in a single transaction,
+     * which disables batching.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1;
+
+    /**
+     * The property used to define the maximum timeout of the transaction
+     * that runs a batch of dependent tasks.
+     */
+    public static final String BATCH_TIMEOUT_PROPERTY =
+        "com.sun.sgs.impl.kernel.transaction.batch.timeout";
+
+    /**
+     * The default maximum timeout, in milliseconds, of the transaction that
+     * runs a batch of dependent tasks.
+     */
+    public static final long DEFAULT_BATCH_TIMEOUT = 1000L;
+
     // the default priority for tasks
     private static final Priority defaultPriority =
         Priority.getDefaultPriority();
@@ -180,6 +250,12 @@ final class TransactionSchedulerImpl
     // the number of requested consumer threads
     private final int requestedThreads;
 
+    // the maximum number of dependent tasks to run in one transaction
+    private final int batchSize;
+
+    // the maximum timeout of the transaction that runs a batch of tasks
+    private final long batchTimeout;
+
     // flag to note that this scheduler has shutdown
     private volatile boolean isShutdown = false;
 
@@ -187,7 +263,13 @@ final class TransactionSchedulerImpl
     private volatile KernelContext kernelContext = null;
 
     // the number of dependent tasks sitting in queues
-    private final AtomicInteger dependencyCount = new AtomicInteger(0);
+    private final StripedCounter dependencyCount = new StripedCounter();
+
+    // the profiling data for the decisions made by the retry policy
+    private final ProfileCounter retryNowCounter;
+    private final ProfileCounter retryLaterCounter;
+    private final ProfileCounter dropCounter;
+    private final ProfileSample retryDelaySample;
 
 
     /**
@@ -240,6 +322,13 @@ final class TransactionSchedulerImpl
                 SchedulerRetryPolicy.class, new Class[]{Properties.class},
                 properties);
 
+        this.batchSize = wrappedProps.getIntProperty(
+                BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE,
+                1, Integer.MAX_VALUE);
+        this.batchTimeout = wrappedProps.getLongProperty(
+                BATCH_TIMEOUT_PROPERTY, DEFAULT_BATCH_TIMEOUT,
+                1, Long.MAX_VALUE);
+
         // startup the requested number of consumer threads
         // NOTE: this is a simple implmentation to replicate the previous
         // behvavior, with the assumption that it will change if the
@@ -253,6 +342,19 @@ final class TransactionSchedulerImpl
             executor.submit(new TaskConsumer());
         }
 
+        // create the profiling data for retry decisions
+        ProfileConsumer consumer =
+            profileCollectorHandle.getCollector().getConsumer(
+                ProfileCollectorImpl.CORE_CONSUMER_PREFIX +
+                "TransactionScheduler");
+        ProfileLevel level = ProfileLevel.MEDIUM;
+        ProfileDataType type = ProfileDataType.AGGREGATE;
+        retryNowCounter = consumer.createCounter("retryNow", type, level);
+        retryLaterCounter =
+            consumer.createCounter("retryLater", type, level);
+        dropCounter = consumer.createCounter("retryDrop", type, level);
+        retryDelaySample = consumer.createSample("retryDelay", type, level);
+
         // initialize the default timeout for scheduled tasks
         ScheduledTaskImpl.Builder.setDefaultTimeout(
                 transactionCoordinator.getDefaultTimeout());
@@ -263,7 +365,9 @@ final class TransactionSchedulerImpl
                    retryPolicy.getClass().getName() +
                    "\n  " + SCHEDULER_QUEUE_PROPERTY + "=" +
                    backingQueue.getClass().getName() +
-                   "\n  " + CONSUMER_THREADS_PROPERTY + "=" + requestedThreads);
+                   "\n  " + CONSUMER_THREADS_PROPERTY + "=" + requestedThreads +
+                   "\n  " + BATCH_SIZE_PROPERTY + "=" + batchSize +
+                   "\n  " + BATCH_TIMEOUT_PROPERTY + "=" + batchTimeout);
     }
 
     /**
@@ -551,8 +655,19 @@ final class TransactionSchedulerImpl
                     ScheduledTaskImpl task =
                         (ScheduledTaskImpl) (backingQueue.getNextTask(true));
 
-                    // run the task, checking if it completed
-                    if (executeTask(task, true)) {
+                    // run the task, along with any dependent tasks that
+                    // can share its transaction, checking if it completed
+                    TaskQueueImpl taskQueue =
+                        (TaskQueueImpl) (task.getTaskQueue());
+                    boolean completed;
+                    if ((batchSize > 1) && (taskQueue != null) &&
+                        (task.getTryCount() == 0))
+                    {
+                        completed = executeBatch(task, taskQueue);
+                    } else {
+                        completed = executeTask(task, true);
+                    }
+                    if (completed) {
                         // if it's a recurring task, schedule the next run
                         if (task.isRecurring()) {
                             long nextStart =
@@ -621,7 +736,7 @@ final class TransactionSchedulerImpl
                 // so we should figure out how we want to represent these
                 int waitSize =
                     backingQueue.getReadyCount() +
-                    dependencyCount.get();
+                    dependencyCount.getApproximate();
                 profileCollectorHandle.startTask(task.getTask(), 
                                                  task.getOwner(),
                                                  task.getStartTime(), 
@@ -703,7 +818,7 @@ final class TransactionSchedulerImpl
                     task.setLastFailure(t);
 
                     // some error occurred, so see if we should re-try
-                    switch (retryPolicy.getRetryAction(task)) {
+                    switch (getRetryAction(task)) {
                         case DROP:
                             task.setDone(t);
                             if (logger.isLoggable(Level.WARNING)) {
@@ -739,6 +854,229 @@ final class TransactionSchedulerImpl
         }
     }
 
+    /**
+     * Private method that executes a task taken from a dependency queue
+     * along with up to {@code batchSize - 1} of the tasks waiting behind it
+     * in the queue with the same owner, all in a single transaction.  If the
+     * batch cannot be committed then each task is executed individually,
+     * in order, by calling {@link #executeTask executeTask}, and any tasks
+     * behind a task that is scheduled to be re-tried later are returned to
+     * the front of the queue.
+     * <p>
+     * This method returns {@code true} if all of the tasks were completed
+     * or failed permanently, and {@code false} if a task is scheduled to be
+     * re-tried later, in which case the next task in the queue will be
+     * scheduled when that task completes.
+     */
+    private boolean executeBatch(ScheduledTaskImpl first, TaskQueueImpl queue)
+        throws InterruptedException
+    {
+        List<ScheduledTaskImpl> batch =
+            new ArrayList<ScheduledTaskImpl>(batchSize);
+        batch.add(first);
+        queue.pollDependents(first.getOwner(), batchSize - 1, batch);
+        if (batch.size() == 1) {
+            return executeTask(first, true);
+        }
+
+        try {
+            if (runBatch(batch)) {
+                return true;
+            }
+        } catch (InterruptedException ie) {
+            // return the dependent tasks to the queue and try to re-queue
+            // the first task to run in a usable thread
+            queue.rewind(first);
+            if (!handoff(first) && logger.isLoggable(Level.WARNING)) {
+                logger.logThrow(Level.WARNING, ie,
+                                "dropping an interrupted task: {0}", first);
+            }
+            throw ie;
+        }
+
+        // the batch failed, so fall back to running the tasks one at a time
+        logger.log(Level.FINER, "running a failed batch of {0} tasks " +
+                   "individually", batch.size());
+        queue.rewind(first);
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                queue.advance();
+            }
+            if (!executeTask(batch.get(i), true)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Private method that runs a batch of tasks with the same owner in a
+     * single transaction, returning {@code true} if the transaction
+     * committed, in which case all of the tasks are completed, and
+     * {@code false} if it failed, in which case none of the tasks have been
+     * run and all of them are runnable again.  The transaction is profiled
+     * as a run of the first task, and each task in the batch is profiled
+     * as a task nested within it.  If the calling thread is interrupted
+     * then the tasks are left runnable and the associated
+     * {@code InterruptedException} is re-thrown.
+     */
+    private boolean runBatch(List<ScheduledTaskImpl> batch)
+        throws InterruptedException
+    {
+        ScheduledTaskImpl first = batch.get(0);
+        for (int i = 0; i < batch.size(); i++) {
+            if (!batch.get(i).setRunning(true)) {
+                // this should never happen for dependent tasks, but if it
+                // does, let each task be handled individually
+                resetBatch(batch.subList(0, i));
+                return false;
+            }
+        }
+
+        // store the current owner, and then push the new thread detail
+        Identity parent = ContextResolver.getCurrentOwner();
+        ContextResolver.setTaskState(kernelContext, first.getOwner());
+
+        Transaction transaction = null;
+        try {
+            int waitSize =
+                backingQueue.getReadyCount() +
+                dependencyCount.getApproximate();
+            profileCollectorHandle.startTask(first.getTask(),
+                                             first.getOwner(),
+                                             first.getStartTime(),
+                                             waitSize);
+
+            // setup the transaction state
+            TransactionHandle handle =
+                transactionCoordinator.createTransaction(
+                    getBatchTimeout(batch));
+            transaction = handle.getTransaction();
+            ContextResolver.setCurrentTransaction(transaction);
+
+            try {
+                // notify the profiler and access coordinator
+                profileCollectorHandle.noteTransactional(transaction.getId());
+                accessCoordinator.notifyNewTransaction(
+                    transaction, first.getStartTime(), 1);
+
+                // run each task in order in the shared transaction,
+                // profiling each one as a nested task
+                for (ScheduledTaskImpl task : batch) {
+                    profileCollectorHandle.startTask(task.getTask(),
+                                                     task.getOwner(),
+                                                     task.getStartTime(),
+                                                     waitSize);
+                    profileCollectorHandle.noteTransactional(
+                                                transaction.getId());
+                    try {
+                        task.getTask().run();
+                    } catch (Throwable t) {
+                        profileCollectorHandle.finishTask(1, t);
+                        throw t;
+                    }
+                    if (transaction.isAborted()) {
+                        profileCollectorHandle.finishTask(
+                            1, transaction.getAbortCause());
+                        break;
+                    }
+                    profileCollectorHandle.finishTask(1);
+                }
+            } finally {
+                ContextResolver.clearCurrentTransaction(transaction);
+            }
+
+            if (transaction.isAborted()) {
+                throw transaction.getAbortCause();
+            }
+            handle.commit();
+
+            // all of the tasks completed successfully
+            profileCollectorHandle.finishTask(1);
+            for (ScheduledTaskImpl task : batch) {
+                task.setDone(null);
+            }
+            return true;
+        } catch (InterruptedException ie) {
+            if ((transaction != null) && (!transaction.isAborted())) {
+                transaction.abort(ie);
+            }
+            profileCollectorHandle.finishTask(1, ie);
+            resetBatch(batch);
+            throw ie;
+        } catch (Throwable t) {
+            if ((transaction != null) && (!transaction.isAborted())) {
+                transaction.abort(t);
+            }
+            profileCollectorHandle.finishTask(1, t);
+            if (logger.isLoggable(Level.FINER)) {
+                logger.logThrow(Level.FINER, t, "batch of {0} tasks " +
+                                "starting with {1} failed",
+                                batch.size(), first);
+            }
+            resetBatch(batch);
+            return false;
+        } finally {
+            // always restore the previous owner before leaving...
+            ContextResolver.setTaskState(kernelContext, parent);
+        }
+    }
+
+    /**
+     * Returns the timeout for the transaction that runs the given batch of
+     * tasks.  The tasks run one after another, so the batch is allowed the
+     * sum of their timeouts, limited by the batch timeout property, but
+     * never less than the timeout of its longest task.
+     */
+    private long getBatchTimeout(List<ScheduledTaskImpl> batch) {
+        long sum = 0;
+        long longest = 0;
+        for (ScheduledTaskImpl task : batch) {
+            long timeout = task.getTimeout();
+            if (timeout == ScheduledTask.UNBOUNDED) {
+                return ScheduledTask.UNBOUNDED;
+            }
+            sum = Math.min(sum + timeout, batchTimeout);
+            longest = Math.max(longest, timeout);
+        }
+        return Math.max(sum, longest);
+    }
+
+    /** Makes the given running tasks runnable again. */
+    private static void resetBatch(List<ScheduledTaskImpl> batch) {
+        for (ScheduledTaskImpl task : batch) {
+            task.setRunning(false);
+        }
+    }
+
+    /**
+     * Asks the retry policy what to do with a task that has failed, and
+     * reports the decision to the profiling system.
+     *
+     * @param task the task that failed
+     * @return the action to take with respect to retrying the task
+     */
+    private SchedulerRetryAction getRetryAction(ScheduledTaskImpl task) {
+        SchedulerRetryAction action = retryPolicy.getRetryAction(task);
+        switch (action) {
+            case DROP:
+                dropCounter.incrementCount();
+                break;
+            case RETRY_LATER:
+                retryLaterCounter.incrementCount();
+                retryDelaySample.addSample(Math.max(
+                        0L, task.getNextRunTime() -
+                        System.currentTimeMillis()));
+                break;
+            case RETRY_NOW:
+                retryNowCounter.incrementCount();
+                break;
+            default:
+                // we should never get here
+        }
+        return action;
+    }
+
     /**
      * Hands off the task to the backing queue.
      *
@@ -754,42 +1092,175 @@ final class TransactionSchedulerImpl
         }
     }
 
-    /** Private implementation of {@code TaskQueue}. */
+    /**
+     * Private implementation of {@code TaskQueue}.  Tasks are kept in a
+     * lock-free, multiple-producer, single-consumer linked queue, using the
+     * {@code nextDependent} field of each task as the link, so no separate
+     * nodes are allocated.  The task at the head of the queue is the one in
+     * the scheduler, if any, and only the thread that is handling that task
+     * removes tasks from the queue.  An empty queue has a {@code null}
+     * tail, so the producer that adds to an empty queue knows that it is
+     * responsible for giving its task to the scheduler.
+     */
     private final class TaskQueueImpl implements TaskQueue {
-        private final Queue<ScheduledTaskImpl> queue =
-            new LinkedList<ScheduledTaskImpl>();
-        private boolean inScheduler = false;
+        // the last task added to the queue, or null if the queue is empty
+        private final AtomicReference<ScheduledTaskImpl> tail =
+            new AtomicReference<ScheduledTaskImpl>();
+        // the task in the scheduler, or the last of its batched dependents,
+        // only accessed by the thread handling that task
+        private volatile ScheduledTaskImpl head = null;
         /** {@inheritDoc} */
         public void addTask(KernelRunnable task, Identity owner) {
             ScheduledTaskImpl schedTask = new ScheduledTaskImpl.Builder(
                     task, owner, defaultPriority).build();
             schedTask.setTaskQueue(this);
 
-            synchronized (this) {
-                if (inScheduler) {
-                    dependencyCount.incrementAndGet();
-                    queue.offer(schedTask);
-                } else {
-                    inScheduler = true;
-                    backingQueue.addTask(schedTask);
-                }
+            ScheduledTaskImpl prev = tail.getAndSet(schedTask);
+            if (prev == null) {
+                head = schedTask;
+                backingQueue.addTask(schedTask);
+            } else {
+                dependencyCount.increment();
+                prev.nextDependent = schedTask;
+            }
+        }
+        /**
+         * Private method to return the task after {@code task}, waiting
+         * for it to be linked if a producer has added it to the queue but
+         * not yet linked it, or {@code null} if {@code task} is the last
+         * task in the queue.
+         */
+        private ScheduledTaskImpl nextTask(ScheduledTaskImpl task) {
+            ScheduledTaskImpl next = task.nextDependent;
+            while ((next == null) && (tail.get() != task)) {
+                Thread.yield();
+                next = task.nextDependent;
             }
+            return next;
         }
         /** Private method to schedule the next task, if any. */
         void scheduleNextTask() {
-            synchronized (this) {
-                if (queue.isEmpty()) {
-                    inScheduler = false;
-                } else {
-                    dependencyCount.decrementAndGet();
-                    // re-set the start time before scheduling, since the
-                    // task isn't really requested to start until all
-                    // tasks ahead of it have run
-                    ScheduledTaskImpl schedTask = queue.poll();
-                    schedTask.resetStartTime();
-                    backingQueue.addTask(schedTask);
+            ScheduledTaskImpl current = head;
+            ScheduledTaskImpl next = current.nextDependent;
+            if ((next == null) && (tail.compareAndSet(current, null))) {
+                return;
+            }
+            next = nextTask(current);
+            current.nextDependent = null;
+            dependencyCount.decrement();
+            // re-set the start time before scheduling, since the
+            // task isn't really requested to start until all
+            // tasks ahead of it have run
+            next.resetStartTime();
+            head = next;
+            backingQueue.addTask(next);
+        }
+        /**
+         * Private method to remove up to {@code max} tasks with the given
+         * owner from the front of the queue, adding them to {@code tasks}
+         * so that they can be run with a task from this queue that is
+         * already in the scheduler.  Tasks that are still being added to
+         * the queue are not waited for.
+         */
+        void pollDependents(Identity owner, int max,
+                            List<ScheduledTaskImpl> tasks)
+        {
+            ScheduledTaskImpl current = head;
+            for (int i = 0; i < max; i++) {
+                ScheduledTaskImpl next = current.nextDependent;
+                if ((next == null) || (!owner.equals(next.getOwner()))) {
+                    break;
                 }
+                dependencyCount.decrement();
+                next.resetStartTime();
+                tasks.add(next);
+                current = next;
+            }
+            head = current;
+        }
+        /**
+         * Private method to return the tasks removed by
+         * {@code pollDependents} after the given task to the front of the
+         * queue, so that the given task is again the one in the scheduler.
+         */
+        void rewind(ScheduledTaskImpl task) {
+            ScheduledTaskImpl current = task;
+            while (current != head) {
+                current = current.nextDependent;
+                dependencyCount.increment();
+            }
+            head = task;
+        }
+        /**
+         * Private method to remove the task after the one in the scheduler
+         * from the queue when the caller is going to run it directly, in
+         * place of scheduling it.  This must only be called after a call
+         * to {@code rewind} when the task is known to be present.
+         */
+        void advance() {
+            dependencyCount.decrement();
+            head = head.nextDependent;
+        }
+    }
+
+    /**
+     * Private class that maintains a count that is changed by many threads
+     * and read much less often.  Each thread updates one of several
+     * counters chosen by its identifier, spaced apart to avoid sharing
+     * cache lines, and reads sum all of them.  Callers that read the count
+     * for every task should use {@link #getApproximate getApproximate},
+     * which sums the counters at most once per millisecond.
+     */
+    private static final class StripedCounter {
+        // the spacing between counters, in longs
+        private static final int SPACING = 16;
+        // the number of counters, a power of two
+        private final int stripes;
+        private final AtomicLongArray counts;
+        // the last sum returned by get, and when it was computed
+        private volatile int cachedCount = 0;
+        private volatile long cachedTime = 0;
+        /** Creates an instance of {@code StripedCounter}. */
+        StripedCounter() {
+            int n = 1;
+            while (n < 2 * Runtime.getRuntime().availableProcessors()) {
+                n <<= 1;
+            }
+            stripes = n;
+            counts = new AtomicLongArray(n * SPACING);
+        }
+        /** Returns the index of the calling thread's counter. */
+        private int index() {
+            return ((int) Thread.currentThread().getId() & (stripes - 1)) *
+                SPACING;
+        }
+        /** Increments the count. */
+        void increment() {
+            counts.incrementAndGet(index());
+        }
+        /** Decrements the count. */
+        void decrement() {
+            counts.decrementAndGet(index());
+        }
+        /** Returns the current count. */
+        int get() {
+            long sum = 0;
+            for (int i = 0; i < counts.length(); i += SPACING) {
+                sum += counts.get(i);
+            }
+            return (int) sum;
+        }
+        /**
+         * Returns the count as of at most a millisecond ago, summing the
+         * counters only if the previous sum is older than that.
+         */
+        int getApproximate() {
+            long now = System.currentTimeMillis();
+            if (now != cachedTime) {
+                cachedCount = get();
+                cachedTime = now;
             }
+            return cachedCount;
         }
     }
 
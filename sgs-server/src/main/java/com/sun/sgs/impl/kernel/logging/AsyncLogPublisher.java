@@ -0,0 +1,414 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.kernel.logging;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * Publishes {@code LogRecord}s to their backing {@code Handler}s on a
+ * dedicated background thread, so that the threads doing the logging do not
+ * pay for formatting and I/O.  Records are handed off through a bounded,
+ * lock-free ring buffer that supports any number of producers and the single
+ * consumer thread.  The consumer drains the buffer in batches, publishing
+ * each record in order and then flushing every distinct handler used by the
+ * batch once. <p>
+ *
+ * When the buffer is full, records are either dropped, in which case the
+ * count returned by {@link #getDroppedCount getDroppedCount} is incremented,
+ * or the producer waits for space, depending on the {@link FullPolicy}
+ * supplied to the constructor. <p>
+ *
+ * If the consumer thread dies, for example because a handler throws an
+ * {@code Error}, records are instead published on the threads that offer
+ * them, after publishing any records left in the buffer, so that producers
+ * and callers of {@link #flush flush} do not wait forever. <p>
+ *
+ * Note that the parameters of a record are formatted on the background
+ * thread, so they should not be modified after being logged.
+ */
+final class AsyncLogPublisher {
+
+    /** The policy to apply when a record is offered to a full buffer. */
+    enum FullPolicy {
+	/** Discard the record and count it as dropped. */
+	DROP,
+	/** Wait until the consumer makes room for the record. */
+	BLOCK
+    }
+
+    /** The maximum number of records published before flushing. */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * The number of nanoseconds the consumer parks for when the buffer is
+     * empty, as a guard against a missed wakeup.
+     */
+    private static final long IDLE_PARK_NANOS = 10 * 1000 * 1000;
+
+    /** The number of nanoseconds a blocked producer parks between retries. */
+    private static final long FULL_PARK_NANOS = 100 * 1000;
+
+    /** The policy to apply when the buffer is full. */
+    private final FullPolicy fullPolicy;
+
+    /** The mask used to map sequence numbers to buffer slots. */
+    private final int mask;
+
+    /** The handler for each slot. */
+    private final Handler[] handlers;
+
+    /** The record for each slot. */
+    private final LogRecord[] records;
+
+    /**
+     * The sequence number of each slot.  A slot whose sequence equals the
+     * producer position is free, and one whose sequence is one more than the
+     * consumer position holds a record ready to be published.  Writing the
+     * sequence publishes the slot contents to the other side.
+     */
+    private final AtomicLongArray sequences;
+
+    /** The next position to be claimed by a producer. */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The position following the last record that the consumer has
+     * published and flushed.  Only written by the consumer thread, or,
+     * once it has stopped, by a thread holding the {@link #fallbackLock}.
+     */
+    private volatile long head = 0;
+
+    /** Whether the consumer thread has stopped running. */
+    private volatile boolean consumerStopped = false;
+
+    /**
+     * The lock held while publishing records on other threads after the
+     * consumer thread has stopped.
+     */
+    private final Object fallbackLock = new Object();
+
+    /** Whether the consumer is parked waiting for records. */
+    private volatile boolean idle = false;
+
+    /** Whether {@link #shutdown shutdown} has been called. */
+    private volatile boolean shutdown = false;
+
+    /** The number of records published to their handlers. */
+    private final AtomicLong publishedCount = new AtomicLong();
+
+    /** The number of records dropped because the buffer was full. */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /** The consumer thread. */
+    private final Thread consumer;
+
+    /**
+     * Creates an instance of this class and starts its consumer thread.
+     *
+     * @param	bufferSize the minimum number of records that can be waiting
+     *		to be published, which is rounded up to a power of two
+     * @param	fullPolicy the policy to apply when the buffer is full
+     * @throws	IllegalArgumentException if {@code bufferSize} is less than
+     *		{@code 1} or greater than {@code 2^30}
+     * @throws	NullPointerException if {@code fullPolicy} is {@code null}
+     */
+    AsyncLogPublisher(int bufferSize, FullPolicy fullPolicy) {
+	if (bufferSize < 1 || bufferSize > (1 << 30)) {
+	    throw new IllegalArgumentException(
+		"The bufferSize must be between 1 and 2^30: " + bufferSize);
+	} else if (fullPolicy == null) {
+	    throw new NullPointerException("The fullPolicy must not be null");
+	}
+	int capacity = Integer.highestOneBit(bufferSize);
+	if (capacity < bufferSize) {
+	    capacity <<= 1;
+	}
+	this.fullPolicy = fullPolicy;
+	mask = capacity - 1;
+	handlers = new Handler[capacity];
+	records = new LogRecord[capacity];
+	sequences = new AtomicLongArray(capacity);
+	for (int i = 0; i < capacity; i++) {
+	    sequences.set(i, i);
+	}
+	consumer = new Thread(new Runnable() {
+		public void run() {
+		    try {
+			drainLoop();
+		    } finally {
+			consumerStopped = true;
+		    }
+		}
+	    }, "AsyncLogPublisher");
+	consumer.setDaemon(true);
+	consumer.start();
+    }
+
+    /**
+     * Queues a record for publication to the specified handler.  Records
+     * offered by a single thread are published in the order they were
+     * offered.  If the buffer is full and the policy is {@link
+     * FullPolicy#DROP DROP}, or if this publisher has been shut down, the
+     * record is dropped.  If the consumer thread has stopped running, the
+     * record is published on the current thread.
+     *
+     * @param	handler the handler to publish the record to
+     * @param	record the record
+     * @return	{@code true} if the record was queued or published, else
+     *		{@code false}
+     */
+    boolean offer(Handler handler, LogRecord record) {
+	while (!shutdown) {
+	    if (consumerStopped) {
+		publishSynchronously(handler, record);
+		return true;
+	    }
+	    long pos = tail.get();
+	    int index = (int) pos & mask;
+	    long diff = sequences.get(index) - pos;
+	    if (diff == 0) {
+		if (tail.compareAndSet(pos, pos + 1)) {
+		    handlers[index] = handler;
+		    records[index] = record;
+		    sequences.lazySet(index, pos + 1);
+		    if (idle) {
+			LockSupport.unpark(consumer);
+		    }
+		    return true;
+		}
+	    } else if (diff < 0) {
+		/* The buffer is full */
+		if (fullPolicy == FullPolicy.DROP ||
+		    Thread.currentThread() == consumer)
+		{
+		    break;
+		}
+		LockSupport.unpark(consumer);
+		LockSupport.parkNanos(FULL_PARK_NANOS);
+	    }
+	}
+	droppedCount.incrementAndGet();
+	return false;
+    }
+
+    /**
+     * Waits until all records queued before this call have been published,
+     * publishing them on the current thread if the consumer thread has
+     * stopped running.  Returns immediately if called on the consumer thread
+     * or after this publisher has been shut down.
+     */
+    void flush() {
+	long target = tail.get();
+	while (head < target && !shutdown &&
+	       Thread.currentThread() != consumer)
+	{
+	    if (consumerStopped) {
+		publishSynchronously(null, null);
+		return;
+	    }
+	    LockSupport.unpark(consumer);
+	    LockSupport.parkNanos(FULL_PARK_NANOS);
+	}
+    }
+
+    /**
+     * Publishes any queued records and stops the consumer thread.  Records
+     * offered after this call are dropped.
+     */
+    void shutdown() {
+	flush();
+	shutdown = true;
+	LockSupport.unpark(consumer);
+	if (Thread.currentThread() != consumer) {
+	    try {
+		consumer.join();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+    }
+
+    /**
+     * Returns the number of records that have been published to their
+     * handlers.
+     *
+     * @return	the number of records published
+     */
+    long getPublishedCount() {
+	return publishedCount.get();
+    }
+
+    /**
+     * Returns the number of records that were dropped because the buffer was
+     * full or the publisher had been shut down.
+     *
+     * @return	the number of records dropped
+     */
+    long getDroppedCount() {
+	return droppedCount.get();
+    }
+
+    /**
+     * Publishes the records left in the buffer by the stopped consumer
+     * thread, and then the specified record, if not {@code null}, on the
+     * current thread.
+     *
+     * @param	handler the handler to publish the record to, or {@code
+     *		null}
+     * @param	record the record, or {@code null}
+     */
+    private void publishSynchronously(Handler handler, LogRecord record) {
+	Map<Handler, Handler> batchHandlers =
+	    new IdentityHashMap<Handler, Handler>();
+	synchronized (fallbackLock) {
+	    /*
+	     * Wait for producers that claimed slots before noticing that the
+	     * consumer stopped, so records are published in order
+	     */
+	    while (head < tail.get()) {
+		if (drainBatch(batchHandlers) == 0) {
+		    Thread.yield();
+		}
+	    }
+	    if (record != null) {
+		try {
+		    handler.publish(record);
+		    handler.flush();
+		} catch (RuntimeException e) {
+		    reportError(handler, "Failed to publish log record", e,
+				ErrorManager.WRITE_FAILURE);
+		}
+		publishedCount.incrementAndGet();
+	    }
+	}
+    }
+
+    /** Publishes records in batches until shut down. */
+    private void drainLoop() {
+	Map<Handler, Handler> batchHandlers =
+	    new IdentityHashMap<Handler, Handler>();
+	while (true) {
+	    int count = drainBatch(batchHandlers);
+	    if (count == 0) {
+		if (shutdown) {
+		    return;
+		}
+		idle = true;
+		/* Recheck after publishing idle so a wakeup is not missed */
+		if (!isReady()) {
+		    LockSupport.parkNanos(IDLE_PARK_NANOS);
+		}
+		idle = false;
+	    }
+	}
+    }
+
+    /**
+     * Returns whether the slot at the consumer position holds a record.
+     *
+     * @return	whether a record is ready to be published
+     */
+    private boolean isReady() {
+	long pos = head;
+	return sequences.get((int) pos & mask) == pos + 1;
+    }
+
+    /**
+     * Publishes up to {@link #BATCH_SIZE} records and then flushes the
+     * handlers they were published to.
+     *
+     * @param	batchHandlers an empty map to use for collecting the
+     *		handlers used by the batch
+     * @return	the number of records published
+     */
+    private int drainBatch(Map<Handler, Handler> batchHandlers) {
+	int count = 0;
+	long pos = head;
+	try {
+	    while (count < BATCH_SIZE) {
+		int index = (int) pos & mask;
+		if (sequences.get(index) != pos + 1) {
+		    break;
+		}
+		Handler handler = handlers[index];
+		LogRecord record = records[index];
+		handlers[index] = null;
+		records[index] = null;
+		sequences.lazySet(index, pos + mask + 1);
+		pos++;
+		count++;
+		batchHandlers.put(handler, handler);
+		try {
+		    handler.publish(record);
+		} catch (RuntimeException e) {
+		    reportError(handler, "Failed to publish log record", e,
+				ErrorManager.WRITE_FAILURE);
+		}
+	    }
+	} finally {
+	    /*
+	     * Account for the records removed from the buffer even if a
+	     * handler threw an Error, so the position stays consistent for
+	     * publishing after the consumer thread stops
+	     */
+	    if (count > 0) {
+		publishedCount.addAndGet(count);
+		for (Handler handler : batchHandlers.keySet()) {
+		    try {
+			handler.flush();
+		    } catch (RuntimeException e) {
+			reportError(handler, "Failed to flush log handler", e,
+				    ErrorManager.FLUSH_FAILURE);
+		    }
+		}
+		batchHandlers.clear();
+		/* Only advance once the batch is written so flush can wait */
+		head = pos;
+	    }
+	}
+	return count;
+    }
+
+    /**
+     * Reports an error to the error manager of a handler, emulating the
+     * protected {@link Handler#reportError Handler.reportError} method.
+     */
+    private static void reportError(
+	Handler handler, String msg, Exception ex, int code)
+    {
+	try {
+	    handler.getErrorManager().error(msg, ex, code);
+	} catch (Exception ex2) {
+	    System.err.println("AsyncLogPublisher.reportError() caught:");
+	    ex2.printStackTrace();
+	}
+    }
+}
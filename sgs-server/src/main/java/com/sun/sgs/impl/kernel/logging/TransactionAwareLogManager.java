@@ -22,6 +22,8 @@
 package com.sun.sgs.impl.kernel.logging;
 
 import com.sun.sgs.impl.kernel.StandardProperties;
+import com.sun.sgs.impl.kernel.logging.AsyncLogPublisher.FullPolicy;
+import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
 
 import com.sun.sgs.service.TransactionProxy;
 
@@ -81,12 +83,32 @@ public final class TransactionAwareLogManager extends LogManager {
     private static final String APP_NAMESPACE_PROPERTY =
 	PROPERTIES_PREFIX + ".app.namespace";
 
+    /** The property for enabling asynchronous publication of records. */
+    static final String ASYNC_PROPERTY = PROPERTIES_PREFIX + ".async";
+
+    /** The property for the size of the asynchronous record buffer. */
+    static final String ASYNC_BUFFER_SIZE_PROPERTY =
+	ASYNC_PROPERTY + ".buffer.size";
+
+    /** The default size of the asynchronous record buffer. */
+    static final int DEFAULT_ASYNC_BUFFER_SIZE = 8192;
+
+    /** The property for the policy to apply when the buffer is full. */
+    static final String ASYNC_FULL_POLICY_PROPERTY =
+	ASYNC_PROPERTY + ".full.policy";
+
     /**
      * The {@code TransactionProxy} used by the {@link TransactionalHandler}
      * handlers.
      */
     private TransactionProxy txnProxy;
 
+    /**
+     * The publisher used to write records on a background thread, or {@code
+     * null} if asynchronous logging is not enabled.
+     */
+    private AsyncLogPublisher publisher;
+
     /**
      * The listing of {@code TransactionalLogger} instances that have yet to be
      * configured with a {@link TransactionProxy}, but were created prior to
@@ -135,6 +157,19 @@ public final class TransactionAwareLogManager extends LogManager {
 				       TransactionProxy txnProxy) {
 	this.txnProxy = txnProxy;
 
+	PropertiesWrapper wrappedProps = new PropertiesWrapper(properties);
+	if (publisher == null &&
+	    wrappedProps.getBooleanProperty(ASYNC_PROPERTY, false))
+	{
+	    publisher = new AsyncLogPublisher(
+		wrappedProps.getIntProperty(
+		    ASYNC_BUFFER_SIZE_PROPERTY, DEFAULT_ASYNC_BUFFER_SIZE,
+		    1, 1 << 30),
+		wrappedProps.getEnumProperty(
+		    ASYNC_FULL_POLICY_PROPERTY, FullPolicy.class,
+		    FullPolicy.BLOCK));
+	}
+
 	String appListener = 
 	    properties.getProperty(StandardProperties.APP_LISTENER);
 
@@ -169,13 +204,35 @@ public final class TransactionAwareLogManager extends LogManager {
 	    // were created statically, so we test to see whether the Logger
 	    // belongs to the app's namespace before configuring its handlers
 	    if (lgr.getName().startsWith(appNamespace)) {
-		lgr.configure(txnProxy);
+		lgr.configure(txnProxy, publisher);
 		lgr.config("This logger now has transactional semantics");
 	    }
 	}
 	unconfiguredLoggers.clear();
     }
 
+    /**
+     * Returns the number of records that were dropped because the
+     * asynchronous record buffer was full.  Returns {@code 0} if asynchronous
+     * logging is not enabled.
+     *
+     * @return the number of dropped records
+     */
+    public synchronized long getDroppedRecordCount() {
+	return (publisher == null) ? 0 : publisher.getDroppedCount();
+    }
+
+    /**
+     * Returns the number of records that have been written by the
+     * asynchronous publisher.  Returns {@code 0} if asynchronous logging is
+     * not enabled.
+     *
+     * @return the number of records written asynchronously
+     */
+    public synchronized long getAsyncPublishedRecordCount() {
+	return (publisher == null) ? 0 : publisher.getPublishedCount();
+    }
+
     /**
      * Returns the existing {@code Logger} for the provided name or creates a
      * new instance if none is found.  Note that <i>unlike the default
@@ -214,7 +271,7 @@ public final class TransactionAwareLogManager extends LogManager {
 	    // If we have been configured, see if the requested Logger's name 
             // is in the application's namespace.
 	    result = (!configured || name.startsWith(appNamespace)) 
-		? new TransactionalLogger(name, null, txnProxy)
+		? new TransactionalLogger(name, null, txnProxy, publisher)
 		: new SimpleLogger(name, null);
 
 	    // there is a chance that an application may demand a Logger prior
@@ -273,6 +330,13 @@ public final class TransactionAwareLogManager extends LogManager {
 	 */
 	private TransactionProxy txnProxy;
 
+	/**
+	 * The publisher passed to any {@link TransactionalHandler} created
+	 * by this {@code Logger}, or {@code null} if records are published
+	 * synchronously.
+	 */
+	private AsyncLogPublisher publisher;
+
 	/**
 	 * Constructs a {@code TransactionalLogger} that will have
 	 * transactional semantics if {@code txnProxy} is valid and non-{@code
@@ -285,12 +349,16 @@ public final class TransactionAwareLogManager extends LogManager {
 	 *                           the messages require localization.
 	 * @param txnProxy the {@code TransactionProxy} used to join the
 	 *                 current transaction when a report is logged.
+	 * @param publisher the publisher used to write records on a
+	 *                  background thread, or {@code null}
 	 */
 	public TransactionalLogger(String name,
 				   String resourceBundleName,
-				   TransactionProxy txnProxy) {
+				   TransactionProxy txnProxy,
+				   AsyncLogPublisher publisher) {
 	    super(name, resourceBundleName);
 	    this.txnProxy = txnProxy;
+	    this.publisher = publisher;
 	}
 				      
 	/**
@@ -313,8 +381,8 @@ public final class TransactionAwareLogManager extends LogManager {
                 } else {
 		    // wrap the original handler in one that has transactional
 		    // semantics
-		    super.addHandler(new TransactionalHandler(txnProxy, 
-							      handler));
+		    super.addHandler(new TransactionalHandler(
+					 txnProxy, handler, publisher));
 		}
             } else {
 		// if we were passed an existing TransactionalHandler, use it
@@ -369,6 +437,8 @@ public final class TransactionAwareLogManager extends LogManager {
 	 *
 	 * @param txnProxy the {@code TransactionProxy} used to join the
 	 *                 current transaction when a report is logged.
+	 * @param publisher the publisher used to write records on a
+	 *                  background thread, or {@code null}
 	 *
 	 * @see TransactionAwareLogManager#configure(Properties,
 	 *                                           TransactionProxy);
@@ -377,12 +447,14 @@ public final class TransactionAwareLogManager extends LogManager {
 	// the separate call chain having already acquired lock a on the
 	// TxnAwareLogManager.  Therefore neither methods of this class require
 	// locks
-	void configure(TransactionProxy txnProxy) {
+	void configure(TransactionProxy txnProxy,
+		       AsyncLogPublisher publisher) {
  	    if (txnProxy == null) {
  		return;
             }
 	    
 	    this.txnProxy = txnProxy;
+	    this.publisher = publisher;
 	    
 	    // In the event that no handlers have been specified for this
 	    // logger, we walk the Logger hierarchy until we find a parent that
@@ -401,7 +473,8 @@ public final class TransactionAwareLogManager extends LogManager {
 		    if (h instanceof TransactionalHandler) {
 			continue;
                     }
-		    super.addHandler(new TransactionalHandler(txnProxy, h));
+		    super.addHandler(
+			new TransactionalHandler(txnProxy, h, publisher));
 		    removeHandler(h);
 		    // ensure that any log calls to this logger don't work
 		    // their way up the logger hierarchy, which could result in
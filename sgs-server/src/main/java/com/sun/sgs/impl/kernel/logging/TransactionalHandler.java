@@ -70,6 +70,13 @@ public class TransactionalHandler extends Handler
      */
     private final Handler handler;
 
+    /**
+     * The publisher used to hand records to the backing handler on a
+     * background thread, or {@code null} if records are published
+     * synchronously.
+     */
+    private final AsyncLogPublisher publisher;
+
     /**
      * Constructs a new {@code TransactionalHandler} with the provided
      * {@code proxy} for joining transactions a the backing handler
@@ -83,12 +90,34 @@ public class TransactionalHandler extends Handler
      *         {@code proxy} is {@code null}.
      */
     TransactionalHandler(TransactionProxy proxy, Handler backingHandler) {
+	this(proxy, backingHandler, null);
+    }
+
+    /**
+     * Constructs a new {@code TransactionalHandler} that publishes
+     * records to the backing handler through the provided {@code
+     * publisher}.
+     *
+     * @param proxy the proxy used to join transactions
+     * @param backingHandler the handler used to perform the actual
+     *        logging
+     * @param publisher the publisher used to write records on a
+     *        background thread, or {@code null} to write them on the
+     *        calling thread
+     *
+     * @throws NullPointerException if the {@code backingHandler} or
+     *         {@code proxy} is {@code null}.
+     */
+    TransactionalHandler(TransactionProxy proxy, Handler backingHandler,
+			 AsyncLogPublisher publisher)
+    {
 	if (proxy == null || backingHandler == null) {
 	    throw new NullPointerException();
         }
 
 	this.proxy = proxy;
 	this.handler = backingHandler;	
+	this.publisher = publisher;
         bufferedRecords =
                 new ConcurrentHashMap<Transaction, Queue<LogRecord>>();
     }
@@ -108,6 +137,9 @@ public class TransactionalHandler extends Handler
      * {@inheritDoc}
      */
     public void close() {
+	if (publisher != null) {
+	    publisher.flush();
+	}
 	handler.close();
     }
 
@@ -121,7 +153,7 @@ public class TransactionalHandler extends Handler
     public void commit(Transaction txn) { 
 	Queue<LogRecord> records = bufferedRecords.remove(txn);
 	for (LogRecord r : records) {
-	    handler.publish(r);
+	    publishToHandler(r);
 	}
     }
 
@@ -129,6 +161,9 @@ public class TransactionalHandler extends Handler
      * {@inheritDoc}
      */
     public void flush() {
+	if (publisher != null) {
+	    publisher.flush();
+	}
 	handler.flush();
     }
 
@@ -234,7 +269,7 @@ public class TransactionalHandler extends Handler
         // If we're not in a transaction at all, just publish the record.
         // No need to buffer it.
         if (!proxy.inTransaction()) {
-            handler.publish(record);
+            publishToHandler(record);
             return;
         }
 	Transaction txn = proxy.getCurrentTransaction();
@@ -244,8 +279,12 @@ public class TransactionalHandler extends Handler
 	    // if it is used by certain classes like DataStoreImpl),
 	    // then we just pass the log record on through without
 	    // buffering
-	    handler.publish(record);
+	    publishToHandler(record);
         } else {
+	    // The record infers its source class and method from the
+	    // current stack the first time they are requested, so do that
+	    // now, while the logging call is still on the stack
+	    inferSource(record);
 	    Queue<LogRecord> records = bufferedRecords.get(txn);
 	    if (records == null) {
 		txn.join(this);
@@ -260,6 +299,33 @@ public class TransactionalHandler extends Handler
 	}
     }
 
+    /**
+     * Publishes the record to the backing handler, either directly or
+     * through the asynchronous publisher if one was provided.
+     *
+     * @param record the record to publish
+     */
+    private void publishToHandler(LogRecord record) {
+	if (publisher == null) {
+	    handler.publish(record);
+	} else {
+	    // Do this before the record is handed to the publisher's thread
+	    inferSource(record);
+	    publisher.offer(handler, record);
+	}
+    }
+
+    /**
+     * Has the record infer its source class and method name, if it has
+     * not done so already, so that they describe the current caller.
+     *
+     * @param record the record
+     */
+    private static void inferSource(LogRecord record) {
+	record.getSourceClassName();
+	record.getSourceMethodName();
+    }
+
     /**
      * {@inheritDoc}
      */
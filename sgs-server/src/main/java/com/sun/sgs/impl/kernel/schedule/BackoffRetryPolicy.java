@@ -0,0 +1,398 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.kernel.schedule;
+
+import com.sun.sgs.app.ExceptionRetryStatus;
+import com.sun.sgs.app.ResourceUnavailableException;
+import com.sun.sgs.app.TransactionConflictException;
+import com.sun.sgs.app.TransactionTimeoutException;
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
+import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.kernel.schedule.SchedulerRetryAction;
+import com.sun.sgs.kernel.schedule.SchedulerRetryPolicy;
+import java.util.Properties;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@code SchedulerRetryPolicy} that spaces out the retries of failed tasks
+ * using randomized exponential backoff.  After a configurable number of
+ * immediate retries, each retry of a task is delayed by a random amount of
+ * time between {@code 0} and a limit that doubles with each attempt, starting
+ * with a base delay that depends on the cause of the failure, and never
+ * exceeding a configured maximum.  Spreading out the retries of tasks that
+ * conflict on the same objects keeps them from colliding again on each
+ * retry. <p>
+ *
+ * The limit is reduced for tasks that have been waiting a long time to
+ * complete, where the age of a task is measured from its originally requested
+ * start time, so that older tasks retry sooner than the younger tasks they
+ * conflict with.  Since the retry time, not the start time, of a task is
+ * delayed, the backoff does not make a task appear younger to the access
+ * coordinator when it chooses deadlock victims.  Tasks that fail because of
+ * a transaction timeout also have their timeout doubled once they start
+ * backing off, as with {@link NowOrLaterRetryPolicy}. <p>
+ *
+ * Note that delays shorter than the scheduler queue's threshold for delayed
+ * tasks result in the task being placed at the end of the ready queue. <p>
+ *
+ * This class supports the following configuration properties:
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #IMMEDIATE_RETRIES_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_IMMEDIATE_RETRIES}
+ *
+ * <dd style="padding-top: .5em">The number of times a task may be tried
+ *      before its retries are delayed.  This value must be greater than or
+ *      equal to {@code 1}. <p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #CONFLICT_DELAY_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_CONFLICT_DELAY}
+ *
+ * <dd style="padding-top: .5em">The base delay, in milliseconds, for retrying
+ *      a task that failed because of a {@link TransactionConflictException}.
+ *      This value must be greater than or equal to {@code 1}. <p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #TIMEOUT_DELAY_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_TIMEOUT_DELAY}
+ *
+ * <dd style="padding-top: .5em">The base delay, in milliseconds, for retrying
+ *      a task that failed because of a {@link TransactionTimeoutException}.
+ *      This value must be greater than or equal to {@code 1}. <p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #RESOURCE_DELAY_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_RESOURCE_DELAY}
+ *
+ * <dd style="padding-top: .5em">The base delay, in milliseconds, for retrying
+ *      a task that failed because of a {@link ResourceUnavailableException},
+ *      or because of any other retryable exception.  This value must be
+ *      greater than or equal to {@code 1}. <p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #MAX_DELAY_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_MAX_DELAY}
+ *
+ * <dd style="padding-top: .5em">The maximum delay, in milliseconds, before a
+ *      task is retried.  This value must be greater than or equal to
+ *      {@code 1}. <p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #AGE_THRESHOLD_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_AGE_THRESHOLD}
+ *
+ * <dd style="padding-top: .5em">The age, in milliseconds, at which the delay
+ *      limit for a task is halved.  The limit is divided by one more than the
+ *      number of times this age has elapsed since the task was requested to
+ *      start.  This value must be greater than or equal to {@code 1}. <p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value ImmediateRetryPolicy#RETRY_WARNING_THRESHOLD_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i>
+ *      {@value ImmediateRetryPolicy#DEFAULT_RETRY_WARNING_THRESHOLD}
+ *
+ * <dd style="padding-top: .5em">If a task has been retried a multiple of
+ *      times equal to the value of this property, then a {@code WARNING}
+ *      message will be logged as feedback to the user.  This value must be
+ *      greater than or equal to {@code 1}.
+ *
+ * </dl> <p>
+ */
+public class BackoffRetryPolicy implements SchedulerRetryPolicy {
+
+    // logger for this class
+    private static final LoggerWrapper logger =
+        new LoggerWrapper(Logger.getLogger(BackoffRetryPolicy.
+                                           class.getName()));
+
+    // the prefix for all properties of this class
+    private static final String PROP_PREFIX =
+            "com.sun.sgs.impl.kernel.schedule.backoff";
+
+    /**
+     * The property used to define the number of times a task may be tried
+     * before its retries are delayed.
+     */
+    static final String IMMEDIATE_RETRIES_PROPERTY =
+            PROP_PREFIX + ".immediate.retries";
+
+    /**
+     * The default number of tries before retries are delayed.
+     */
+    static final int DEFAULT_IMMEDIATE_RETRIES = 1;
+
+    /**
+     * The property used to define the base delay for tasks that failed
+     * because of a conflict.
+     */
+    static final String CONFLICT_DELAY_PROPERTY =
+            PROP_PREFIX + ".conflict.delay";
+
+    /**
+     * The default base delay for conflicts.
+     */
+    static final long DEFAULT_CONFLICT_DELAY = 2;
+
+    /**
+     * The property used to define the base delay for tasks that failed
+     * because of a transaction timeout.
+     */
+    static final String TIMEOUT_DELAY_PROPERTY =
+            PROP_PREFIX + ".timeout.delay";
+
+    /**
+     * The default base delay for timeouts.
+     */
+    static final long DEFAULT_TIMEOUT_DELAY = 20;
+
+    /**
+     * The property used to define the base delay for tasks that failed
+     * because a resource was unavailable.
+     */
+    static final String RESOURCE_DELAY_PROPERTY =
+            PROP_PREFIX + ".resource.delay";
+
+    /**
+     * The default base delay for unavailable resources.
+     */
+    static final long DEFAULT_RESOURCE_DELAY = 50;
+
+    /**
+     * The property used to define the maximum retry delay.
+     */
+    static final String MAX_DELAY_PROPERTY = PROP_PREFIX + ".max.delay";
+
+    /**
+     * The default maximum retry delay.
+     */
+    static final long DEFAULT_MAX_DELAY = 1000;
+
+    /**
+     * The property used to define the age at which the delay limit for a
+     * task is halved.
+     */
+    static final String AGE_THRESHOLD_PROPERTY =
+            PROP_PREFIX + ".age.threshold";
+
+    /**
+     * The default age threshold.
+     */
+    static final long DEFAULT_AGE_THRESHOLD = 1000;
+
+    // the number of tries before a task's retries are delayed
+    private final int immediateRetries;
+
+    // the base delays for each kind of failure
+    private final long conflictDelay;
+    private final long timeoutDelay;
+    private final long resourceDelay;
+
+    // the maximum retry delay
+    private final long maxDelay;
+
+    // the age at which the delay limit is halved
+    private final long ageThreshold;
+
+    // the task retry count at which a warning should be printed
+    private final int retryWarningThreshold;
+
+    // the source of random delays
+    private final Random random = new Random();
+
+    /**
+     * Constructs a {@code BackoffRetryPolicy}.
+     *
+     * @param properties the system properties available
+     */
+    public BackoffRetryPolicy(Properties properties) {
+        PropertiesWrapper wrappedProps = new PropertiesWrapper(properties);
+        this.immediateRetries = wrappedProps.getIntProperty(
+                IMMEDIATE_RETRIES_PROPERTY, DEFAULT_IMMEDIATE_RETRIES,
+                1, Integer.MAX_VALUE);
+        this.conflictDelay = wrappedProps.getLongProperty(
+                CONFLICT_DELAY_PROPERTY, DEFAULT_CONFLICT_DELAY,
+                1, Long.MAX_VALUE);
+        this.timeoutDelay = wrappedProps.getLongProperty(
+                TIMEOUT_DELAY_PROPERTY, DEFAULT_TIMEOUT_DELAY,
+                1, Long.MAX_VALUE);
+        this.resourceDelay = wrappedProps.getLongProperty(
+                RESOURCE_DELAY_PROPERTY, DEFAULT_RESOURCE_DELAY,
+                1, Long.MAX_VALUE);
+        this.maxDelay = wrappedProps.getLongProperty(
+                MAX_DELAY_PROPERTY, DEFAULT_MAX_DELAY, 1, Long.MAX_VALUE);
+        this.ageThreshold = wrappedProps.getLongProperty(
+                AGE_THRESHOLD_PROPERTY, DEFAULT_AGE_THRESHOLD,
+                1, Long.MAX_VALUE);
+        this.retryWarningThreshold = wrappedProps.getIntProperty(
+                ImmediateRetryPolicy.RETRY_WARNING_THRESHOLD_PROPERTY,
+                ImmediateRetryPolicy.DEFAULT_RETRY_WARNING_THRESHOLD,
+                1, Integer.MAX_VALUE);
+
+        logger.log(Level.CONFIG,
+                   "Created BackoffRetryPolicy with properties:" +
+                   "\n  " + IMMEDIATE_RETRIES_PROPERTY + "=" +
+                   immediateRetries +
+                   "\n  " + CONFLICT_DELAY_PROPERTY + "=" + conflictDelay +
+                   "\n  " + TIMEOUT_DELAY_PROPERTY + "=" + timeoutDelay +
+                   "\n  " + RESOURCE_DELAY_PROPERTY + "=" + resourceDelay +
+                   "\n  " + MAX_DELAY_PROPERTY + "=" + maxDelay +
+                   "\n  " + AGE_THRESHOLD_PROPERTY + "=" + ageThreshold +
+                   "\n  " +
+                   ImmediateRetryPolicy.RETRY_WARNING_THRESHOLD_PROPERTY +
+                   "=" + retryWarningThreshold);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation returns {@link SchedulerRetryAction#RETRY_NOW}
+     * for any task that has most recently failed with a retryable exception
+     * and has not yet been tried more than the number of immediate retries.
+     * Otherwise, it sets the retry time of the task to a random time in the
+     * future, as determined by the cause of the failure, the number of times
+     * the task has been tried, and the age of the task, and returns
+     * {@link SchedulerRetryAction#RETRY_LATER}.
+     */
+    public SchedulerRetryAction getRetryAction(ScheduledTask task) {
+        // null task is not allowed
+        if (task == null) {
+            throw new IllegalArgumentException("task cannot be null");
+        }
+
+        // result cannot be null
+        Throwable result = task.getLastFailure();
+        if (result == null) {
+            throw new IllegalStateException("task's last failure " +
+                                            "cannot be null");
+        }
+
+        if (!(result instanceof ExceptionRetryStatus) ||
+            !((ExceptionRetryStatus) result).shouldRetry())
+        {
+            // we're not re-trying the task, so specify reason for dropping it
+            if (logger.isLoggable(Level.FINE)) {
+                if (task.isRecurring()) {
+                    logger.log(Level.FINE,
+                               "skipping a recurrence of a task because it " +
+                               "failed with a non-retryable exception: {0}",
+                               task);
+                } else {
+                    logger.log(Level.FINE,
+                               "dropping a task because it failed with a " +
+                               "non-retryable exception: {0}", task);
+                }
+            }
+            return SchedulerRetryAction.DROP;
+        }
+
+        // Print a WARNING message if a task's retry count is a
+        // multiple of a configurable threshold
+        int tryCount = task.getTryCount();
+        if (tryCount % retryWarningThreshold == 0) {
+            logger.logThrow(Level.WARNING, result,
+                            "Task has been retried {0} times: {1}",
+                            tryCount, task);
+        }
+
+        if (tryCount <= immediateRetries) {
+            return SchedulerRetryAction.RETRY_NOW;
+        }
+
+        // give a timed out task more time on its next try, provided that
+        // the timeout has not exceeded max int
+        if (result instanceof TransactionTimeoutException &&
+            task.getTimeout() * 2L < (long) Integer.MAX_VALUE)
+        {
+            task.setTimeout(task.getTimeout() * 2);
+        }
+
+        long now = System.currentTimeMillis();
+        long delay = getDelay(result, tryCount - immediateRetries,
+                              now - task.getStartTime());
+        task.setRetryTime(now + delay);
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.log(Level.FINEST,
+                       "Delaying retry {0} of task {1} by {2} ms",
+                       tryCount, task, delay);
+        }
+        return SchedulerRetryAction.RETRY_LATER;
+    }
+
+    /**
+     * Returns a random delay, in milliseconds, for retrying a task that
+     * failed with the given cause.
+     *
+     * @param cause the cause of the most recent failure
+     * @param backoffs the number of times the task has backed off,
+     *                 including this time
+     * @param age the number of milliseconds since the task was originally
+     *            requested to start
+     * @return the delay before retrying the task
+     */
+    long getDelay(Throwable cause, int backoffs, long age) {
+        long limit = getBaseDelay(cause);
+        for (int i = 1; i < backoffs && limit < maxDelay; i++) {
+            limit *= 2;
+        }
+        limit = Math.min(limit, maxDelay);
+        if (age > 0) {
+            limit /= 1 + (age / ageThreshold);
+        }
+        if (limit <= 0) {
+            return 0;
+        }
+        // use the full range up to the limit so that tasks that failed
+        // together are spread out as much as possible
+        return (long) (random.nextDouble() * (limit + 1));
+    }
+
+    /**
+     * Returns the base delay, in milliseconds, for a task that failed with
+     * the given cause.
+     *
+     * @param cause the cause of the most recent failure
+     * @return the base delay for the cause
+     */
+    private long getBaseDelay(Throwable cause) {
+        if (cause instanceof TransactionConflictException) {
+            return conflictDelay;
+        } else if (cause instanceof TransactionTimeoutException) {
+            return timeoutDelay;
+        } else {
+            return resourceDelay;
+        }
+    }
+
+}
@@ -65,7 +65,11 @@ class TimedTaskHandler {
     /**
      * Tries to pass off a task to be run at some point in the future. If
      * the task should be run directly instead of delayed, then it is
-     * rejected and the method returns <code>false</code>.
+     * rejected and the method returns <code>false</code>.  A task whose
+     * start time is less than <code>FUTURE_THRESHOLD</code> milliseconds
+     * away is run directly, but a retry time set by the retry policy is
+     * always honoured, since short retry delays are what keep conflicting
+     * tasks from retrying in step.
      *
      * @param task the <code>ScheduledTask</code> to run in the future
      *
@@ -73,9 +77,15 @@ class TimedTaskHandler {
      *         <code>false</code> otherwise
      */
     boolean runDelayed(ScheduledTask task) {
-        // see if this is far enough in the future that it's worth handling
-        if (task.getStartTime() < (System.currentTimeMillis() +
-                                   FUTURE_THRESHOLD)) {
+        long now = System.currentTimeMillis();
+        long nextRunTime = task.getNextRunTime();
+        if (nextRunTime <= now) {
+            return false;
+        }
+        // unless this is a delayed retry, see if this is far enough in the
+        // future that it's worth handling
+        if (nextRunTime == task.getStartTime() &&
+            nextRunTime < now + FUTURE_THRESHOLD) {
             return false;
         }
 
@@ -95,7 +105,7 @@ class TimedTaskHandler {
             }
         }
 
-        timer.schedule(tt, new Date(task.getStartTime()));
+        timer.schedule(tt, new Date(task.getNextRunTime()));
         return true;
     }
 
@@ -126,7 +136,7 @@ class TimedTaskHandler {
         }
         /** {@inheritDoc} */
         public long scheduledExecutionTime() {
-            return task.getStartTime();
+            return task.getNextRunTime();
         }
         /** {@inheritDoc} */
         public synchronized void run() {
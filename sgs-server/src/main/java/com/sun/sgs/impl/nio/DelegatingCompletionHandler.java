@@ -97,6 +97,12 @@ public abstract class DelegatingCompletionHandler<OR, OA, IR, IA>
      */
     private IoFuture<IR, IA> innerFuture = null;
 
+    /**
+     * Whether {@link #cancel cancel} is cancelling the inner future, so that
+     * a completion delivered while doing so should be ignored.
+     */
+    private boolean cancelling = false;
+
     /**
      * Creates an instance for the specified attachment and handler.
      *
@@ -126,7 +132,7 @@ public abstract class DelegatingCompletionHandler<OR, OA, IR, IA>
      */
     public final void completed(IoFuture<IR, IA> innerResult) {
 	synchronized (lock) {
-	    if (!isDone()) {
+	    if (!isDone() && !cancelling) {
 		try {
 		    innerFuture = implCompleted(innerResult);
 		    if (innerFuture == null) {
@@ -165,8 +171,20 @@ public abstract class DelegatingCompletionHandler<OR, OA, IR, IA>
 	    if (isDone()) {
 		return false;
 	    }
-	    boolean success = (innerFuture == null)
-		? true : innerFuture.cancel(mayInterruptIfRunning);
+	    boolean success = true;
+	    if (innerFuture != null) {
+		/*
+		 * The inner future may notify this handler before returning,
+		 * but this future should be cancelled rather than completed
+		 * with the inner future's cancellation
+		 */
+		cancelling = true;
+		try {
+		    success = innerFuture.cancel(mayInterruptIfRunning);
+		} finally {
+		    cancelling = false;
+		}
+	    }
 	    if (success) {
 		success = super.cancel(false);
 		assert success;
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+
+package com.sun.sgs.impl.nio;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct byte buffers shared by many connections.  Buffers are
+ * organized into size classes whose capacities are powers of two, from
+ * the minimum buffer size to the maximum buffer size specified in the
+ * constructor.  A request for a buffer is satisfied from the smallest size
+ * class that is large enough, and released buffers are retained for reuse
+ * as long as the total capacity of the retained buffers does not exceed
+ * the pool's limit.  Requests larger than the maximum buffer size are
+ * satisfied with buffers that are not retained when released. <p>
+ *
+ * Instances of this class are safe for use by multiple threads.
+ */
+public class DirectBufferPool {
+
+    /** The base 2 logarithm of the capacity of the smallest size class. */
+    private final int minShift;
+
+    /** The capacity of the largest size class. */
+    private final int maxBufferSize;
+
+    /** The maximum total capacity of the retained buffers. */
+    private final long maxPooledBytes;
+
+    /** The retained buffers, indexed by size class. */
+    private final Queue<ByteBuffer>[] pools;
+
+    /** The total capacity of the retained buffers. */
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    /** The number of buffers allocated. */
+    private final AtomicLong allocatedCount = new AtomicLong();
+
+    /**
+     * Creates an instance of this class.  The minimum and maximum buffer
+     * sizes are rounded up to the nearest power of two.
+     *
+     * @param	minBufferSize the capacity of the smallest size class
+     * @param	maxBufferSize the capacity of the largest size class
+     * @param	maxPooledBytes the maximum total capacity of the buffers
+     *		retained for reuse
+     * @throws	IllegalArgumentException if {@code minBufferSize} is not
+     *		positive, if {@code maxBufferSize} is less than {@code
+     *		minBufferSize} or greater than {@code 2^30}, or if {@code
+     *		maxPooledBytes} is negative
+     */
+    @SuppressWarnings("unchecked")
+    public DirectBufferPool(int minBufferSize,
+			    int maxBufferSize,
+			    long maxPooledBytes)
+    {
+	if (minBufferSize <= 0) {
+	    throw new IllegalArgumentException(
+		"The minBufferSize must be positive");
+	} else if (maxBufferSize < minBufferSize || maxBufferSize > 1 << 30) {
+	    throw new IllegalArgumentException(
+		"The maxBufferSize must not be less than minBufferSize or " +
+		"greater than 2^30");
+	} else if (maxPooledBytes < 0) {
+	    throw new IllegalArgumentException(
+		"The maxPooledBytes must not be negative");
+	}
+	minShift = shift(minBufferSize);
+	int maxShift = shift(maxBufferSize);
+	this.maxBufferSize = 1 << maxShift;
+	this.maxPooledBytes = maxPooledBytes;
+	pools = new Queue[maxShift - minShift + 1];
+	for (int i = 0; i < pools.length; i++) {
+	    pools[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+	}
+    }
+
+    /**
+     * Returns a direct buffer with a capacity of at least {@code size}
+     * bytes, with its position set to {@code 0} and its limit set to
+     * {@code size}.  The contents of the buffer are undefined.
+     *
+     * @param	size the number of bytes needed
+     * @return	the buffer
+     * @throws	IllegalArgumentException if {@code size} is negative
+     */
+    public ByteBuffer acquire(int size) {
+	if (size < 0) {
+	    throw new IllegalArgumentException("The size must not be negative");
+	}
+	ByteBuffer buffer;
+	if (size > maxBufferSize) {
+	    buffer = ByteBuffer.allocateDirect(size);
+	    allocatedCount.incrementAndGet();
+	} else {
+	    int index = Math.max(shift(size) - minShift, 0);
+	    buffer = pools[index].poll();
+	    if (buffer != null) {
+		pooledBytes.addAndGet(-buffer.capacity());
+	    } else {
+		buffer = ByteBuffer.allocateDirect(1 << (index + minShift));
+		allocatedCount.incrementAndGet();
+	    }
+	}
+	buffer.clear().limit(size);
+	return buffer;
+    }
+
+    /**
+     * Returns the specified buffer, which must have been obtained from
+     * this pool, to the pool.  The caller must not use the buffer, or any
+     * buffer that shares its contents, after calling this method.  Does
+     * nothing if {@code buffer} is {@code null}.
+     *
+     * @param	buffer the buffer or {@code null}
+     */
+    public void release(ByteBuffer buffer) {
+	if (buffer == null || !buffer.isDirect()) {
+	    return;
+	}
+	int capacity = buffer.capacity();
+	if (capacity > maxBufferSize ||
+	    Integer.bitCount(capacity) != 1 ||
+	    capacity < (1 << minShift))
+	{
+	    return;
+	}
+	if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+	    pooledBytes.addAndGet(-capacity);
+	    return;
+	}
+	pools[shift(capacity) - minShift].offer(buffer);
+    }
+
+    /**
+     * Returns the total capacity, in bytes, of the buffers currently
+     * retained for reuse.
+     *
+     * @return	the total capacity of the retained buffers
+     */
+    public long getPooledBytes() {
+	return pooledBytes.get();
+    }
+
+    /**
+     * Returns the number of buffers this pool has allocated.
+     *
+     * @return	the number of buffers allocated
+     */
+    public long getAllocatedCount() {
+	return allocatedCount.get();
+    }
+
+    /**
+     * Returns the base 2 logarithm of the smallest power of two that is
+     * not less than {@code size}.
+     */
+    private static int shift(int size) {
+	return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.nio;
+
+import java.io.IOException;
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.concurrent.ExecutorService;
+
+import com.sun.sgs.nio.channels.AsynchronousChannelGroup;
+import com.sun.sgs.nio.channels.AsynchronousDatagramChannel;
+import com.sun.sgs.nio.channels.ProtocolFamily;
+import com.sun.sgs.nio.channels.spi.AsynchronousChannelProvider;
+
+/**
+ * An asynchronous channel provider that adapts the JDK's asynchronous
+ * channels ({@link java.nio.channels.AsynchronousSocketChannel} and
+ * related classes, available in Java 7 and later) to the {@link
+ * com.sun.sgs.nio.channels} API.  Unlike {@link
+ * ReactiveAsyncChannelProvider}, this provider does not run its own
+ * selector loop: I/O readiness and completion dispatch are handled by the
+ * JDK, and completion handlers are called directly on the threads of the
+ * channel group's executor. <p>
+ *
+ * To use this provider, set the system property {@code
+ * com.sun.sgs.nio.channels.spi.AsynchronousChannelProvider} to the name of
+ * this class. <p>
+ *
+ * This provider does not support asynchronous datagram channels, since the
+ * JDK does not provide them.
+ */
+public class Nio2AsyncChannelProvider extends AsynchronousChannelProvider {
+
+    /** The default group, or {@code null} if one has not been created yet. */
+    private Nio2ChannelGroup defaultGroupInstance = null;
+
+    /**
+     * The default uncaught exception handler (or {@code null} if no handler
+     * is set), until the default group is created.
+     */
+    private UncaughtExceptionHandler defaultUncaughtHandler = null;
+
+    /**
+     * Creates an instance of this class.  Public visibility to allow
+     * instantiation from a property at runtime.
+     */
+    public Nio2AsyncChannelProvider() { }
+
+    /**
+     * Returns the default channel group for this provider, creating one
+     * if necessary.
+     *
+     * @return the default channel group for this provider
+     * @throws IOException if an I/O error occurs
+     */
+    private Nio2ChannelGroup defaultGroup() throws IOException {
+        synchronized (this) {
+            if (defaultGroupInstance == null) {
+                ExecutorService executor =
+                    DefaultThreadPoolFactory.create().newThreadPool();
+                defaultGroupInstance = openAsynchronousChannelGroup(executor);
+                defaultGroupInstance.uncaughtHandler = defaultUncaughtHandler;
+                defaultUncaughtHandler = null;
+            }
+            return defaultGroupInstance;
+        }
+    }
+
+    /**
+     * Checks that the given channel group was created by this provider,
+     * throwing an exception if it was not.
+     *
+     * @param group a channel group, or {@code null} to return the default
+     *        group for this provider
+     * @return the given group, or the default group if {@code null} was
+     *         given
+     * @throws IllegalArgumentException if the group was not created by
+     *         this provider
+     * @throws IOException if an I/O error occurs while constructing the
+     *         default group
+     */
+    private Nio2ChannelGroup checkGroup(AsynchronousChannelGroup group)
+        throws IOException
+    {
+        if (group == null) {
+            return defaultGroup();
+        }
+        if (group.provider() != this) {
+            throw new IllegalArgumentException(
+                "AsynchronousChannelGroup not created by this provider");
+        }
+        return (Nio2ChannelGroup) group;
+    }
+
+    /* -- Implement AsynchronousChannelProvider -- */
+
+    /** {@inheritDoc} */
+    @Override
+    public Nio2ChannelGroup openAsynchronousChannelGroup(
+        ExecutorService executor)
+        throws IOException
+    {
+        return new Nio2ChannelGroup(this, executor);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Nio2ServerSocketChannel openAsynchronousServerSocketChannel(
+        AsynchronousChannelGroup group)
+        throws IOException
+    {
+        return new Nio2ServerSocketChannel(checkGroup(group));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Nio2SocketChannel openAsynchronousSocketChannel(
+        AsynchronousChannelGroup group)
+        throws IOException
+    {
+        return new Nio2SocketChannel(checkGroup(group));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This implementation always throws {@link
+     * UnsupportedOperationException}.
+     */
+    @Override
+    public AsynchronousDatagramChannel openAsynchronousDatagramChannel(
+        ProtocolFamily pf, AsynchronousChannelGroup group)
+    {
+        throw new UnsupportedOperationException(
+            "Asynchronous datagram channels are not supported");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public UncaughtExceptionHandler getUncaughtExceptionHandler() {
+        synchronized (this) {
+            if (defaultGroupInstance != null) {
+                return defaultGroupInstance.uncaughtHandler;
+            } else {
+                return defaultUncaughtHandler;
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setUncaughtExceptionHandler(UncaughtExceptionHandler eh) {
+        synchronized (this) {
+            if (defaultGroupInstance != null) {
+                defaultGroupInstance.uncaughtHandler = eh;
+            } else {
+                defaultUncaughtHandler = eh;
+            }
+        }
+    }
+}
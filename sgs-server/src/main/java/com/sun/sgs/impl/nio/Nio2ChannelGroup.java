@@ -0,0 +1,157 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.nio;
+
+import java.io.IOException;
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.sgs.nio.channels.AsynchronousChannelGroup;
+import com.sun.sgs.nio.channels.CompletionHandler;
+import com.sun.sgs.nio.channels.IoFuture;
+import com.sun.sgs.nio.channels.ShutdownChannelGroupException;
+
+/**
+ * An {@link AsynchronousChannelGroup} backed by a JDK {@link
+ * java.nio.channels.AsynchronousChannelGroup} that uses the group's
+ * executor.  Completion handlers are called on the executor's threads by
+ * the JDK channels, without an additional hand-off.
+ */
+final class Nio2ChannelGroup extends AsynchronousChannelGroup {
+
+    /** The underlying JDK channel group. */
+    private final java.nio.channels.AsynchronousChannelGroup jdkGroup;
+
+    /**
+     * The handler for exceptions thrown by completion handlers, or
+     * {@code null}.
+     */
+    volatile UncaughtExceptionHandler uncaughtHandler = null;
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param provider the provider that created this group
+     * @param executor the executor for this group
+     * @throws IOException if an I/O error occurs
+     */
+    Nio2ChannelGroup(Nio2AsyncChannelProvider provider,
+                     ExecutorService executor)
+        throws IOException
+    {
+        super(provider);
+        if (executor == null) {
+            throw new NullPointerException("null executor");
+        }
+        jdkGroup = java.nio.channels.AsynchronousChannelGroup.withThreadPool(
+            executor);
+    }
+
+    /**
+     * Returns the underlying JDK channel group.
+     *
+     * @return the underlying JDK channel group
+     * @throws ShutdownChannelGroupException if this group is shut down
+     */
+    java.nio.channels.AsynchronousChannelGroup jdkGroup() {
+        if (jdkGroup.isShutdown()) {
+            throw new ShutdownChannelGroupException();
+        }
+        return jdkGroup;
+    }
+
+    /**
+     * Calls the completion handler with the result, reporting any
+     * exception it throws to the uncaught exception handler.
+     *
+     * @param <R> the result type
+     * @param <A> the attachment type
+     * @param handler the completion handler
+     * @param result the result
+     */
+    <R, A> void runCompletion(CompletionHandler<R, A> handler,
+                              IoFuture<R, A> result)
+    {
+        try {
+            handler.completed(result);
+        } catch (RuntimeException e) {
+            uncaught(e);
+        } catch (Error e) {
+            uncaught(e);
+        }
+    }
+
+    /**
+     * Reports an exception thrown by a completion handler to the
+     * uncaught exception handler, if any.
+     *
+     * @param exception the exception
+     */
+    private void uncaught(Throwable exception) {
+        try {
+            UncaughtExceptionHandler ueh = uncaughtHandler;
+            if (ueh != null) {
+                ueh.uncaughtException(Thread.currentThread(), exception);
+            }
+        } catch (Throwable ignore) {
+            // Ignore all throwables here, even Errors, as specified
+            // by Thread#UncaughtExceptionHandler#uncaughtException
+        }
+    }
+
+    /* -- Implement AsynchronousChannelGroup -- */
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isShutdown() {
+        return jdkGroup.isShutdown();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isTerminated() {
+        return jdkGroup.isTerminated();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Nio2ChannelGroup shutdown() {
+        jdkGroup.shutdown();
+        return this;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Nio2ChannelGroup shutdownNow() throws IOException {
+        jdkGroup.shutdownNow();
+        return this;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        return jdkGroup.awaitTermination(timeout, unit);
+    }
+}
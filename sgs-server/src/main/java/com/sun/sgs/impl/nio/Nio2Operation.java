@@ -0,0 +1,221 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.nio;
+
+import java.io.IOException;
+import java.nio.channels.Channel;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.sgs.nio.channels.AbortedByTimeoutException;
+import com.sun.sgs.nio.channels.AcceptPendingException;
+import com.sun.sgs.nio.channels.CompletionHandler;
+import com.sun.sgs.nio.channels.ReadPendingException;
+import com.sun.sgs.nio.channels.ShutdownChannelGroupException;
+import com.sun.sgs.nio.channels.WritePendingException;
+
+/**
+ * An {@link com.sun.sgs.nio.channels.IoFuture} for an operation performed
+ * by a JDK asynchronous channel on behalf of one of the channels created by
+ * {@link Nio2AsyncChannelProvider}.  An instance is passed to the JDK
+ * channel as its {@link java.nio.channels.CompletionHandler}; when the JDK
+ * channel completes the operation, the instance clears the channel's
+ * pending flag for the operation and calls the caller's completion handler
+ * directly on the JDK thread that completed it. <p>
+ *
+ * The JDK channels provide no way to cancel an operation other than
+ * closing the channel, so cancelling an instance only completes the
+ * future: the JDK operation stays outstanding, and may still use the
+ * caller's buffer.  The pending flag therefore stays set until the JDK
+ * channel completes the operation, and a channel it accepts after the
+ * operation was cancelled is closed.
+ *
+ * @param <R> the result type
+ * @param <A> the attachment type
+ */
+final class Nio2Operation<R, A>
+    extends IoFutureTask<R, A>
+    implements java.nio.channels.CompletionHandler<R, Void>
+{
+    /** A callable that should never be called. */
+    private static final Callable<Object> FAILING_CALLABLE =
+        new Callable<Object>() {
+            public Object call() {
+                throw new AssertionError();
+            }
+        };
+
+    /** The channel group. */
+    private final Nio2ChannelGroup group;
+
+    /** The flag to clear when the operation is done, or {@code null}. */
+    private final AtomicBoolean pending;
+
+    /** The caller's completion handler, or {@code null}. */
+    private final CompletionHandler<R, A> handler;
+
+    /**
+     * The number of events that must occur before the pending flag is
+     * cleared: the JDK channel completing the operation, and this future
+     * becoming done.
+     */
+    private final AtomicInteger pendingEvents = new AtomicInteger(2);
+
+    /**
+     * Creates an instance of this class.
+     *
+     * @param group the channel group
+     * @param pending the flag to clear when the operation is done, or
+     *        {@code null}
+     * @param attachment the attachment; can be {@code null}
+     * @param handler the completion handler; can be {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    Nio2Operation(Nio2ChannelGroup group,
+                  AtomicBoolean pending,
+                  A attachment,
+                  CompletionHandler<R, ? super A> handler)
+    {
+        super((Callable<R>) FAILING_CALLABLE, attachment);
+        this.group = group;
+        this.pending = pending;
+        this.handler = (CompletionHandler<R, A>) handler;
+    }
+
+    /* -- Implement java.nio.channels.CompletionHandler -- */
+
+    /** {@inheritDoc} */
+    public void completed(R result, Void ignore) {
+        pendingEvent();
+        set(result);
+        if (isCancelled() && result instanceof Channel) {
+            /* Nobody will receive the accepted channel */
+            try {
+                ((Channel) result).close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void failed(Throwable exception, Void ignore) {
+        pendingEvent();
+        setException(translateFailure(exception));
+    }
+
+    /* -- Other methods -- */
+
+    /**
+     * The {@code run} method is not supported, since the operation is
+     * performed by the JDK channel.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void run() {
+        throw new UnsupportedOperationException(
+            "The run method is not supported");
+    }
+
+    /**
+     * Clears the pending flag, unless the operation was cancelled and the
+     * JDK channel has not yet completed it, and calls the completion
+     * handler, if any.
+     */
+    @Override
+    protected void done() {
+        pendingEvent();
+        if (handler != null) {
+            group.runCompletion(handler, this);
+        }
+    }
+
+    /**
+     * Notes that the JDK channel completed the operation, or that this
+     * future is done, and clears the pending flag once both have happened.
+     */
+    private void pendingEvent() {
+        if (pendingEvents.decrementAndGet() == 0 && pending != null) {
+            pending.set(false);
+        }
+    }
+
+    /**
+     * Returns the exception that should be reported for the specified
+     * exception thrown by a JDK channel, replacing JDK exceptions with
+     * their equivalents in {@code com.sun.sgs.nio.channels}.
+     *
+     * @param exception the exception thrown by the JDK channel
+     * @return the exception to report
+     */
+    static Throwable translateFailure(Throwable exception) {
+        if (exception instanceof InterruptedByTimeoutException) {
+            return Util.initCause(new AbortedByTimeoutException(), exception);
+        } else if (exception instanceof
+                   java.nio.channels.ShutdownChannelGroupException)
+        {
+            return Util.initCause(
+                new ShutdownChannelGroupException(), exception);
+        } else {
+            return exception;
+        }
+    }
+
+    /**
+     * Returns the runtime exception that should be thrown for the
+     * specified runtime exception thrown when starting an operation on a
+     * JDK channel.
+     *
+     * @param exception the exception thrown by the JDK channel
+     * @return the exception to throw
+     */
+    static RuntimeException translateStartFailure(
+        RuntimeException exception)
+    {
+        if (exception instanceof java.nio.channels.AlreadyBoundException) {
+            return Util.initCause(
+                new com.sun.sgs.nio.channels.AlreadyBoundException(),
+                exception);
+        } else if (exception instanceof
+                   java.nio.channels.ReadPendingException)
+        {
+            return Util.initCause(new ReadPendingException(), exception);
+        } else if (exception instanceof
+                   java.nio.channels.WritePendingException)
+        {
+            return Util.initCause(new WritePendingException(), exception);
+        } else if (exception instanceof
+                   java.nio.channels.AcceptPendingException)
+        {
+            return Util.initCause(new AcceptPendingException(), exception);
+        } else if (exception instanceof
+                   java.nio.channels.ShutdownChannelGroupException)
+        {
+            return Util.initCause(
+                new ShutdownChannelGroupException(), exception);
+        } else {
+            return exception;
+        }
+    }
+}
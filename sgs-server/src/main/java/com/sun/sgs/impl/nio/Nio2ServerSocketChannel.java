@@ -0,0 +1,178 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.nio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.sun.sgs.nio.channels.AcceptPendingException;
+import com.sun.sgs.nio.channels.AsynchronousServerSocketChannel;
+import com.sun.sgs.nio.channels.AsynchronousSocketChannel;
+import com.sun.sgs.nio.channels.ClosedAsynchronousChannelException;
+import com.sun.sgs.nio.channels.CompletionHandler;
+import com.sun.sgs.nio.channels.IoFuture;
+import com.sun.sgs.nio.channels.SocketOption;
+import com.sun.sgs.nio.channels.StandardSocketOption;
+
+/**
+ * An implementation of {@link AsynchronousServerSocketChannel} that
+ * delegates to a JDK {@link
+ * java.nio.channels.AsynchronousServerSocketChannel}.
+ */
+final class Nio2ServerSocketChannel extends AsynchronousServerSocketChannel {
+
+    /** The valid socket options for this channel. */
+    private static final Set<SocketOption> socketOptions;
+    static {
+        Set<? extends SocketOption> es = EnumSet.of(
+            StandardSocketOption.SO_RCVBUF,
+            StandardSocketOption.SO_REUSEADDR);
+        socketOptions = Collections.unmodifiableSet(es);
+    }
+
+    /** The channel group. */
+    private final Nio2ChannelGroup group;
+
+    /** The underlying JDK channel. */
+    private final java.nio.channels.AsynchronousServerSocketChannel channel;
+
+    /** Whether an accept operation is pending. */
+    private final AtomicBoolean acceptPending = new AtomicBoolean();
+
+    /**
+     * Creates a new instance in the given channel group.
+     *
+     * @param group the channel group
+     * @throws IOException if an I/O error occurs
+     */
+    Nio2ServerSocketChannel(Nio2ChannelGroup group) throws IOException {
+        super(group.provider());
+        this.group = group;
+        channel = java.nio.channels.AsynchronousServerSocketChannel.open(
+            group.jdkGroup());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return super.toString() + ":" + channel;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Nio2ServerSocketChannel bind(SocketAddress local, int backlog)
+        throws IOException
+    {
+        Nio2SocketChannel.checkAddress(local);
+        try {
+            channel.bind(local, backlog);
+        } catch (RuntimeException e) {
+            throw Nio2Operation.translateStartFailure(e);
+        }
+        return this;
+    }
+
+    /** {@inheritDoc} */
+    public SocketAddress getLocalAddress() throws IOException {
+        return channel.getLocalAddress();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Nio2ServerSocketChannel setOption(SocketOption name,
+                                             Object value)
+        throws IOException
+    {
+        Nio2SocketChannel.setOption(channel, socketOptions, name, value);
+        return this;
+    }
+
+    /** {@inheritDoc} */
+    public Object getOption(SocketOption name) throws IOException {
+        return Nio2SocketChannel.getOption(channel, socketOptions, name);
+    }
+
+    /** {@inheritDoc} */
+    public Set<SocketOption> options() {
+        return socketOptions;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isAcceptPending() {
+        return acceptPending.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <A> IoFuture<AsynchronousSocketChannel, A> accept(
+        A attachment,
+        CompletionHandler<AsynchronousSocketChannel, ? super A> handler)
+    {
+        if (!channel.isOpen()) {
+            throw new ClosedAsynchronousChannelException();
+        }
+        if (!acceptPending.compareAndSet(false, true)) {
+            throw new AcceptPendingException();
+        }
+        final Nio2Operation<AsynchronousSocketChannel, A> op =
+            new Nio2Operation<AsynchronousSocketChannel, A>(
+                group, acceptPending, attachment, handler);
+        try {
+            channel.accept(
+                null,
+                new java.nio.channels.CompletionHandler<
+                    java.nio.channels.AsynchronousSocketChannel, Void>()
+                {
+                    public void completed(
+                        java.nio.channels.AsynchronousSocketChannel result,
+                        Void ignore)
+                    {
+                        op.completed(
+                            new Nio2SocketChannel(group, result), null);
+                    }
+                    public void failed(Throwable exception, Void ignore) {
+                        op.failed(exception, null);
+                    }
+                });
+        } catch (RuntimeException e) {
+            acceptPending.set(false);
+            throw Nio2Operation.translateStartFailure(e);
+        }
+        return op;
+    }
+}
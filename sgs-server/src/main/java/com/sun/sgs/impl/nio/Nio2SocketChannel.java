@@ -0,0 +1,445 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ConnectionPendingException;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.channels.UnsupportedAddressTypeException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.sun.sgs.nio.channels.AsynchronousSocketChannel;
+import com.sun.sgs.nio.channels.ClosedAsynchronousChannelException;
+import com.sun.sgs.nio.channels.CompletionHandler;
+import com.sun.sgs.nio.channels.IoFuture;
+import com.sun.sgs.nio.channels.ReadPendingException;
+import com.sun.sgs.nio.channels.ShutdownType;
+import com.sun.sgs.nio.channels.SocketOption;
+import com.sun.sgs.nio.channels.StandardSocketOption;
+import com.sun.sgs.nio.channels.WritePendingException;
+
+/**
+ * An implementation of {@link AsynchronousSocketChannel} that delegates to
+ * a JDK {@link java.nio.channels.AsynchronousSocketChannel}.
+ */
+final class Nio2SocketChannel extends AsynchronousSocketChannel {
+
+    /** The valid socket options for this channel. */
+    private static final Set<SocketOption> socketOptions;
+    static {
+        Set<? extends SocketOption> es = EnumSet.of(
+            StandardSocketOption.SO_SNDBUF,
+            StandardSocketOption.SO_RCVBUF,
+            StandardSocketOption.SO_KEEPALIVE,
+            StandardSocketOption.SO_REUSEADDR,
+            StandardSocketOption.TCP_NODELAY);
+        socketOptions = Collections.unmodifiableSet(es);
+    }
+
+    /** The channel group. */
+    private final Nio2ChannelGroup group;
+
+    /** The underlying JDK channel. */
+    private final java.nio.channels.AsynchronousSocketChannel channel;
+
+    /** Whether a connect operation is pending. */
+    private final AtomicBoolean connectPending = new AtomicBoolean();
+
+    /** Whether a read operation is pending. */
+    private final AtomicBoolean readPending = new AtomicBoolean();
+
+    /** Whether a write operation is pending. */
+    private final AtomicBoolean writePending = new AtomicBoolean();
+
+    /**
+     * Creates a new, unconnected instance in the given channel group.
+     *
+     * @param group the channel group
+     * @throws IOException if an I/O error occurs
+     */
+    Nio2SocketChannel(Nio2ChannelGroup group) throws IOException {
+        this(group,
+             java.nio.channels.AsynchronousSocketChannel.open(
+                 group.jdkGroup()));
+    }
+
+    /**
+     * Creates a new instance in the given channel group for the given JDK
+     * channel.  Used by a {@link Nio2ServerSocketChannel} when a new
+     * connection is accepted.
+     *
+     * @param group the channel group
+     * @param channel the JDK channel
+     */
+    Nio2SocketChannel(Nio2ChannelGroup group,
+                      java.nio.channels.AsynchronousSocketChannel channel)
+    {
+        super(group.provider());
+        this.group = group;
+        this.channel = channel;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return super.toString() + ":" + channel;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Nio2SocketChannel bind(SocketAddress local) throws IOException {
+        checkAddress(local);
+        try {
+            channel.bind(local);
+        } catch (RuntimeException e) {
+            throw Nio2Operation.translateStartFailure(e);
+        }
+        return this;
+    }
+
+    /** {@inheritDoc} */
+    public SocketAddress getLocalAddress() throws IOException {
+        return channel.getLocalAddress();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Nio2SocketChannel setOption(SocketOption name, Object value)
+        throws IOException
+    {
+        setOption(channel, socketOptions, name, value);
+        return this;
+    }
+
+    /** {@inheritDoc} */
+    public Object getOption(SocketOption name) throws IOException {
+        return getOption(channel, socketOptions, name);
+    }
+
+    /** {@inheritDoc} */
+    public Set<SocketOption> options() {
+        return socketOptions;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Nio2SocketChannel shutdown(ShutdownType how) throws IOException {
+        if (how == ShutdownType.READ || how == ShutdownType.BOTH) {
+            channel.shutdownInput();
+        }
+        if (how == ShutdownType.WRITE || how == ShutdownType.BOTH) {
+            channel.shutdownOutput();
+        }
+        return this;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public SocketAddress getConnectedAddress() throws IOException {
+        return channel.getRemoteAddress();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isConnectionPending() {
+        return connectPending.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isReadPending() {
+        return readPending.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isWritePending() {
+        return writePending.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <A> IoFuture<Void, A> connect(
+        SocketAddress remote,
+        A attachment,
+        CompletionHandler<Void, ? super A> handler)
+    {
+        checkOpen();
+        if (!connectPending.compareAndSet(false, true)) {
+            throw new ConnectionPendingException();
+        }
+        Nio2Operation<Void, A> op = new Nio2Operation<Void, A>(
+            group, connectPending, attachment, handler);
+        try {
+            channel.connect(remote, null, op);
+        } catch (RuntimeException e) {
+            connectPending.set(false);
+            throw Nio2Operation.translateStartFailure(e);
+        }
+        return op;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <A> IoFuture<Integer, A> read(
+        ByteBuffer dst,
+        long timeout,
+        TimeUnit unit,
+        A attachment,
+        CompletionHandler<Integer, ? super A> handler)
+    {
+        checkOpen();
+        if (!readPending.compareAndSet(false, true)) {
+            throw new ReadPendingException();
+        }
+        Nio2Operation<Integer, A> op = new Nio2Operation<Integer, A>(
+            group, readPending, attachment, handler);
+        try {
+            channel.read(dst, timeout, unit, null, op);
+        } catch (RuntimeException e) {
+            readPending.set(false);
+            throw Nio2Operation.translateStartFailure(e);
+        }
+        return op;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <A> IoFuture<Long, A> read(
+        ByteBuffer[] dsts,
+        int offset,
+        int length,
+        long timeout,
+        TimeUnit unit,
+        A attachment,
+        CompletionHandler<Long, ? super A> handler)
+    {
+        checkRange(dsts, offset, length);
+        checkOpen();
+        if (!readPending.compareAndSet(false, true)) {
+            throw new ReadPendingException();
+        }
+        Nio2Operation<Long, A> op = new Nio2Operation<Long, A>(
+            group, readPending, attachment, handler);
+        try {
+            channel.read(dsts, offset, length, timeout, unit, null, op);
+        } catch (RuntimeException e) {
+            readPending.set(false);
+            throw Nio2Operation.translateStartFailure(e);
+        }
+        return op;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <A> IoFuture<Integer, A> write(
+        ByteBuffer src,
+        long timeout,
+        TimeUnit unit,
+        A attachment,
+        CompletionHandler<Integer, ? super A> handler)
+    {
+        checkOpen();
+        if (!writePending.compareAndSet(false, true)) {
+            throw new WritePendingException();
+        }
+        Nio2Operation<Integer, A> op = new Nio2Operation<Integer, A>(
+            group, writePending, attachment, handler);
+        try {
+            channel.write(src, timeout, unit, null, op);
+        } catch (RuntimeException e) {
+            writePending.set(false);
+            throw Nio2Operation.translateStartFailure(e);
+        }
+        return op;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public <A> IoFuture<Long, A> write(
+        ByteBuffer[] srcs,
+        int offset,
+        int length,
+        long timeout,
+        TimeUnit unit,
+        A attachment,
+        CompletionHandler<Long, ? super A> handler)
+    {
+        checkRange(srcs, offset, length);
+        checkOpen();
+        if (!writePending.compareAndSet(false, true)) {
+            throw new WritePendingException();
+        }
+        Nio2Operation<Long, A> op = new Nio2Operation<Long, A>(
+            group, writePending, attachment, handler);
+        try {
+            channel.write(srcs, offset, length, timeout, unit, null, op);
+        } catch (RuntimeException e) {
+            writePending.set(false);
+            throw Nio2Operation.translateStartFailure(e);
+        }
+        return op;
+    }
+
+    /* -- Package access methods -- */
+
+    /**
+     * Checks that the address is {@code null} or a resolved {@link
+     * InetSocketAddress}.
+     *
+     * @param local the address
+     * @throws UnsupportedAddressTypeException if the address is not an
+     *         {@code InetSocketAddress}
+     * @throws UnresolvedAddressException if the address is not resolved
+     */
+    static void checkAddress(SocketAddress local) {
+        if ((local != null) && (!(local instanceof InetSocketAddress))) {
+            throw new UnsupportedAddressTypeException();
+        }
+        InetSocketAddress inetLocal = (InetSocketAddress) local;
+        if ((inetLocal != null) && inetLocal.isUnresolved()) {
+            throw new UnresolvedAddressException();
+        }
+    }
+
+    /**
+     * Sets the value of a socket option on a JDK channel.
+     *
+     * @param channel the JDK channel
+     * @param supported the options supported by the channel
+     * @param name the option
+     * @param value the value
+     * @throws IllegalArgumentException if the option is not supported or
+     *         the value is not valid
+     * @throws IOException if an I/O error occurs
+     */
+    @SuppressWarnings("unchecked")
+    static void setOption(NetworkChannel channel,
+                          Set<SocketOption> supported,
+                          SocketOption name,
+                          Object value)
+        throws IOException
+    {
+        java.net.SocketOption<Object> jdkName =
+            (java.net.SocketOption<Object>) jdkOption(supported, name);
+        if (value == null || !name.type().isAssignableFrom(value.getClass())) {
+            throw new IllegalArgumentException("Bad parameter for " + name);
+        }
+        channel.setOption(jdkName, value);
+    }
+
+    /**
+     * Returns the value of a socket option on a JDK channel.
+     *
+     * @param channel the JDK channel
+     * @param supported the options supported by the channel
+     * @param name the option
+     * @return the value
+     * @throws IllegalArgumentException if the option is not supported
+     * @throws IOException if an I/O error occurs
+     */
+    static Object getOption(NetworkChannel channel,
+                            Set<SocketOption> supported,
+                            SocketOption name)
+        throws IOException
+    {
+        return channel.getOption(jdkOption(supported, name));
+    }
+
+    /* -- Private methods -- */
+
+    /**
+     * Returns the JDK socket option for the specified option.
+     *
+     * @param supported the options supported by the channel
+     * @param name the option
+     * @return the JDK socket option
+     * @throws IllegalArgumentException if the option is not supported
+     */
+    private static java.net.SocketOption<?> jdkOption(
+        Set<SocketOption> supported, SocketOption name)
+    {
+        if (!supported.contains(name)) {
+            throw new IllegalArgumentException("Unsupported option " + name);
+        }
+        switch ((StandardSocketOption) name) {
+        case SO_SNDBUF:
+            return StandardSocketOptions.SO_SNDBUF;
+        case SO_RCVBUF:
+            return StandardSocketOptions.SO_RCVBUF;
+        case SO_KEEPALIVE:
+            return StandardSocketOptions.SO_KEEPALIVE;
+        case SO_REUSEADDR:
+            return StandardSocketOptions.SO_REUSEADDR;
+        case TCP_NODELAY:
+            return StandardSocketOptions.TCP_NODELAY;
+        default:
+            throw new IllegalArgumentException("Unsupported option " + name);
+        }
+    }
+
+    /**
+     * Throws {@link ClosedAsynchronousChannelException} if this channel is
+     * closed.
+     */
+    private void checkOpen() {
+        if (!channel.isOpen()) {
+            throw new ClosedAsynchronousChannelException();
+        }
+    }
+
+    /**
+     * Checks the offset and length arguments for a scattering read or
+     * gathering write.
+     */
+    private static void checkRange(ByteBuffer[] buffers,
+                                   int offset,
+                                   int length)
+    {
+        if ((offset < 0) || (offset >= buffers.length)) {
+            throw new IllegalArgumentException("offset out of range");
+        }
+        if ((length < 0) || (length > (buffers.length - offset))) {
+            throw new IllegalArgumentException("length out of range");
+        }
+    }
+}
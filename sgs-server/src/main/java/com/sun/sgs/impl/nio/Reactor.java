@@ -40,13 +40,17 @@ import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -80,11 +84,12 @@ class Reactor {
     static final Logger log = Logger.getLogger(Reactor.class.getName());
 
     /**
-     * Selector guard.  Any code that accesses selector data structures,
-     * (e.g., selection keys and their interest sets), must obtain this
-     * lock before waking the selector.  Doing so prevents the selector
-     * from blocking on {@code select()} again until the code that awakened
-     * it has released this guard.
+     * Selector guard.  Code that registers channels with the selector or
+     * changes the lifecycle state must obtain this lock before waking the
+     * selector.  Doing so prevents the selector from blocking on {@code
+     * select()} again until the code that awakened it has released this
+     * guard.  Changes to interest sets do not use this lock; they are
+     * queued on {@link #interestQueue} and applied by the reactor thread.
      * <p>
      * The selector must obtain this lock <strong>and release it</strong>
      * before blocking on {@code select()}.
@@ -94,6 +99,23 @@ class Reactor {
      */
     final Object selectorLock = new Object();
 
+    /**
+     * Keys with interest operations queued by {@link #awaitReady
+     * awaitReady} that have not yet been added to their interest sets.
+     * Drained by the reactor thread before each {@code select()}.
+     */
+    private final Queue<ReactiveAsyncKey> interestQueue =
+        new ConcurrentLinkedQueue<ReactiveAsyncKey>();
+
+    /**
+     * Whether the selector is blocked, or about to block, in {@code
+     * select()} and has not yet been woken.  Only the thread that
+     * changes this flag from {@code true} to {@code false} wakes the
+     * selector, so a burst of interest changes causes at most one
+     * wakeup.
+     */
+    private final AtomicBoolean wakeupNeeded = new AtomicBoolean(false);
+
     /**
      * The lifecycle state of this reactor.  Increases monotonically.
      * It may only be accessed with selectorLock held.
@@ -254,6 +276,13 @@ class Reactor {
             }
         }
 
+        // Let the next queued interest change wake the selector, then
+        // apply the changes queued while the reactor was busy.  Any
+        // change queued after the drain will wake the selector, so the
+        // select below cannot miss it.
+        wakeupNeeded.set(true);
+        processInterestQueue();
+
         int readyCount;
 
         // If there are any pending timeouts, block no longer than
@@ -271,6 +300,10 @@ class Reactor {
             }
         }
 
+        // Interest changes queued while dispatching are picked up by the
+        // drain at the top of the next iteration, without a wakeup.
+        wakeupNeeded.set(false);
+
         if (log.isLoggable(Level.FINER)) {
             log.log(Level.FINER, "{0} selected {1} / {2}",
                 new Object[] { this, readyCount, selector.keys().size() });
@@ -339,6 +372,28 @@ class Reactor {
         return true;
     }
 
+    /**
+     * Adds the queued interest operations of each key on the {@link
+     * #interestQueue} to that key's interest set.  Must only be called by
+     * the reactor thread.
+     */
+    private void processInterestQueue() {
+        ReactiveAsyncKey asyncKey;
+        while ((asyncKey = interestQueue.poll()) != null) {
+            asyncKey.applyQueuedInterest();
+        }
+    }
+
+    /**
+     * Wakes the selector if it is blocked in {@code select()} and no
+     * other thread has already woken it since it began selecting.
+     */
+    private void wakeupSelector() {
+        if (wakeupNeeded.compareAndSet(true, false)) {
+            selector.wakeup();
+        }
+    }
+
     /**
      * Registers the given {@link SelectableChannel} with this reactor,
      * returning an {@link AsyncKey} that can be used to initiate asynchronous
@@ -376,12 +431,19 @@ class Reactor {
      * interest in all ready operations is cleared before dispatching to the
      * task.
      * <p>
+     * The interest change is not applied to the selection key directly;
+     * the operation is queued for the reactor thread, which adds it to
+     * the key's interest set before it next selects.  The selector is
+     * woken only if it is blocked and no other thread has already woken
+     * it, so concurrent callers do not contend for the {@code
+     * selectorLock} or cause a wakeup apiece.
+     * <p>
      * Several checks are performed on the channel at this point to avoid
      * race conditions where the check succeeds but the condition
-     * immediately becomes false. We lock both the {@code selectorLock} and
-     * the {@code asyncKey} to ensure that we get a proper view of the state
-     * when registering the operation, and so that if the state later
-     * changes the operation will be terminated properly.
+     * immediately becomes false. We lock the {@code asyncKey} to ensure
+     * that we get a proper view of the state when queueing the operation.
+     * If the channel is closed after the operation is queued, closing the
+     * key runs the pending operation, which then terminates properly.
      * <p>
      * If the channel is closed, {@link ClosedAsynchronousChannelException}
      * is thrown.
@@ -411,66 +473,51 @@ class Reactor {
     <R> void
     awaitReady(ReactiveAsyncKey asyncKey, int op, AsyncOp<R> task)
     {
-        synchronized (selectorLock) {
-            selector.wakeup();
-            int interestOps;
-            synchronized (asyncKey) {
-                SelectionKey key = asyncKey.key;
-                if (key == null || (!key.isValid())) {
-                    throw new ClosedAsynchronousChannelException();
-                }
-
-		try {
-		    interestOps = key.interestOps();
-		} catch (CancelledKeyException e) {
-		    throw new ClosedAsynchronousChannelException();
-		}
+        boolean enqueue;
+        synchronized (asyncKey) {
+            SelectionKey key = asyncKey.key;
+            if (key == null || (!key.isValid())) {
+                throw new ClosedAsynchronousChannelException();
+            }
 
-                SelectableChannel channel = asyncKey.channel();
-                
-                // These precondition checks don't belong here; they
-                // should be refactored to AsyncSocketChannelImpl.
-                // However, they need to occur inside the asyncKey
-                // lock after we know the interest ops won't change,
-                // so here they are.
-                // Only SocketChannel has any extra checks to do.
-                if (channel instanceof SocketChannel) {
-                    switch (op) {
-                    case OP_READ:
-                    case OP_WRITE:
-                        if (!((SocketChannel) channel).isConnected()) {
-                            throw new NotYetConnectedException();
-                        }
-                        break;
-                    case OP_CONNECT:
-                        if (((SocketChannel) channel).isConnected()) {
-                            throw new AlreadyConnectedException();
-                        }
-                        break;
-                    default:
-                        break;
+            SelectableChannel channel = asyncKey.channel();
+
+            // These precondition checks don't belong here; they
+            // should be refactored to AsyncSocketChannelImpl.
+            // However, they need to occur inside the asyncKey
+            // lock, so that a concurrent close is not missed,
+            // so here they are.
+            // Only SocketChannel has any extra checks to do.
+            if (channel instanceof SocketChannel) {
+                switch (op) {
+                case OP_READ:
+                case OP_WRITE:
+                    if (!((SocketChannel) channel).isConnected()) {
+                        throw new NotYetConnectedException();
                     }
+                    break;
+                case OP_CONNECT:
+                    if (((SocketChannel) channel).isConnected()) {
+                        throw new AlreadyConnectedException();
+                    }
+                    break;
+                default:
+                    break;
                 }
+            }
 
-                // Check that op isn't already in the interest set
-                assert (interestOps & op) == 0;
+            enqueue = asyncKey.queueInterest(op);
+        }
 
-                interestOps |= op;
-		try {
-		    key.interestOps(interestOps);
-		} catch (CancelledKeyException e) {
-		    throw new ClosedAsynchronousChannelException();
-		}
-            }
+        if (enqueue) {
+            interestQueue.add(asyncKey);
+        }
+        wakeupSelector();
 
-            if (log.isLoggable(Level.FINEST)) {
-                log.log(Level.FINEST,
-                    "{0} awaitReady {1} : new {2} : added {3}",
-                    new Object[] { this,
-                                   task,
-                                   Util.formatOps(interestOps),
-                                   Util.formatOps(op) });
-            }
+        if (log.isLoggable(Level.FINEST)) {
+            log.log(Level.FINEST,
+                "{0} awaitReady {1} : queued {2}",
+                new Object[] { this, task, Util.formatOps(op) });
         }
     }
 
@@ -481,6 +528,12 @@ class Reactor {
      */
     static class AsyncOp<R> extends FutureTask<R> {
 
+        /**
+         * The timeout action for this task, or {@code null} if there is
+         * no pending timeout.
+         */
+        volatile TimeoutHandler timeoutHandler = null;
+
         /**
          * Creates a new instance.
          * 
@@ -515,12 +568,6 @@ class Reactor {
         protected final AtomicReference<AsyncOp<?>> task =
             new AtomicReference<AsyncOp<?>>();
 
-        /**
-         * The timeout action for the pending task, or {@code null} if
-         * there is no pending timeout.
-         */
-        private volatile TimeoutHandler timeoutHandler = null;
-
         /** The async key. */
         private final ReactiveAsyncKey asyncKey;
 
@@ -582,14 +629,22 @@ class Reactor {
         /**
          * Marks the operation as no-longer-pending, and cancels the timeout
          * expiration action for the task, if any.
+         * <p>
+         * The pending task is only cleared if it is still the given task.
+         * A {@code FutureTask} releases its waiters before calling {@code
+         * done()}, so a caller may already have initiated the next
+         * operation, which must not be forgotten.
+         *
+         * @param opTask the task that is no longer pending
          */
-        void cleanupTask() {
-            if (timeoutHandler != null) {
-                timeouts.remove(timeoutHandler);
-                timeoutHandler = null;
+        void cleanupTask(AsyncOp<?> opTask) {
+            TimeoutHandler handler = opTask.timeoutHandler;
+            if (handler != null) {
+                timeouts.remove(handler);
+                opTask.timeoutHandler = null;
             }
 
-            task.set(null);
+            task.compareAndSet(opTask, null);
         }
 
         /**
@@ -627,7 +682,7 @@ class Reactor {
                 @Override
                 protected void done() {
                     // Clear the timeout and pending flag
-                    cleanupTask();
+                    cleanupTask(this);
                     // Invoke the completion handler, if any
                     asyncKey.runCompletion(handler, attachment, this);
                 } };
@@ -639,8 +694,9 @@ class Reactor {
 
             // Set the timeout handler for the pending task, if any
             if (timeout > 0) {
-                timeoutHandler = new TimeoutHandler(opTask, timeout, unit);
-                timeouts.add(timeoutHandler);
+                opTask.timeoutHandler =
+                    new TimeoutHandler(opTask, timeout, unit);
+                timeouts.add(opTask.timeoutHandler);
             }
 
             try {
@@ -649,7 +705,7 @@ class Reactor {
             } catch (RuntimeException e) {
                 // If a problem occurs, cancel the timeout and pending task,
                 // and throw the exception to the caller as JSR-203 specs
-                cleanupTask();
+                cleanupTask(opTask);
                 throw e;
             }
 
@@ -680,6 +736,12 @@ class Reactor {
          */
         final SelectionKey key;
 
+        /**
+         * The interest operations queued by {@link Reactor#awaitReady
+         * awaitReady} and not yet added to the key's interest set.
+         */
+        private final AtomicInteger queuedOps = new AtomicInteger();
+
         /** The handler for an asynchronous {@code accept} operation. */
         private final PendingOperation pendingAccept =
             new PendingOperation(this, OP_ACCEPT) {
@@ -762,6 +824,47 @@ class Reactor {
             }
         }
 
+        /**
+         * Queues the given operation for addition to the key's interest
+         * set, returning {@code true} if the key must be added to the
+         * reactor's interest queue because no other operations were
+         * already queued for it.
+         *
+         * @param op the {@link SelectionKey} operation to queue
+         * @return {@code true} if the key needs to be enqueued, otherwise
+         *         {@code false}
+         */
+        boolean queueInterest(int op) {
+            for (;;) {
+                int ops = queuedOps.get();
+                if (queuedOps.compareAndSet(ops, ops | op)) {
+                    return ops == 0;
+                }
+            }
+        }
+
+        /**
+         * Adds any queued operations to the key's interest set.  Called
+         * by the reactor thread.  If the key has been cancelled, the
+         * operations are discarded; closing the key has already run the
+         * pending operations.
+         */
+        void applyQueuedInterest() {
+            int ops = queuedOps.getAndSet(0);
+            if (ops == 0) {
+                return;
+            }
+            synchronized (this) {
+                try {
+                    if (key.isValid()) {
+                        key.interestOps(key.interestOps() | ops);
+                    }
+                } catch (CancelledKeyException e) {
+                    // swallow exception
+                }
+            }
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -850,10 +953,11 @@ class Reactor {
                 return;
             }
 
-            // TODO the spec indicates that we can run the
-            // completion handler in the current thread, but
-            // we should decide whether to run it via the
-            // executor anyway.
+            // Run the completion handler in the current thread, which
+            // is usually the reactor thread, rather than handing it off
+            // to the executor.  Handlers are expected to be short, and
+            // any follow-on operation they initiate is queued without
+            // waking the selector.
 
             // Delegate to the group so that the uncaught exception handler
             // for the group can be used, if one is set.
@@ -25,6 +25,8 @@ import com.sun.sgs.auth.Identity;
 
 import com.sun.sgs.impl.auth.IdentityImpl;
 
+import com.sun.sgs.impl.profile.util.ThreadTaskType;
+
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 
 import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
@@ -34,6 +36,7 @@ import com.sun.sgs.kernel.KernelRunnable;
 import com.sun.sgs.management.ProfileControllerMXBean;
 
 import com.sun.sgs.management.TaskAggregateMXBean;
+import com.sun.sgs.management.TaskTypeMXBean;
 import com.sun.sgs.profile.AccessedObjectsDetail;
 import com.sun.sgs.profile.ProfileCollector;
 import com.sun.sgs.profile.ProfileConsumer;
@@ -157,6 +160,9 @@ public final class ProfileCollectorImpl implements ProfileCollector {
     // The statistics MBean for tasks
     private final TaskAggregateStats taskStats;
 
+    // The statistics MBean for resources used by each type of task
+    private final TaskTypeStats taskTypeStats;
+
     /**
      * Creates an instance of {@code ProfileCollectorImpl}.
      * @param level the default system profiling level
@@ -194,8 +200,11 @@ public final class ProfileCollectorImpl implements ProfileCollector {
         // the profile controller MBean.
         taskStats = new TaskAggregateStats(this,
                 CORE_CONSUMER_PREFIX + "TaskAggregateStats");
+        taskTypeStats = new TaskTypeStats(this,
+                CORE_CONSUMER_PREFIX + "TaskTypeStats");
         try {
             registerMBean(taskStats, TaskAggregateMXBean.MXBEAN_NAME);
+            registerMBean(taskTypeStats, TaskTypeMXBean.MXBEAN_NAME);
             registerMBean(new ProfileController(this),
                           ProfileControllerMXBean.MXBEAN_NAME);
         } catch (JMException e) {
@@ -448,9 +457,10 @@ public final class ProfileCollectorImpl implements ProfileCollector {
         if (owner == null) {
             throw new NullPointerException("Owner cannot be null");
         }
-        profileReports.get().push(new ProfileReportImpl(task, owner,
-                                                        scheduledStartTime,
-                                                        readyCount));
+        profileReports.get().push(new ProfileReportImpl(
+            task, owner, scheduledStartTime, readyCount,
+            taskTypeStats.isEnabled()));
+        ThreadTaskType.set(task.getBaseTaskType());
     }
 
     /**
@@ -585,11 +595,25 @@ public final class ProfileCollectorImpl implements ProfileCollector {
         boolean successful = t == null;
         profileReport.succeeded = successful;
         profileReport.throwable = t;
+        // only report top-level tasks, since the resources used by nested
+        // tasks are included in those of the outer task
+        if (profileReport.measureResources() &&
+            profileReports.get().empty())
+        {
+            taskTypeStats.taskFinished(
+                profileReport.task.getBaseTaskType(), profileReport.cpuTime,
+                profileReport.allocatedBytes, profileReport.lockWaitTime,
+                profileReport.storeWaitTime);
+        }
         
         // if this was a nested report, then merge all of the collected
         // data into the parent
         if (!profileReports.get().empty()) {
-            profileReports.get().peek().merge(profileReport);
+            ProfileReportImpl parent = profileReports.get().peek();
+            parent.merge(profileReport);
+            ThreadTaskType.set(parent.task.getBaseTaskType());
+        } else {
+            ThreadTaskType.set(null);
         }
 
         // Note that we're done modifying this report
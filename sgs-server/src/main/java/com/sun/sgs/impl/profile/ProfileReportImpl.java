@@ -27,6 +27,7 @@ import com.sun.sgs.kernel.KernelRunnable;
 
 import com.sun.sgs.profile.AccessedObjectsDetail;
 import com.sun.sgs.profile.ProfileParticipantDetail;
+import com.sun.sgs.impl.profile.util.ThreadWaitTimes;
 import com.sun.sgs.profile.ProfileReport;
 import com.sun.sgs.profile.TransactionListenerDetail;
 
@@ -70,12 +71,23 @@ class ProfileReportImpl implements ProfileReport {
     final int readyCount;
     final long actualStartTime;
 
+    // the thread's resource usage when the task started, or -1 if resource
+    // usage is not being measured
+    private final long startCpuTime;
+    private final long startAllocatedBytes;
+    private final long startLockWaitTime;
+    private final long startStoreWaitTime;
+
     // the other fields, set directly by the ProfileCollectorImpl
     byte [] transactionId = null;
     boolean succeeded = false;
     long runningTime = 0;
     int tryCount = 0;
     Throwable throwable = null;
+    long cpuTime = -1;
+    long allocatedBytes = -1;
+    long lockWaitTime = -1;
+    long storeWaitTime = -1;
     private AccessedObjectsDetail accessedObjectsDetail = null;
 
     private Set<ProfileParticipantDetail> participants;
@@ -100,14 +112,28 @@ class ProfileReportImpl implements ProfileReport {
      * @param scheduledStartTime the time the task was scheduled to run
      * @param readyCount the number of tasks in the scheduler, ready to run,
      *                   that are associated with the same context as the task
+     * @param measureResources whether to measure the resources used by the
+     *                   thread running the task
      */
     ProfileReportImpl(KernelRunnable task, Identity owner,
-                      long scheduledStartTime, int readyCount)
+                      long scheduledStartTime, int readyCount,
+                      boolean measureResources)
     {
         this.task = task;
         this.owner = owner;
         this.scheduledStartTime = scheduledStartTime;
         this.readyCount = readyCount;
+        if (measureResources) {
+            startCpuTime = ThreadResourceUsage.getCpuTime();
+            startAllocatedBytes = ThreadResourceUsage.getAllocatedBytes();
+            startLockWaitTime = ThreadWaitTimes.getLockWaitTime();
+            startStoreWaitTime = ThreadWaitTimes.getStoreWaitTime();
+        } else {
+            startCpuTime = -1;
+            startAllocatedBytes = -1;
+            startLockWaitTime = -1;
+            startStoreWaitTime = -1;
+        }
         this.actualStartTime = System.currentTimeMillis();
 
 	participants = new HashSet<ProfileParticipantDetail>();
@@ -300,6 +326,34 @@ class ProfileReportImpl implements ProfileReport {
         return readyCount;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLockWaitTime() {
+        return lockWaitTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getStoreWaitTime() {
+        return storeWaitTime;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -307,6 +361,29 @@ class ProfileReportImpl implements ProfileReport {
 	return throwable;
     }
 
+    /**
+     * Package-private method used to record the resources used by the
+     * thread since this report was created, if they are being measured.
+     *
+     * @return {@code true} if resource usage was measured
+     */
+    boolean measureResources() {
+        if (startLockWaitTime < 0) {
+            return false;
+        }
+        if (startCpuTime >= 0) {
+            cpuTime = ThreadResourceUsage.getCpuTime() - startCpuTime;
+        }
+        if (startAllocatedBytes >= 0) {
+            allocatedBytes =
+                ThreadResourceUsage.getAllocatedBytes() - startAllocatedBytes;
+        }
+        lockWaitTime = ThreadWaitTimes.getLockWaitTime() - startLockWaitTime;
+        storeWaitTime =
+            ThreadWaitTimes.getStoreWaitTime() - startStoreWaitTime;
+        return true;
+    }
+
     /**
      * Package-private method used to merge the state of one report into
      * another. This is typically used when a nested, profiled task
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.profile;
+
+import com.sun.sgs.management.TaskTypeInfo;
+import com.sun.sgs.management.TaskTypeMXBean;
+import com.sun.sgs.profile.ProfileCollector;
+import com.sun.sgs.profile.ProfileCollector.ProfileLevel;
+import com.sun.sgs.profile.ProfileConsumer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The central location to aggregate the resources used by each type of task
+ * run through the system.  Each try of a task is included, whether or not
+ * it succeeded.  Nested tasks are not counted separately, since the
+ * resources they use are included in the resources of the outer task.
+ * Data is only gathered when the level of the associated profile consumer
+ * is {@link ProfileLevel#MEDIUM} or higher, since reading the per-thread
+ * processor time and allocated bytes adds some cost to every task.
+ */
+public class TaskTypeStats implements TaskTypeMXBean {
+
+    /** The consumer that controls whether data is gathered. */
+    private final ProfileConsumer consumer;
+
+    /** The data for each task type. */
+    private final ConcurrentMap<String, TypeData> types =
+        new ConcurrentHashMap<String, TypeData>();
+
+    /**
+     * The last time {@link #clear} was called, or when this object
+     * was created if {@code clear} has not been called.
+     */
+    private volatile long lastClear = System.currentTimeMillis();
+
+    /**
+     * Creates an MXBean object for gathering task type data in the system.
+     *
+     * @param collector the system profile collector
+     * @param name the name of the profile consumer created to support this
+     *              object
+     */
+    TaskTypeStats(ProfileCollector collector, String name) {
+        consumer = collector.getConsumer(name);
+    }
+
+    /*
+     * Implement MBean.
+     */
+
+    /** {@inheritDoc} */
+    public TaskTypeInfo[] getTaskTypeInfo() {
+        List<TaskTypeInfo> result = new ArrayList<TaskTypeInfo>();
+        for (TypeData data : types.values()) {
+            result.add(data.getInfo());
+        }
+        return result.toArray(new TaskTypeInfo[result.size()]);
+    }
+
+    /** {@inheritDoc} */
+    public void clear() {
+        lastClear = System.currentTimeMillis();
+        types.clear();
+    }
+
+    /** {@inheritDoc} */
+    public long getLastClearTime() {
+        return lastClear;
+    }
+
+    // Methods used by ProfileCollector to decide whether to measure tasks
+    // and to update our values when tasks complete
+
+    boolean isEnabled() {
+        return consumer.getProfileLevel().ordinal() >=
+            ProfileLevel.MEDIUM.ordinal();
+    }
+
+    void taskFinished(String taskType, long cpuTime, long allocatedBytes,
+                      long lockWaitTime, long storeWaitTime)
+    {
+        TypeData data = types.get(taskType);
+        if (data == null) {
+            data = new TypeData(taskType);
+            TypeData existing = types.putIfAbsent(taskType, data);
+            if (existing != null) {
+                data = existing;
+            }
+        }
+        data.add(cpuTime, allocatedBytes, lockWaitTime, storeWaitTime);
+    }
+
+    /** The data for a single task type. */
+    private static class TypeData {
+        private final String taskType;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong cpuTime = new AtomicLong();
+        private final AtomicLong allocatedBytes = new AtomicLong();
+        private final AtomicLong lockWaitTime = new AtomicLong();
+        private final AtomicLong storeWaitTime = new AtomicLong();
+        // whether processor time or allocation could not be measured
+        private volatile boolean noCpuTime = false;
+        private volatile boolean noAllocatedBytes = false;
+
+        TypeData(String taskType) {
+            this.taskType = taskType;
+        }
+
+        void add(long cpu, long allocated, long lockWait, long storeWait) {
+            count.incrementAndGet();
+            if (cpu < 0) {
+                noCpuTime = true;
+            } else {
+                cpuTime.addAndGet(cpu);
+            }
+            if (allocated < 0) {
+                noAllocatedBytes = true;
+            } else {
+                allocatedBytes.addAndGet(allocated);
+            }
+            lockWaitTime.addAndGet(lockWait);
+            storeWaitTime.addAndGet(storeWait);
+        }
+
+        TaskTypeInfo getInfo() {
+            return new TaskTypeInfo(
+                taskType, count.get(), noCpuTime ? -1 : cpuTime.get(),
+                noAllocatedBytes ? -1 : allocatedBytes.get(),
+                lockWaitTime.get(), storeWaitTime.get());
+        }
+    }
+}
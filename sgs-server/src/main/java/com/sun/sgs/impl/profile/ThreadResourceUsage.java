@@ -0,0 +1,145 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.profile;
+
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Package-private utility for reading the processor time used and the bytes
+ * allocated by the current thread.  Processor time is read from the platform
+ * {@link ThreadMXBean}.  Allocated bytes are read through the {@code
+ * com.sun.management.ThreadMXBean} extension that some platforms provide,
+ * which is only referenced by a nested class that is loaded if the
+ * extension is present.  Either value is {@code -1} if it is not
+ * supported.
+ */
+final class ThreadResourceUsage {
+
+    /** The logger for this class. */
+    private static final LoggerWrapper logger =
+        new LoggerWrapper(Logger.getLogger(
+            ThreadResourceUsage.class.getName()));
+
+    /** The platform thread bean. */
+    private static final ThreadMXBean threadBean =
+        ManagementFactory.getThreadMXBean();
+
+    /** Whether processor time can be read. */
+    private static final boolean cpuTimeSupported =
+        enableCpuTime();
+
+    /** The reader for allocated bytes, or {@code null}. */
+    private static final AllocatedBytesReader allocatedBytesReader =
+        createAllocatedBytesReader();
+
+    /** This class should not be instantiated. */
+    private ThreadResourceUsage() { }
+
+    /**
+     * Returns the processor time used by the current thread.
+     *
+     * @return the processor time in nanoseconds, or {@code -1} if it is
+     *         not supported
+     */
+    static long getCpuTime() {
+        return cpuTimeSupported ? threadBean.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread.
+     *
+     * @return the number of bytes allocated, or {@code -1} if it is not
+     *         supported
+     */
+    static long getAllocatedBytes() {
+        return allocatedBytesReader != null ?
+            allocatedBytesReader.getAllocatedBytes() : -1;
+    }
+
+    /** Enables processor time measurement, if supported. */
+    private static boolean enableCpuTime() {
+        try {
+            if (!threadBean.isCurrentThreadCpuTimeSupported()) {
+                return false;
+            }
+            if (!threadBean.isThreadCpuTimeEnabled()) {
+                threadBean.setThreadCpuTimeEnabled(true);
+            }
+            return true;
+        } catch (RuntimeException e) {
+            logger.logThrow(Level.CONFIG, e,
+                            "Thread processor time is not available");
+            return false;
+        }
+    }
+
+    /** Creates the reader for allocated bytes, if supported. */
+    private static AllocatedBytesReader createAllocatedBytesReader() {
+        try {
+            return new AllocatedBytesReader();
+        } catch (LinkageError e) {
+            logger.logThrow(Level.CONFIG, e,
+                            "Thread allocated bytes are not available");
+            return null;
+        } catch (RuntimeException e) {
+            logger.logThrow(Level.CONFIG, e,
+                            "Thread allocated bytes are not available");
+            return null;
+        }
+    }
+
+    /**
+     * Reads allocated bytes from the platform extension of the thread bean.
+     * Creating an instance throws {@code NoClassDefFoundError} if the
+     * extension is not present, and {@code ClassCastException} or {@code
+     * UnsupportedOperationException} if it is not supported.
+     */
+    private static final class AllocatedBytesReader {
+
+        /** The platform thread bean, as the extension type. */
+        private final com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean) threadBean;
+
+        /** Creates an instance and enables allocated memory measurement. */
+        AllocatedBytesReader() {
+            if (!bean.isThreadAllocatedMemorySupported()) {
+                throw new UnsupportedOperationException(
+                    "Thread allocated memory is not supported");
+            }
+            if (!bean.isThreadAllocatedMemoryEnabled()) {
+                bean.setThreadAllocatedMemoryEnabled(true);
+            }
+        }
+
+        /** Returns the number of bytes allocated by the current thread. */
+        long getAllocatedBytes() {
+            return bean.getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+
+package com.sun.sgs.impl.profile.listener;
+
+import com.sun.sgs.auth.Identity;
+import com.sun.sgs.impl.profile.util.HotObjectTracker;
+import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
+import com.sun.sgs.kernel.AccessedObject;
+import com.sun.sgs.kernel.ComponentRegistry;
+import com.sun.sgs.management.HotObjectInfo;
+import com.sun.sgs.management.HotObjectsMXBean;
+import com.sun.sgs.profile.AccessedObjectsDetail;
+import com.sun.sgs.profile.AccessedObjectsDetail.ConflictType;
+import com.sun.sgs.profile.ProfileCollector;
+import com.sun.sgs.profile.ProfileListener;
+import com.sun.sgs.profile.ProfileReport;
+import java.beans.PropertyChangeEvent;
+import java.util.List;
+import java.util.Properties;
+import javax.management.JMException;
+
+/**
+ * An implementation of {@code ProfileListener} that keeps track of the
+ * objects that have recently caused the most transaction conflicts, and
+ * makes them available through the {@link HotObjectsMXBean}.  Unlike
+ * {@link AccessedObjectsListener}, this listener does not keep the accesses
+ * made by each transaction or print anything, so it is cheap enough to
+ * leave enabled in production.
+ * <p>
+ * Accesses and conflicts are counted approximately over a sliding window,
+ * using a fixed amount of memory.  For a transaction that failed due to
+ * conflict, the object whose access failed is taken to be the last object
+ * the transaction accessed.  Average wait times are only available when the
+ * {@code com.sun.sgs.TaskTypeStats} profile consumer is set to
+ * {@code MEDIUM} or higher, since that enables measuring the time that
+ * each task spends waiting for locks.
+ * <p>
+ * The following properties are supported:
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	com.sun.sgs.impl.profile.listener.HotObjectsListener.max.objects
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_MAX_OBJECTS}
+ *
+ * <dd style="padding-top: .5em">The maximum number of contended objects to
+ *	report.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	com.sun.sgs.impl.profile.listener.HotObjectsListener.window.length
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_WINDOW_LENGTH}
+ *
+ * <dd style="padding-top: .5em">The length, in milliseconds, of the window
+ *	over which accesses and conflicts are counted.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	com.sun.sgs.impl.profile.listener.HotObjectsListener.window.slots
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_WINDOW_SLOTS}
+ *
+ * <dd style="padding-top: .5em">The number of slots the window is divided
+ *	into.  Counts expire one slot at a time, so more slots make the
+ *	window slide more smoothly, at the cost of more memory.<p>
+ *
+ * </dl>
+ */
+public class HotObjectsListener implements ProfileListener, HotObjectsMXBean {
+
+    /** The base name for properties. */
+    private static final String PROP_BASE =
+        HotObjectsListener.class.getName();
+
+    /** The property for the maximum number of objects to report. */
+    public static final String MAX_OBJECTS_PROPERTY =
+        PROP_BASE + ".max.objects";
+
+    /** The default maximum number of objects to report. */
+    public static final int DEFAULT_MAX_OBJECTS = 20;
+
+    /** The property for the window length in milliseconds. */
+    public static final String WINDOW_LENGTH_PROPERTY =
+        PROP_BASE + ".window.length";
+
+    /** The default window length in milliseconds. */
+    public static final long DEFAULT_WINDOW_LENGTH = 60000;
+
+    /** The property for the number of slots in the window. */
+    public static final String WINDOW_SLOTS_PROPERTY =
+        PROP_BASE + ".window.slots";
+
+    /** The default number of slots in the window. */
+    public static final int DEFAULT_WINDOW_SLOTS = 6;
+
+    /** The maximum number of objects to report. */
+    private final int maxObjects;
+
+    /** The window length in milliseconds. */
+    private final long windowLength;
+
+    /** The tracker for accesses and conflicts. */
+    private final HotObjectTracker tracker;
+
+    /**
+     * The last time {@link #clear} was called, or when this object
+     * was created if {@code clear} has not been called.
+     */
+    private volatile long lastClear = System.currentTimeMillis();
+
+    /**
+     * Creates an instance of {@code HotObjectsListener}.
+     *
+     * @param properties the {@code Properties} for this listener
+     * @param owner the {@code Identity} to use for all tasks run by
+     *        this listener
+     * @param registry the {@code ComponentRegistry} containing the
+     *        available system components
+     * @throws IllegalArgumentException if any of the properties is invalid
+     * @throws JMException if there is a problem registering the MBean
+     */
+    public HotObjectsListener(Properties properties, Identity owner,
+                              ComponentRegistry registry)
+        throws JMException
+    {
+        PropertiesWrapper wrappedProps = new PropertiesWrapper(properties);
+        maxObjects = wrappedProps.getIntProperty(
+            MAX_OBJECTS_PROPERTY, DEFAULT_MAX_OBJECTS, 1, Integer.MAX_VALUE);
+        int slots = wrappedProps.getIntProperty(
+            WINDOW_SLOTS_PROPERTY, DEFAULT_WINDOW_SLOTS, 1, 1000);
+        windowLength = wrappedProps.getLongProperty(
+            WINDOW_LENGTH_PROPERTY, DEFAULT_WINDOW_LENGTH, slots,
+            Long.MAX_VALUE);
+        tracker = new HotObjectTracker(maxObjects, windowLength, slots);
+        registry.getComponent(ProfileCollector.class).registerMBean(
+            this, HotObjectsMXBean.MXBEAN_NAME);
+    }
+
+    /* -- Implement ProfileListener -- */
+
+    /**
+     * {@inheritDoc}
+     */
+    public void propertyChange(PropertyChangeEvent event) {
+        // unused
+    }
+
+    /**
+     * Records the accesses made by the task, and the object that caused
+     * the conflict if the task failed due to conflict.
+     *
+     * @param profileReport the summary for the finished {@code Task}
+     */
+    public void report(ProfileReport profileReport) {
+        AccessedObjectsDetail detail = profileReport.getAccessedObjectsDetail();
+        if (detail == null) {
+            return;
+        }
+        List<AccessedObject> accesses = detail.getAccessedObjects();
+        if (accesses.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        tracker.recordAccesses(accesses, now);
+        if (detail.getConflictType() != ConflictType.NONE) {
+            tracker.recordConflict(accesses.get(accesses.size() - 1),
+                                   profileReport.getTask().getBaseTaskType(),
+                                   profileReport.getLockWaitTime(), now);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void shutdown() {
+        // unused
+    }
+
+    /* -- Implement HotObjectsMXBean -- */
+
+    /** {@inheritDoc} */
+    public HotObjectInfo[] getHotObjects() {
+        List<HotObjectInfo> hot =
+            tracker.getHotObjects(System.currentTimeMillis());
+        return hot.toArray(new HotObjectInfo[hot.size()]);
+    }
+
+    /** {@inheritDoc} */
+    public long getWindowLength() {
+        return windowLength;
+    }
+
+    /** {@inheritDoc} */
+    public int getMaxHotObjects() {
+        return maxObjects;
+    }
+
+    /** {@inheritDoc} */
+    public void clear() {
+        lastClear = System.currentTimeMillis();
+        tracker.clear();
+    }
+
+    /** {@inheritDoc} */
+    public long getLastClearTime() {
+        return lastClear;
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+
+package com.sun.sgs.impl.profile.util;
+
+import com.sun.sgs.kernel.AccessedObject;
+import com.sun.sgs.management.HotObjectInfo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Tracks the objects that cause the most transaction conflicts over a
+ * sliding time window, using a fixed amount of memory.  The window is
+ * divided into slots, each holding count-min sketches of the accesses and
+ * conflicts seen while that slot was current, and a bounded heap holds the
+ * objects with the highest estimated number of conflicts.  Estimates never
+ * undercount, and overcount by at most a small fraction of the total
+ * number of events in the window. <p>
+ *
+ * Instances of this class are safe for use by multiple threads.
+ */
+public class HotObjectTracker {
+
+    /** The number of rows in each sketch. */
+    private static final int DEPTH = 4;
+
+    /** The number of counters in each row of a sketch, a power of two. */
+    private static final int WIDTH = 1024;
+
+    /** The maximum number of task types recorded for each object. */
+    private static final int MAX_TASK_TYPES = 8;
+
+    /** Orders candidates with the fewest conflicts first. */
+    private static final Comparator<Candidate> FEWEST_CONFLICTS_FIRST =
+        new Comparator<Candidate>() {
+            public int compare(Candidate c1, Candidate c2) {
+                return c1.conflicts < c2.conflicts ? -1
+                    : c1.conflicts > c2.conflicts ? 1
+                    : c1.lastConflict < c2.lastConflict ? -1
+                    : c1.lastConflict > c2.lastConflict ? 1 : 0;
+            }
+        };
+
+    /** The maximum number of objects tracked. */
+    private final int maxObjects;
+
+    /** The length of each slot in milliseconds. */
+    private final long slotLength;
+
+    /** The slots that make up the window. */
+    private final Slot[] slots;
+
+    /** The objects currently tracked, indexed by key. */
+    private final Map<Key, Candidate> candidates =
+        new HashMap<Key, Candidate>();
+
+    /** The objects currently tracked, with the least contended first. */
+    private final PriorityQueue<Candidate> heap;
+
+    /**
+     * Creates an instance of this class.
+     *
+     * @param   maxObjects the maximum number of objects to track
+     * @param   windowLength the length of the window in milliseconds
+     * @param   numSlots the number of slots the window is divided into
+     * @throws  IllegalArgumentException if any argument is not greater
+     *          than {@code 0}, or if {@code windowLength} is less than
+     *          {@code numSlots}
+     */
+    public HotObjectTracker(int maxObjects, long windowLength, int numSlots) {
+        if (maxObjects <= 0) {
+            throw new IllegalArgumentException(
+                "The maximum number of objects must be greater than 0");
+        } else if (numSlots <= 0) {
+            throw new IllegalArgumentException(
+                "The number of slots must be greater than 0");
+        } else if (windowLength < numSlots) {
+            throw new IllegalArgumentException(
+                "The window length must not be less than the number of slots");
+        }
+        this.maxObjects = maxObjects;
+        slotLength = windowLength / numSlots;
+        slots = new Slot[numSlots];
+        for (int i = 0; i < numSlots; i++) {
+            slots[i] = new Slot();
+        }
+        heap = new PriorityQueue<Candidate>(maxObjects, FEWEST_CONFLICTS_FIRST);
+    }
+
+    /**
+     * Records a set of object accesses.
+     *
+     * @param   accesses the accesses
+     * @param   now the current time in milliseconds
+     */
+    public synchronized void recordAccesses(
+        List<? extends AccessedObject> accesses, long now)
+    {
+        Slot slot = currentSlot(now);
+        for (AccessedObject access : accesses) {
+            slot.add(slot.accesses,
+                     hash(access.getSource(), access.getObjectId()));
+        }
+    }
+
+    /**
+     * Records a transaction conflict caused by an object access.
+     *
+     * @param   access the access that caused the conflict
+     * @param   taskType the type of the task that failed
+     * @param   waitTime the time in nanoseconds that the task waited for
+     *          locks, or {@code -1} if not measured
+     * @param   now the current time in milliseconds
+     */
+    public synchronized void recordConflict(
+        AccessedObject access, String taskType, long waitTime, long now)
+    {
+        Key key = new Key(access.getSource(), access.getObjectId());
+        int hash = key.hashCode();
+        Slot slot = currentSlot(now);
+        slot.add(slot.conflicts, hash);
+        long conflicts = estimate(false, hash, now);
+        Candidate candidate = candidates.get(key);
+        if (candidate != null) {
+            heap.remove(candidate);
+        } else {
+            if (candidates.size() >= maxObjects) {
+                refresh(now);
+            }
+            if (candidates.size() >= maxObjects) {
+                if (conflicts <= heap.peek().conflicts) {
+                    return;
+                }
+                candidates.remove(heap.poll().key);
+            }
+            candidate =
+                new Candidate(key, describe(access.getDescription()));
+            candidates.put(key, candidate);
+        }
+        candidate.conflicts = conflicts;
+        candidate.lastConflict = now;
+        if (waitTime >= 0) {
+            candidate.totalWaitTime += waitTime;
+            candidate.waitCount++;
+        }
+        if (taskType != null &&
+            candidate.taskTypes.size() < MAX_TASK_TYPES)
+        {
+            candidate.taskTypes.add(taskType);
+        }
+        heap.add(candidate);
+    }
+
+    /**
+     * Returns information about the tracked objects that caused conflicts
+     * during the window ending at the specified time, with the most
+     * contended object first.
+     *
+     * @param   now the current time in milliseconds
+     * @return  information about the most contended objects
+     */
+    public synchronized List<HotObjectInfo> getHotObjects(long now) {
+        refresh(now);
+        List<Candidate> sorted = new ArrayList<Candidate>(heap);
+        Collections.sort(
+            sorted, Collections.reverseOrder(FEWEST_CONFLICTS_FIRST));
+        List<HotObjectInfo> result =
+            new ArrayList<HotObjectInfo>(sorted.size());
+        for (Candidate candidate : sorted) {
+            Key key = candidate.key;
+            result.add(
+                new HotObjectInfo(
+                    key.source, String.valueOf(key.objectId),
+                    candidate.description,
+                    estimate(true, key.hashCode(), now), candidate.conflicts,
+                    candidate.taskTypes.toArray(
+                        new String[candidate.taskTypes.size()]),
+                    candidate.waitCount == 0 ? -1
+                    : candidate.totalWaitTime / candidate.waitCount));
+        }
+        return result;
+    }
+
+    /** Discards all recorded accesses and conflicts. */
+    public synchronized void clear() {
+        for (Slot slot : slots) {
+            slot.reset(-1);
+        }
+        candidates.clear();
+        heap.clear();
+    }
+
+    /* -- Private methods and classes -- */
+
+    /**
+     * Updates the conflict counts of all tracked objects, removing ones
+     * with no conflicts in the current window.
+     */
+    private void refresh(long now) {
+        heap.clear();
+        for (Iterator<Candidate> i = candidates.values().iterator();
+             i.hasNext(); )
+        {
+            Candidate candidate = i.next();
+            candidate.conflicts =
+                estimate(false, candidate.key.hashCode(), now);
+            if (candidate.conflicts == 0) {
+                i.remove();
+            } else {
+                heap.add(candidate);
+            }
+        }
+    }
+
+    /** Returns the slot for the specified time, resetting it if needed. */
+    private Slot currentSlot(long now) {
+        long epoch = now / slotLength;
+        Slot slot = slots[(int) (epoch % slots.length)];
+        if (slot.epoch != epoch) {
+            slot.reset(epoch);
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the estimated number of accesses or conflicts for the
+     * specified hash during the window ending at the specified time.
+     */
+    private long estimate(boolean accesses, int hash, long now) {
+        long oldest = now / slotLength - slots.length;
+        long result = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = index(row, hash);
+            long sum = 0;
+            for (Slot slot : slots) {
+                if (slot.epoch > oldest) {
+                    sum += (accesses ? slot.accesses : slot.conflicts)[index];
+                }
+            }
+            result = Math.min(result, sum);
+        }
+        return result;
+    }
+
+    /** Returns the combined hash of a source and object ID. */
+    private static int hash(String source, Object objectId) {
+        return 31 * source.hashCode() + objectId.hashCode();
+    }
+
+    /**
+     * Returns the index of the counter for the specified row and hash,
+     * mixing the bits so that each row uses an independent hash function.
+     */
+    private static int index(int row, int hash) {
+        int h = hash + row * 0x9e3779b9;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return row * WIDTH + (h & (WIDTH - 1));
+    }
+
+    /**
+     * Returns a string describing an access description, or {@code null}
+     * if there is no description.  The description is converted right away
+     * to avoid holding on to the described object.
+     */
+    private static String describe(Object description) {
+        if (description == null) {
+            return null;
+        }
+        try {
+            return description.toString();
+        } catch (Throwable t) {
+            return description.getClass().getName() +
+                " [toString() threw: " + t + "]";
+        }
+    }
+
+    /** The sketches for one slot of the window. */
+    private static final class Slot {
+        /** The slot number this slot currently represents, or -1. */
+        long epoch = -1;
+        final int[] accesses = new int[DEPTH * WIDTH];
+        final int[] conflicts = new int[DEPTH * WIDTH];
+
+        void reset(long epoch) {
+            this.epoch = epoch;
+            Arrays.fill(accesses, 0);
+            Arrays.fill(conflicts, 0);
+        }
+
+        void add(int[] counters, int hash) {
+            for (int row = 0; row < DEPTH; row++) {
+                counters[index(row, hash)]++;
+            }
+        }
+    }
+
+    /** Identifies an object by its source and ID. */
+    private static final class Key {
+        final String source;
+        final Object objectId;
+
+        Key(String source, Object objectId) {
+            this.source = source;
+            this.objectId = objectId;
+        }
+
+        public boolean equals(Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) object;
+            return source.equals(key.source) && objectId.equals(key.objectId);
+        }
+
+        public int hashCode() {
+            return hash(source, objectId);
+        }
+    }
+
+    /** The information recorded for a tracked object. */
+    private static final class Candidate {
+        final Key key;
+        final String description;
+        final Set<String> taskTypes = new LinkedHashSet<String>();
+        long conflicts;
+        long lastConflict;
+        long totalWaitTime;
+        long waitCount;
+
+        Candidate(Key key, String description) {
+            this.key = key;
+            this.description = description;
+        }
+    }
+}
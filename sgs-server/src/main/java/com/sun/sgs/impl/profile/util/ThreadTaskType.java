@@ -0,0 +1,56 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.profile.util;
+/**
+ * A utility for recording the type of the task that each thread is currently
+ * running.  The {@code ProfileCollector} sets the type when a task starts
+ * and finishes, so that services can tailor their behavior to the kind of
+ * task being run.  The type is the value returned by {@link
+ * com.sun.sgs.kernel.KernelRunnable#getBaseTaskType getBaseTaskType}.
+ */
+public final class ThreadTaskType {
+
+    /** The type of the task running in each thread, or {@code null}. */
+    private static final ThreadLocal<String> taskType =
+        new ThreadLocal<String>();
+
+    /** This class should not be instantiated. */
+    private ThreadTaskType() { }
+
+    /**
+     * Sets the type of the task the current thread is running.
+     *
+     * @param type the task type, or {@code null} if no task is running
+     */
+    public static void set(String type) {
+        taskType.set(type);
+    }
+
+    /**
+     * Returns the type of the task the current thread is running.
+     *
+     * @return the task type, or {@code null} if no task is running
+     */
+    public static String get() {
+        return taskType.get();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.profile.util;
+
+/**
+ * A utility for recording, for each thread, the total time that the thread
+ * has spent waiting for locks and for the data store.  Code that waits
+ * reports the time waited, and the {@code ProfileCollector} reads the totals
+ * when a task starts and finishes so it can report the time that each task
+ * spent waiting.  All times are in nanoseconds.
+ */
+public final class ThreadWaitTimes {
+
+    /** The totals for each thread: lock wait, then data store wait. */
+    private static final ThreadLocal<long[]> times =
+        new ThreadLocal<long[]>() {
+            protected long[] initialValue() {
+                return new long[2];
+            }
+        };
+
+    /** This class should not be instantiated. */
+    private ThreadWaitTimes() { }
+
+    /**
+     * Adds to the time the current thread has spent waiting for locks.
+     *
+     * @param nanos the time waited, in nanoseconds
+     */
+    public static void addLockWaitTime(long nanos) {
+        times.get()[0] += nanos;
+    }
+
+    /**
+     * Returns the value to pass to {@link #endStoreWait endStoreWait} when
+     * the current thread finishes a data store operation.
+     *
+     * @return the start of the operation, in nanoseconds, less the current
+     *         lock wait time
+     */
+    public static long startStoreWait() {
+        return System.nanoTime() - times.get()[0];
+    }
+
+    /**
+     * Adds the time since the current thread started a data store
+     * operation, not including time spent waiting for locks during the
+     * operation, to the time the thread has spent waiting for the data
+     * store.
+     *
+     * @param start the value returned by {@link #startStoreWait
+     *        startStoreWait} when the operation started
+     */
+    public static void endStoreWait(long start) {
+        long[] threadTimes = times.get();
+        threadTimes[1] += System.nanoTime() - threadTimes[0] - start;
+    }
+
+    /**
+     * Returns the total time the current thread has spent waiting for locks.
+     *
+     * @return the total lock wait time, in nanoseconds
+     */
+    public static long getLockWaitTime() {
+        return times.get()[0];
+    }
+
+    /**
+     * Returns the total time the current thread has spent waiting for the
+     * data store, not including time spent waiting for locks.
+     *
+     * @return the total data store wait time, in nanoseconds
+     */
+    public static long getStoreWaitTime() {
+        return times.get()[1];
+    }
+}
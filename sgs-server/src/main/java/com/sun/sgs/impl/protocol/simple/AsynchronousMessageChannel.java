@@ -22,32 +22,58 @@
 package com.sun.sgs.impl.protocol.simple;
 
 import com.sun.sgs.impl.nio.DelegatingCompletionHandler;
+import com.sun.sgs.impl.nio.DirectBufferPool;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import com.sun.sgs.nio.channels.AsynchronousByteChannel;
 import com.sun.sgs.nio.channels.CompletionHandler;
 import com.sun.sgs.nio.channels.IoFuture;
 import com.sun.sgs.nio.channels.ReadPendingException;
 import com.sun.sgs.nio.channels.WritePendingException;
+import com.sun.sgs.profile.ProfileCounter;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * A wrapper channel that reads and writes complete messages by framing
  * messages with a 2-byte message length, and masking (and re-issuing) partial
- * I/O operations.  Also enforces a fixed buffer size when reading.
+ * I/O operations.  Also enforces a fixed buffer size when reading. <p>
+ *
+ * If the channel is created with a {@link DirectBufferPool}, it obtains its
+ * buffers from the pool: the read buffer starts small, grows as needed to
+ * hold a complete message, and is replaced by a small one whenever a read
+ * starts with no unread bytes, and each write uses a pooled buffer that is
+ * returned to the pool when the write completes.  The read buffer is
+ * returned when the channel is closed.  Buffers used by cancelled
+ * operations are not returned, since the underlying channel may still be
+ * using them.  As a result, an idle channel holds only a small read
+ * buffer. <p>
+ *
+ * If a {@link MessageCompression} has been {@link #setCompression set},
+ * messages are compressed as they are copied into the write buffer.  The
+ * channel counts the bytes of the messages it writes, before and after
+ * compression, not including the size prefixes.
  */
 public class AsynchronousMessageChannel implements Channel {
 
     /** The number of bytes used to represent the message length. */
     public static final int PREFIX_LENGTH = 2;
 
+    /**
+     * The size of the read buffer used when there are no unread bytes, if
+     * the channel uses a buffer pool.
+     */
+    static final int IDLE_READ_BUFFER_SIZE = 1024;
+
     /** The logger for this class. */
     static final LoggerWrapper logger = new LoggerWrapper(
 	Logger.getLogger(AsynchronousMessageChannel.class.getName()));
@@ -64,8 +90,33 @@ public class AsynchronousMessageChannel implements Channel {
     /** Whether there is a write underway. */
     final AtomicBoolean writePending = new AtomicBoolean();
 
-    /** The read buffer. */
-    final ByteBuffer readBuffer;
+    /** The maximum number of bytes in the read buffer. */
+    private final int readBufferSize;
+
+    /** The buffer pool, or {@code null}. */
+    private final DirectBufferPool pool;
+
+    /** The compression for written messages, or {@code null}. */
+    private volatile MessageCompression compression = null;
+
+    /** The number of bytes of messages written, before compression. */
+    private final AtomicLong uncompressedBytesWritten = new AtomicLong();
+
+    /** The number of bytes of messages written, after compression. */
+    private final AtomicLong compressedBytesWritten = new AtomicLong();
+
+    /**
+     * The profile counters for the bytes written, before and after
+     * compression, or {@code null} if not set.
+     */
+    private volatile ProfileCounter uncompressedBytesWrittenCounter = null;
+    private volatile ProfileCounter compressedBytesWrittenCounter = null;
+
+    /**
+     * The read buffer, or {@code null} if it has been returned to the
+     * pool.  Only accessed by the reader that set {@code readPending}.
+     */
+    ByteBuffer readBuffer;
 
     /**
      * Creates a new instance of this class with the given channel and read
@@ -78,6 +129,24 @@ public class AsynchronousMessageChannel implements Channel {
      */
     public AsynchronousMessageChannel(AsynchronousByteChannel channel,
                                       int readBufferSize)
+    {
+	this(channel, readBufferSize, null);
+    }
+
+    /**
+     * Creates a new instance of this class with the given channel, maximum
+     * read buffer size, and buffer pool.  If {@code pool} is {@code null},
+     * the channel allocates a dedicated read buffer of the specified size.
+     * 
+     * @param	channel a channel
+     * @param	readBufferSize the maximum number of bytes in the read buffer
+     * @param	pool the pool to obtain buffers from, or {@code null}
+     * @throws	IllegalArgumentException if {@code readBufferSize} is smaller
+     *		than {@value #PREFIX_LENGTH}
+     */
+    public AsynchronousMessageChannel(AsynchronousByteChannel channel,
+                                      int readBufferSize,
+				      DirectBufferPool pool)
     {
 	if (readBufferSize < PREFIX_LENGTH) {
 	    throw new IllegalArgumentException(
@@ -85,7 +154,10 @@ public class AsynchronousMessageChannel implements Channel {
 		PREFIX_LENGTH);
 	}
 	this.channel = channel;
-	readBuffer = ByteBuffer.allocateDirect(readBufferSize);
+	this.readBufferSize = readBufferSize;
+	this.pool = pool;
+	readBuffer = (pool == null)
+	    ? ByteBuffer.allocateDirect(readBufferSize) : null;
     }
 
     /* -- Methods for reading and writing -- */
@@ -131,15 +203,99 @@ public class AsynchronousMessageChannel implements Channel {
         if (!writePending.compareAndSet(false, true)) {
             throw new WritePendingException();
 	}
-        return new Writer(handler, src).start();
+        return new Writer(handler, Collections.singletonList(src)).start();
+    }
+
+    /**
+     * Initiates writing the complete messages from the given buffers, in
+     * order, to the underlying channel, and returns a future for
+     * controlling the operation.  The messages are framed individually but
+     * written to the underlying channel together, so that a batch of
+     * messages costs a single write operation rather than one per message.
+     * Writes the bytes of each buffer starting at the buffer's current
+     * position and up to its limit.  The list must not be modified until
+     * the operation completes.
+     * 
+     * @param	srcs the buffers from which bytes are to be retrieved
+     * @param	handler the completion handler object; can be {@code null}
+     * @return	a future representing the result of the operation
+     * @throws	IllegalArgumentException if {@code srcs} is empty
+     * @throws	WritePendingException if a write is in progress
+     */
+    public IoFuture<Void, Void> write(List<ByteBuffer> srcs,
+                                      CompletionHandler<Void, Void> handler)
+    {
+	if (srcs.isEmpty()) {
+	    throw new IllegalArgumentException("No messages to write");
+	}
+        if (!writePending.compareAndSet(false, true)) {
+            throw new WritePendingException();
+	}
+        return new Writer(handler, srcs).start();
+    }
+
+    /**
+     * Sets the compression used for messages written by write operations
+     * initiated after this method is called.
+     *
+     * @param	compression the compression, or {@code null} to write
+     *		messages uncompressed
+     */
+    void setCompression(MessageCompression compression) {
+	this.compression = compression;
+    }
+
+    /**
+     * Sets the profile counters that are incremented, along with this
+     * channel's own counts, by the number of bytes of the messages written
+     * before and after compression.
+     *
+     * @param	uncompressedBytesWritten the counter for the bytes written
+     *		before compression
+     * @param	compressedBytesWritten the counter for the bytes written
+     *		after compression
+     */
+    void setProfileCounters(ProfileCounter uncompressedBytesWritten,
+			    ProfileCounter compressedBytesWritten)
+    {
+	compressedBytesWrittenCounter = compressedBytesWritten;
+	uncompressedBytesWrittenCounter = uncompressedBytesWritten;
+    }
+
+    /**
+     * Returns the number of bytes of the messages written by this channel,
+     * before compression.
+     *
+     * @return	the uncompressed number of bytes written
+     */
+    long getUncompressedBytesWritten() {
+	return uncompressedBytesWritten.get();
+    }
+
+    /**
+     * Returns the number of bytes of the messages written by this channel,
+     * after compression.  Messages that are not compressed count at their
+     * original size.
+     *
+     * @return	the compressed number of bytes written
+     */
+    long getCompressedBytesWritten() {
+	return compressedBytesWritten.get();
     }
 
     /* -- Implement Channel -- */
 
-    /** {@inheritDoc} */
+    /**
+     * {@inheritDoc} <p>
+     *
+     * If the channel uses a buffer pool and no read is underway, returns the
+     * read buffer to the pool.  Otherwise, the read returns it when it
+     * completes.
+     */
     @Override
     public void close() throws IOException {
         channel.close();
+	releaseReadBuffer();
     }
 
     /** {@inheritDoc} */
@@ -158,10 +314,35 @@ public class AsynchronousMessageChannel implements Channel {
      * @return	the length, or {@code -1}
      */
     int getMessageLength() {
-	return (readBuffer.position() >= PREFIX_LENGTH)
+	return (readBuffer != null && readBuffer.position() >= PREFIX_LENGTH)
 	    ? (readBuffer.getShort(0) & 0xffff) + PREFIX_LENGTH : -1;
     }
 
+    /**
+     * Returns the read buffer to the pool if the channel uses a pool, has
+     * been closed, and no read is underway.
+     */
+    private void releaseReadBuffer() {
+	if (pool != null && !channel.isOpen() &&
+	    readPending.compareAndSet(false, true))
+	{
+	    pool.release(readBuffer);
+	    readBuffer = null;
+	    readPending.set(false);
+	}
+    }
+
+    /**
+     * Returns a read buffer from the pool with room for at least {@code
+     * size} bytes, and with its limit set to the smaller of its capacity
+     * and the maximum read buffer size.
+     */
+    private ByteBuffer acquireReadBuffer(int size) {
+	ByteBuffer buffer = pool.acquire(size);
+	buffer.limit(Math.min(buffer.capacity(), readBufferSize));
+	return buffer;
+    }
+
     /**
      * Implement a completion handler for reading a complete message from the
      * underlying byte stream.
@@ -177,17 +358,26 @@ public class AsynchronousMessageChannel implements Channel {
             super(null, handler);
         }
 
-	/** Clear the readPending flag. */
+	/**
+	 * Clear the readPending flag, and return the read buffer to the pool
+	 * if the channel has been closed, before notifying the handler.  If
+	 * the read was cancelled, the underlying read may still be using the
+	 * buffer, so drop it instead.
+	 */
         @Override
         protected void done() {
+	    if (pool != null && isCancelled()) {
+		readBuffer = null;
+	    }
             readPending.set(false);
+	    releaseReadBuffer();
             super.done();
         }
 
         /** Start reading into the buffer. */
         @Override
         protected IoFuture<Integer, Void> implStart() {
-	    int position = readBuffer.position();
+	    int position = readBuffer != null ? readBuffer.position() : 0;
 	    if (position > 0) {
 		/* Skip previous message, moving remaining bytes to front */
 		int len = getMessageLength();
@@ -199,6 +389,20 @@ public class AsynchronousMessageChannel implements Channel {
 		} else {
 		    readBuffer.clear();
 		}
+		readBuffer.limit(
+		    Math.min(readBuffer.capacity(), readBufferSize));
+	    }
+	    if (pool != null && readBuffer != null &&
+		readBuffer.position() == 0 &&
+		readBuffer.capacity() > IDLE_READ_BUFFER_SIZE)
+	    {
+		/* No unread bytes, so give back the large buffer */
+		pool.release(readBuffer);
+		readBuffer = null;
+	    }
+	    if (readBuffer == null) {
+		readBuffer = acquireReadBuffer(
+		    Math.min(IDLE_READ_BUFFER_SIZE, readBufferSize));
 	    }
             return processBuffer();
         }
@@ -224,10 +428,17 @@ public class AsynchronousMessageChannel implements Channel {
             if (messageLen < 0) {
                 messageLen = getMessageLength();
                 if (messageLen >= 0) {
-                    if (readBuffer.limit() < messageLen) {
+                    if (readBufferSize < messageLen) {
 			/* Buffer is too small to hold complete message */
                         throw new BufferOverflowException();
-                    }
+                    } else if (readBuffer.limit() < messageLen) {
+			/* Move the bytes read so far to a larger buffer */
+			ByteBuffer larger = acquireReadBuffer(messageLen);
+			readBuffer.flip();
+			larger.put(readBuffer);
+			pool.release(readBuffer);
+			readBuffer = larger;
+		    }
                 }
             }
             if (messageLen >= 0 && readBuffer.position() >= messageLen) {
@@ -262,33 +473,67 @@ public class AsynchronousMessageChannel implements Channel {
 	extends DelegatingCompletionHandler<Void, Void, Integer, Void>
     {
 	/**
-	 * The byte buffer containing the bytes to send, with the size
-	 * prepended.
+	 * The byte buffer containing the bytes to send, with the size of
+	 * each message prepended.
 	 */
 	private final ByteBuffer srcWithSize;
 
 	/**
-	 * Creates an instance with the specified attachment and handler, and
-	 * sending the bytes in the specified buffer.
+	 * Creates an instance with the specified handler, and sending the
+	 * bytes in the specified buffers, each with its size prepended.
 	 */
-        Writer(CompletionHandler<Void, Void> handler, ByteBuffer src) {
+        Writer(CompletionHandler<Void, Void> handler, List<ByteBuffer> srcs) {
             super(null, handler);
-	    int size = src.remaining();
-	    assert size < Short.MAX_VALUE;
-	    /* Prepend the size as a short. */
-	    /*
-	     * XXX: Maybe avoid copying by doing two writes?  -tjb@sun.com
-	     * (02/29/2008)
-	     */
-	    srcWithSize = ByteBuffer.allocate(2 + size);
-	    srcWithSize.putShort((short) size)
-		.put(src)
-		.flip();
+	    MessageCompression compression =
+		AsynchronousMessageChannel.this.compression;
+	    int total = 0;
+	    for (ByteBuffer src : srcs) {
+		assert src.remaining() < Short.MAX_VALUE;
+		total += PREFIX_LENGTH + (compression == null
+					  ? src.remaining()
+					  : compression.getMaxWriteLength(src));
+	    }
+	    /* Copy all of the messages into a single buffer */
+	    srcWithSize = (pool != null)
+		? pool.acquire(total) : ByteBuffer.allocate(total);
+	    int uncompressed = 0;
+	    for (ByteBuffer src : srcs) {
+		uncompressed += src.remaining();
+		if (compression == null) {
+		    /* Prepend the size as a short. */
+		    srcWithSize.putShort((short) src.remaining()).put(src);
+		} else {
+		    /* Compress, then fill in the size of the result */
+		    int start = srcWithSize.position();
+		    srcWithSize.position(start + PREFIX_LENGTH);
+		    compression.write(src, srcWithSize);
+		    srcWithSize.putShort(
+			start, (short) (srcWithSize.position() - start -
+					PREFIX_LENGTH));
+		}
+	    }
+	    int compressed =
+		srcWithSize.position() - PREFIX_LENGTH * srcs.size();
+	    uncompressedBytesWritten.addAndGet(uncompressed);
+	    compressedBytesWritten.addAndGet(compressed);
+	    ProfileCounter uncompressedCounter =
+		uncompressedBytesWrittenCounter;
+	    if (uncompressedCounter != null) {
+		uncompressedCounter.incrementCount(uncompressed);
+		compressedBytesWrittenCounter.incrementCount(compressed);
+	    }
+	    srcWithSize.flip();
         }
 
-	/** Clear the writePending flag. */
+	/**
+	 * Return the buffer to the pool, unless the write was cancelled and
+	 * may still be using it, and clear the writePending flag.
+	 */
         @Override
         protected void done() {
+	    if (pool != null && !isCancelled()) {
+		pool.release(srcWithSize);
+	    }
             writePending.set(false);
             super.done();
         }
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.protocol.simple;
+
+import com.sun.sgs.protocol.simple.SimpleSgsProtocol;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the messages written to, and decompresses the messages read
+ * from, the connection of a single session that negotiated compression
+ * during login. <p>
+ *
+ * Compression is an extension to the {@code SimpleSgsProtocol} login
+ * handshake.  A client requests compression by appending a byte with the
+ * {@link #COMPRESSION_REQUESTED} bit set to its {@code LOGIN_REQUEST}
+ * message, after the password.  If the server accepts, it sends the
+ * {@code LOGIN_SUCCESS} message compressed, and both sides may compress
+ * any later message.  A server that does not support or enable
+ * compression ignores the extension byte and sends an uncompressed {@code
+ * LOGIN_SUCCESS}, so the client knows not to compress its messages. <p>
+ *
+ * A compressed message has the {@link #COMPRESSED_FLAG} bit set in its
+ * opcode, and its payload, the bytes following the opcode, is the output
+ * of a deflate stream that is flushed at the end of each message.  Each
+ * direction of the connection uses a single stream, so messages are
+ * compressed in the context of earlier ones, and must be decompressed in
+ * the order they were compressed.  Only messages whose payload is at least
+ * the threshold specified in the constructor are compressed. <p>
+ *
+ * Instances reuse their compressors and buffers, so compressing and
+ * decompressing messages does not allocate memory once the buffers have
+ * grown to the size of the largest message.  The methods of this class
+ * are thread-safe, but the caller is responsible for compressing and
+ * decompressing messages in the order they are written and read.
+ */
+public class MessageCompression {
+
+    /** The bit set in the opcode of a message with a compressed payload. */
+    public static final byte COMPRESSED_FLAG = (byte) 0x80;
+
+    /**
+     * The bit set in the {@code LOGIN_REQUEST} extension byte to request
+     * compression.
+     */
+    public static final byte COMPRESSION_REQUESTED = 0x01;
+
+    /** The initial size of the buffers. */
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    /** The minimum payload size, in bytes, of a compressed message. */
+    private final int threshold;
+
+    /** The compressor for messages written to the connection. */
+    private final Deflater deflater;
+
+    /** The decompressor for messages read from the connection. */
+    private final Inflater inflater;
+
+    /** The buffer holding the payload being compressed or decompressed. */
+    private byte[] input = new byte[INITIAL_BUFFER_SIZE];
+
+    /** The buffer holding the compressed or decompressed payload. */
+    private byte[] output = new byte[INITIAL_BUFFER_SIZE];
+
+    /** Whether {@link #end end} has been called. */
+    private boolean ended = false;
+
+    /**
+     * Constructs an instance with the specified compression {@code level}
+     * and {@code threshold}.
+     *
+     * @param	level the compression level, from {@code 0} to {@code 9}, or
+     *		{@link Deflater#DEFAULT_COMPRESSION}
+     * @param	threshold the minimum payload size, in bytes, of a message
+     *		to compress
+     * @throws	IllegalArgumentException if {@code level} is not a valid
+     *		compression level, or {@code threshold} is negative
+     */
+    public MessageCompression(int level, int threshold) {
+	if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+	    throw new IllegalArgumentException("invalid level: " + level);
+	} else if (threshold < 0) {
+	    throw new IllegalArgumentException(
+		"threshold must not be negative: " + threshold);
+	}
+	this.threshold = threshold;
+	deflater = new Deflater(level, true);
+	inflater = new Inflater(true);
+    }
+
+    /**
+     * Returns the largest number of bytes that {@link #write write} may
+     * store for the message from the position to the limit of the specified
+     * buffer.
+     *
+     * @param	message a message, starting with its opcode
+     * @return	the largest number of bytes that the message may occupy
+     *		once written
+     */
+    public int getMaxWriteLength(ByteBuffer message) {
+	int length = message.remaining();
+	return shouldCompress(message) ? getMaxCompressedLength(length) : length;
+    }
+
+    /**
+     * Writes the message from the position to the limit of the specified
+     * {@code src} buffer into the {@code dst} buffer, compressing the
+     * payload if it is at least the threshold size.  Messages must be
+     * written in the order they will be sent.  The position of {@code src}
+     * is advanced to its limit.
+     *
+     * @param	src a message, starting with its opcode
+     * @param	dst the buffer to write the message into, which must have
+     *		at least {@link #getMaxWriteLength getMaxWriteLength(src)}
+     *		bytes remaining
+     */
+    public synchronized void write(ByteBuffer src, ByteBuffer dst) {
+	if (ended || !shouldCompress(src)) {
+	    dst.put(src);
+	    return;
+	}
+	int length = src.remaining();
+	byte opcode = src.get();
+	int payloadLength = length - 1;
+	ensureInput(payloadLength);
+	src.get(input, 0, payloadLength);
+	deflater.setInput(input, 0, payloadLength);
+	int compressedLength = 0;
+	while (true) {
+	    compressedLength += deflater.deflate(
+		output, compressedLength, output.length - compressedLength,
+		Deflater.SYNC_FLUSH);
+	    if (compressedLength < output.length) {
+		break;
+	    }
+	    // Output buffer is full, so there may be more output
+	    output = grow(output, output.length * 2);
+	}
+	dst.put((byte) (opcode | COMPRESSED_FLAG)).
+	    put(output, 0, compressedLength);
+    }
+
+    /**
+     * Returns {@code true} if the message at the position of the specified
+     * buffer has a compressed payload.
+     *
+     * @param	message a message, starting with its opcode
+     * @return	{@code true} if the message has a compressed payload
+     */
+    public static boolean isCompressed(ByteBuffer message) {
+	return message.hasRemaining() &&
+	    (message.get(message.position()) & COMPRESSED_FLAG) != 0;
+    }
+
+    /**
+     * Returns an array containing the opcode and decompressed payload of
+     * the compressed message from the position to the limit of the
+     * specified buffer.  Messages must be read in the order they were
+     * received.  The position of {@code message} is advanced to its limit.
+     *
+     * @param	message a compressed message, starting with its opcode
+     * @return	the decompressed message
+     * @throws	IOException if the message is not compressed, its payload
+     *		is not valid compressed data, the decompressed message is
+     *		longer than {@link SimpleSgsProtocol#MAX_MESSAGE_LENGTH}, or
+     *		{@link #end end} has been called
+     */
+    public synchronized byte[] read(ByteBuffer message) throws IOException {
+	if (ended) {
+	    throw new IOException("compression has ended");
+	} else if (!isCompressed(message)) {
+	    throw new IOException("message is not compressed");
+	}
+	int length = message.remaining();
+	byte opcode = (byte) (message.get() & ~COMPRESSED_FLAG);
+	int payloadLength = length - 1;
+	ensureInput(payloadLength);
+	message.get(input, 0, payloadLength);
+	inflater.setInput(input, 0, payloadLength);
+	/* Leave room for the opcode at the start of the output */
+	int outputLength = 1;
+	try {
+	    while (true) {
+		outputLength += inflater.inflate(
+		    output, outputLength, output.length - outputLength);
+		if (outputLength > SimpleSgsProtocol.MAX_MESSAGE_LENGTH) {
+		    throw new IOException(
+			"decompressed message is longer than " +
+			SimpleSgsProtocol.MAX_MESSAGE_LENGTH + " bytes");
+		} else if (outputLength == output.length) {
+		    /*
+		     * Output buffer is full, so there may be more output.  Allow
+		     * one byte past the maximum, to detect a message that is too
+		     * long.
+		     */
+		    output = grow(
+			output,
+			Math.min(output.length * 2,
+				 SimpleSgsProtocol.MAX_MESSAGE_LENGTH + 1));
+		} else if (inflater.needsInput()) {
+		    break;
+		} else {
+		    throw new IOException("incomplete compressed message");
+		}
+	    }
+	} catch (DataFormatException e) {
+	    throw new IOException("invalid compressed message", e);
+	}
+	byte[] result = new byte[outputLength];
+	result[0] = opcode;
+	System.arraycopy(output, 1, result, 1, outputLength - 1);
+	return result;
+    }
+
+    /**
+     * Releases the resources used by the compressors.  Messages written
+     * afterwards are not compressed, and reading a message throws {@code
+     * IOException}.
+     */
+    public synchronized void end() {
+	if (!ended) {
+	    ended = true;
+	    deflater.end();
+	    inflater.end();
+	}
+    }
+
+    /**
+     * Returns {@code true} if the specified message should be compressed.
+     * The {@code LOGIN_SUCCESS} message is always compressed, to
+     * acknowledge the client's compression request.
+     */
+    private boolean shouldCompress(ByteBuffer message) {
+	int length = message.remaining();
+	if (length == 0 ||
+	    getMaxCompressedLength(length) > SimpleSgsProtocol.MAX_MESSAGE_LENGTH)
+	{
+	    return false;
+	}
+	return length - 1 >= threshold ||
+	    message.get(message.position()) == SimpleSgsProtocol.LOGIN_SUCCESS;
+    }
+
+    /**
+     * Returns the largest number of bytes of a compressed message with
+     * the specified uncompressed length, allowing for the deflate block
+     * headers and the flush at the end of the message.
+     */
+    private static int getMaxCompressedLength(int length) {
+	return length + (length >> 8) + 64;
+    }
+
+    /** Makes sure the input buffer can hold the specified number of bytes. */
+    private void ensureInput(int length) {
+	if (input.length < length) {
+	    input = grow(input, length);
+	}
+    }
+
+    /**
+     * Returns an array with the specified length and the contents of the
+     * specified array.
+     */
+    private static byte[] grow(byte[] array, int length) {
+	byte[] result = new byte[length];
+	System.arraycopy(array, 0, result, 0, array.length);
+	return result;
+    }
+}
@@ -31,6 +31,8 @@ import com.sun.sgs.app.Delivery;
 import com.sun.sgs.auth.Identity;
 import com.sun.sgs.auth.IdentityCoordinator;
 import com.sun.sgs.impl.auth.NamePasswordCredentials;
+import com.sun.sgs.impl.nio.DirectBufferPool;
+import com.sun.sgs.impl.profile.ProfileCollectorImpl;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
 import com.sun.sgs.impl.util.AbstractKernelRunnable;
@@ -39,6 +41,13 @@ import com.sun.sgs.kernel.ComponentRegistry;
 import com.sun.sgs.kernel.KernelRunnable;
 import com.sun.sgs.kernel.RecurringTaskHandle;
 import com.sun.sgs.nio.channels.AsynchronousByteChannel;
+import com.sun.sgs.nio.channels.CompletionHandler;
+import com.sun.sgs.nio.channels.IoFuture;
+import com.sun.sgs.profile.ProfileCollector;
+import com.sun.sgs.profile.ProfileCollector.ProfileLevel;
+import com.sun.sgs.profile.ProfileConsumer;
+import com.sun.sgs.profile.ProfileConsumer.ProfileDataType;
+import com.sun.sgs.profile.ProfileCounter;
 import com.sun.sgs.protocol.ProtocolAcceptor;
 import com.sun.sgs.protocol.ProtocolDescriptor;
 import com.sun.sgs.protocol.ProtocolListener;
@@ -48,9 +57,13 @@ import com.sun.sgs.service.TransactionProxy;
 import com.sun.sgs.transport.ConnectionHandler;
 import com.sun.sgs.transport.Transport;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.security.auth.login.LoginException;
@@ -71,6 +84,23 @@ import javax.security.auth.login.LoginException;
  *      specified transport must support {@link Delivery#RELIABLE}.<p>
  *
  * <dt> <i>Property:</i> <code><b>
+ *	{@value #UNRELIABLE_TRANSPORT_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> no unreliable transport
+ *
+ * <dd style="padding-top: .5em">Specifies an optional second transport,
+ *	such as {@link com.sun.sgs.impl.transport.udp.UdpTransport}, for
+ *	messages sent with {@link Delivery#UNRELIABLE} delivery.  A client
+ *	pairs a connection of this transport with its session by sending the
+ *	reconnect key it received in its login acknowledgment as the first
+ *	message on the connection; a connection whose first message is not
+ *	the reconnect key of a logged-in session is closed.  Once paired,
+ *	each unreliable session or channel message is written to the
+ *	connection as a single message containing the opcode and payload,
+ *	without a length prefix.  Messages for sessions that have not paired
+ *	a connection are sent over the primary transport.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
  *	{@value #PROTOCOL_VERSION_PROPERTY}
  *	</b></code><br>
  *	<i>Default:</i> {@value #DEFAULT_PROTOCOL_VERSION}
@@ -91,7 +121,69 @@ import javax.security.auth.login.LoginException;
  *      <i>Minimum:</i> {@value #MIN_READ_BUFFER_SIZE}<br>
  *
  * <dd style="padding-top: .5em"> 
- *	Specifies the read buffer size.<p>
+ *	Specifies the maximum read buffer size.  Read buffers are obtained
+ *	from a buffer pool shared by all connections, and only grow to this
+ *	size when needed to hold a complete message.<p>
+ * 
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #BUFFER_POOL_SIZE_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_BUFFER_POOL_SIZE}<br>
+ *      <i>Minimum:</i> {@code 0}<br>
+ *
+ * <dd style="padding-top: .5em"> 
+ *	Specifies the maximum number of bytes of direct buffers that the
+ *	buffer pool shared by all connections retains for reuse.<p>
+ * 
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #WRITE_BATCH_SIZE_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_WRITE_BATCH_SIZE}<br>
+ *      <i>Minimum:</i> {@value #MIN_WRITE_BATCH_SIZE}<br>
+ *
+ * <dd style="padding-top: .5em"> 
+ *	Specifies the maximum number of bytes of pending messages, including
+ *	their length prefixes, that are combined into a single write to a
+ *	session's connection.  A message larger than this limit is still
+ *	written, by itself.  A value of {@code 0} writes each message
+ *	separately.<p>
+ * 
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #WRITE_QUEUE_HIGH_WATERMARK_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_WRITE_QUEUE_HIGH_WATERMARK}<br>
+ *      <i>Minimum:</i> {@value #MIN_WRITE_QUEUE_HIGH_WATERMARK}<br>
+ *
+ * <dd style="padding-top: .5em"> 
+ *	Specifies the number of bytes of messages waiting to be written to a
+ *	session's connection above which the session's write queue is
+ *	considered full.  While the queue is full, messages sent with an
+ *	unreliable {@link Delivery} are dropped, and the reliable messages
+ *	that fill the queue are handled as specified by the {@value
+ *	#WRITE_QUEUE_OVERFLOW_POLICY_PROPERTY} property.<p>
+ * 
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #WRITE_QUEUE_LOW_WATERMARK_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_WRITE_QUEUE_LOW_WATERMARK}<br>
+ *      <i>Minimum:</i> {@code 0}<br>
+ *      <i>Maximum:</i> the value of the {@value
+ *	#WRITE_QUEUE_HIGH_WATERMARK_PROPERTY} property<br>
+ *
+ * <dd style="padding-top: .5em"> 
+ *	Specifies the number of bytes of messages waiting to be written to a
+ *	session's connection at or below which a full write queue is
+ *	considered to have drained, and unreliable messages are accepted
+ *	again.<p>
+ * 
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #WRITE_QUEUE_OVERFLOW_POLICY_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@code DISCONNECT}<br>
+ *
+ * <dd style="padding-top: .5em"> 
+ *	Specifies what to do when a reliable message fills a session's write
+ *	queue, as one of the values of {@link WriteQueueOverflowPolicy}.<p>
  * 
  * <dt> <i>Property:</i> <code><b>
  *	{@value #DISCONNECT_DELAY_PROPERTY}
@@ -102,6 +194,38 @@ import javax.security.auth.login.LoginException;
  * <dd style="padding-top: .5em"> 
  *	Specifies the disconnect delay (in milliseconds) for disconnecting
  *      sessions.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #COMPRESSION_ENABLED_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@code false}<br>
+ *
+ * <dd style="padding-top: .5em">
+ *	Specifies whether to accept the requests of clients to compress the
+ *	messages of their sessions, as described in {@link
+ *	MessageCompression}.  Messages sent over the unreliable transport are
+ *	not compressed.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #COMPRESSION_THRESHOLD_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_COMPRESSION_THRESHOLD}<br>
+ *      <i>Minimum:</i> {@code 0}<br>
+ *
+ * <dd style="padding-top: .5em">
+ *	Specifies the minimum payload size, in bytes, of the messages that
+ *	are compressed for sessions that negotiated compression.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #COMPRESSION_LEVEL_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_COMPRESSION_LEVEL}<br>
+ *      <i>Minimum:</i> {@code 0}<br>
+ *      <i>Maximum:</i> {@code 9}<br>
+ *
+ * <dd style="padding-top: .5em">
+ *	Specifies the deflate compression level for sessions that negotiated
+ *	compression.<p>
  * </dl> <p>
  */
 public class SimpleSgsProtocolAcceptor
@@ -133,6 +257,70 @@ public class SimpleSgsProtocolAcceptor
     
     /** The minimum read buffer size value. */
     public static final int MIN_READ_BUFFER_SIZE = 8192;
+
+    /** The name of the buffer pool size property. */
+    public static final String BUFFER_POOL_SIZE_PROPERTY =
+        PKG_NAME + ".buffer.pool.size";
+
+    /** The default buffer pool size: {@value #DEFAULT_BUFFER_POOL_SIZE}. */
+    public static final long DEFAULT_BUFFER_POOL_SIZE = 64 * 1024 * 1024;
+
+    /** The smallest buffer size class in the buffer pool. */
+    private static final int MIN_POOLED_BUFFER_SIZE = 1024;
+
+    /** The largest buffer size class in the buffer pool. */
+    private static final int MAX_POOLED_BUFFER_SIZE = 128 * 1024;
+
+    /** The name of the write batch size property. */
+    public static final String WRITE_BATCH_SIZE_PROPERTY =
+        PKG_NAME + ".write.batch.size";
+
+    /** The default write batch size: {@value #DEFAULT_WRITE_BATCH_SIZE}. */
+    public static final int DEFAULT_WRITE_BATCH_SIZE = 16 * 1024;
+
+    /** The minimum write batch size value. */
+    public static final int MIN_WRITE_BATCH_SIZE = 0;
+
+    /** The name of the write queue high watermark property. */
+    public static final String WRITE_QUEUE_HIGH_WATERMARK_PROPERTY =
+        PKG_NAME + ".write.queue.high.watermark";
+
+    /**
+     * The default write queue high watermark: {@value
+     * #DEFAULT_WRITE_QUEUE_HIGH_WATERMARK}.
+     */
+    public static final int DEFAULT_WRITE_QUEUE_HIGH_WATERMARK =
+	4 * 1024 * 1024;
+
+    /** The minimum write queue high watermark value. */
+    public static final int MIN_WRITE_QUEUE_HIGH_WATERMARK =
+	SimpleSgsProtocol.MAX_MESSAGE_LENGTH;
+
+    /** The name of the write queue low watermark property. */
+    public static final String WRITE_QUEUE_LOW_WATERMARK_PROPERTY =
+        PKG_NAME + ".write.queue.low.watermark";
+
+    /**
+     * The default write queue low watermark: {@value
+     * #DEFAULT_WRITE_QUEUE_LOW_WATERMARK}.
+     */
+    public static final int DEFAULT_WRITE_QUEUE_LOW_WATERMARK =
+	1024 * 1024;
+
+    /** The name of the write queue overflow policy property. */
+    public static final String WRITE_QUEUE_OVERFLOW_POLICY_PROPERTY =
+        PKG_NAME + ".write.queue.overflow.policy";
+
+    /**
+     * The actions that can be taken when a reliable message causes a
+     * session's write queue to exceed its high watermark.
+     */
+    public enum WriteQueueOverflowPolicy {
+	/** Disconnect the session. */
+	DISCONNECT,
+	/** Log a warning and continue queueing reliable messages. */
+	QUEUE
+    }
     
     /**
      * The transport property. The specified transport must support
@@ -145,6 +333,16 @@ public class SimpleSgsProtocolAcceptor
     public static final String DEFAULT_TRANSPORT =
         "com.sun.sgs.impl.transport.tcp.TcpTransport";
 
+    /** The unreliable transport property. */
+    public static final String UNRELIABLE_TRANSPORT_PROPERTY =
+        PKG_NAME + ".unreliable.transport";
+
+    /**
+     * The size of the buffer for reading the reconnect key that pairs an
+     * unreliable transport connection with a session.
+     */
+    private static final int UNRELIABLE_PAIRING_BUFFER_SIZE = 64;
+
     /** The protocol version property.  Valid values are 4 and 5. */
     public static final String PROTOCOL_VERSION_PROPERTY =
 	PKG_NAME + ".protocol.version";
@@ -167,14 +365,61 @@ public class SimpleSgsProtocolAcceptor
     /** The minimum disconnect delay value. */
     public static final long MIN_DISCONNECT_DELAY = 1000;
 
+    /** The name of the compression enabled property. */
+    public static final String COMPRESSION_ENABLED_PROPERTY =
+	PKG_NAME + ".compression.enabled";
+
+    /** The name of the compression threshold property. */
+    public static final String COMPRESSION_THRESHOLD_PROPERTY =
+	PKG_NAME + ".compression.threshold";
+
+    /**
+     * The default compression threshold: {@value
+     * #DEFAULT_COMPRESSION_THRESHOLD}.
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 128;
+
+    /** The name of the compression level property. */
+    public static final String COMPRESSION_LEVEL_PROPERTY =
+	PKG_NAME + ".compression.level";
+
+    /** The default compression level: {@value #DEFAULT_COMPRESSION_LEVEL}. */
+    public static final int DEFAULT_COMPRESSION_LEVEL = 1;
+
     /** The identity manager. */
     private final IdentityCoordinator identityManager;
 
     /** The read buffer size for new connections. */
     protected final int readBufferSize;
+
+    /** The pool of buffers for reading and writing. */
+    protected final DirectBufferPool bufferPool;
+
+    /** The maximum number of bytes combined into a single write. */
+    protected final int writeBatchSize;
+
+    /** The number of queued bytes above which a write queue is full. */
+    protected final int writeQueueHighWatermark;
+
+    /** The number of queued bytes at which a full write queue drains. */
+    protected final int writeQueueLowWatermark;
+
+    /** The action taken when a reliable message fills a write queue. */
+    protected final WriteQueueOverflowPolicy writeQueueOverflowPolicy;
     
     /** The transport. */
     protected final Transport transport;
+
+    /** The unreliable transport, or {@code null}. */
+    protected final Transport unreliableTransport;
+
+    /**
+     * The logged-in sessions that may pair an unreliable transport
+     * connection, keyed by reconnect key.
+     */
+    private final ConcurrentMap<ByteBuffer, SimpleSgsProtocolImpl>
+	unreliablePeers =
+	    new ConcurrentHashMap<ByteBuffer, SimpleSgsProtocolImpl>();
     
     /** The disconnect delay (in milliseconds) for disconnecting sessions. */
     private final long disconnectDelay;
@@ -195,6 +440,28 @@ public class SimpleSgsProtocolAcceptor
     /** The handle for the task that monitors disconnecting client sessions. */
     private final RecurringTaskHandle monitorDisconnectingSessionsTaskHandle;
 
+    /** The number of connections accepted from the reliable transport. */
+    private final ProfileCounter connectionsAcceptedCounter;
+
+    /** Whether compression requests are accepted. */
+    private final boolean compressionEnabled;
+
+    /** The compression threshold. */
+    private final int compressionThreshold;
+
+    /** The compression level. */
+    private final int compressionLevel;
+
+    /**
+     * The number of bytes of all messages written to and read from session
+     * connections, before and after any compression.  Messages that are
+     * not compressed count at their original size in both counters.
+     */
+    final ProfileCounter uncompressedBytesWrittenCounter;
+    final ProfileCounter compressedBytesWrittenCounter;
+    final ProfileCounter uncompressedBytesReadCounter;
+    final ProfileCounter compressedBytesReadCounter;
+
     /**
      * Constructs an instance with the specified {@code properties},
      * {@code systemRegistry}, and {@code txnProxy}.
@@ -239,9 +506,38 @@ public class SimpleSgsProtocolAcceptor
             readBufferSize = wrappedProps.getIntProperty(
                 READ_BUFFER_SIZE_PROPERTY, DEFAULT_READ_BUFFER_SIZE,
                 MIN_READ_BUFFER_SIZE, Integer.MAX_VALUE);
+	    long bufferPoolSize = wrappedProps.getLongProperty(
+		BUFFER_POOL_SIZE_PROPERTY, DEFAULT_BUFFER_POOL_SIZE,
+		0, Long.MAX_VALUE);
+	    bufferPool = new DirectBufferPool(
+		MIN_POOLED_BUFFER_SIZE, MAX_POOLED_BUFFER_SIZE,
+		bufferPoolSize);
+            writeBatchSize = wrappedProps.getIntProperty(
+                WRITE_BATCH_SIZE_PROPERTY, DEFAULT_WRITE_BATCH_SIZE,
+                MIN_WRITE_BATCH_SIZE, Integer.MAX_VALUE);
+            writeQueueHighWatermark = wrappedProps.getIntProperty(
+                WRITE_QUEUE_HIGH_WATERMARK_PROPERTY,
+		DEFAULT_WRITE_QUEUE_HIGH_WATERMARK,
+                MIN_WRITE_QUEUE_HIGH_WATERMARK, Integer.MAX_VALUE);
+            writeQueueLowWatermark = wrappedProps.getIntProperty(
+                WRITE_QUEUE_LOW_WATERMARK_PROPERTY,
+		Math.min(DEFAULT_WRITE_QUEUE_LOW_WATERMARK,
+			 writeQueueHighWatermark),
+                0, writeQueueHighWatermark);
+	    writeQueueOverflowPolicy = wrappedProps.getEnumProperty(
+		WRITE_QUEUE_OVERFLOW_POLICY_PROPERTY,
+		WriteQueueOverflowPolicy.class,
+		WriteQueueOverflowPolicy.DISCONNECT);
 	    disconnectDelay = wrappedProps.getLongProperty(
 		DISCONNECT_DELAY_PROPERTY, DEFAULT_DISCONNECT_DELAY,
 		MIN_DISCONNECT_DELAY, Long.MAX_VALUE);
+	    compressionEnabled = wrappedProps.getBooleanProperty(
+		COMPRESSION_ENABLED_PROPERTY, false);
+	    compressionThreshold = wrappedProps.getIntProperty(
+		COMPRESSION_THRESHOLD_PROPERTY, DEFAULT_COMPRESSION_THRESHOLD,
+		0, Integer.MAX_VALUE);
+	    compressionLevel = wrappedProps.getIntProperty(
+		COMPRESSION_LEVEL_PROPERTY, DEFAULT_COMPRESSION_LEVEL, 0, 9);
 	    identityManager =
 		systemRegistry.getComponent(IdentityCoordinator.class);
                
@@ -260,6 +556,35 @@ public class SimpleSgsProtocolAcceptor
                 throw new IllegalArgumentException(
 		    "transport must support RELIABLE delivery");
             }
+	    unreliableTransport =
+		wrappedProps.getClassInstanceProperty(
+		    UNRELIABLE_TRANSPORT_PROPERTY, Transport.class,
+		    new Class[] {Properties.class}, properties);
+
+	    /*
+	     * Create the profiling data for accepted connections.  Profile
+	     * listeners report the accept rate for each reporting period.
+	     */
+	    ProfileConsumer consumer =
+		systemRegistry.getComponent(ProfileCollector.class).
+		getConsumer(ProfileCollectorImpl.CORE_CONSUMER_PREFIX +
+			    "SimpleSgsProtocolAcceptor");
+	    connectionsAcceptedCounter = consumer.createCounter(
+		"connectionsAccepted", ProfileDataType.AGGREGATE,
+		ProfileLevel.MEDIUM);
+	    uncompressedBytesWrittenCounter = consumer.createCounter(
+		"uncompressedBytesWritten", ProfileDataType.AGGREGATE,
+		ProfileLevel.MEDIUM);
+	    compressedBytesWrittenCounter = consumer.createCounter(
+		"compressedBytesWritten", ProfileDataType.AGGREGATE,
+		ProfileLevel.MEDIUM);
+	    uncompressedBytesReadCounter = consumer.createCounter(
+		"uncompressedBytesRead", ProfileDataType.AGGREGATE,
+		ProfileLevel.MEDIUM);
+	    compressedBytesReadCounter = consumer.createCounter(
+		"compressedBytesRead", ProfileDataType.AGGREGATE,
+		ProfileLevel.MEDIUM);
+
 	    /*
 	     * Set up recurring task to monitor disconnecting client sessions.
 	     */
@@ -288,8 +613,27 @@ public class SimpleSgsProtocolAcceptor
                        disconnectDelay +
                        "\n  " + READ_BUFFER_SIZE_PROPERTY + "=" +
                        readBufferSize +
+                       "\n  " + BUFFER_POOL_SIZE_PROPERTY + "=" +
+                       bufferPoolSize +
+                       "\n  " + WRITE_BATCH_SIZE_PROPERTY + "=" +
+                       writeBatchSize +
+                       "\n  " + WRITE_QUEUE_HIGH_WATERMARK_PROPERTY + "=" +
+                       writeQueueHighWatermark +
+                       "\n  " + WRITE_QUEUE_LOW_WATERMARK_PROPERTY + "=" +
+                       writeQueueLowWatermark +
+                       "\n  " + WRITE_QUEUE_OVERFLOW_POLICY_PROPERTY + "=" +
+                       writeQueueOverflowPolicy +
                        "\n  " + TRANSPORT_PROPERTY + "=" +
-                       transport.getClass().getName());
+                       transport.getClass().getName() +
+                       "\n  " + UNRELIABLE_TRANSPORT_PROPERTY + "=" +
+                       (unreliableTransport == null ? null :
+			unreliableTransport.getClass().getName()) +
+		       "\n  " + COMPRESSION_ENABLED_PROPERTY + "=" +
+		       compressionEnabled +
+		       "\n  " + COMPRESSION_THRESHOLD_PROPERTY + "=" +
+		       compressionThreshold +
+		       "\n  " + COMPRESSION_LEVEL_PROPERTY + "=" +
+		       compressionLevel);
 	    
 	} catch (RuntimeException e) {
 	    if (logger.isLoggable(Level.CONFIG)) {
@@ -319,6 +663,10 @@ public class SimpleSgsProtocolAcceptor
     /** {@inheritDoc} */
     public void doShutdown() {
         transport.shutdown();
+	if (unreliableTransport != null) {
+	    unreliableTransport.shutdown();
+	}
+	unreliablePeers.clear();
         monitorDisconnectingSessionsTaskHandle.cancel(); 
 	disconnectingHandlersMap.clear();
     }
@@ -337,6 +685,9 @@ public class SimpleSgsProtocolAcceptor
     /** {@inheritDoc} */
     public void accept(ProtocolListener protocolListener) throws IOException {
         transport.accept(new ConnectionHandlerImpl(protocolListener));
+	if (unreliableTransport != null) {
+	    unreliableTransport.accept(new UnreliableConnectionHandler());
+	}
     }
 
     /** {@inheritDoc} */
@@ -362,6 +713,7 @@ public class SimpleSgsProtocolAcceptor
         public void newConnection(AsynchronousByteChannel byteChannel)
             throws Exception
         {
+	    connectionsAcceptedCounter.incrementCount();
 	    if (protocolVersion == PROTOCOL4) {
 		new SimpleSgsProtocolImpl(
 		    protocolListener, SimpleSgsProtocolAcceptor.this,
@@ -380,6 +732,150 @@ public class SimpleSgsProtocolAcceptor
         }
     }
     
+    /**
+     * Unreliable transport connection handler.
+     */
+    private class UnreliableConnectionHandler implements ConnectionHandler {
+
+	UnreliableConnectionHandler() { }
+	
+        /** {@inheritDoc} */
+        public void newConnection(AsynchronousByteChannel byteChannel) {
+	    new UnreliablePairingHandler(byteChannel).read();
+        }
+
+        /** {@inheritDoc} */
+        public void shutdown() {
+            logger.log(Level.WARNING,
+		       "unreliable transport unexpectedly shutdown");
+        }
+    }
+
+    /**
+     * A completion handler for reading the reconnect keys sent on an
+     * unreliable transport connection.  The first key read pairs the
+     * connection with the logged-in session it identifies, or else the
+     * connection is closed.  Clients may keep sending the key, for example
+     * to keep network address translations alive.  Datagrams read after
+     * the connection is paired are ignored, so that a connection cannot be
+     * paired with a second session by sending that session's key.  The
+     * connection is closed when its session closes, so a client that logs
+     * in again pairs a new connection.
+     */
+    private class UnreliablePairingHandler
+	implements CompletionHandler<Integer, Void>
+    {
+	/** The unreliable transport connection. */
+	private final AsynchronousByteChannel channel;
+
+	/** The buffer for reading a reconnect key. */
+	private final ByteBuffer buf =
+	    ByteBuffer.allocate(UNRELIABLE_PAIRING_BUFFER_SIZE);
+
+	/** Whether the connection has been paired with a session. */
+	private boolean paired = false;
+
+	/**
+	 * Constructs an instance for the specified {@code channel}.
+	 *
+	 * @param	channel an unreliable transport connection
+	 */
+	UnreliablePairingHandler(AsynchronousByteChannel channel) {
+	    this.channel = channel;
+	}
+
+	/** Reads the next reconnect key. */
+	void read() {
+	    buf.clear();
+	    try {
+		channel.read(buf, this);
+	    } catch (RuntimeException e) {
+		logger.logThrow(
+		    Level.FINEST, e, "reading unreliable connection throws");
+		closeChannel();
+	    }
+	}
+
+	/** {@inheritDoc} */
+	public void completed(IoFuture<Integer, Void> result) {
+	    try {
+		result.getNow();
+	    } catch (ExecutionException e) {
+		logger.logThrow(
+		    Level.FINEST, e, "reading unreliable connection failed");
+		closeChannel();
+		return;
+	    }
+	    if (!paired) {
+		buf.flip();
+		SimpleSgsProtocolImpl protocol = unreliablePeers.get(buf);
+		if (protocol == null) {
+		    logger.log(Level.FINER,
+			       "closing unpaired unreliable connection {0}",
+			       channel);
+		    closeChannel();
+		    return;
+		}
+		protocol.attachUnreliableChannel(channel);
+		paired = true;
+	    }
+	    read();
+	}
+
+	/** Closes the connection. */
+	private void closeChannel() {
+	    try {
+		channel.close();
+	    } catch (IOException e) {
+	    }
+	}
+    }
+
+    /**
+     * Allows an unreliable transport connection to be paired with the
+     * specified logged-in {@code protocol}, identified by its {@code
+     * reconnectKey}.  Does nothing if there is no unreliable transport.
+     *
+     * @param	reconnectKey the session's reconnect key
+     * @param	protocol the session's protocol
+     */
+    void addUnreliablePeer(byte[] reconnectKey,
+			   SimpleSgsProtocolImpl protocol)
+    {
+	if (unreliableTransport != null) {
+	    unreliablePeers.put(ByteBuffer.wrap(reconnectKey), protocol);
+	}
+    }
+
+    /**
+     * Prevents an unreliable transport connection from being paired with
+     * the specified {@code protocol}, which is closing.
+     *
+     * @param	reconnectKey the session's reconnect key
+     * @param	protocol the session's protocol
+     */
+    void removeUnreliablePeer(byte[] reconnectKey,
+			      SimpleSgsProtocolImpl protocol)
+    {
+	if (unreliableTransport != null) {
+	    unreliablePeers.remove(ByteBuffer.wrap(reconnectKey), protocol);
+	}
+    }
+
+    /**
+     * Returns a new message compression for a session whose client
+     * requested compression, or {@code null} if compression is not
+     * enabled.
+     *
+     * @return	a new message compression, or {@code null}
+     */
+    MessageCompression newMessageCompression() {
+	if (!compressionEnabled) {
+	    return null;
+	}
+	return new MessageCompression(compressionLevel, compressionThreshold);
+    }
+    
     /**
      * Returns the authenticated identity for the specified {@code name} and
      * {@code password}.
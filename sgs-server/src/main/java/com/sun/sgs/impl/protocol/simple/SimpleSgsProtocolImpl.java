@@ -23,6 +23,8 @@ package com.sun.sgs.impl.protocol.simple;
 
 import com.sun.sgs.app.Delivery;
 import com.sun.sgs.auth.Identity;
+import com.sun.sgs.impl.protocol.simple.SimpleSgsProtocolAcceptor.
+    WriteQueueOverflowPolicy;
 import com.sun.sgs.impl.sharedutil.HexDumper;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import com.sun.sgs.impl.sharedutil.MessageBuffer;
@@ -32,6 +34,7 @@ import com.sun.sgs.nio.channels.ClosedAsynchronousChannelException;
 import com.sun.sgs.nio.channels.CompletionHandler;
 import com.sun.sgs.nio.channels.IoFuture;
 import com.sun.sgs.nio.channels.ReadPendingException;
+import com.sun.sgs.protocol.ChannelMessage;
 import com.sun.sgs.protocol.LoginFailureException;
 import com.sun.sgs.protocol.LoginRedirectException;
 import com.sun.sgs.protocol.ProtocolDescriptor;
@@ -51,9 +54,12 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -84,6 +90,12 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
      */
     private static final int DEFAULT_RECONNECT_KEY_LENGTH = 16;
 
+    /**
+     * The key for the encoding of a {@link ChannelMessage} shared by
+     * instances of this class.
+     */
+    private static final Object CHANNEL_MESSAGE_FRAME_KEY = new Object();
+
     /** A random number generator for reconnect keys. */
     private static final SecureRandom random = new SecureRandom();
 
@@ -111,6 +123,47 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
     /** The reconnect key. */
     protected final byte[] reconnectKey;
 
+    /**
+     * The maximum number of bytes, including length prefixes, of pending
+     * messages to combine into a single write.
+     */
+    private final int writeBatchSize;
+
+    /** The number of queued bytes above which the write queue is full. */
+    private final int writeQueueHighWatermark;
+
+    /** The number of queued bytes at which a full write queue drains. */
+    private final int writeQueueLowWatermark;
+
+    /** The action taken when a reliable message fills the write queue. */
+    private final WriteQueueOverflowPolicy writeQueueOverflowPolicy;
+
+    /**
+     * The connection of the acceptor's unreliable transport that is paired
+     * with this session, or a reference to {@code null}.
+     */
+    private final AtomicReference<AsynchronousByteChannel> unreliableChannel =
+	new AtomicReference<AsynchronousByteChannel>();
+
+    /** The completion handler for writing to the unreliable connection. */
+    private final UnreliableWriteHandler unreliableWriteHandler =
+	new UnreliableWriteHandler();
+
+    /** Whether the client's login request asked for compression. */
+    private volatile boolean compressionRequested = false;
+
+    /**
+     * The compression negotiated during login, or {@code null} if
+     * messages are not compressed.
+     */
+    private volatile MessageCompression compression = null;
+
+    /** The number of bytes of messages read, after decompression. */
+    private final AtomicLong uncompressedBytesRead = new AtomicLong();
+
+    /** The number of bytes of messages read, before decompression. */
+    private final AtomicLong compressedBytesRead = new AtomicLong();
+
     /** The completion handler for reading from the I/O channel. */
     private volatile ReadHandler readHandler = new ConnectedReadHandler();
 
@@ -171,9 +224,17 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 	// The read buffer size lower bound is enforced by the protocol acceptor
 	assert readBufferSize >= PREFIX_LENGTH;
 	this.asyncMsgChannel =
-	    new AsynchronousMessageChannel(byteChannel, readBufferSize);
+	    new AsynchronousMessageChannel(
+		byteChannel, readBufferSize, acceptor.bufferPool);
+	asyncMsgChannel.setProfileCounters(
+	    acceptor.uncompressedBytesWrittenCounter,
+	    acceptor.compressedBytesWrittenCounter);
 	this.listener = listener;
 	this.acceptor = acceptor;
+	this.writeBatchSize = acceptor.writeBatchSize;
+	this.writeQueueHighWatermark = acceptor.writeQueueHighWatermark;
+	this.writeQueueLowWatermark = acceptor.writeQueueLowWatermark;
+	this.writeQueueOverflowPolicy = acceptor.writeQueueOverflowPolicy;
 	this.logger = logger;
 	this.reconnectKey = getNextReconnectKey();
 	deliverySet.add(Delivery.RELIABLE);
@@ -265,6 +326,40 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
     public void channelMessage(BigInteger channelId,
                                ByteBuffer message,
                                Delivery delivery)
+    {
+	writeBuffer(encodeChannelMessage(channelId, message), delivery);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This implementation encodes the message once for all of the
+     * instances of this class that are passed the same {@code message},
+     * and invokes the protected method {@link #writeBuffer writeBuffer}
+     * with a read-only view of the shared encoding and the message's
+     * delivery requirement.
+     */
+    public void channelMessage(ChannelMessage message) {
+	ByteBuffer buf = message.getFrame(CHANNEL_MESSAGE_FRAME_KEY);
+	if (buf == null) {
+	    buf = message.putFrame(
+		CHANNEL_MESSAGE_FRAME_KEY,
+		encodeChannelMessage(
+		    message.getChannelId(), message.getMessage()));
+	}
+	writeBuffer(buf, message.getDelivery());
+    }
+
+    /**
+     * Returns a buffer containing the channel protocol message for the
+     * specified channel ID and message.
+     *
+     * @param	channelId a channel ID
+     * @param	message a channel message
+     * @return	the channel protocol message
+     */
+    private static ByteBuffer encodeChannelMessage(BigInteger channelId,
+						   ByteBuffer message)
     {
 	byte[] channelIdBytes = channelId.toByteArray();
 	int messageLength = 3 + channelIdBytes.length + message.remaining();
@@ -276,7 +371,32 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 	    put(channelIdBytes).
 	    put(message).
 	    flip();
-	writeBuffer(buf, delivery);
+	return buf;
+    }
+
+    /** {@inheritDoc} */
+    public long getPendingWriteBytes() {
+	return writeHandler.getPendingBytes();
+    }
+
+    /** {@inheritDoc} */
+    public long getUncompressedBytesWritten() {
+	return asyncMsgChannel.getUncompressedBytesWritten();
+    }
+
+    /** {@inheritDoc} */
+    public long getCompressedBytesWritten() {
+	return asyncMsgChannel.getCompressedBytesWritten();
+    }
+
+    /** {@inheritDoc} */
+    public long getUncompressedBytesRead() {
+	return uncompressedBytesRead.get();
+    }
+
+    /** {@inheritDoc} */
+    public long getCompressedBytesRead() {
+	return compressedBytesRead.get();
     }
 
     /** {@inheritDoc} */
@@ -294,6 +414,16 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
      * successful.
      */
     protected void loginSuccess() {
+	acceptor.addUnreliablePeer(reconnectKey, this);
+	if (compressionRequested) {
+	    /*
+	     * Accept the compression request, if enabled, before writing the
+	     * login acknowledgment, which is compressed to tell the client
+	     * that the request was accepted.
+	     */
+	    compression = acceptor.newMessageCompression();
+	    asyncMsgChannel.setCompression(compression);
+	}
 	MessageBuffer buf = new MessageBuffer(1 + reconnectKey.length);
 	buf.putByte(SimpleSgsProtocol.LOGIN_SUCCESS).
 	    putBytes(reconnectKey);
@@ -386,6 +516,11 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 	}
 	readHandler = new ClosedReadHandler();
         writeHandler = new ClosedWriteHandler();
+	acceptor.removeUnreliablePeer(reconnectKey, this);
+	closeUnreliableChannel(unreliableChannel.getAndSet(null));
+	if (compression != null) {
+	    compression.end();
+	}
 	if (protocolHandler != null) {
 	    SessionProtocolHandler handler = protocolHandler;
 	    protocolHandler = null;
@@ -439,11 +574,26 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
      * @param	buf a buffer containing a complete protocol message
      */
     protected final void write(ByteBuffer buf) {
+	write(buf, Delivery.RELIABLE);
+    }
+
+    /**
+     * Writes a message with the specified delivery requirement to the
+     * underlying connection if login has been handled, otherwise enqueues
+     * the message to be sent when the login has not yet been handled.  A
+     * message whose delivery requirement is not reliable is dropped if
+     * the connection's write queue is full.
+     *
+     * @param	buf a buffer containing a complete protocol message
+     * @param	delivery the delivery requirement
+     */
+    protected final void write(ByteBuffer buf, Delivery delivery) {
 	synchronized (lock) {
 	    if (!loginHandled) {
 		messageQueue.add(buf);
 	    } else {
-		writeNow(buf, false);
+		writeMessage(
+		    buf, delivery.supportsDelivery(Delivery.UNORDERED_RELIABLE));
 	    }
 	}
     }
@@ -456,42 +606,46 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
      *		flag to {@code true} and flush the message queue
      */
     protected final void writeNow(ByteBuffer message, boolean flush) {
-	try {
-	    writeHandler.write(message);
-		    
-	} catch (RuntimeException e) {
-	    if (logger.isLoggable(Level.WARNING)) {
-		logger.logThrow(
-		    Level.WARNING, e,
-		    "writeNow protocol:{0} throws", this);
-	    }
-	}
+	writeMessage(message, true);
 
 	if (flush) {
 	    synchronized (lock) {
 		loginHandled = true;
 		for (ByteBuffer nextMessage : messageQueue) {
-		    try {
-			writeHandler.write(nextMessage);
-		    } catch (RuntimeException e) {
-			if (logger.isLoggable(Level.WARNING)) {
-			    logger.logThrow(
-				Level.WARNING, e,
-				"writeNow protocol:{0} throws", this);
-			}
-		    }
+		    writeMessage(nextMessage, true);
 		}
 		messageQueue.clear();
 	    }
 	}
     }
 
+    /**
+     * Passes a message to the write handler, logging any exception thrown.
+     *
+     * @param	message a buffer containing a complete protocol message
+     * @param	reliable whether the message must be delivered reliably
+     */
+    private void writeMessage(ByteBuffer message, boolean reliable) {
+	try {
+	    writeHandler.write(message, reliable);
+	} catch (RuntimeException e) {
+	    if (logger.isLoggable(Level.WARNING)) {
+		logger.logThrow(
+		    Level.WARNING, e,
+		    "writeNow protocol:{0} throws", this);
+	    }
+	}
+    }
+
     /**
      * Writes the specified buffer, satisfying the specified delivery
      * requirement.
      *
-     * <p>This implementation writes the buffer reliably, because this
-     * protocol only supports reliable delivery.
+     * <p>This implementation writes a message whose delivery requirement
+     * is {@link Delivery#UNRELIABLE} to the unreliable transport connection
+     * paired with this session, if any.  Otherwise, it writes the buffer
+     * reliably, except that a message whose delivery requirement is not
+     * reliable is dropped while the connection's write queue is full.
      *
      * <p>A subclass can override the {@code writeBuffer} method if it
      * supports other delivery guarantees and can make use of alternate
@@ -501,7 +655,84 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
      * @param	delivery a delivery requirement
      */
     protected void writeBuffer(ByteBuffer buf, Delivery delivery) {
-	write(buf);
+	if (delivery == Delivery.UNRELIABLE && writeUnreliable(buf)) {
+	    return;
+	}
+	write(buf, delivery);
+    }
+
+    /**
+     * Writes a message to the unreliable transport connection paired with
+     * this session, if any, and returns {@code true} if the connection
+     * accepted the message.  The message is written as is, without a
+     * length prefix.
+     *
+     * @param	buf a buffer containing a complete protocol message
+     * @return	{@code true} if the message was written to the unreliable
+     *		connection, and {@code false} if it should be written to the
+     *		underlying connection instead
+     */
+    private boolean writeUnreliable(ByteBuffer buf) {
+	AsynchronousByteChannel channel = unreliableChannel.get();
+	if (channel == null) {
+	    return false;
+	}
+	try {
+	    channel.write(buf.duplicate(), unreliableWriteHandler);
+	    return true;
+	} catch (RuntimeException e) {
+	    // The connection is closed, or the message is too large for it
+	    if (logger.isLoggable(Level.FINEST)) {
+		logger.logThrow(
+		    Level.FINEST, e,
+		    "unreliable write protocol:{0} throws", this);
+	    }
+	    if (!channel.isOpen()) {
+		unreliableChannel.compareAndSet(channel, null);
+	    }
+	    return false;
+	}
+    }
+
+    /**
+     * Pairs the specified unreliable transport connection with this
+     * session, closing the previously paired connection, if any.  A client
+     * pairs a new connection if, for example, its network address changes.
+     *
+     * @param	channel an unreliable transport connection
+     */
+    void attachUnreliableChannel(AsynchronousByteChannel channel) {
+	AsynchronousByteChannel previous = unreliableChannel.getAndSet(channel);
+	if (previous == channel) {
+	    return;
+	}
+	closeUnreliableChannel(previous);
+	if (!isOpen()) {
+	    // This session closed concurrently
+	    unreliableChannel.compareAndSet(channel, null);
+	    closeUnreliableChannel(channel);
+	} else if (logger.isLoggable(Level.FINER)) {
+	    logger.log(Level.FINER,
+		       "paired unreliable connection {0} protocol:{1}",
+		       channel, this);
+	}
+    }
+
+    /**
+     * Closes the specified unreliable transport connection, if it is not
+     * {@code null}.
+     *
+     * @param	channel an unreliable transport connection, or {@code null}
+     */
+    private static void closeUnreliableChannel(
+	AsynchronousByteChannel channel)
+    {
+	if (channel != null) {
+	    try {
+		channel.close();
+	    } catch (IOException e) {
+	    }
+	}
     }
     
     /**
@@ -515,14 +746,52 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 	return key;
     }
 
+    /**
+     * Moves messages from the head of {@code queue} to {@code batch} for
+     * writing together, stopping before the message that would make the
+     * batch, including length prefixes, exceed {@code maxBytes}.  Always
+     * moves at least one message, so a message larger than {@code
+     * maxBytes} is written by itself.
+     *
+     * @param	queue a non-empty queue of messages
+     * @param	batch the list to add the messages to
+     * @param	maxBytes the maximum number of bytes in a batch of more than
+     *		one message
+     * @return	the number of bytes, including length prefixes, of the
+     *		messages moved
+     */
+    private static int fillBatch(Queue<ByteBuffer> queue,
+				 List<ByteBuffer> batch,
+				 int maxBytes)
+    {
+	int bytes = 0;
+	do {
+	    ByteBuffer message = queue.remove();
+	    bytes += PREFIX_LENGTH + message.remaining();
+	    batch.add(message);
+	    message = queue.peek();
+	    if (message == null ||
+		bytes + PREFIX_LENGTH + message.remaining() > maxBytes)
+	    {
+		return bytes;
+	    }
+	} while (true);
+    }
+
     /* -- I/O completion handlers -- */
 
     /** A completion handler for writing to a connection. */
     private abstract class WriteHandler
         implements CompletionHandler<Void, Void>
     {
-	/** Writes the specified message. */
-        abstract void write(ByteBuffer message);
+	/**
+	 * Writes the specified message, which may be dropped if it does not
+	 * need to be delivered reliably.
+	 */
+        abstract void write(ByteBuffer message, boolean reliable);
+
+	/** Returns the number of bytes waiting to be written. */
+	abstract long getPendingBytes();
     }
 
     /** A completion handler for writing that always fails. */
@@ -531,9 +800,14 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 	ClosedWriteHandler() { }
 
         @Override
-        void write(ByteBuffer message) {
+        void write(ByteBuffer message, boolean reliable) {
             throw new ClosedAsynchronousChannelException();
         }
+
+	@Override
+	long getPendingBytes() {
+	    return 0;
+	}
         
         public void completed(IoFuture<Void, Void> result) {
             throw new AssertionError("should be unreachable");
@@ -543,16 +817,41 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
     /** A completion handler for writing to the session's channel. */
     private class ConnectedWriteHandler extends WriteHandler {
 
-	/** The lock for accessing the fields {@code pendingWrites} and
-	 * {@code isWriting}. The locks {@code lock} and {@code writeLock}
-	 * should only be acquired in that specified order.
+	/** The lock for accessing the fields {@code pendingWrites},
+	 * {@code batch}, {@code isWriting}, and the write queue accounting
+	 * fields. The locks {@code lock} and {@code writeLock} should only be
+	 * acquired in that specified order.
 	 */
 	private final Object writeLock = new Object();
 	
-	/** An unbounded queue of messages waiting to be written. */
+	/**
+	 * The queue of messages waiting to be written, bounded for
+	 * unreliable messages by the write queue high watermark.
+	 */
         private final LinkedList<ByteBuffer> pendingWrites =
             new LinkedList<ByteBuffer>();
 
+	/** The messages being written by the current write operation. */
+	private final List<ByteBuffer> batch = new ArrayList<ByteBuffer>();
+
+	/** The number of bytes, including length prefixes, in the batch. */
+	private int batchBytes = 0;
+
+	/**
+	 * The number of bytes, including length prefixes, of the messages
+	 * queued or being written.
+	 */
+	private long pendingBytes = 0;
+
+	/**
+	 * Whether the queue went above the high watermark and has not yet
+	 * drained to the low watermark.
+	 */
+	private boolean queueFull = false;
+
+	/** The number of messages dropped since the queue became full. */
+	private long droppedMessages = 0;
+
 	/** Whether a write is underway. */
         private boolean isWriting = false;
 
@@ -561,20 +860,45 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 
 	/**
 	 * Adds the message to the queue, and starts processing the queue if
-	 * needed.
+	 * needed.  Drops the message instead if it is not reliable and would
+	 * fill the queue, or the queue is already full.  If a reliable
+	 * message fills the queue, applies the overflow policy.
 	 */
         @Override
-        void write(ByteBuffer message) {
+        void write(ByteBuffer message, boolean reliable) {
             if (message.remaining() > SimpleSgsProtocol.MAX_PAYLOAD_LENGTH) {
                 throw new IllegalArgumentException(
                     "message too long: " + message.remaining() + " > " +
                         SimpleSgsProtocol.MAX_PAYLOAD_LENGTH);
             }
+	    int messageBytes = PREFIX_LENGTH + message.remaining();
             boolean first;
+	    boolean filled = false;
             synchronized (writeLock) {
+		if (!reliable &&
+		    (queueFull ||
+		     pendingBytes + messageBytes > writeQueueHighWatermark))
+		{
+		    droppedMessages++;
+		    if (logger.isLoggable(Level.FINEST)) {
+			logger.log(Level.FINEST,
+				   "write protocol:{0} dropped message:{1}",
+				   SimpleSgsProtocolImpl.this,
+				   HexDumper.format(message, 0x50));
+		    }
+		    return;
+		}
                 first = pendingWrites.isEmpty();
                 pendingWrites.add(message);
+		pendingBytes += messageBytes;
+		if (!queueFull && pendingBytes > writeQueueHighWatermark) {
+		    queueFull = true;
+		    filled = true;
+		}
             }
+	    if (filled) {
+		writeQueueFilled();
+	    }
             if (logger.isLoggable(Level.FINEST)) {
                 logger.log(Level.FINEST,
 			   "write protocol:{0} message:{1} first:{2}",
@@ -586,52 +910,63 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
             }
         }
 
-	/** Start processing the first element of the queue, if present. */
+	/**
+	 * Start writing the messages at the head of the queue, if present.
+	 * Moves as many queued messages as fit in the acceptor's write batch
+	 * size into the current batch, always including at least one, so
+	 * that they are written to the channel together.
+	 */
         private void processQueue() {
-            ByteBuffer message;
             synchronized (writeLock) {
-                if (isWriting) {
+                if (isWriting || pendingWrites.isEmpty()) {
                     return;
 		}
-                message = pendingWrites.peek();
-                if (message == null) {
-		    return;
-		}
+		batchBytes = fillBatch(pendingWrites, batch, writeBatchSize);
 		isWriting = true;
             }
             if (logger.isLoggable(Level.FINEST)) {
                 logger.log(
 		    Level.FINEST,
-		    "processQueue protocol:{0} size:{1,number,#} head={2}",
-		    SimpleSgsProtocolImpl.this, pendingWrites.size(),
-		    HexDumper.format(message, 0x50));
-		message.mark();
+		    "processQueue protocol:{0} messages:{1,number,#} " +
+		    "bytes:{2,number,#} head={3}",
+		    SimpleSgsProtocolImpl.this, batch.size(), batchBytes,
+		    HexDumper.format(batch.get(0), 0x50));
             }
             try {
-                asyncMsgChannel.write(message, this);
+                asyncMsgChannel.write(batch, this);
             } catch (RuntimeException e) {
                 logger.logThrow(Level.SEVERE, e,
-				"{0} processing message {1}",
-				SimpleSgsProtocolImpl.this,
-				HexDumper.format(message, 0x50));
+				"{0} processing {1} messages",
+				SimpleSgsProtocolImpl.this, batch.size());
                 throw e;
             }
         }
 
-	/** Done writing the first request in the queue. */
+	/** Done writing the current batch of messages. */
         public void completed(IoFuture<Void, Void> result) {
-	    ByteBuffer message;
+	    int count;
+	    long dropped = -1;
             synchronized (writeLock) {
-                message = pendingWrites.remove();
+		count = batch.size();
+		batch.clear();
+		pendingBytes -= batchBytes;
                 isWriting = false;
+		if (queueFull && pendingBytes <= writeQueueLowWatermark) {
+		    queueFull = false;
+		    dropped = droppedMessages;
+		    droppedMessages = 0;
+		}
             }
+	    if (dropped >= 0 && logger.isLoggable(Level.INFO)) {
+		logger.log(Level.INFO,
+			   "write queue drained for protocol:{0}, " +
+			   "dropped messages:{1,number,#}",
+			   SimpleSgsProtocolImpl.this, dropped);
+	    }
             if (logger.isLoggable(Level.FINEST)) {
-		ByteBuffer resetMessage = message.duplicate();
-		resetMessage.reset();
                 logger.log(Level.FINEST,
-			   "completed write protocol:{0} message:{1}",
-			   SimpleSgsProtocolImpl.this,
-			   HexDumper.format(resetMessage, 0x50));
+			   "completed write protocol:{0} messages:{1,number,#}",
+			   SimpleSgsProtocolImpl.this, count);
             }
             try {
                 result.getNow();
@@ -644,16 +979,81 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 		 */
                 if (logger.isLoggable(Level.FINE)) {
                     logger.logThrow(Level.FINE, e,
-				    "write protocol:{0} message:{1} throws",
-				    SimpleSgsProtocolImpl.this,
-				    HexDumper.format(message, 0x50));
+				    "write protocol:{0} messages:{1} throws",
+				    SimpleSgsProtocolImpl.this, count);
                 }
 		synchronized (writeLock) {
 		    pendingWrites.clear();
+		    pendingBytes = 0;
 		}
 		close();
             }
         }
+
+	/** {@inheritDoc} */
+	@Override
+	long getPendingBytes() {
+	    synchronized (writeLock) {
+		return pendingBytes;
+	    }
+	}
+
+	/**
+	 * Applies the overflow policy after a reliable message caused the
+	 * queue to exceed the high watermark.
+	 */
+	private void writeQueueFilled() {
+	    if (writeQueueOverflowPolicy ==
+		WriteQueueOverflowPolicy.DISCONNECT)
+	    {
+		if (logger.isLoggable(Level.WARNING)) {
+		    logger.log(Level.WARNING,
+			       "write queue for protocol:{0} exceeds " +
+			       "{1,number,#} bytes, disconnecting",
+			       SimpleSgsProtocolImpl.this,
+			       writeQueueHighWatermark);
+		}
+		/*
+		 * Close the connection from another thread, since the caller
+		 * may be holding the protocol's lock.
+		 */
+		acceptor.scheduleNonTransactionalTask(
+		    new AbstractKernelRunnable("CloseFullWriteQueue") {
+			public void run() {
+			    close();
+			} });
+	    } else if (logger.isLoggable(Level.WARNING)) {
+		logger.log(Level.WARNING,
+			   "write queue for protocol:{0} exceeds " +
+			   "{1,number,#} bytes, dropping unreliable messages",
+			   SimpleSgsProtocolImpl.this, writeQueueHighWatermark);
+	    }
+	}
+    }
+
+    /**
+     * A completion handler for writing to the unreliable transport
+     * connection, which only logs failures, since delivery is not
+     * guaranteed.
+     */
+    private class UnreliableWriteHandler
+	implements CompletionHandler<Integer, Void>
+    {
+	UnreliableWriteHandler() { }
+
+	/** {@inheritDoc} */
+	public void completed(IoFuture<Integer, Void> result) {
+	    try {
+		result.getNow();
+	    } catch (ExecutionException e) {
+		if (logger.isLoggable(Level.FINEST)) {
+		    logger.logThrow(
+			Level.FINEST, e,
+			"unreliable write protocol:{0} failed",
+			SimpleSgsProtocolImpl.this);
+		}
+	    }
+	}
     }
 
     /** A completion handler for reading from a connection. */
@@ -725,8 +1125,28 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 			HexDumper.format(message, 0x50));
                 }
 
-                byte[] payload = new byte[message.remaining()];
-                message.get(payload);
+                // The read buffer is reused by the next read, so copy the
+                // message into an array of its own, decompressing it if
+                // needed.  The session and channel messages handed on
+                // below are read-only views of this array rather than
+                // further copies.
+		int compressedLength = message.remaining();
+		byte[] payload;
+		MessageCompression readCompression = compression;
+		if (readCompression != null &&
+		    MessageCompression.isCompressed(message))
+		{
+		    payload = readCompression.read(message);
+		} else {
+		    payload = new byte[message.remaining()];
+		    message.get(payload);
+		}
+		uncompressedBytesRead.addAndGet(payload.length);
+		compressedBytesRead.addAndGet(compressedLength);
+		acceptor.uncompressedBytesReadCounter.incrementCount(
+		    payload.length);
+		acceptor.compressedBytesReadCounter.incrementCount(
+		    compressedLength);
 
                 // Dispatch
 		MessageBuffer msg = new MessageBuffer(payload);
@@ -791,6 +1211,12 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 		String name = msg.getString();
 		String password = msg.getString();
 
+		// A client that supports compression appends an extension byte
+		compressionRequested =
+		    msg.position() < msg.limit() &&
+		    (msg.getByte() &
+		     MessageCompression.COMPRESSION_REQUESTED) != 0;
+
 		try {
 		    identity = acceptor.authenticate(name, password);
 		} catch (Exception e) {
@@ -811,8 +1237,7 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 		break;
 
 	    case SimpleSgsProtocol.SESSION_MESSAGE:
-		ByteBuffer clientMessage =
-		    ByteBuffer.wrap(msg.getBytes(msg.limit() - msg.position()));
+		ByteBuffer clientMessage = getRemainingBytes(msg);
 		if (protocolHandler == null) {
 		    // ignore message before authentication
 		    if (logger.isLoggable(Level.FINE)) {
@@ -834,8 +1259,7 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 	    case SimpleSgsProtocol.CHANNEL_MESSAGE:
 		BigInteger channelRefId =
 		    new BigInteger(1, msg.getBytes(msg.getShort()));
-		ByteBuffer channelMessage =
-		    ByteBuffer.wrap(msg.getBytes(msg.limit() - msg.position()));
+		ByteBuffer channelMessage = getRemainingBytes(msg);
 		if (protocolHandler == null) {
 		    // ignore message before authentication
 		    if (logger.isLoggable(Level.FINE)) {
@@ -878,6 +1302,21 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 	}
     }
 
+    /**
+     * Returns a read-only buffer containing the bytes of the specified
+     * message buffer from its position to its limit.  The returned buffer
+     * shares the message buffer's backing array instead of copying it, so
+     * the message buffer's contents must not be modified afterwards.
+     *
+     * @param	msg a message buffer
+     * @return	a read-only view of the remaining bytes of {@code msg}
+     */
+    private static ByteBuffer getRemainingBytes(MessageBuffer msg) {
+	return ByteBuffer.wrap(msg.getBuffer(), msg.position(),
+			       msg.limit() - msg.position()).
+	    slice().asReadOnlyBuffer();
+    }
+
     /**
      * Monitors the client's disconnection and closes this instance's
      * underlying connection if the client hasn't closed the connection in
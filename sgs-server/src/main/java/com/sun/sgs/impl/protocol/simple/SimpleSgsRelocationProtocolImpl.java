@@ -27,6 +27,7 @@ import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import com.sun.sgs.impl.sharedutil.MessageBuffer;
 import com.sun.sgs.impl.util.AbstractCompletionFuture;
 import com.sun.sgs.nio.channels.AsynchronousByteChannel;
+import com.sun.sgs.protocol.ChannelMessage;
 import com.sun.sgs.protocol.LoginFailureException;
 import com.sun.sgs.protocol.LoginRedirectException;
 import com.sun.sgs.protocol.ProtocolDescriptor;
@@ -165,6 +166,13 @@ public class SimpleSgsRelocationProtocolImpl
 	checkSuspend();
 	super.channelMessage(channelId, message, delivery);
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public void channelMessage(ChannelMessage message) {
+	checkSuspend();
+	super.channelMessage(message);
+    }
     
     /* -- Implement SessionRelocationProtocol -- */
 
@@ -228,6 +236,7 @@ public class SimpleSgsRelocationProtocolImpl
      * was successful.
      */
     private void relocateSuccess() {
+	acceptor.addUnreliablePeer(reconnectKey, this);
 	MessageBuffer buf = new MessageBuffer(1 + reconnectKey.length);
 	buf.putByte(SimpleSgsProtocol.RELOCATE_SUCCESS).
 	    putBytes(reconnectKey);
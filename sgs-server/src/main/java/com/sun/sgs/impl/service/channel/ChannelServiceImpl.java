@@ -52,6 +52,7 @@ import com.sun.sgs.kernel.ComponentRegistry;
 import com.sun.sgs.kernel.KernelRunnable;
 import com.sun.sgs.kernel.TaskQueue;
 import com.sun.sgs.profile.ProfileCollector;
+import com.sun.sgs.protocol.ChannelMessage;
 import com.sun.sgs.protocol.SessionProtocol;
 import com.sun.sgs.service.ClientSessionStatusListener;
 import com.sun.sgs.service.ClientSessionService;
@@ -2218,15 +2219,18 @@ public final class ChannelServiceImpl
      */
     private class ChannelSendTask extends ChannelRequestTask {
 
-	private final Delivery delivery;
-	private final byte[] message;
+	/**
+	 * The message, shared by the protocols of all the local members
+	 * so that each kind of protocol only encodes it once.
+	 */
+	private final ChannelMessage message;
 
 	ChannelSendTask(BigInteger channelRefId, Delivery delivery,
 			byte[] message)
 	{
 	    super(channelRefId);
-	    this.delivery = delivery;
-	    this.message = message;
+	    this.message = new ChannelMessage(
+		channelRefId, ByteBuffer.wrap(message), delivery);
 	}
 	
 	public void run(BigInteger sessionRefId, long timestamp) {
@@ -2271,8 +2275,7 @@ public final class ChannelServiceImpl
 		}
 		memberInfo.msgTimestamp = timestamp;
 		try {
-		    protocol.channelMessage(
-			channelRefId, ByteBuffer.wrap(message), delivery);
+		    protocol.channelMessage(message);
 		} catch (IOException e) {
 		    logger.logThrow(Level.WARNING, e,  "channelMessage " +
 			"session:{0} channel:{0} throws",
@@ -23,6 +23,7 @@ package com.sun.sgs.impl.service.data;
 
 import com.sun.sgs.app.ManagedObject;
 import com.sun.sgs.app.ManagedObjectRemoval;
+import com.sun.sgs.impl.profile.util.ThreadTaskType;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import com.sun.sgs.impl.util.TransactionContext;
 import com.sun.sgs.service.Transaction;
@@ -81,6 +82,15 @@ final class Context extends TransactionContext implements TransactionListener {
      */
     private IdentityHashMap<ManagedObjectRemoval, Boolean> removing = null;
 
+    /**
+     * The predictor for whether read objects will be written, or null if
+     * write intent is not being predicted for this transaction.
+     */
+    private final WriteIntentPredictor predictor;
+
+    /** The type of the task running this transaction, or null. */
+    private final String taskType;
+
     /** Creates an instance of this class. */
     Context(DataServiceImpl service,
 	    DataStore store,
@@ -88,7 +98,8 @@ final class Context extends TransactionContext implements TransactionListener {
 	    int debugCheckInterval,
 	    boolean detectModifications,
 	    ClassesTable classesTable,
-	    boolean trackStaleObjects)
+	    boolean trackStaleObjects,
+	    WriteIntentPredictor predictor)
     {
 	super(txn);
 	assert service != null && store != null && txn != null &&
@@ -100,6 +111,9 @@ final class Context extends TransactionContext implements TransactionListener {
 	this.detectModifications = detectModifications;
 	refs = new ReferenceTable(trackStaleObjects);
 	classSerial = classesTable.createClassSerialization(this.txn);
+	taskType = ThreadTaskType.get();
+	this.predictor = (taskType == null || optimisticWriteLocks())
+	    ? null : predictor;
 	txn.registerListener(this);
 	if (logger.isLoggable(Level.FINER)) {
 	    logger.log(Level.FINER, "join tid:{0,number,#}, thread:{1}",
@@ -321,4 +335,26 @@ final class Context extends TransactionContext implements TransactionListener {
     boolean optimisticWriteLocks() {
 	return service.optimisticWriteLocks;
     }
+
+    /**
+     * Returns whether the object with the specified ID should be locked for
+     * write when it is read, because the current task is likely to modify
+     * it.
+     */
+    boolean predictWrite(long oid) {
+	return predictor != null && predictor.predictWrite(taskType, oid);
+    }
+
+    /**
+     * Records whether an object that was read in this transaction was later
+     * written, for use in predicting writes.
+     */
+    void noteReadOutcome(
+	long oid, Object object, boolean written, boolean predicted)
+    {
+	if (predictor != null) {
+	    predictor.noteOutcome(taskType, oid, object.getClass().getName(),
+				  written, predicted);
+	}
+    }
 }
@@ -112,6 +112,19 @@ import javax.management.JMException;
  *	typically when there is low contention.  Note that setting this flag to
  *	<code>true</code> does not delay write locks when removing objects.<p>
  *
+ * <dt> <i>Property:</i> <code><b>{@value #PREDICT_WRITE_INTENT_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> <code>false</code>
+ *
+ * <dd style="padding-top: .5em">Whether to predict which objects a task will
+ *	modify after reading them.  If <code>true</code>, the service records,
+ *	for each task type and object class, whether objects that are read are
+ *	usually modified later in the same task, and obtains a write lock when
+ *	reading an object that is predicted to be modified.  This avoids lock
+ *	upgrades, which can cause deadlocks when multiple tasks read the same
+ *	object.  Predictions are not made if {@value #OPTIMISTIC_WRITE_LOCKS}
+ *	is <code>true</code>. <p>
+ *
  * <dt> <i>Property:</i> <code><b>{@value #TRACK_STALE_OBJECTS_PROPERTY}
  *	</b></code> <br>
  *	<i>Default:</i> <code>false</code>
@@ -193,6 +206,16 @@ public final class DataServiceImpl implements DataService {
     public static final String TRACK_STALE_OBJECTS_PROPERTY =
 	CLASSNAME + ".track.stale.objects";
 
+    /**
+     * The property that specifies whether to predict which read objects will
+     * be modified.
+     */
+    public static final String PREDICT_WRITE_INTENT_PROPERTY =
+	CLASSNAME + ".predict.write.intent";
+
+    /** The number of entries in the write intent predictor's class cache. */
+    private static final int WRITE_INTENT_CLASS_CACHE_SIZE = 16384;
+
     /** The logger for this class. */
     static final LoggerWrapper logger =
 	new LoggerWrapper(Logger.getLogger(CLASSNAME));
@@ -230,6 +253,13 @@ public final class DataServiceImpl implements DataService {
     /** Whether to track stale objects. */
     private final boolean trackStaleObjects;
 
+    /** Whether to predict which read objects will be modified. */
+    private final boolean predictWriteIntent;
+
+    /** The write intent predictor. */
+    private final WriteIntentPredictor writeIntentPredictor =
+	new WriteIntentPredictor(WRITE_INTENT_CLASS_CACHE_SIZE);
+
     /** The data service profiling information. */
     private final DataServiceStats serviceStats;
     
@@ -312,7 +342,8 @@ public final class DataServiceImpl implements DataService {
 	    }
 	    return new Context(
 		DataServiceImpl.this, store, txn, debugCheckInterval,
-		detectModifications, classesTable, trackStaleObjects);
+		detectModifications, classesTable, trackStaleObjects,
+		predictWriteIntent ? writeIntentPredictor : null);
 	}
     }
 
@@ -362,6 +393,8 @@ public final class DataServiceImpl implements DataService {
 		OPTIMISTIC_WRITE_LOCKS, Boolean.FALSE);
 	    trackStaleObjects = wrappedProps.getBooleanProperty(
 		TRACK_STALE_OBJECTS_PROPERTY, Boolean.FALSE);
+	    predictWriteIntent = wrappedProps.getBooleanProperty(
+		PREDICT_WRITE_INTENT_PROPERTY, Boolean.FALSE);
             NodeType nodeType = 
                 wrappedProps.getEnumProperty(StandardProperties.NODE_TYPE, 
                                              NodeType.class, 
@@ -389,7 +422,8 @@ public final class DataServiceImpl implements DataService {
 	    nodeId = store.getLocalNodeId();
             
             // create our service profiling info and register our MBean
-            serviceStats = new DataServiceStats(collector);
+            serviceStats =
+		new DataServiceStats(collector, writeIntentPredictor);
             try {
                 collector.registerMBean(serviceStats,
                                         DataServiceStats.MXBEAN_NAME);
@@ -439,6 +473,8 @@ public final class DataServiceImpl implements DataService {
                        detectModifications +
                        "\n  " + OPTIMISTIC_WRITE_LOCKS + "=" +
                        optimisticWriteLocks +
+                       "\n  " + PREDICT_WRITE_INTENT_PROPERTY + "=" +
+                       predictWriteIntent +
                        "\n  " + TRACK_STALE_OBJECTS_PROPERTY + "=" +
                        trackStaleObjects);
             
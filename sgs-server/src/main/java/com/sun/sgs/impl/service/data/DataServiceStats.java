@@ -53,8 +53,14 @@ class DataServiceStats implements DataServiceMXBean {
     final ProfileOperation nextServiceBoundNameOp;
     final ProfileOperation removeServiceBindingOp;
     final ProfileOperation setServiceBindingOp;
+
+    // the write intent predictor
+    private final WriteIntentPredictor writeIntentPredictor;
     
-    DataServiceStats(ProfileCollector collector) {
+    DataServiceStats(ProfileCollector collector,
+                     WriteIntentPredictor writeIntentPredictor)
+    {
+        this.writeIntentPredictor = writeIntentPredictor;
         ProfileConsumer consumer = 
             collector.getConsumer(ProfileCollectorImpl.CORE_CONSUMER_PREFIX + 
                                   "DataService");
@@ -185,4 +191,19 @@ class DataServiceStats implements DataServiceMXBean {
         return ((AggregateProfileOperation) setServiceBindingOp).getCount();
     }
 
+
+    /** {@inheritDoc} */
+    public long getWriteIntentPredictions() {
+        return writeIntentPredictor.getPredictions();
+    }
+
+    /** {@inheritDoc} */
+    public long getWriteIntentMispredictions() {
+        return writeIntentPredictor.getMispredictions();
+    }
+
+    /** {@inheritDoc} */
+    public long getReadLockUpgrades() {
+        return writeIntentPredictor.getUpgrades();
+    }
 }
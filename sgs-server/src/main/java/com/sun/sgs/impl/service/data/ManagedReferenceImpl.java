@@ -150,6 +150,18 @@ final class ManagedReferenceImpl<T>
     /** The current state. */
     private transient State state;
 
+    /**
+     * Whether the object was first fetched for read, so that a later write
+     * requires a lock upgrade unless a write was predicted.
+     */
+    private transient boolean fetchedForRead;
+
+    /**
+     * Whether the object was locked for write when it was fetched for read,
+     * because a write was predicted.
+     */
+    private transient boolean predictedWrite;
+
     /* -- Getting instances -- */
 
     /**
@@ -304,14 +316,14 @@ final class ManagedReferenceImpl<T>
 	    state = State.MODIFIED;
 	    break;
 	case MAYBE_MODIFIED:
-	    if (!context.optimisticWriteLocks()) {
+	    if (!context.optimisticWriteLocks() && !predictedWrite) {
 		context.store.markForUpdate(context.txn, oid);
 	    }
 	    unmodifiedBytes = null;
 	    state = State.MODIFIED;
 	    break;
 	case NOT_MODIFIED:
-	    if (!context.optimisticWriteLocks()) {
+	    if (!context.optimisticWriteLocks() && !predictedWrite) {
 		context.store.markForUpdate(context.txn, oid);
 	    }
 	    state = State.MODIFIED;
@@ -352,8 +364,11 @@ final class ManagedReferenceImpl<T>
 	    }
 	    switch (state) {
 	    case EMPTY:
+		boolean predict = context.predictWrite(oid);
 		ManagedObject tempObject = deserialize(
-		    context.store.getObject(context.txn, oid, false));
+		    context.store.getObject(context.txn, oid, predict));
+		fetchedForRead = true;
+		predictedWrite = predict;
 		if (context.detectModifications) {
 		    unmodifiedBytes = SerialUtil.serialize(
 			tempObject, context.classSerial);
@@ -439,14 +454,14 @@ final class ManagedReferenceImpl<T>
 		state = State.MODIFIED;
 		break;
 	    case MAYBE_MODIFIED:
-		if (!context.optimisticWriteLocks()) {
+		if (!context.optimisticWriteLocks() && !predictedWrite) {
 		    context.store.markForUpdate(context.txn, oid);
 		}
 		unmodifiedBytes = null;
 		state = State.MODIFIED;
 		break;
 	    case NOT_MODIFIED:
-		if (!context.optimisticWriteLocks()) {
+		if (!context.optimisticWriteLocks() && !predictedWrite) {
 		    context.store.markForUpdate(context.txn, oid);
 		}
 		state = State.MODIFIED;
@@ -690,6 +705,12 @@ final class ManagedReferenceImpl<T>
 	default:
 	    throw new AssertionError();
 	}
+	if (fetchedForRead) {
+	    context.noteReadOutcome(
+		oid, object,
+		result != null || state == State.REMOVED_FETCHED,
+		predictedWrite);
+	}
 	object = null;
 	unmodifiedBytes = null;
 	state = State.FLUSHED;
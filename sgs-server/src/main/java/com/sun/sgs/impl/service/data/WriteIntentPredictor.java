@@ -0,0 +1,223 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.service.data;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Predicts whether a managed object that a task reads will later be modified
+ * by the same task, so that the data service can obtain a write lock when it
+ * first reads the object, rather than obtaining a read lock and upgrading it
+ * later.  Upgrades are a common cause of deadlock, since two tasks that both
+ * hold read locks on an object cannot both upgrade them. <p>
+ *
+ * Predictions are made for each combination of task type and object class,
+ * using a saturating score that increases when a read object is later
+ * written and decreases when it is not.  Since the class of an object is not
+ * known until the object is read, this class also caches the classes of
+ * recently flushed objects by object ID.  Objects not found in the cache are
+ * read without a prediction.  This class is thread safe.
+ */
+final class WriteIntentPredictor {
+
+    /** The amount to increase the score when a read object is written. */
+    private static final int WRITE_INCREMENT = 2;
+
+    /** The amount to decrease the score when a read object is not written. */
+    private static final int READ_DECREMENT = 1;
+
+    /** The maximum score. */
+    private static final int MAX_SCORE = 16;
+
+    /** The minimum score for predicting a write. */
+    private static final int PREDICT_THRESHOLD = 8;
+
+    /** The maximum number of task type and class combinations tracked. */
+    private static final int MAX_SCORES = 10000;
+
+    /** Maps task type and class combinations to scores. */
+    private final ConcurrentMap<Key, AtomicInteger> scores =
+	new ConcurrentHashMap<Key, AtomicInteger>();
+
+    /** Caches object classes by object ID. */
+    private final AtomicReferenceArray<ClassEntry> classCache;
+
+    /** The mask for computing the class cache index for an object ID. */
+    private final int classCacheMask;
+
+    /** The number of reads that obtained a write lock due to a prediction. */
+    private final AtomicLong predictions = new AtomicLong();
+
+    /** The number of predicted writes that did not occur. */
+    private final AtomicLong mispredictions = new AtomicLong();
+
+    /** The number of read objects that were written without a prediction. */
+    private final AtomicLong upgrades = new AtomicLong();
+
+    /**
+     * Creates an instance of this class.
+     *
+     * @param	classCacheSize the number of entries in the class cache, which
+     *		is rounded up to a power of two
+     */
+    WriteIntentPredictor(int classCacheSize) {
+	int size = 1;
+	while (size < classCacheSize) {
+	    size <<= 1;
+	}
+	classCache = new AtomicReferenceArray<ClassEntry>(size);
+	classCacheMask = size - 1;
+    }
+
+    /**
+     * Returns whether a task of the specified type is likely to write the
+     * object with the specified ID if it reads it.
+     *
+     * @param	taskType the task type
+     * @param	oid the object ID
+     * @return	whether a write is predicted
+     */
+    boolean predictWrite(String taskType, long oid) {
+	ClassEntry entry = classCache.get(getIndex(oid));
+	if (entry == null || entry.oid != oid) {
+	    return false;
+	}
+	AtomicInteger score = scores.get(new Key(taskType, entry.className));
+	if (score == null || score.get() < PREDICT_THRESHOLD) {
+	    return false;
+	}
+	predictions.incrementAndGet();
+	return true;
+    }
+
+    /**
+     * Records whether an object read by a task of the specified type was
+     * later written.
+     *
+     * @param	taskType the task type
+     * @param	oid the object ID
+     * @param	className the name of the object's class
+     * @param	written whether the object was written
+     * @param	predicted whether a write was predicted when the object was
+     *		read
+     */
+    void noteOutcome(String taskType, long oid, String className,
+		     boolean written, boolean predicted)
+    {
+	classCache.set(getIndex(oid), new ClassEntry(oid, className));
+	if (predicted && !written) {
+	    mispredictions.incrementAndGet();
+	} else if (!predicted && written) {
+	    upgrades.incrementAndGet();
+	}
+	Key key = new Key(taskType, className);
+	AtomicInteger score = scores.get(key);
+	if (score == null) {
+	    if (!written || scores.size() >= MAX_SCORES) {
+		return;
+	    }
+	    score = new AtomicInteger();
+	    AtomicInteger existing = scores.putIfAbsent(key, score);
+	    if (existing != null) {
+		score = existing;
+	    }
+	}
+	while (true) {
+	    int current = score.get();
+	    int next = written
+		? Math.min(current + WRITE_INCREMENT, MAX_SCORE)
+		: Math.max(current - READ_DECREMENT, 0);
+	    if (next == current || score.compareAndSet(current, next)) {
+		break;
+	    }
+	}
+    }
+
+    /**
+     * Returns the number of reads that obtained a write lock because a write
+     * was predicted.
+     */
+    long getPredictions() {
+	return predictions.get();
+    }
+
+    /** Returns the number of predicted writes that did not occur. */
+    long getMispredictions() {
+	return mispredictions.get();
+    }
+
+    /**
+     * Returns the number of objects that were read and then written without
+     * a write being predicted, and so required a lock upgrade.
+     */
+    long getUpgrades() {
+	return upgrades.get();
+    }
+
+    /** Returns the class cache index for an object ID. */
+    private int getIndex(long oid) {
+	int h = (int) (oid ^ (oid >>> 32));
+	h ^= (h >>> 20) ^ (h >>> 12);
+	h ^= (h >>> 7) ^ (h >>> 4);
+	return h & classCacheMask;
+    }
+
+    /** A task type and class combination. */
+    private static final class Key {
+	private final String taskType;
+	private final String className;
+	Key(String taskType, String className) {
+	    this.taskType = taskType;
+	    this.className = className;
+	}
+	@Override
+	public boolean equals(Object object) {
+	    if (object == this) {
+		return true;
+	    } else if (object instanceof Key) {
+		Key key = (Key) object;
+		return taskType.equals(key.taskType) &&
+		    className.equals(key.className);
+	    } else {
+		return false;
+	    }
+	}
+	@Override
+	public int hashCode() {
+	    return taskType.hashCode() * 31 + className.hashCode();
+	}
+    }
+
+    /** A class cache entry. */
+    private static final class ClassEntry {
+	final long oid;
+	final String className;
+	ClassEntry(long oid, String className) {
+	    this.oid = oid;
+	    this.className = className;
+	}
+    }
+}
@@ -33,6 +33,7 @@ import com.sun.sgs.kernel.AccessReporter.AccessType;
 import static com.sun.sgs.kernel.AccessReporter.AccessType.READ;
 import static com.sun.sgs.kernel.AccessReporter.AccessType.WRITE;
 import com.sun.sgs.kernel.ComponentRegistry;
+import com.sun.sgs.kernel.LongAccessReporter;
 import com.sun.sgs.service.Transaction;
 import com.sun.sgs.service.TransactionParticipant;
 import com.sun.sgs.service.store.ClassInfoNotFoundException;
@@ -85,6 +86,12 @@ public abstract class AbstractDataStore
     /** The reporter to notify of object accesses. */
     protected final AccessReporter<Long> objectAccesses;
 
+    /**
+     * The object access reporter, if it accepts primitive object IDs, else
+     * {@code null}.
+     */
+    private final LongAccessReporter longObjectAccesses;
+
     /** The reporter to notify of bound name accesses. */
     protected final AccessReporter<String> nameAccesses;
 
@@ -108,6 +115,8 @@ public abstract class AbstractDataStore
 	    systemRegistry.getComponent(AccessCoordinator.class);
 	objectAccesses = accessCoordinator.registerAccessSource(
 	    className + ".objects", Long.class);
+	longObjectAccesses = (objectAccesses instanceof LongAccessReporter)
+	    ? (LongAccessReporter) objectAccesses : null;
 	nameAccesses = accessCoordinator.registerAccessSource(
 	    className + ".names", String.class);
     }
@@ -993,7 +1002,11 @@ public abstract class AbstractDataStore
     {
 	checkOid(oid);
 	try {
-	    objectAccesses.reportObjectAccess(txn, oid, type);
+	    if (longObjectAccesses != null) {
+		longObjectAccesses.reportObjectAccess(txn, oid, type);
+	    } else {
+		objectAccesses.reportObjectAccess(txn, oid, type);
+	    }
 	} catch (IllegalArgumentException e) {
 	    throw new TransactionNotActiveException(
 	        "Problem with transaction " + txn + ": " + e.getMessage(), e);
@@ -381,6 +381,26 @@ public class DataStoreImpl extends AbstractDataStore {
 	    emptyObjectIdInfo = null;
 	}
 
+	/**
+	 * Returns whether the transaction has made no changes and has not
+	 * allocated any object IDs, so that it can be ended by calling {@link
+	 * #release release} rather than by committing.
+	 */
+	boolean isReadOnly() {
+	    return !modified && objectIdInfo == null &&
+		emptyObjectIdInfo == null;
+	}
+
+	/**
+	 * Ends a read-only transaction by closing cursors and releasing its
+	 * locks, which avoids the work that the database does to commit.
+	 */
+	void release() {
+	    assert isReadOnly();
+	    maybeCloseCursors(false);
+	    dbTxn.abort();
+	}
+
 	/**
 	 * Commits the transaction, which should already have been prepared.
 	 */
@@ -1112,7 +1132,11 @@ public class DataStoreImpl extends AbstractDataStore {
 	     */
 	    try {
 		txnInfoTable.remove(txn);
-		txnInfo.prepareAndCommit();
+		if (txnInfo.isReadOnly()) {
+		    txnInfo.release();
+		} else {
+		    txnInfo.prepareAndCommit();
+		}
 	    } finally {
 		decrementTxnCount();
 	    } 
@@ -1157,7 +1181,11 @@ public class DataStoreImpl extends AbstractDataStore {
 	 */
 	txnInfoTable.remove(txn);
 	try {
-	    txnInfo.prepareAndCommit();
+	    if (txnInfo.isReadOnly()) {
+		txnInfo.release();
+	    } else {
+		txnInfo.prepareAndCommit();
+	    }
 	} finally {
 	    decrementTxnCount();
 	}
@@ -21,6 +21,7 @@
 
 package com.sun.sgs.impl.service.data.store;
 
+import com.sun.sgs.impl.profile.util.ThreadWaitTimes;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import com.sun.sgs.management.DataStoreStatsMXBean;
 import com.sun.sgs.profile.ProfileCollector;
@@ -115,14 +116,25 @@ public class DataStoreProfileProducer
 
     /** {@inheritDoc} */
     public long createObject(Transaction txn) {
-	long result = dataStore.createObject(txn);
+	long result;
+	long start = ThreadWaitTimes.startStoreWait();
+	try {
+	    result = dataStore.createObject(txn);
+	} finally {
+	    noteStoreWaitTime(start);
+	}
 	stats.createObjectOp.report();
 	return result;
     }
 
     /** {@inheritDoc} */
     public void markForUpdate(Transaction txn, long oid) {
-	dataStore.markForUpdate(txn, oid);
+	long start = ThreadWaitTimes.startStoreWait();
+	try {
+	    dataStore.markForUpdate(txn, oid);
+	} finally {
+	    noteStoreWaitTime(start);
+	}
 	stats.markForUpdateOp.report();
 	/*
 	 * Note that the DataStore's implementation of markForUpdate may
@@ -135,7 +147,13 @@ public class DataStoreProfileProducer
 
     /** {@inheritDoc} */
     public byte[] getObject(Transaction txn, long oid, boolean forUpdate) {
-	byte[] result = dataStore.getObject(txn, oid, forUpdate);
+	byte[] result;
+	long start = ThreadWaitTimes.startStoreWait();
+	try {
+	    result = dataStore.getObject(txn, oid, forUpdate);
+	} finally {
+	    noteStoreWaitTime(start);
+	}
 	ProfileOperation op = 
                 forUpdate ? stats.getObjectForUpdateOp : stats.getObjectOp;
 	op.report();
@@ -147,7 +165,12 @@ public class DataStoreProfileProducer
 
     /** {@inheritDoc} */
     public void setObject(Transaction txn, long oid, byte[] data) {
-	dataStore.setObject(txn, oid, data);
+	long start = ThreadWaitTimes.startStoreWait();
+	try {
+	    dataStore.setObject(txn, oid, data);
+	} finally {
+	    noteStoreWaitTime(start);
+	}
 	stats.setObjectOp.report();
 	stats.writtenBytesCounter.incrementCount(data.length);
 	stats.writtenObjectsCounter.incrementCount();
@@ -156,7 +179,12 @@ public class DataStoreProfileProducer
 
     /** {@inheritDoc} */
     public void setObjects(Transaction txn, long[] oids, byte[][] dataArray) {
-	dataStore.setObjects(txn, oids, dataArray);
+	long start = ThreadWaitTimes.startStoreWait();
+	try {
+	    dataStore.setObjects(txn, oids, dataArray);
+	} finally {
+	    noteStoreWaitTime(start);
+	}
 	stats.setObjectsOp.report();
 	for (byte[] data : dataArray) {
 	    stats.writtenBytesCounter.incrementCount(data.length);
@@ -167,32 +195,59 @@ public class DataStoreProfileProducer
 
     /** {@inheritDoc} */
     public void removeObject(Transaction txn, long oid) {
-	dataStore.removeObject(txn, oid);
+	long start = ThreadWaitTimes.startStoreWait();
+	try {
+	    dataStore.removeObject(txn, oid);
+	} finally {
+	    noteStoreWaitTime(start);
+	}
 	stats.removeObjectOp.report();
     }
 
     /** {@inheritDoc} */
     public long getBinding(Transaction txn, String name) {
-	long result = dataStore.getBinding(txn, name);
+	long result;
+	long start = ThreadWaitTimes.startStoreWait();
+	try {
+	    result = dataStore.getBinding(txn, name);
+	} finally {
+	    noteStoreWaitTime(start);
+	}
 	stats.getBindingOp.report();
 	return result;
     }
 
     /** {@inheritDoc} */
     public void setBinding(Transaction txn, String name, long oid) {
-	dataStore.setBinding(txn, name, oid);
+	long start = ThreadWaitTimes.startStoreWait();
+	try {
+	    dataStore.setBinding(txn, name, oid);
+	} finally {
+	    noteStoreWaitTime(start);
+	}
 	stats.setBindingOp.report();
     }
 
     /** {@inheritDoc} */
     public void removeBinding(Transaction txn, String name) {
-	dataStore.removeBinding(txn, name);
+	long start = ThreadWaitTimes.startStoreWait();
+	try {
+	    dataStore.removeBinding(txn, name);
+	} finally {
+	    noteStoreWaitTime(start);
+	}
 	stats.removeBindingOp.report();
     }
 
     /** {@inheritDoc} */
     public String nextBoundName(Transaction txn, String name) {
-	String result = dataStore.nextBoundName(txn, name);
+	String result;
+	long start = ThreadWaitTimes.startStoreWait();
+	try {
+	    result = dataStore.nextBoundName(txn, name);
+	} finally {
+	    noteStoreWaitTime(start);
+	}
 	stats.nextBoundNameOp.report();
 	return result;
     }
@@ -205,7 +260,13 @@ public class DataStoreProfileProducer
 
     /** {@inheritDoc} */
     public int getClassId(Transaction txn, byte[] classInfo) {
-	int result = dataStore.getClassId(txn, classInfo);
+	int result;
+	long start = ThreadWaitTimes.startStoreWait();
+	try {
+	    result = dataStore.getClassId(txn, classInfo);
+	} finally {
+	    noteStoreWaitTime(start);
+	}
 	stats.getClassIdOp.report();
 	return result;
     }
@@ -214,14 +275,26 @@ public class DataStoreProfileProducer
     public byte[] getClassInfo(Transaction txn, int classId)
 	throws ClassInfoNotFoundException
     {
-	byte[] result = dataStore.getClassInfo(txn, classId);
+	byte[] result;
+	long start = ThreadWaitTimes.startStoreWait();
+	try {
+	    result = dataStore.getClassInfo(txn, classId);
+	} finally {
+	    noteStoreWaitTime(start);
+	}
 	stats.getClassInfoOp.report();
 	return result;
     }
 
     /** {@inheritDoc} */
     public long nextObjectId(Transaction txn, long oid) {
-	long result = dataStore.nextObjectId(txn, oid);
+	long result;
+	long start = ThreadWaitTimes.startStoreWait();
+	try {
+	    result = dataStore.nextObjectId(txn, oid);
+	} finally {
+	    noteStoreWaitTime(start);
+	}
 	stats.nextObjectIdOp.report();
 	return result;
     }
@@ -269,6 +342,17 @@ public class DataStoreProfileProducer
 	return participant.getTypeName();
     }
 
+    /* -- Other methods -- */
+
+    /**
+     * Adds the time since the specified start time, as returned by {@link
+     * ThreadWaitTimes#startStoreWait}, to the time the current thread has
+     * spent waiting for the data store.
+     */
+    private static void noteStoreWaitTime(long start) {
+	ThreadWaitTimes.endStoreWait(start);
+    }
+
     /* -- Other public methods -- */
     
     /**
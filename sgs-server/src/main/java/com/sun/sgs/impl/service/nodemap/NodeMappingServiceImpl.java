@@ -1079,6 +1079,17 @@ public class NodeMappingServiceImpl
 	    // Does nothing
 	}
 
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The context only caches lookups, so it is always read-only.
+	 */
+	public boolean prepare() {
+	    isPrepared = true;
+	    isCommitted = true;
+	    return true;
+	}
+
 	/** {@inheritDoc} */
 	public void commit() {
 	    isCommitted = true;
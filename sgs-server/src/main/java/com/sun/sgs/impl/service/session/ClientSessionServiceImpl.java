@@ -88,6 +88,7 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.management.JMException;
@@ -274,6 +275,14 @@ public final class ClientSessionServiceImpl
 	Collections.synchronizedMap(
 	    new HashMap<BigInteger, ClientSessionHandler>());
 
+    /**
+     * The message byte counts of the sessions removed from {@code
+     * handlers}, indexed by {@link MessageBytes} ordinal.  Updated while
+     * synchronized on {@code handlers}.
+     */
+    private final AtomicLongArray removedSessionBytes =
+	new AtomicLongArray(MessageBytes.values().length);
+
     /** Queue of contexts that are prepared (non-readonly) or committed. */
     private final Queue<Context> contextQueue =
 	new ConcurrentLinkedQueue<Context>();
@@ -1373,6 +1382,82 @@ public final class ClientSessionServiceImpl
         return handlers.size();
     }
 
+    /**
+     * Get the number of bytes waiting to be written to the clients of the
+     * local sessions, either the total or the largest for a single session.
+     * @param max if {@code true}, return the largest number for a single
+     *        session, otherwise return the total
+     * @return the number of bytes waiting to be written
+     */
+    long getPendingWriteBytes(boolean max) {
+        long result = 0;
+        synchronized (handlers) {
+            for (ClientSessionHandler handler : handlers.values()) {
+                SessionProtocol protocol = handler.getSessionProtocol();
+                if (protocol != null) {
+                    long bytes = protocol.getPendingWriteBytes();
+                    result = max ? Math.max(result, bytes) : result + bytes;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The kinds of message byte counts that are totalled across local
+     * sessions.
+     */
+    enum MessageBytes {
+        /** Bytes written, before compression. */
+        UNCOMPRESSED_WRITTEN {
+            long get(SessionProtocol protocol) {
+                return protocol.getUncompressedBytesWritten();
+            }
+        },
+        /** Bytes written, after compression. */
+        COMPRESSED_WRITTEN {
+            long get(SessionProtocol protocol) {
+                return protocol.getCompressedBytesWritten();
+            }
+        },
+        /** Bytes read, after decompression. */
+        UNCOMPRESSED_READ {
+            long get(SessionProtocol protocol) {
+                return protocol.getUncompressedBytesRead();
+            }
+        },
+        /** Bytes read, before decompression. */
+        COMPRESSED_READ {
+            long get(SessionProtocol protocol) {
+                return protocol.getCompressedBytesRead();
+            }
+        };
+
+        /** Returns this count for the specified session protocol. */
+        abstract long get(SessionProtocol protocol);
+    }
+
+    /**
+     * Get the total number of bytes of messages of the specified kind
+     * written to or read from the clients of sessions connected to this
+     * node, including sessions that have since disconnected.  Sessions
+     * that relocate to another node are not included.
+     * @param kind the kind of count
+     * @return the total number of bytes
+     */
+    long getMessageBytes(MessageBytes kind) {
+        synchronized (handlers) {
+            long result = removedSessionBytes.get(kind.ordinal());
+            for (ClientSessionHandler handler : handlers.values()) {
+                SessionProtocol protocol = handler.getSessionProtocol();
+                if (protocol != null) {
+                    result += kind.get(protocol);
+                }
+            }
+            return result;
+        }
+    }
+
     /**
      * Get the login high water.
      * @return the login high water
@@ -1560,7 +1645,17 @@ public final class ClientSessionServiceImpl
 	}
 	// Notify session listeners of disconnection
 	notifyStatusListenersOfDisconnection(sessionRefId, isRelocating);
-	handlers.remove(sessionRefId);
+	synchronized (handlers) {
+	    ClientSessionHandler handler = handlers.remove(sessionRefId);
+	    SessionProtocol protocol =
+		(handler != null) ? handler.getSessionProtocol() : null;
+	    if (protocol != null) {
+		for (MessageBytes kind : MessageBytes.values()) {
+		    removedSessionBytes.addAndGet(
+			kind.ordinal(), kind.get(protocol));
+		}
+	    }
+	}
         checkHighWater();
 	sessionTaskQueues.remove(sessionRefId);
 	prepareRelocationMap.remove(sessionRefId); // just in case...
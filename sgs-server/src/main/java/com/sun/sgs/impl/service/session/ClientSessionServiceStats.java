@@ -89,6 +89,40 @@ class ClientSessionServiceStats implements ClientSessionServiceMXBean {
         return service.getNumSessions();
     }
 
+    @Override
+    public long getPendingWriteBytes() {
+        return service.getPendingWriteBytes(false);
+    }
+
+    @Override
+    public long getMaxSessionPendingWriteBytes() {
+        return service.getPendingWriteBytes(true);
+    }
+
+    @Override
+    public long getUncompressedBytesWritten() {
+        return service.getMessageBytes(
+            ClientSessionServiceImpl.MessageBytes.UNCOMPRESSED_WRITTEN);
+    }
+
+    @Override
+    public long getCompressedBytesWritten() {
+        return service.getMessageBytes(
+            ClientSessionServiceImpl.MessageBytes.COMPRESSED_WRITTEN);
+    }
+
+    @Override
+    public long getUncompressedBytesRead() {
+        return service.getMessageBytes(
+            ClientSessionServiceImpl.MessageBytes.UNCOMPRESSED_READ);
+    }
+
+    @Override
+    public long getCompressedBytesRead() {
+        return service.getMessageBytes(
+            ClientSessionServiceImpl.MessageBytes.COMPRESSED_READ);
+    }
+
     @Override
     public int getLoginHighWater() {
         return service.getLoginHighWater();
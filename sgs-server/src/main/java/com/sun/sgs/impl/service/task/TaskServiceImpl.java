@@ -982,6 +982,24 @@ public class TaskServiceImpl
         TxnState(Transaction txn) {
             super(txn);
         }
+        /**
+         * {@inheritDoc}
+         *
+         * Returns {@code true}, so that commit is skipped, if the
+         * transaction did not change any state that needs to be handled
+         * at commit-time.
+         */
+        public boolean prepare() {
+            isPrepared = true;
+            boolean readOnly = (reservationSet == null) &&
+                (addedRecurringMap == null) &&
+                (cancelledRecurringSet == null) &&
+                statusMap.isEmpty() && (currentTaskId == null);
+            if (readOnly) {
+                isCommitted = true;
+            }
+            return readOnly;
+        }
         /** {@inheritDoc} */
         public void commit() {
             // cancel the cancelled periodic tasks...
@@ -31,21 +31,23 @@ import com.sun.sgs.service.NonDurableTransactionParticipant;
 import com.sun.sgs.service.Transaction;
 import com.sun.sgs.service.TransactionListener;
 import com.sun.sgs.service.TransactionParticipant;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Provides an implementation of Transaction. <p>
  *
- * Note that this implementation does not check that each joining
- * {@code TransactionParticipant} has a unique value for {@code getTypeName}.
- * Nor is this check done for {@code TransactionListener}s. If two
- * participants or listeners have the same type name then their
- * profiling data will be aggregated and reported as a single result.
+ * To reduce the fixed cost of each transaction, the participants and
+ * listeners are stored in arrays that are reused by the transactions created
+ * by a given thread.  A transaction takes the arrays when it is created and
+ * returns them when it completes, so a thread that has more than one
+ * transaction active at a time uses separate storage for each one. <p>
+ *
+ * Profiling data is collected separately for each participant and listener,
+ * in the slot that holds it.  If two participants or listeners have the same
+ * type name then their profiling data will be reported as separate results
+ * with the same name.
  */
 final class TransactionImpl implements Transaction {
 
@@ -88,12 +90,17 @@ final class TransactionImpl implements Transaction {
     private State state;
 
     /**
-     * The transaction participants.  If there is a durable participant, it
-     * will be listed last.  Participants whose prepare method returns true
-     * (read-only) are removed from this list.
+     * The storage for participants and listeners reused by transactions
+     * created by the current thread, or {@code null} if it is in use.
+     */
+    private static final ThreadLocal<Slots> freeSlots =
+	new ThreadLocal<Slots>();
+
+    /**
+     * The storage for this transaction's participants and listeners, or
+     * {@code null} if the transaction has completed.
      */
-    private final List<TransactionParticipant> participants =
-	new ArrayList<TransactionParticipant>();
+    private Slots slots;
 
     /** Whether this transaction has a durable participant. */
     private boolean hasDurableParticipant = false;
@@ -109,24 +116,18 @@ final class TransactionImpl implements Transaction {
     /** The collectorHandle used to report participant detail. */
     private final ProfileCollectorHandle collectorHandle;
 
-    /** Collected profiling data on each participant, created only if
-     *  global profiling is set to MEDIUM at the start of the transaction.
-     */
-    private final HashMap<String, ProfileParticipantDetailImpl>
-        participantDetailMap;
-
-    /** Collected profiling data on each listener, created only if
-     *  global profiling is set to MEDIUM at the start of the transaction.
+    /**
+     * Whether to collect profiling data on each participant and listener,
+     * set only if global profiling is set to MEDIUM at the start of the
+     * transaction.
      */
-    private final HashMap<String, TransactionListenerDetailImpl>
-        listenerDetailMap;
+    private final boolean collectDetail;
 
     /**
-     * The registered {@code TransactionListener}s, or {@code null}.  The
-     * listeners are stored and called in the order registered, to simplify
-     * testing.
+     * Whether the commit method is running, in which case it, rather than
+     * abort, is responsible for releasing the slots.
      */
-    private List<TransactionListener> listeners = null;
+    private boolean inCommit = false;
 
     /**
      * Creates an instance with the specified transaction ID, timeout, 
@@ -142,17 +143,13 @@ final class TransactionImpl implements Transaction {
 	creationTime = System.currentTimeMillis();
 	owner = Thread.currentThread();
 	state = State.ACTIVE;
-	if (collectorHandle.getCollector().
-                getDefaultProfileLevel().ordinal() >= 
-                ProfileLevel.MEDIUM.ordinal()) 
-        {
-	    participantDetailMap =
-                new HashMap<String, ProfileParticipantDetailImpl>();
-            listenerDetailMap =
-                new HashMap<String, TransactionListenerDetailImpl>();
+	collectDetail = collectorHandle.getCollector().
+	    getDefaultProfileLevel().ordinal() >= ProfileLevel.MEDIUM.ordinal();
+	slots = freeSlots.get();
+	if (slots != null) {
+	    freeSlots.set(null);
 	} else {
-	    participantDetailMap = null;
-            listenerDetailMap = null;
+	    slots = new Slots();
 	}
 	logger.log(Level.FINER, "create {0}", this);
     }
@@ -218,25 +215,25 @@ final class TransactionImpl implements Transaction {
 	    throw new IllegalStateException(
 		"Transaction is not active: " + state);
 	}
-	if (!participants.contains(participant)) {
+	if (!slots.containsParticipant(participant)) {
+	    ProfileParticipantDetailImpl detail = collectDetail
+		? new ProfileParticipantDetailImpl(participant.getTypeName())
+		: null;
 	    if (participant instanceof NonDurableTransactionParticipant) {
 		if (hasDurableParticipant) {
-		    participants.add(participants.size() - 1, participant);
+		    slots.addParticipant(
+			slots.numParticipants - 1, participant, detail);
 		} else {
-		    participants.add(participant);
+		    slots.addParticipant(
+			slots.numParticipants, participant, detail);
 		}
 	    } else if (!hasDurableParticipant) {
 		hasDurableParticipant = true;
-		participants.add(participant);
+		slots.addParticipant(slots.numParticipants, participant, detail);
 	    } else {
 		throw new UnsupportedOperationException(
 		    "Attempt to add multiple durable participants");
 	    }
-	    if (participantDetailMap != null) {
-		String name = participant.getTypeName();
-		participantDetailMap.
-                    put(name, new ProfileParticipantDetailImpl(name));
-	    }
 	}
     }
 
@@ -268,12 +265,14 @@ final class TransactionImpl implements Transaction {
 	    abortCause = cause;
 	}
 	long startTime = 0;
-	for (TransactionParticipant participant : participants) {
+	for (int i = 0; i < slots.numParticipants; i++) {
+	    TransactionParticipant participant = slots.participants[i];
+	    ProfileParticipantDetailImpl detail = slots.participantDetails[i];
 	    if (logger.isLoggable(Level.FINEST)) {
 		logger.log(Level.FINEST, "abort {0} participant:{1}",
 			   this, getParticipantInfo(participant));
 	    }
-	    if (participantDetailMap != null) {
+	    if (detail != null) {
 		startTime = System.currentTimeMillis();
 	    }
 	    try {
@@ -286,16 +285,17 @@ final class TransactionImpl implements Transaction {
 			this, getParticipantInfo(participant));
 		}
 	    }
-	    if (participantDetailMap != null) {
+	    if (detail != null) {
 		long finishTime = System.currentTimeMillis();
-		ProfileParticipantDetailImpl detail =
-		    participantDetailMap.get(participant.getTypeName());
 		detail.setAborted(finishTime - startTime);
 		collectorHandle.addParticipant(detail);
 	    }
 	}
 	state = State.ABORTED;
 	notifyListenersAfter(false);
+	if (!inCommit) {
+	    releaseSlots();
+	}
     }
 
     /** {@inheritDoc} */
@@ -317,17 +317,13 @@ final class TransactionImpl implements Transaction {
 	    throw new TransactionNotActiveException(
 		"Transaction is not active: " + state);
 	}
-	if (listeners == null) {
-	    listeners = new ArrayList<TransactionListener>();
-	    listeners.add(listener);
-	} else if (!listeners.contains(listener)) {
-	    listeners.add(listener);
+	if (!slots.containsListener(listener)) {
+	    slots.addListener(
+		listener,
+		collectDetail
+		? new TransactionListenerDetailImpl(listener.getTypeName())
+		: null);
 	}
-        if (listenerDetailMap != null) {
-            String name = listener.getTypeName();
-            listenerDetailMap.put(name,
-                                  new TransactionListenerDetailImpl(name));
-        }
     }
 
     /* -- Object methods -- */
@@ -395,30 +391,79 @@ final class TransactionImpl implements Transaction {
 	    throw new IllegalStateException(
 		"Transaction is not active: " + state);
 	}
-	notifyListenersBefore();
+	inCommit = true;
+	try {
+	    notifyListenersBefore();
+	    prepare();
+	    state = State.COMMITTING;
+	    for (int i = 0; i < slots.numParticipants; i++) {
+		TransactionParticipant participant = slots.participants[i];
+		ProfileParticipantDetailImpl detail =
+		    slots.participantDetails[i];
+		if (logger.isLoggable(Level.FINEST)) {
+		    logger.log(Level.FINEST, "commit {0} participant:{1}",
+			       this, getParticipantInfo(participant));
+		}
+		long startTime = 0;
+		if (detail != null) {
+		    startTime = System.currentTimeMillis();
+		}
+		try {
+		    participant.commit(this);
+		    if (detail != null) {
+			detail.setCommitted(System.currentTimeMillis() -
+					    startTime);
+			collectorHandle.addParticipant(detail);
+		    }
+		} catch (RuntimeException e) {
+		    if (logger.isLoggable(Level.WARNING)) {
+			logger.logThrow(
+			    Level.WARNING, e,
+			    "commit {0} participant:{1} failed",
+			    this, getParticipantInfo(participant));
+		    }
+		}
+	    }
+	    state = State.COMMITTED;
+	    notifyListenersAfter(true);
+	} finally {
+	    inCommit = false;
+	    if (state == State.ABORTED || state == State.COMMITTED) {
+		releaseSlots();
+	    }
+	}
+    }
+
+    /**
+     * Prepares all participants, calling prepareAndCommit on the last one
+     * if that optimization is enabled.  Participants that are read-only or
+     * that have committed are removed.
+     */
+    private void prepare() throws Exception {
 	state = State.PREPARING;
-	long startTime = 0;
-	ProfileParticipantDetailImpl detail = null;
-	for (Iterator<TransactionParticipant> iter = participants.iterator();
-	     iter.hasNext(); )
-	{
-	    TransactionParticipant participant = iter.next();
-	    if (participantDetailMap != null) {
-		detail = participantDetailMap.get(participant.getTypeName());
+	int i = 0;
+	while (i < slots.numParticipants) {
+	    TransactionParticipant participant = slots.participants[i];
+	    ProfileParticipantDetailImpl detail = slots.participantDetails[i];
+	    boolean last = i == slots.numParticipants - 1;
+	    long startTime = 0;
+	    if (detail != null) {
 		startTime = System.currentTimeMillis();
 	    }
 	    try {
-		if (iter.hasNext() || disablePrepareAndCommitOpt) {
+		if (!last || disablePrepareAndCommitOpt) {
 		    boolean readOnly = participant.prepare(this);
 		    if (detail != null) {
 			detail.setPrepared(System.currentTimeMillis() -
 					   startTime, readOnly);
 		    }
 		    if (readOnly) {
-			iter.remove();
+			slots.removeParticipant(i);
 			if (detail != null) {
 			    collectorHandle.addParticipant(detail);
 			}
+		    } else {
+			i++;
 		    }
 		    if (logger.isLoggable(Level.FINEST)) {
 			logger.log(Level.FINEST,
@@ -434,7 +479,7 @@ final class TransactionImpl implements Transaction {
 						 startTime);
 			collectorHandle.addParticipant(detail);
 		    }
-		    iter.remove();
+		    slots.removeParticipant(i);
 		    if (logger.isLoggable(Level.FINEST)) {
 			logger.log(
 			    Level.FINEST,
@@ -446,7 +491,7 @@ final class TransactionImpl implements Transaction {
 		if (logger.isLoggable(Level.FINEST)) {
 		    logger.logThrow(
 			Level.FINEST, e, "{0} {1} participant:{1} throws",
-			iter.hasNext() ? "prepare" : "prepareAndCommit",
+			!last ? "prepare" : "prepareAndCommit",
 			this, getParticipantInfo(participant));
 		}
 		if (state != State.ABORTED) {
@@ -459,33 +504,6 @@ final class TransactionImpl implements Transaction {
 		    "Transaction has been aborted: " + abortCause, abortCause);
 	    }
 	}
-	state = State.COMMITTING;
-	for (TransactionParticipant participant : participants) {
-	    if (logger.isLoggable(Level.FINEST)) {
-		logger.log(Level.FINEST, "commit {0} participant:{1}",
-			   this, getParticipantInfo(participant));
-	    }
-	    if (participantDetailMap != null) {
-		detail = participantDetailMap.get(participant.getTypeName());
-		startTime = System.currentTimeMillis();
-	    }
-	    try {
-		participant.commit(this);
-		if (detail != null) {
-		    detail.setCommitted(System.currentTimeMillis() -
-					startTime);
-		    collectorHandle.addParticipant(detail);
-		}
-	    } catch (RuntimeException e) {
-		if (logger.isLoggable(Level.WARNING)) {
-		    logger.logThrow(
-			Level.WARNING, e, "commit {0} participant:{1} failed",
-			this, getParticipantInfo(participant));
-		}
-	    }
-	}
-	state = State.COMMITTED;
-	notifyListenersAfter(true);
     }
 
     /** Returns a byte array that represents the specified long. */
@@ -498,79 +516,85 @@ final class TransactionImpl implements Transaction {
 
     /** Notify any listeners before preparing the transaction. */
     private void notifyListenersBefore() {
-        TransactionListenerDetailImpl detail = null;
         long startTime = 0;
-	if (listeners != null) {
-	    /*
-	     * Don't use foreach iteration here, so that we can handle the
-	     * possibility that a beforeCompletion call adds another listener.
-	     */
-	    for (int i = 0; i < listeners.size(); i++) {
-		TransactionListener listener = listeners.get(i);
-		try {
-                    if (listenerDetailMap != null) {
-                        detail = listenerDetailMap.get(listener.getTypeName());
-                        startTime = System.currentTimeMillis();
-                    }
-		    listener.beforeCompletion();
-                    if (detail != null) {
-                        long time = System.currentTimeMillis() - startTime;
-                        detail.setCalledBeforeCompletion(false, time);
-                    }
-		} catch (RuntimeException e) {
-                    if (detail != null) {
-                        long time = System.currentTimeMillis() - startTime;
-                        detail.setCalledBeforeCompletion(true, time);
-                    }
-		    if (logger.isLoggable(Level.FINEST)) {
-			logger.logThrow(
-			    Level.FINEST, e,
-			    "beforeCompletion {0} listener:{1} failed",
-			    this, listener);
-		    }
-		    if (state != State.ABORTED) {
-			abort(e);
-		    }
-		    throw e;
+	/*
+	 * Check the number of listeners on each iteration, so that we can
+	 * handle the possibility that a beforeCompletion call adds another
+	 * listener.
+	 */
+	for (int i = 0; i < slots.numListeners; i++) {
+	    TransactionListener listener = slots.listeners[i];
+	    TransactionListenerDetailImpl detail = slots.listenerDetails[i];
+	    try {
+		if (detail != null) {
+		    startTime = System.currentTimeMillis();
 		}
-		if (state == State.ABORTED) {
-		    throw new TransactionAbortedException(
-			"Transaction has been aborted: " + abortCause,
-			abortCause);
+		listener.beforeCompletion();
+		if (detail != null) {
+		    long time = System.currentTimeMillis() - startTime;
+		    detail.setCalledBeforeCompletion(false, time);
+		}
+	    } catch (RuntimeException e) {
+		if (detail != null) {
+		    long time = System.currentTimeMillis() - startTime;
+		    detail.setCalledBeforeCompletion(true, time);
 		}
+		if (logger.isLoggable(Level.FINEST)) {
+		    logger.logThrow(
+			Level.FINEST, e,
+			"beforeCompletion {0} listener:{1} failed",
+			this, listener);
+		}
+		if (state != State.ABORTED) {
+		    abort(e);
+		}
+		throw e;
+	    }
+	    if (state == State.ABORTED) {
+		throw new TransactionAbortedException(
+		    "Transaction has been aborted: " + abortCause,
+		    abortCause);
 	    }
 	}
     }
 
     /** Notify any listeners after completing the transaction. */
     private void notifyListenersAfter(boolean commited) {
-        TransactionListenerDetailImpl detail = null;
         long startTime = 0;
-	if (listeners != null) {
-	    for (TransactionListener listener : listeners) {
-		try {
-                    if (listenerDetailMap != null) {
-                        detail = listenerDetailMap.get(listener.getTypeName());
-                        startTime = System.currentTimeMillis();
-                    }
-		    listener.afterCompletion(commited);
-                    if (detail != null) {
-                        long time = System.currentTimeMillis() - startTime;
-                        detail.setCalledAfterCompletion(time);
-                        collectorHandle.addListener(detail);
-                    }
-		} catch (RuntimeException e) {
-		    if (logger.isLoggable(Level.WARNING)) {
-			logger.logThrow(
-			    Level.WARNING, e,
-			    "afterCompletion {0} listener:{1} failed",
-			    this, listener);
-		    }
+	for (int i = 0; i < slots.numListeners; i++) {
+	    TransactionListener listener = slots.listeners[i];
+	    TransactionListenerDetailImpl detail = slots.listenerDetails[i];
+	    try {
+		if (detail != null) {
+		    startTime = System.currentTimeMillis();
+		}
+		listener.afterCompletion(commited);
+		if (detail != null) {
+		    long time = System.currentTimeMillis() - startTime;
+		    detail.setCalledAfterCompletion(time);
+		    collectorHandle.addListener(detail);
+		}
+	    } catch (RuntimeException e) {
+		if (logger.isLoggable(Level.WARNING)) {
+		    logger.logThrow(
+			Level.WARNING, e,
+			"afterCompletion {0} listener:{1} failed",
+			this, listener);
 		}
 	    }
 	}
     }
 
+    /**
+     * Clears the slots and makes them available to the next transaction
+     * created by this thread.
+     */
+    private void releaseSlots() {
+	slots.clear();
+	freeSlots.set(slots);
+	slots = null;
+    }
+
     /** Checks that current thread is the one that created this transaction. */
     private void checkThread(String methodName) {
 	if (Thread.currentThread() != owner) {
@@ -590,4 +614,112 @@ final class TransactionImpl implements Transaction {
 	return participant == null ? null
 	    : (participant.getTypeName() + " (" + participant + ")");
     }
+
+    /**
+     * Storage for the participants and listeners of a transaction, along
+     * with their profiling data.  Participants are kept in the order they
+     * should be prepared, with a durable participant last, and listeners in
+     * the order registered, to simplify testing.
+     */
+    private static final class Slots {
+
+	/** The initial number of participant and listener slots. */
+	private static final int INITIAL_SIZE = 8;
+
+	/** The participants. */
+	TransactionParticipant[] participants =
+	    new TransactionParticipant[INITIAL_SIZE];
+
+	/** The profiling data for each participant, or null elements. */
+	ProfileParticipantDetailImpl[] participantDetails =
+	    new ProfileParticipantDetailImpl[INITIAL_SIZE];
+
+	/** The number of participants. */
+	int numParticipants = 0;
+
+	/** The listeners. */
+	TransactionListener[] listeners =
+	    new TransactionListener[INITIAL_SIZE];
+
+	/** The profiling data for each listener, or null elements. */
+	TransactionListenerDetailImpl[] listenerDetails =
+	    new TransactionListenerDetailImpl[INITIAL_SIZE];
+
+	/** The number of listeners. */
+	int numListeners = 0;
+
+	Slots() { }
+
+	boolean containsParticipant(TransactionParticipant participant) {
+	    for (int i = 0; i < numParticipants; i++) {
+		if (participants[i].equals(participant)) {
+		    return true;
+		}
+	    }
+	    return false;
+	}
+
+	/** Inserts a participant at the specified index. */
+	void addParticipant(int index,
+			    TransactionParticipant participant,
+			    ProfileParticipantDetailImpl detail)
+	{
+	    if (numParticipants == participants.length) {
+		participants = Arrays.copyOf(participants, 2 * numParticipants);
+		participantDetails =
+		    Arrays.copyOf(participantDetails, 2 * numParticipants);
+	    }
+	    int moved = numParticipants - index;
+	    System.arraycopy(participants, index, participants, index + 1, moved);
+	    System.arraycopy(participantDetails, index,
+			     participantDetails, index + 1, moved);
+	    participants[index] = participant;
+	    participantDetails[index] = detail;
+	    numParticipants++;
+	}
+
+	/** Removes the participant at the specified index. */
+	void removeParticipant(int index) {
+	    int moved = numParticipants - index - 1;
+	    System.arraycopy(participants, index + 1, participants, index, moved);
+	    System.arraycopy(participantDetails, index + 1,
+			     participantDetails, index, moved);
+	    numParticipants--;
+	    participants[numParticipants] = null;
+	    participantDetails[numParticipants] = null;
+	}
+
+	boolean containsListener(TransactionListener listener) {
+	    for (int i = 0; i < numListeners; i++) {
+		if (listeners[i].equals(listener)) {
+		    return true;
+		}
+	    }
+	    return false;
+	}
+
+	/** Adds a listener at the end. */
+	void addListener(TransactionListener listener,
+			 TransactionListenerDetailImpl detail)
+	{
+	    if (numListeners == listeners.length) {
+		listeners = Arrays.copyOf(listeners, 2 * numListeners);
+		listenerDetails =
+		    Arrays.copyOf(listenerDetails, 2 * numListeners);
+	    }
+	    listeners[numListeners] = listener;
+	    listenerDetails[numListeners] = detail;
+	    numListeners++;
+	}
+
+	/** Removes all participants and listeners. */
+	void clear() {
+	    Arrays.fill(participants, 0, numParticipants, null);
+	    Arrays.fill(participantDetails, 0, numParticipants, null);
+	    numParticipants = 0;
+	    Arrays.fill(listeners, 0, numListeners, null);
+	    Arrays.fill(listenerDetails, 0, numListeners, null);
+	    numListeners = 0;
+	}
+    }
 }
@@ -37,6 +37,8 @@ import com.sun.sgs.transport.TransportDescriptor;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
@@ -68,6 +70,20 @@ import java.util.logging.Logger;
  * <dd style="padding-top: .5em"> 
  *	Specifies the network port that the transport instance will listen on.
  *      The value must be between 1 and 65535.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #LISTEN_ADDITIONAL_PORTS_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> No additional ports<br>
+ *
+ * <dd style="padding-top: .5em">
+ *	Specifies a colon-separated list of additional network ports that the
+ *      transport instance will listen on.  Each port has its own acceptor,
+ *      so connections arriving on different ports are accepted in
+ *      parallel.  Each value must be between 1 and 65535, and must differ
+ *      from the other ports.  The transport's {@link #getDescriptor
+ *      descriptor} only names the primary port; clients must be directed to
+ *      the additional ports by other means, such as a load balancer.<p>
  * 
  * <dt> <i>Property:</i> <code><b>
  *	{@value #ACCEPTOR_BACKLOG_PROPERTY}
@@ -103,6 +119,10 @@ public class TcpTransport implements Transport {
     /** The default port: {@value #DEFAULT_PORT}. */
     public static final int DEFAULT_PORT = 62964;
     
+    /** The name of the additional server ports property. */
+    public static final String LISTEN_ADDITIONAL_PORTS_PROPERTY =
+	PKG_NAME + ".listen.additional.ports";
+
     /** The listen address. */
     final InetSocketAddress listenAddress;
     
@@ -119,14 +139,14 @@ public class TcpTransport implements Transport {
     /** The async channel group for this service. */
     private final AsynchronousChannelGroup asyncChannelGroup;
 
-    /** The acceptor for listening for new connections. */
-    volatile AsynchronousServerSocketChannel acceptor;
-
-    /** The currently-active accept operation, or {@code null} if none. */
-    volatile IoFuture<?, ?> acceptFuture = null;
+    /**
+     * The acceptors for listening for new connections, one per listen
+     * address.  The first acceptor listens on {@link #listenAddress}.
+     */
+    private final List<Acceptor> acceptors = new ArrayList<Acceptor>();
 
-    /** The acceptor listener. */
-    private AcceptorListener acceptorListener = null;
+    /** The connection handler, or {@code null} if accept not called. */
+    private ConnectionHandler connectionHandler = null;
     
     /** The transport descriptor */
     private final TcpDescriptor descriptor;
@@ -150,6 +170,27 @@ public class TcpTransport implements Transport {
         String host = properties.getProperty(LISTEN_HOST_PROPERTY);
         int port = wrappedProps.getIntProperty(LISTEN_PORT_PROPERTY,
                                                DEFAULT_PORT, 1, 65535);
+	List<Integer> additionalPorts = new ArrayList<Integer>();
+	for (Integer additionalPort :
+		 wrappedProps.getListProperty(
+		     LISTEN_ADDITIONAL_PORTS_PROPERTY, Integer.class, null))
+	{
+	    if (additionalPort == null) {
+		continue;
+	    } else if (additionalPort < 1 || additionalPort > 65535) {
+		throw new IllegalArgumentException(
+		    "The value of the " + LISTEN_ADDITIONAL_PORTS_PROPERTY +
+		    " property must contain ports between 1 and 65535: " +
+		    additionalPort);
+	    } else if (additionalPort == port ||
+		       additionalPorts.contains(additionalPort))
+	    {
+		throw new IllegalArgumentException(
+		    "The value of the " + LISTEN_ADDITIONAL_PORTS_PROPERTY +
+		    " property must not repeat a port: " + additionalPort);
+	    }
+	    additionalPorts.add(additionalPort);
+	}
 
         try {
             // If no host address is supplied, default to listen on all
@@ -171,27 +212,12 @@ public class TcpTransport implements Transport {
                 provider.openAsynchronousChannelGroup(
                     Executors.newCachedThreadPool(
                     new NamedThreadFactory("TcpTransport-Acceptor")));
-            acceptor =
-                provider.openAsynchronousServerSocketChannel(asyncChannelGroup);
-	    try {
-                acceptor.bind(listenAddress, acceptorBacklog);
-		if (logger.isLoggable(Level.CONFIG)) {
-		    logger.log(Level.CONFIG,
-                               "acceptor bound to host: {0} port:{1,number,#}",
-                               descriptor.hostName,
-                               descriptor.listeningPort);
-		}
-	    } catch (Exception e) {
-		logger.logThrow(Level.WARNING, e,
-                                "acceptor failed to listen on {0}",
-                                listenAddress);
-		try {
-		    acceptor.close();
-                } catch (IOException ioe) {
-                    logger.logThrow(Level.WARNING, ioe,
-                                    "problem closing acceptor");
-                }
-		throw e;
+	    acceptors.add(new Acceptor(listenAddress));
+	    for (int additionalPort : additionalPorts) {
+		acceptors.add(
+		    new Acceptor(host == null ?
+				 new InetSocketAddress(additionalPort) :
+				 new InetSocketAddress(host, additionalPort)));
 	    }
 
             logger.log(Level.CONFIG,
@@ -199,7 +225,9 @@ public class TcpTransport implements Transport {
                        "\n  " + ACCEPTOR_BACKLOG_PROPERTY + "=" +
                        acceptorBacklog +
                        "\n  " + LISTEN_HOST_PROPERTY + "=" + host +
-                       "\n  " + LISTEN_PORT_PROPERTY + "=" + port);
+                       "\n  " + LISTEN_PORT_PROPERTY + "=" + port +
+                       "\n  " + LISTEN_ADDITIONAL_PORTS_PROPERTY + "=" +
+		       additionalPorts);
 
 	} catch (Exception e) {
 	    if (logger.isLoggable(Level.CONFIG)) {
@@ -227,36 +255,24 @@ public class TcpTransport implements Transport {
     public synchronized void accept(ConnectionHandler handler) {
 	if (handler == null) {
 	    throw new NullPointerException("null handler");
-	} else if (!acceptor.isOpen()) {
+	} else if (!acceptors.get(0).isOpen()) {
 	    throw new IllegalStateException("transport has been shutdown");
 	}
 	
-	if (acceptorListener != null) {
+	if (connectionHandler != null) {
 	    throw new IllegalStateException("accept already called");
 	}
-	acceptorListener = new AcceptorListener(handler);
-	
-        assert acceptFuture == null;
-        acceptFuture = acceptor.accept(acceptorListener);
+	connectionHandler = handler;
+	for (Acceptor acceptor : acceptors) {
+	    acceptor.accept();
+	}
         logger.log(Level.CONFIG, "transport accepting connections");
     }
 
     /** {@inheritDoc} */
     public synchronized void shutdown() {
-	final IoFuture<?, ?> future = acceptFuture;
-	acceptFuture = null;
-        
-	if (future != null) {
-	    future.cancel(true);
-	}
-	
-	if (acceptor != null && acceptor.isOpen()) {
-	    try {
-		acceptor.close();
-            } catch (IOException e) {
-                logger.logThrow(Level.FINEST, e, "closing acceptor throws");
-                // swallow exception
-            }
+	for (Acceptor acceptor : acceptors) {
+	    acceptor.close();
 	}
 
 	if (asyncChannelGroup != null && !asyncChannelGroup.isShutdown()) {
@@ -285,84 +301,211 @@ public class TcpTransport implements Transport {
     }
 
     /**
-     * Closes the current acceptor and opens a new one, binding it to the
-     * listen address specified during construction.  This method is
-     * invoked if a problem occurs handling a new connection or initiating
-     * another accept request on the current acceptor.
-     *
-     * @throws	IOException if the async channel group is shutdown, or
-     * 		a problem occurs creating the new acceptor or binding it to
-     * 		the listen address
+     * Listens for new connections on a single listen address, and passes
+     * them to the transport's connection handler.  Each instance has its
+     * own server socket and accept operation, so the acceptors of a
+     * transport accept connections independently of each other.
      */
-    private synchronized void restart()
-            throws IOException
+    private class Acceptor
+        implements CompletionHandler<AsynchronousSocketChannel, Void>
     {
-	if (asyncChannelGroup.isShutdown()) {
-	    throw new IOException("channel group is shutdown");
+	/** The listen address. */
+	private final InetSocketAddress address;
+
+	/** The server socket channel for listening for new connections. */
+	private volatile AsynchronousServerSocketChannel channel;
+
+	/** The currently-active accept operation, or {@code null} if none. */
+	private volatile IoFuture<?, ?> acceptFuture = null;
+
+	/**
+	 * Constructs an instance with the specified listen {@code address},
+	 * and binds its server socket channel to that address.
+	 *
+	 * @param	address the listen address
+	 * @throws	IOException if a problem occurs creating the server
+	 *		socket channel or binding it to the listen address
+	 */
+	Acceptor(InetSocketAddress address) throws IOException {
+	    this.address = address;
+	    channel = AsynchronousChannelProvider.provider().
+		openAsynchronousServerSocketChannel(asyncChannelGroup);
+	    try {
+                channel.bind(address, acceptorBacklog);
+		if (logger.isLoggable(Level.CONFIG)) {
+		    logger.log(Level.CONFIG,
+                               "acceptor bound to host: {0} port:{1,number,#}",
+                               descriptor.hostName,
+                               address.getPort());
+		}
+	    } catch (IOException e) {
+		logger.logThrow(Level.WARNING, e,
+                                "acceptor failed to listen on {0}",
+                                address);
+		try {
+		    channel.close();
+                } catch (IOException ioe) {
+                    logger.logThrow(Level.WARNING, ioe,
+                                    "problem closing acceptor");
+                }
+		throw e;
+	    }
 	}
 	
-	try {
-	    acceptor.close();
-	} catch (IOException ex) {
-	    logger.logThrow(Level.FINEST, ex,
-			    "exception closing acceptor during restart");
+	/**
+	 * Returns {@code true} if this acceptor's server socket channel is
+	 * open.
+	 *
+	 * @return	{@code true} if this acceptor is open
+	 */
+	boolean isOpen() {
+	    return channel.isOpen();
 	}
-	acceptor = AsynchronousChannelProvider.provider().
-	    openAsynchronousServerSocketChannel(asyncChannelGroup);
 	
-	acceptor.bind(listenAddress, acceptorBacklog);
-    }
-            
-    /** A completion handler for accepting connections. */
-    private class AcceptorListener
-        implements CompletionHandler<AsynchronousSocketChannel, Void>
-    {
-	/** The connection handler. */
-	private final ConnectionHandler connectionHandler;
+	/** Initiates an accept operation on this acceptor. */
+	void accept() {
+	    acceptFuture = channel.accept(this);
+	}
+
+	/**
+	 * Cancels this acceptor's accept operation, if any, and closes its
+	 * server socket channel.
+	 */
+	void close() {
+	    final IoFuture<?, ?> future = acceptFuture;
+	    acceptFuture = null;
+
+	    if (future != null) {
+		future.cancel(true);
+	    }
+
+	    if (channel.isOpen()) {
+		try {
+		    channel.close();
+		} catch (IOException e) {
+		    logger.logThrow(Level.FINEST, e,
+				    "closing acceptor throws");
+		    // swallow exception
+		}
+	    }
+	}
+
+	/**
+	 * Closes the current server socket channel and opens a new one,
+	 * binding it to this acceptor's listen address.  This method is
+	 * invoked if a problem occurs accepting a new connection or
+	 * initiating another accept request on the current channel.
+	 *
+	 * @throws	IOException if the async channel group is shutdown, or
+	 *		a problem occurs creating the new channel or binding
+	 *		it to the listen address
+	 */
+	private void restart() throws IOException {
+	    synchronized (TcpTransport.this) {
+		if (asyncChannelGroup.isShutdown()) {
+		    throw new IOException("channel group is shutdown");
+		}
+
+		try {
+		    channel.close();
+		} catch (IOException ex) {
+		    logger.logThrow(Level.FINEST, ex,
+				    "exception closing acceptor during restart");
+		}
+		channel = AsynchronousChannelProvider.provider().
+		    openAsynchronousServerSocketChannel(asyncChannelGroup);
+
+		channel.bind(address, acceptorBacklog);
+	    }
+	}
 
 	/**
-	 * Constructs an instance with the specified {@code connectionHandler}.
+	 * Resumes accepting connections after the specified accept failure,
+	 * restarting the server socket channel first.  If the restart
+	 * fails, shuts down the transport and notifies the connection
+	 * handler.
 	 *
-	 * @param connectionHandler a connection handler
+	 * @param	failure the exception that caused the failure
+	 * @return	{@code true} if accepting connections was resumed
 	 */
-	AcceptorListener(ConnectionHandler connectionHandler) {
-	    this.connectionHandler = connectionHandler;
+	private boolean resume(Throwable failure) {
+	    logger.logThrow(Level.SEVERE, failure,
+			    "acceptor error on {0}", address);
+	    try {
+		restart();
+
+		// Resume accepting connections on new channel
+		accept();
+		return true;
+	    } catch (IOException ioe) {
+		logger.logThrow(Level.FINEST, ioe,
+				"exception during restart");
+		shutdown();
+		connectionHandler.shutdown();
+		return false;
+	    }
 	}
 	
 	/** Handle new connection or report failure. */
         public void completed(IoFuture<AsynchronousSocketChannel, Void> result)
         {
+	    AsynchronousSocketChannel newChannel;
             try {
                 try {
-                    AsynchronousSocketChannel newChannel = result.getNow();
-                    logger.log(Level.FINER, "Accepted {0}", newChannel);
-
-                    connectionHandler.newConnection(newChannel);
-
-                    // Resume accepting connections
-                    acceptFuture = acceptor.accept(this);
-
+                    newChannel = result.getNow();
                 } catch (ExecutionException e) {
                     throw (e.getCause() == null) ? e : e.getCause();
                 }
             } catch (CancellationException e) {               
                 logger.logThrow(Level.FINE, e, "acceptor cancelled"); 
                 //ignore
+		return;
             } catch (Throwable e) {
-                logger.logThrow(Level.SEVERE, e,
-                                "acceptor error on {0}", listenAddress);
-                try {
-                    restart();
+		resume(e);
+		return;
+	    }
+	    logger.log(Level.FINER, "Accepted {0}", newChannel);
                     
-                    // Resume accepting connections on new acceptor
-                    acceptFuture = acceptor.accept(this);
-                } catch (IOException ioe) {
-                    logger.logThrow(Level.FINEST, ioe,
-                                    "exception during restart");
-                    shutdown();
-                    connectionHandler.shutdown();
-                }
-            }
+	    /*
+	     * Resume accepting connections before handling this one, so
+	     * that the next client's accept is already pending while this
+	     * connection is being set up.
+	     */
+	    boolean accepting;
+	    try {
+		accept();
+		accepting = true;
+	    } catch (Throwable e) {
+		accepting = resume(e);
+	    }
+
+	    if (!accepting) {
+		closeChannel(newChannel);
+		return;
+	    }
+	    try {
+		connectionHandler.newConnection(newChannel);
+	    } catch (Throwable e) {
+		// A failure handling one connection should not disturb the
+		// acceptor, so just drop the connection.
+		logger.logThrow(Level.WARNING, e,
+				"handling new connection on {0} throws",
+				address);
+		closeChannel(newChannel);
+	    }
+	}
+    }
+
+    /**
+     * Closes the specified channel, logging and swallowing any exception.
+     *
+     * @param	channel a channel
+     */
+    private static void closeChannel(AsynchronousSocketChannel channel) {
+	try {
+	    channel.close();
+	} catch (IOException e) {
+	    logger.logThrow(Level.FINEST, e, "closing channel throws");
 	}
     }
 }
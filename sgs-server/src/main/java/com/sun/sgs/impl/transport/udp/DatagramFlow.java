@@ -0,0 +1,368 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.transport.udp;
+
+import com.sun.sgs.impl.nio.IoFutureTask;
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.nio.channels.AsynchronousByteChannel;
+import com.sun.sgs.nio.channels.ClosedAsynchronousChannelException;
+import com.sun.sgs.nio.channels.CompletionHandler;
+import com.sun.sgs.nio.channels.IoFuture;
+import com.sun.sgs.nio.channels.ReadPendingException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The datagrams exchanged with one remote address through a {@link
+ * UdpTransport}, presented as an {@link AsynchronousByteChannel}.  Each
+ * read returns the contents of one received datagram, discarding any bytes
+ * that do not fit in the buffer, and each write sends the buffer's
+ * contents as one datagram.  Several writes may be pending at once.
+ */
+final class DatagramFlow implements AsynchronousByteChannel {
+
+    /** The logger for this class. */
+    private static final LoggerWrapper logger = new LoggerWrapper(
+        Logger.getLogger(DatagramFlow.class.getName()));
+
+    /** The transport that owns this flow. */
+    private final UdpTransport transport;
+
+    /** The remote address of this flow. */
+    final SocketAddress remoteAddress;
+
+    /** The maximum number of unread datagrams to hold. */
+    private final int receiveQueueSize;
+
+    /** The received datagrams that have not been read. */
+    private final LinkedList<ByteBuffer> received =
+        new LinkedList<ByteBuffer>();
+
+    /** The pending read, or {@code null}. */
+    private Operation<Integer, ?> pendingRead = null;
+
+    /** The destination buffer of the pending read, or {@code null}. */
+    private ByteBuffer pendingReadBuffer = null;
+
+    /** Whether this flow has been closed. */
+    private boolean closed = false;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param transport the transport that owns this flow
+     * @param remoteAddress the remote address
+     * @param receiveQueueSize the maximum number of unread datagrams to
+     *        hold
+     */
+    DatagramFlow(UdpTransport transport,
+                 SocketAddress remoteAddress,
+                 int receiveQueueSize)
+    {
+        this.transport = transport;
+        this.remoteAddress = remoteAddress;
+        this.receiveQueueSize = receiveQueueSize;
+    }
+
+    /* -- Implement AsynchronousByteChannel -- */
+
+    /** {@inheritDoc} */
+    public <A> IoFuture<Integer, A> read(
+        ByteBuffer dst, A attachment,
+        CompletionHandler<Integer, ? super A> handler)
+    {
+        Operation<Integer, A> op = new Operation<Integer, A>(
+            attachment, handler);
+        ByteBuffer datagram;
+        synchronized (this) {
+            if (closed) {
+                throw new ClosedAsynchronousChannelException();
+            } else if (pendingRead != null) {
+                throw new ReadPendingException();
+            }
+            datagram = received.poll();
+            if (datagram == null) {
+                pendingRead = op;
+                pendingReadBuffer = dst;
+                return op;
+            }
+        }
+        op.complete(transfer(datagram, dst));
+        return op;
+    }
+
+    /** {@inheritDoc} */
+    public <A> IoFuture<Integer, A> read(
+        ByteBuffer dst, CompletionHandler<Integer, ? super A> handler)
+    {
+        return read(dst, null, handler);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if the buffer has more than {@link
+     *         UdpTransport#MAX_DATAGRAM_SIZE} bytes remaining
+     */
+    public <A> IoFuture<Integer, A> write(
+        ByteBuffer src, A attachment,
+        CompletionHandler<Integer, ? super A> handler)
+    {
+        if (src.remaining() > UdpTransport.MAX_DATAGRAM_SIZE) {
+            throw new IllegalArgumentException("datagram too large");
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new ClosedAsynchronousChannelException();
+            }
+        }
+        Operation<Integer, A> op = new Operation<Integer, A>(
+            attachment, handler);
+        transport.send(new Send(src, remoteAddress, op));
+        return op;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if the buffer has more than {@link
+     *         UdpTransport#MAX_DATAGRAM_SIZE} bytes remaining
+     */
+    public <A> IoFuture<Integer, A> write(
+        ByteBuffer src, CompletionHandler<Integer, ? super A> handler)
+    {
+        return write(src, null, handler);
+    }
+
+    /* -- Implement Channel -- */
+
+    /** {@inheritDoc} */
+    public boolean isOpen() {
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+        }
+        return transport.isOpen();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>A pending read fails with {@link AsynchronousCloseException}, and
+     * unread datagrams are discarded.  Datagrams already written are still
+     * sent.
+     */
+    public void close() {
+        Operation<Integer, ?> read;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            read = pendingRead;
+            pendingRead = null;
+            pendingReadBuffer = null;
+            received.clear();
+        }
+        transport.removeFlow(this);
+        if (read != null) {
+            read.fail(new AsynchronousCloseException());
+        }
+    }
+
+    /* -- Other methods -- */
+
+    /**
+     * Delivers a datagram received from this flow's remote address,
+     * completing the pending read, if any, or else queueing the datagram.
+     * The datagram is dropped if the queue is full.
+     *
+     * @param datagram the received datagram
+     */
+    void received(ByteBuffer datagram) {
+        Operation<Integer, ?> read;
+        ByteBuffer dst;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            read = pendingRead;
+            dst = pendingReadBuffer;
+            if (read == null) {
+                if (received.size() < receiveQueueSize) {
+                    received.add(datagram);
+                } else {
+                    logger.log(Level.FINEST,
+                               "receive queue full, dropping datagram " +
+                               "for {0}", this);
+                }
+                return;
+            }
+            pendingRead = null;
+            pendingReadBuffer = null;
+        }
+        read.complete(transfer(datagram, dst));
+    }
+
+    /**
+     * Copies as much of the datagram as fits into the buffer, and returns
+     * the number of bytes copied.
+     *
+     * @param datagram the datagram
+     * @param dst the buffer
+     * @return the number of bytes copied
+     */
+    private static int transfer(ByteBuffer datagram, ByteBuffer dst) {
+        int n = Math.min(datagram.remaining(), dst.remaining());
+        datagram.limit(datagram.position() + n);
+        dst.put(datagram);
+        return n;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "DatagramFlow[" + remoteAddress + "]";
+    }
+
+    /** A datagram waiting to be sent. */
+    static final class Send {
+
+        /** The contents of the datagram. */
+        final ByteBuffer buffer;
+
+        /** The destination address. */
+        final SocketAddress target;
+
+        /** The write operation to complete when the datagram is sent. */
+        private final Operation<Integer, ?> op;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param buffer the contents of the datagram
+         * @param target the destination address
+         * @param op the write operation
+         */
+        Send(ByteBuffer buffer, SocketAddress target, Operation<Integer, ?> op)
+        {
+            this.buffer = buffer;
+            this.target = target;
+            this.op = op;
+        }
+
+        /**
+         * Completes the write with the specified number of bytes sent.
+         *
+         * @param sent the number of bytes sent
+         */
+        void complete(int sent) {
+            op.complete(sent);
+        }
+
+        /**
+         * Completes the write with the specified failure.
+         *
+         * @param failure the failure
+         */
+        void fail(Throwable failure) {
+            op.fail(failure);
+        }
+    }
+
+    /**
+     * A read or write on a flow, which is completed by the flow or the
+     * transport rather than by running a task.
+     *
+     * @param <R> the result type
+     * @param <A> the attachment type
+     */
+    static final class Operation<R, A> extends IoFutureTask<R, A> {
+
+        /** A callable for the superclass; never called. */
+        private static final Callable<Object> FAILING_CALLABLE =
+            new Callable<Object>() {
+                public Object call() {
+                    throw new AssertionError();
+                }
+            };
+
+        /** The completion handler, or {@code null}. */
+        private final CompletionHandler<R, A> handler;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param attachment the attachment, or {@code null}
+         * @param handler the completion handler, or {@code null}
+         */
+        @SuppressWarnings("unchecked")
+        Operation(A attachment, CompletionHandler<R, ? super A> handler) {
+            super((Callable<R>) FAILING_CALLABLE, attachment);
+            this.handler = (CompletionHandler<R, A>) handler;
+        }
+
+        /**
+         * Completes this operation with the specified result.
+         *
+         * @param result the result
+         */
+        void complete(R result) {
+            set(result);
+        }
+
+        /**
+         * Completes this operation with the specified failure.
+         *
+         * @param failure the failure
+         */
+        void fail(Throwable failure) {
+            setException(failure);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void run() {
+            throw new UnsupportedOperationException(
+                "The run method is not supported");
+        }
+
+        /** Invokes the completion handler, if any. */
+        @Override
+        protected void done() {
+            if (handler != null) {
+                try {
+                    handler.completed(this);
+                } catch (RuntimeException e) {
+                    logger.logThrow(Level.WARNING, e,
+                                    "completion handler throws");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,525 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.transport.udp;
+
+import com.sun.sgs.app.Delivery;
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
+import com.sun.sgs.impl.util.NamedThreadFactory;
+import com.sun.sgs.nio.channels.AsynchronousChannelGroup;
+import com.sun.sgs.nio.channels.AsynchronousDatagramChannel;
+import com.sun.sgs.nio.channels.ClosedAsynchronousChannelException;
+import com.sun.sgs.nio.channels.CompletionHandler;
+import com.sun.sgs.nio.channels.IoFuture;
+import com.sun.sgs.nio.channels.spi.AsynchronousChannelProvider;
+import com.sun.sgs.transport.ConnectionHandler;
+import com.sun.sgs.transport.Transport;
+import com.sun.sgs.transport.TransportDescriptor;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation of a UDP {@link Transport} for messages that do not need
+ * to be delivered reliably.  The transport receives datagrams on a single
+ * {@link AsynchronousDatagramChannel}.  The first datagram received from a
+ * new remote address creates a <i>flow</i> for that address, which is
+ * passed to the connection handler as an {@code AsynchronousByteChannel}.
+ * Each read on a flow returns the contents of one datagram received from
+ * its remote address, and each write sends the contents of the buffer to
+ * that address as one datagram.  Unlike a stream channel, several writes
+ * may be pending on a flow at once; they are sent in order.<p>
+ *
+ * Datagrams may be lost, duplicated, or reordered, and nothing in a
+ * datagram identifies the sender beyond its source address, so a
+ * connection handler would typically expect the first datagram on a flow
+ * to identify the flow's peer, and close the flow if it does not.  A flow
+ * remains open until it is closed by the connection handler or the
+ * transport is shutdown.<p>
+ *
+ * The {@link #UdpTransport constructor} supports the following
+ * properties: <p>
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #LISTEN_HOST_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> Listen on all network interfaces
+ *
+ * <dd style="padding-top: .5em">Specifies the network address the transport
+ *      will receive datagrams on.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #LISTEN_PORT_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_PORT}<br>
+ *
+ * <dd style="padding-top: .5em"> 
+ *	Specifies the network port that the transport instance will receive
+ *      datagrams on.  The value must be between 1 and 65535.<p>
+ * 
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #RECEIVE_QUEUE_SIZE_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_RECEIVE_QUEUE_SIZE}<br>
+ *
+ * <dd style="padding-top: .5em"> 
+ *	Specifies the maximum number of datagrams received on a flow that
+ *      are held until they are read.  Datagrams received while a flow's
+ *      queue is full are dropped.  The value must be at least 1.<p>
+ * 
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #SEND_QUEUE_SIZE_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_SEND_QUEUE_SIZE}<br>
+ *
+ * <dd style="padding-top: .5em"> 
+ *	Specifies the maximum number of datagrams, for all flows, that are
+ *      waiting to be sent.  A write to a flow while the queue is full
+ *      completes without sending the datagram, returning {@code 0}.  The
+ *      value must be at least 1.
+ * </dl> <p>
+ */
+public class UdpTransport implements Transport {
+ 
+    private static final String PKG_NAME = "com.sun.sgs.impl.transport.udp";
+    
+    private static final LoggerWrapper logger =
+	new LoggerWrapper(Logger.getLogger(PKG_NAME));
+        
+    /**
+     * The server listen address property.
+     * This is the host interface we are receiving on. Default is receive
+     * on all interfaces.
+     */
+    public static final String LISTEN_HOST_PROPERTY =
+        PKG_NAME + ".listen.address";
+    
+    /** The name of the server port property. */
+    public static final String LISTEN_PORT_PROPERTY =
+	PKG_NAME + ".listen.port";
+
+    /** The default port: {@value #DEFAULT_PORT}. */
+    public static final int DEFAULT_PORT = 62965;
+
+    /** The name of the per-flow receive queue size property. */
+    public static final String RECEIVE_QUEUE_SIZE_PROPERTY =
+        PKG_NAME + ".receive.queue.size";
+
+    /**
+     * The default per-flow receive queue size: {@value
+     * #DEFAULT_RECEIVE_QUEUE_SIZE}.
+     */
+    public static final int DEFAULT_RECEIVE_QUEUE_SIZE = 16;
+
+    /** The name of the send queue size property. */
+    public static final String SEND_QUEUE_SIZE_PROPERTY =
+        PKG_NAME + ".send.queue.size";
+
+    /** The default send queue size: {@value #DEFAULT_SEND_QUEUE_SIZE}. */
+    public static final int DEFAULT_SEND_QUEUE_SIZE = 4096;
+
+    /**
+     * The largest datagram that can be sent or received: {@value
+     * #MAX_DATAGRAM_SIZE}.
+     */
+    public static final int MAX_DATAGRAM_SIZE = 65507;
+    
+    /** The listen address. */
+    final InetSocketAddress listenAddress;
+
+    /** The maximum number of unread datagrams held for a flow. */
+    private final int receiveQueueSize;
+
+    /** The maximum number of datagrams waiting to be sent. */
+    private final int sendQueueSize;
+    
+    /** The async channel group for this transport. */
+    private final AsynchronousChannelGroup asyncChannelGroup;
+
+    /** The channel for sending and receiving datagrams. */
+    private final AsynchronousDatagramChannel channel;
+
+    /** The buffer for receiving datagrams. */
+    private final ByteBuffer receiveBuffer =
+        ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+
+    /** The completion handler for receiving datagrams. */
+    private final ReceiveHandler receiveHandler = new ReceiveHandler();
+
+    /** The open flows, keyed by remote address. */
+    private final ConcurrentMap<SocketAddress, DatagramFlow> flows =
+        new ConcurrentHashMap<SocketAddress, DatagramFlow>();
+
+    /** The datagrams waiting to be sent, in the order they were written. */
+    private final Queue<DatagramFlow.Send> sendQueue =
+        new ConcurrentLinkedQueue<DatagramFlow.Send>();
+
+    /** The number of datagrams in {@code sendQueue}. */
+    private final AtomicInteger sendQueueLength = new AtomicInteger();
+
+    /** Whether a send is in progress on {@code channel}. */
+    private final AtomicBoolean sending = new AtomicBoolean();
+
+    /** The completion handler for sending datagrams. */
+    private final SendHandler sendHandler = new SendHandler();
+
+    /** The connection handler, or {@code null} if not accepting. */
+    private ConnectionHandler connectionHandler = null;
+    
+    /** The transport descriptor */
+    private final UdpDescriptor descriptor;
+
+    /**
+     * Constructs an instance of this class with the specified properties.
+     *
+     * @param properties transport properties
+     */
+    public UdpTransport(Properties properties) {
+
+        logger.log(Level.CONFIG, "Creating UdpTransport");
+        if (properties == null) {
+            throw new NullPointerException("properties is null");
+        }
+	PropertiesWrapper wrappedProps = new PropertiesWrapper(properties);
+
+        receiveQueueSize = wrappedProps.getIntProperty(
+            RECEIVE_QUEUE_SIZE_PROPERTY, DEFAULT_RECEIVE_QUEUE_SIZE,
+            1, Integer.MAX_VALUE);
+        sendQueueSize = wrappedProps.getIntProperty(
+            SEND_QUEUE_SIZE_PROPERTY, DEFAULT_SEND_QUEUE_SIZE,
+            1, Integer.MAX_VALUE);
+        String host = properties.getProperty(LISTEN_HOST_PROPERTY);
+        int port = wrappedProps.getIntProperty(LISTEN_PORT_PROPERTY,
+                                               DEFAULT_PORT, 1, 65535);
+
+        AsynchronousChannelGroup group = null;
+        AsynchronousDatagramChannel datagramChannel = null;
+        try {
+            // If no host address is supplied, default to receive on all
+            // interfaces on the local host.
+            //
+            listenAddress =
+                        host == null ?
+                                new InetSocketAddress(port) :
+                                new InetSocketAddress(host, port);
+            
+            descriptor =
+                    new UdpDescriptor(host == null ?
+                                      InetAddress.getLocalHost().getHostName() :
+                                      host,
+                                      listenAddress.getPort());
+            AsynchronousChannelProvider provider =
+                AsynchronousChannelProvider.provider();
+            group =
+                provider.openAsynchronousChannelGroup(
+                    Executors.newCachedThreadPool(
+                    new NamedThreadFactory("UdpTransport")));
+            datagramChannel =
+                provider.openAsynchronousDatagramChannel(null, group);
+            datagramChannel.bind(listenAddress);
+            if (logger.isLoggable(Level.CONFIG)) {
+                logger.log(Level.CONFIG,
+                           "datagram channel bound to host: {0} " +
+                           "port:{1,number,#}",
+                           descriptor.hostName,
+                           descriptor.listeningPort);
+            }
+
+            logger.log(Level.CONFIG,
+                       "Created UdpTransport with properties:" +
+                       "\n  " + LISTEN_HOST_PROPERTY + "=" + host +
+                       "\n  " + LISTEN_PORT_PROPERTY + "=" + port +
+                       "\n  " + RECEIVE_QUEUE_SIZE_PROPERTY + "=" +
+                       receiveQueueSize +
+                       "\n  " + SEND_QUEUE_SIZE_PROPERTY + "=" +
+                       sendQueueSize);
+
+	} catch (Exception e) {
+	    if (logger.isLoggable(Level.CONFIG)) {
+		logger.logThrow(Level.CONFIG, e,
+                                "Failed to create UDP transport");
+	    }
+            if (datagramChannel != null) {
+                try {
+                    datagramChannel.close();
+                } catch (IOException ioe) {
+                    logger.logThrow(Level.FINEST, ioe,
+                                    "problem closing datagram channel");
+                }
+            }
+            if (group != null) {
+                group.shutdown();
+            }
+	    throw new RuntimeException(e);
+	}
+        asyncChannelGroup = group;
+        channel = datagramChannel;
+    }
+  
+    /* -- implement Transport -- */
+    
+    /** {@inheritDoc} */
+    public TransportDescriptor getDescriptor() {
+        return descriptor;
+    }
+    
+    /** {@inheritDoc} */
+    public Delivery getDelivery() {
+        return Delivery.UNRELIABLE;
+    }
+    
+    /** {@inheritDoc} */
+    public synchronized void accept(ConnectionHandler handler) {
+	if (handler == null) {
+	    throw new NullPointerException("null handler");
+	} else if (!channel.isOpen()) {
+	    throw new IllegalStateException("transport has been shutdown");
+	}
+	
+	if (connectionHandler != null) {
+	    throw new IllegalStateException("accept already called");
+	}
+	connectionHandler = handler;
+        receive();
+        logger.log(Level.CONFIG, "transport accepting datagrams");
+    }
+
+    /** {@inheritDoc} */
+    public synchronized void shutdown() {
+	if (channel.isOpen()) {
+	    try {
+		channel.close();
+            } catch (IOException e) {
+                logger.logThrow(Level.FINEST, e,
+                                "closing datagram channel throws");
+                // swallow exception
+            }
+	}
+
+        for (DatagramFlow flow : new ArrayList<DatagramFlow>(flows.values())) {
+            flow.close();
+        }
+
+	if (!asyncChannelGroup.isShutdown()) {
+	    asyncChannelGroup.shutdown();
+	    boolean groupShutdownCompleted = false;
+	    try {
+		groupShutdownCompleted =
+		    asyncChannelGroup.awaitTermination(1, TimeUnit.SECONDS);
+	    } catch (InterruptedException e) {
+		logger.logThrow(Level.FINEST, e,
+				"shutdown async group interrupted");
+		Thread.currentThread().interrupt();
+	    }
+	    if (!groupShutdownCompleted) {
+		logger.log(Level.WARNING, "forcing async group shutdown");
+		try {
+		    asyncChannelGroup.shutdownNow();
+		} catch (IOException e) {
+		    logger.logThrow(Level.FINEST, e,
+				    "shutdown async group throws");
+		    // swallow exception
+		}
+	    }
+            logger.log(Level.FINEST, "transport shutdown");
+	}
+    }
+
+    /* -- Package access methods for flows -- */
+
+    /**
+     * Returns {@code true} if this transport's datagram channel is open.
+     *
+     * @return {@code true} if this transport's datagram channel is open
+     */
+    boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Removes the specified flow, which has been closed.
+     *
+     * @param flow a closed flow
+     */
+    void removeFlow(DatagramFlow flow) {
+        flows.remove(flow.remoteAddress, flow);
+    }
+
+    /**
+     * Queues the specified datagram to be sent, and starts sending it if
+     * no other send is in progress.  If the send queue is full, the send
+     * is completed without sending the datagram.
+     *
+     * @param send the datagram to send
+     */
+    void send(DatagramFlow.Send send) {
+        if (sendQueueLength.incrementAndGet() > sendQueueSize) {
+            sendQueueLength.decrementAndGet();
+            logger.log(Level.FINEST, "send queue full, dropping datagram");
+            send.complete(0);
+            return;
+        }
+        sendQueue.add(send);
+        sendNext();
+    }
+
+    /* -- Private methods and classes -- */
+
+    /**
+     * Starts sending the next queued datagram, unless a send is already
+     * in progress or the queue is empty.
+     */
+    private void sendNext() {
+        while (sending.compareAndSet(false, true)) {
+            DatagramFlow.Send next = sendQueue.poll();
+            if (next == null) {
+                sending.set(false);
+                // Check again, in case a datagram was queued after the
+                // poll but before sending was cleared.
+                if (sendQueue.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            sendQueueLength.decrementAndGet();
+            try {
+                channel.send(next.buffer, next.target, next, sendHandler);
+                return;
+            } catch (RuntimeException e) {
+                sending.set(false);
+                next.fail(e);
+            }
+        }
+    }
+
+    /**
+     * Starts receiving the next datagram.  If the datagram channel has
+     * been closed, nothing more is received.
+     */
+    private void receive() {
+        try {
+            channel.receive(receiveBuffer, receiveHandler);
+        } catch (ClosedAsynchronousChannelException e) {
+            logger.logThrow(Level.FINE, e, "datagram channel closed");
+        }
+    }
+
+    /**
+     * Passes a received datagram to the flow for its source address,
+     * creating the flow and notifying the connection handler if the
+     * address does not have a flow.  Called only while receiving, so
+     * calls are not concurrent.
+     *
+     * @param source the source address of the datagram
+     * @param datagram the datagram
+     */
+    private void dispatch(SocketAddress source, ByteBuffer datagram) {
+        DatagramFlow flow = flows.get(source);
+        if (flow == null) {
+            flow = new DatagramFlow(this, source, receiveQueueSize);
+            flows.put(source, flow);
+            try {
+                logger.log(Level.FINER, "New flow {0}", flow);
+                connectionHandler.newConnection(flow);
+            } catch (Exception e) {
+                logger.logThrow(Level.FINE, e, "flow {0} refused", flow);
+                flow.close();
+                return;
+            }
+        }
+        flow.received(datagram);
+    }
+
+    /** A completion handler for receiving datagrams. */
+    private class ReceiveHandler
+        implements CompletionHandler<SocketAddress, Void>
+    {
+        /** Dispatches the datagram, and receives the next one. */
+        public void completed(IoFuture<SocketAddress, Void> result) {
+            try {
+                SocketAddress source = result.getNow();
+                receiveBuffer.flip();
+                ByteBuffer datagram =
+                    ByteBuffer.allocate(receiveBuffer.remaining());
+                datagram.put(receiveBuffer).flip();
+                receiveBuffer.clear();
+                dispatch(source, datagram);
+            } catch (CancellationException e) {
+                logger.logThrow(Level.FINE, e, "receive cancelled");
+                return;
+            } catch (ExecutionException e) {
+                receiveBuffer.clear();
+                if (!channel.isOpen()) {
+                    logger.logThrow(Level.FINE, e, "datagram channel closed");
+                    return;
+                }
+                // A failure to receive one datagram, for example due to
+                // an ICMP error, does not prevent receiving the next.
+                logger.logThrow(Level.FINE, e, "receive failed on {0}",
+                                listenAddress);
+            }
+            receive();
+        }
+    }
+
+    /** A completion handler for sending datagrams. */
+    private class SendHandler
+        implements CompletionHandler<Integer, DatagramFlow.Send>
+    {
+        /** Completes the send, and starts sending the next datagram. */
+        public void completed(IoFuture<Integer, DatagramFlow.Send> result) {
+            DatagramFlow.Send send = result.attachment();
+            Integer sent = null;
+            Throwable failure = null;
+            try {
+                sent = result.getNow();
+            } catch (ExecutionException e) {
+                failure = (e.getCause() == null) ? e : e.getCause();
+            }
+            sending.set(false);
+            sendNext();
+            if (failure == null) {
+                send.complete(sent);
+            } else {
+                send.fail(failure);
+            }
+        }
+    }
+}
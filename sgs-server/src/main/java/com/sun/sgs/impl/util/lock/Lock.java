@@ -41,6 +41,7 @@ import java.util.logging.Logger;
  *
  * Callers should only call non-{@code Object} methods on instances of this
  * class if they hold the lock on the key map associated with the instance.
+ * Instances are reused for different keys once they are no longer in use.
  *
  * @param	<K> the type of key
  * @see		LockManager
@@ -55,7 +56,7 @@ final class Lock<K> {
     private static final LockRequest<?>[] NO_LOCK_REQUESTS = { };
 
     /** The key that identifies this lock. */
-    final K key;
+    K key;
 
     /**
      * The requests that currently own this lock.  Use a small initial
@@ -81,6 +82,30 @@ final class Lock<K> {
 	this.key = key;
     }
 
+    /**
+     * Prepares this lock, which should not be in use, to be used for the
+     * specified key.
+     *
+     * @param	key the key that identifies this lock
+     */
+    void reset(K key) {
+	checkNull("key", key);
+	this.key = key;
+	owners.clear();
+	waiters.clear();
+    }
+
+    /**
+     * Adds the only owner of an uncontended lock, which is being replaced by
+     * this lock, as an owner.  This lock should not be in use.
+     *
+     * @param	request the request for the owner
+     */
+    void addOwner(LockRequest<K> request) {
+	assert owners.isEmpty() && waiters.isEmpty();
+	owners.add(request);
+    }
+
     /**
      * Attempts to obtain this lock.  If {@code waiting} is {@code true}, the
      * locker is known to be waiting for the lock, although it may also be
@@ -102,6 +127,28 @@ final class Lock<K> {
     LockAttemptResult<K> lock(
 	Locker<K> locker, boolean forWrite, boolean waiting)
     {
+	return lock(locker, forWrite, waiting, null);
+    }
+
+    /**
+     * Attempts to obtain this lock, like {@link #lock(Locker, boolean,
+     * boolean)}, but using the specified request, if it is not {@code null},
+     * rather than creating a new one if a new non-upgrade request is needed.
+     *
+     * @param	locker the locker requesting the lock
+     * @param	forWrite whether a write lock is requested
+     * @param	waiting whether the locker is known to be a waiter
+     * @param	newRequest a request created by {@code locker} for this lock
+     *		and {@code forWrite}, or {@code null}
+     * @return	a {@code LockAttemptResult} or {@code null}
+     */
+    LockAttemptResult<K> lock(Locker<K> locker, boolean forWrite,
+			      boolean waiting, LockRequest<K> newRequest)
+    {
+	assert newRequest == null ||
+	    (newRequest.getLocker() == locker &&
+	     newRequest.getForWrite() == forWrite &&
+	     !newRequest.getUpgrade());
 	assert locker.lockManager.checkKeySync(key);
 	boolean upgrade = false;
 	Locker<K> conflict = null;
@@ -155,9 +202,14 @@ final class Lock<K> {
 		    }
 		    break;
 		} else if (conflict == null &&
-			   (forWrite || waiterRequest.getForWrite()))
+			   (forWrite || waiterRequest.getForWrite()) &&
+			   (waiterRequest.getLocker().getPriority() >=
+			    locker.getPriority()))
 		{
-		    /* Found a conflicting waiter */
+		    /*
+		     * Found a conflicting waiter -- waiters with lower
+		     * priority do not block this request
+		     */
 		    conflict = waiterRequest.getLocker();
 		    conflictType = LockConflictType.BLOCKED;
 		}
@@ -171,11 +223,13 @@ final class Lock<K> {
 	}
 	if (conflict == null) {
 	    if (request == null) {
-		request = locker.newLockRequest(key, forWrite, upgrade);
+		request = (newRequest != null && !upgrade) ? newRequest
+		    : locker.newLockRequest(key, forWrite, upgrade);
 	    }
 	    owners.add(request);
 	} else if (request == null) {
-	    request = locker.newLockRequest(key, forWrite, upgrade);
+	    request = (newRequest != null && !upgrade) ? newRequest
+		: locker.newLockRequest(key, forWrite, upgrade);
 	    if (conflictType == LockConflictType.BLOCKED) {
 		addWaiter(request);
 	    }
@@ -186,30 +240,28 @@ final class Lock<K> {
 
     /**
      * Adds a lock request to the list of requests waiting for this lock.
-     * If this is an upgrade request, puts the request after any other
-     * upgrade requests, but before other requests.  Otherwise, puts the
-     * request at the end of the list.
+     * If this is an upgrade request, puts the request before any
+     * non-upgrade requests.  Within the upgrade and non-upgrade requests,
+     * puts the request after any requests whose lockers have the same or
+     * higher {@linkplain Locker#getPriority priority}, and before ones with
+     * lower priority.
      */
     private void addWaiter(LockRequest<K> request) {
-	if (waiters.isEmpty() || !request.getUpgrade()) {
-	    waiters.add(request);
-	} else {
-	    /*
-	     * Add upgrade requests after any existing ones, but before
-	     * other requests.
-	     */
-	    boolean added = false;
+	if (!waiters.isEmpty()) {
+	    boolean upgrade = request.getUpgrade();
+	    int priority = request.getLocker().getPriority();
 	    for (int i = 0; i < waiters.size(); i++) {
-		if (!waiters.get(i).getUpgrade()) {
+		LockRequest<K> waiter = waiters.get(i);
+		boolean insert = (waiter.getUpgrade() == upgrade)
+		    ? waiter.getLocker().getPriority() < priority
+		    : upgrade;
+		if (insert) {
 		    waiters.add(i, request);
-		    added = true;
-		    break;
+		    return;
 		}
 	    }
-	    if (!added) {
-		waiters.add(request);
-	    }
 	}
+	waiters.add(request);
     }
 
     /**
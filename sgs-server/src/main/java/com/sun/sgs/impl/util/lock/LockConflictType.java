@@ -37,5 +37,22 @@ public enum LockConflictType {
     INTERRUPTED,
 
     /** The request resulted in deadlock and was chosen to be aborted. */
-    DEADLOCK;
+    DEADLOCK,
+
+    /**
+     * The locker was holding or waiting for a lock needed by an older locker
+     * with a higher priority, and was chosen to be aborted.
+     */
+    PREEMPTED;
+
+    /**
+     * Returns whether a conflict of this type requires the locker to abort,
+     * so that it is returned by all subsequent lock requests rather than
+     * being cleared.
+     *
+     * @return	whether the locker must abort
+     */
+    boolean mustAbort() {
+	return this == DEADLOCK || this == PREEMPTED;
+    }
 }
@@ -27,12 +27,15 @@
 
 package com.sun.sgs.impl.util.lock;
 
+import com.sun.sgs.impl.profile.util.ThreadWaitTimes;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import static com.sun.sgs.impl.sharedutil.Objects.uncheckedCast;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import static java.util.logging.Level.FINER;
 import static java.util.logging.Level.FINEST;
@@ -58,7 +61,8 @@ import java.util.logging.Logger;
  * <ul>
  *
  * <li>Synchronization is only used on {@link Locker} objects and on the {@code
- *     Map}s that hold {@link Lock} objects
+ *     Map}s that hold {@link Lock} objects, except for the uncontended fast
+ *     path described below
  *
  * <li>A thread can synchronize on at most one locker and one lock at a time,
  *     always synchronizing on the locker first
@@ -98,6 +102,18 @@ import java.util.logging.Logger;
  *
  * </ul>
  *
+ * Most locks are only requested by a single locker at a time, so the key
+ * maps are concurrent maps, and a lock with a single owner and no waiters is
+ * represented in the map by the owner's {@link LockRequest} rather than by a
+ * {@code Lock}.  Such a lock is acquired by adding the request to the map
+ * with {@code putIfAbsent}, and released by removing it with a conditional
+ * {@code remove}, neither of which synchronizes on the key map.  Any other
+ * operation synchronizes on the key map and replaces a request in the map
+ * with a {@code Lock} that has the request as its owner before using the
+ * existing wait queue and conflict logic.  Locks that are no longer in use
+ * are removed from the map and kept in a small pool for each key map, so
+ * that contended locks can be created without allocation.
+ *
  * @param	<K> the type of key
  */
 public class LockManager<K> {
@@ -119,13 +135,26 @@ public class LockManager<K> {
     private final int numKeyMaps;
 
     /**
-     * An array of maps from key to lock.  The map to use is chosen by using
-     * the key's hash code mod the number of key maps.  Synchronization for
-     * locks is based on locking the associated key map.  Non-{@code Object}
+     * The maximum number of unused locks to keep for reuse for each key map.
+     */
+    private static final int MAX_POOLED_LOCKS = 16;
+
+    /**
+     * An array of maps from key to lock, or to the lock request of the only
+     * owner of an uncontended lock.  The map to use is chosen by using the
+     * key's hash code mod the number of key maps.  Synchronization for locks
+     * is based on locking the associated key map.  Non-{@code Object}
      * methods on locks should not be used without synchronizing on the
      * associated key map lock.
      */
-    private final Map<K, Lock<K>>[] keyMaps;
+    private final ConcurrentMap<K, Object>[] keyMaps;
+
+    /**
+     * An array of unused locks available for reuse, one list for each key
+     * map.  Each list should only be used while synchronized on the
+     * associated key map.
+     */
+    private final List<Lock<K>>[] lockPools;
 
     /**
      * When assertions are enabled, holds the {@code Locker} that the
@@ -161,9 +190,11 @@ public class LockManager<K> {
 	}
 	this.lockTimeout = lockTimeout;
 	this.numKeyMaps = numKeyMaps;
-	keyMaps = uncheckedCast(new Map[numKeyMaps]);
+	keyMaps = uncheckedCast(new ConcurrentMap[numKeyMaps]);
+	lockPools = uncheckedCast(new List[numKeyMaps]);
 	for (int i = 0; i < numKeyMaps; i++) {
-	    keyMaps[i] = new HashMap<K, Lock<K>>();
+	    keyMaps[i] = new ConcurrentHashMap<K, Object>();
+	    lockPools[i] = new ArrayList<Lock<K>>(MAX_POOLED_LOCKS);
 	}
     }
 
@@ -267,10 +298,17 @@ public class LockManager<K> {
      * @return	a list of the requests
      */
     public List<LockRequest<K>> getOwners(K key) {
-	Map<K, Lock<K>> keyMap = getKeyMap(key);
+	Map<K, Object> keyMap = getKeyMap(key);
 	assert noteKeySync(key);
 	try {
 	    synchronized (keyMap) {
+		Object entry = keyMap.get(key);
+		if (entry == null) {
+		    return Collections.emptyList();
+		} else if (entry instanceof LockRequest) {
+		    LockRequest<K> request = uncheckedCast(entry);
+		    return Collections.singletonList(request);
+		}
 		return getLock(key, keyMap).copyOwners(this);
 	    }
 	} finally {
@@ -286,10 +324,13 @@ public class LockManager<K> {
      * @return	a list of the requests
      */
     public List<LockRequest<K>> getWaiters(K key) {
-	Map<K, Lock<K>> keyMap = getKeyMap(key);
+	Map<K, Object> keyMap = getKeyMap(key);
 	assert noteKeySync(key);
 	try {
 	    synchronized (keyMap) {
+		if (!(keyMap.get(key) instanceof Lock)) {
+		    return Collections.emptyList();
+		}
 		return getLock(key, keyMap).copyWaiters(this);
 	    }
 	} finally {
@@ -305,29 +346,55 @@ public class LockManager<K> {
      * @param	key the key
      * @return	the associated key map
      */
-    Map<K, Lock<K>> getKeyMap(K key) {
-	/* Mask off the sign bit to get a positive value */
-	int index = (key.hashCode() & Integer.MAX_VALUE) % numKeyMaps;
-	return keyMaps[index];
+    ConcurrentMap<K, Object> getKeyMap(K key) {
+	return keyMaps[getKeyMapIndex(key)];
     }
 
     /**
      * Returns the lock associated with the specified key from the key map,
      * which should be the one returned by calling {@link #getKeyMap
-     * getKeyMap}.  The lock on {@code keyMap} should be held.
+     * getKeyMap}.  The lock on {@code keyMap} should be held.  If the key map
+     * holds the lock request of the only owner of an uncontended lock,
+     * replaces it with a lock owned by that request.
      *
      * @param	key the key
      * @param	keyMap the keyMap
      * @return	the associated lock
      */
-    Lock<K> getLock(K key, Map<K, Lock<K>> keyMap) {
+    Lock<K> getLock(K key, Map<K, Object> keyMap) {
 	assert Thread.holdsLock(keyMap);
-	Lock<K> lock = keyMap.get(key);
-	if (lock == null) {
-	    lock = new Lock<K>(key);
-	    keyMap.put(key, lock);
+	ConcurrentMap<K, Object> map = getKeyMap(key);
+	assert map == keyMap;
+	Lock<K> lock = null;
+	while (true) {
+	    /*
+	     * Only the fast paths in lockNoWaitInternal and
+	     * releaseLockInternal can change the entry concurrently, and they
+	     * only add or remove requests, so this loop terminates.
+	     */
+	    Object entry = map.get(key);
+	    if (entry instanceof Lock) {
+		if (lock != null) {
+		    recycleLock(key, lock);
+		}
+		return uncheckedCast(entry);
+	    }
+	    if (lock == null) {
+		lock = newLock(key);
+	    }
+	    if (entry == null) {
+		if (map.putIfAbsent(key, lock) == null) {
+		    return lock;
+		}
+	    } else {
+		LockRequest<K> owner = uncheckedCast(entry);
+		lock.addOwner(owner);
+		if (map.replace(key, entry, lock)) {
+		    return lock;
+		}
+		lock.reset(key);
+	    }
 	}
-	return lock;
     }
 
     /**
@@ -359,7 +426,7 @@ public class LockManager<K> {
 	    }
 	    LockConflict<K> conflict = locker.getConflict();
 	    if (conflict != null) {
-		if (conflict.type == LockConflictType.DEADLOCK) {
+		if (conflict.type.mustAbort()) {
 		    if (logger.isLoggable(FINER)) {
 			logger.log(FINER,
 				   "lock {0}, {1}, forWrite:{2}\n  returns {3}",
@@ -371,13 +438,41 @@ public class LockManager<K> {
 		    locker.clearConflict();
 		}
 	    }
+	    ConcurrentMap<K, Object> keyMap = getKeyMap(key);
+	    /* Try the uncontended fast path first */
+	    LockRequest<K> newRequest = null;
+	    Object entry = keyMap.get(key);
+	    if (entry == null) {
+		newRequest = locker.newLockRequest(key, forWrite, false);
+		if (keyMap.putIfAbsent(key, newRequest) == null) {
+		    if (logger.isLoggable(FINER)) {
+			logger.log(FINER,
+				   "lock {0}, {1}, forWrite:{2}" +
+				   "\n  returns null (granted)",
+				   locker, key, forWrite);
+		    }
+		    return null;
+		}
+	    } else if (entry instanceof LockRequest) {
+		LockRequest<K> owner = uncheckedCast(entry);
+		if (owner.getLocker() == locker &&
+		    (!forWrite || owner.getForWrite()))
+		{
+		    if (logger.isLoggable(FINER)) {
+			logger.log(FINER,
+				   "lock {0}, {1}, forWrite:{2}" +
+				   "\n  returns null (already granted)",
+				   locker, key, forWrite);
+		    }
+		    return null;
+		}
+	    }
 	    LockAttemptResult<K> result;
-	    Map<K, Lock<K>> keyMap = getKeyMap(key);
 	    assert noteKeySync(key);
 	    try {
 		synchronized (keyMap) {
 		    Lock<K> lock = getLock(key, keyMap);
-		    result = lock.lock(locker, forWrite, false);
+		    result = lock.lock(locker, forWrite, false, newRequest);
 		}
 	    } finally {
 		assert noteKeyUnsync(key);
@@ -448,17 +543,8 @@ public class LockManager<K> {
 				   locker);
 			return null;
 		    }
-		    Lock<K> lock;
 		    K key = result.request.getKey();
-		    Map<K, Lock<K>> keyMap = getKeyMap(key);
-		    assert noteKeySync(key);
-		    try {
-			synchronized (keyMap) {
-			    lock = getLock(key, keyMap);
-			}
-		    } finally {
-			assert noteKeyUnsync(key);
-		    }
+		    Map<K, Object> keyMap = getKeyMap(key);
 		    long now = System.currentTimeMillis();
 		    long stop = locker.getLockTimeoutTime(now, lockTimeout);
 		    LockConflict<K> conflict = null;
@@ -472,6 +558,12 @@ public class LockManager<K> {
 			assert noteKeySync(key);
 			try {
 			    synchronized (keyMap) {
+				/*
+				 * Get the lock each time, since it may have
+				 * been removed and reused if this locker is no
+				 * longer waiting for it
+				 */
+				Lock<K> lock = getLock(key, keyMap);
 				LockRequest<K> owner = lock.getOwner(locker);
 				boolean upgrade = result.request.getUpgrade();
 				isOwner = (owner != null) &&
@@ -492,12 +584,12 @@ public class LockManager<K> {
 			}
 			if (isOwner) {
 			    if (conflict != null &&
-				(conflict.getType() ==
-				 LockConflictType.DEADLOCK))
+				conflict.getType().mustAbort())
 			    {
 				/*
-				 * Being the deadlock victim takes precedence
-				 * even if we have become the owner
+				 * Being the deadlock or preemption victim
+				 * takes precedence even if we have become the
+				 * owner
 				 */
 				break;
 			    }
@@ -529,12 +621,16 @@ public class LockManager<K> {
 				       result.request.getForWrite(),
 				       stop - now);
 			}
+			long waitStart = System.nanoTime();
 			try {
 			    locker.wait(stop - now);
 			} catch (InterruptedException e) {
 			    conflict = new LockConflict<K>(
 				LockConflictType.INTERRUPTED, result.conflict);
 			    /* Loop again to check owners and waiters */
+			} finally {
+			    ThreadWaitTimes.addLockWaitTime(
+				System.nanoTime() - waitStart);
 			}
 			now = System.currentTimeMillis();
 		    }
@@ -574,21 +670,48 @@ public class LockManager<K> {
     void releaseLockInternal(Locker<K> locker, K key, boolean downgrade) {
 	checkLockManager(locker);
 	List<Locker<K>> lockersToNotify = Collections.emptyList();
-	Map<K, Lock<K>> keyMap = getKeyMap(key);
-	assert noteKeySync(key);
-	try {
-	    synchronized (keyMap) {
-		/* Don't create the lock if it isn't present */
-		Lock<K> lock = keyMap.get(key);
-		if (lock != null) {
-		    lockersToNotify = lock.release(locker, downgrade);
-		    if (!lock.inUse(this)) {
-			keyMap.remove(key);
+	ConcurrentMap<K, Object> keyMap = getKeyMap(key);
+	while (true) {
+	    /* Try the uncontended fast path first */
+	    Object entry = keyMap.get(key);
+	    if (entry == null) {
+		/* Not locked */
+		return;
+	    } else if (entry instanceof LockRequest) {
+		LockRequest<K> owner = uncheckedCast(entry);
+		if (owner.getLocker() != locker ||
+		    (downgrade && !owner.getForWrite()))
+		{
+		    /* Not owned by this locker, or nothing to downgrade */
+		    return;
+		} else if (downgrade
+			   ? keyMap.replace(
+			       key, owner, locker.newLockRequest(key, false, false))
+			   : keyMap.remove(key, owner))
+		{
+		    return;
+		}
+		/* The lock became contended -- try again */
+		continue;
+	    }
+	    assert noteKeySync(key);
+	    try {
+		synchronized (keyMap) {
+		    /* Don't create the lock if it isn't present */
+		    entry = keyMap.get(key);
+		    if (entry instanceof Lock) {
+			Lock<K> lock = uncheckedCast(entry);
+			lockersToNotify = lock.release(locker, downgrade);
+			if (!lock.inUse(this)) {
+			    keyMap.remove(key);
+			    recycleLock(key, lock);
+			}
+			break;
 		    }
 		}
+	    } finally {
+		assert noteKeyUnsync(key);
 	    }
-	} finally {
-	    assert noteKeyUnsync(key);
 	}
 	for (Locker<K> newOwner : lockersToNotify) {
 	    logger.log(FINEST, "notify new owner {0}", newOwner);
@@ -744,6 +867,39 @@ public class LockManager<K> {
 
     /* -- Private methods -- */
 
+    /** Returns the index of the key map to use for the specified key. */
+    private int getKeyMapIndex(K key) {
+	/* Mask off the sign bit to get a positive value */
+	return (key.hashCode() & Integer.MAX_VALUE) % numKeyMaps;
+    }
+
+    /**
+     * Returns an unused lock for the specified key, reusing a pooled lock if
+     * one is available.  The lock on the associated key map should be held.
+     */
+    private Lock<K> newLock(K key) {
+	List<Lock<K>> pool = lockPools[getKeyMapIndex(key)];
+	int size = pool.size();
+	if (size == 0) {
+	    return new Lock<K>(key);
+	}
+	Lock<K> lock = pool.remove(size - 1);
+	lock.reset(key);
+	return lock;
+    }
+
+    /**
+     * Returns an unused lock that has been removed from the key map for the
+     * specified key to the pool, if there is room.  The lock on the
+     * associated key map should be held.
+     */
+    private void recycleLock(K key, Lock<K> lock) {
+	List<Lock<K>> pool = lockPools[getKeyMapIndex(key)];
+	if (pool.size() < MAX_POOLED_LOCKS) {
+	    pool.add(lock);
+	}
+    }
+
     /** Checks that the locker has this lock manager. */
     private void checkLockManager(Locker<K> locker) {
 	if (locker.getLockManager() != this) {
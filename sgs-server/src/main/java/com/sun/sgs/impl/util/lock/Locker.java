@@ -80,6 +80,21 @@ public abstract class Locker<K> {
 	return addCheckOverflow(now, lockTimeout);
     }
 
+    /**
+     * Returns the priority of this locker's lock requests.  Waiting requests
+     * are queued ahead of waiting requests from lockers with lower
+     * priorities, and a new request is not blocked by waiters with lower
+     * priorities.  Requests with equal priorities are serviced in the order
+     * that they arrive. <p>
+     *
+     * The default implementation returns {@code 0}.
+     *
+     * @return	the priority of this locker
+     */
+    protected int getPriority() {
+	return 0;
+    }
+
     /**
      * Creates a new lock request. <p>
      *
@@ -113,14 +128,16 @@ public abstract class Locker<K> {
     /**
      * Clears the conflict that should cause this locker's current request to
      * be denied.  If there is no conflict, then this method has no effect.  If
-     * the conflict is a deadlock, represented by a non-{@code null} return
-     * value from {@link #getConflict getConflict} with a {@code type} field
-     * equal to {@link LockConflictType#DEADLOCK DEADLOCK}, then the conflict
-     * cannot be cleared and {@code IllegalStateException} will be thrown. <p>
+     * the conflict is a deadlock or preemption, represented by a non-{@code
+     * null} return value from {@link #getConflict getConflict} with a {@code
+     * type} field equal to {@link LockConflictType#DEADLOCK DEADLOCK} or
+     * {@link LockConflictType#PREEMPTED PREEMPTED}, then the conflict cannot
+     * be cleared and {@code IllegalStateException} will be thrown. <p>
      *
      * The default implementation of this method does nothing.
      *
-     * @throws	IllegalStateException if the conflict is a deadlock
+     * @throws	IllegalStateException if the conflict is a deadlock or
+     *		preemption
      */
     protected void clearConflict() { }
 
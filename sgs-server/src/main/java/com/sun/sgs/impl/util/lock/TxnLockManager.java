@@ -39,7 +39,17 @@ import java.util.logging.Logger;
  * due to a conflict.  It selects as the deadlock victim the locker with the
  * latest requested start time.  The implementation does not deny requests that
  * would not result in deadlock.  When requests block, it services the requests
- * in the order that they arrive. <p>
+ * in order of the {@linkplain TxnLocker#getPriority priority} of their
+ * lockers, and in the order that they arrive for equal priorities. <p>
+ *
+ * When a request blocks on a locker with a lower priority and a later
+ * requested start time, that locker is preempted: it is given a conflict of
+ * type {@link LockConflictType#PREEMPTED PREEMPTED}, which causes its current
+ * and subsequent lock requests to fail so that its transaction aborts and
+ * releases its locks.  Since lockers for retried transactions keep their
+ * original requested start time and can be given increasing priorities, this
+ * bounds how long a frequently retried transaction can be starved by a
+ * stream of newer ones. <p>
  *
  * This class and its {@linkplain LockManager superclass} use the {@link
  * Logger} named {@code com.sun.sgs.impl.util.lock} to log information at the
@@ -119,6 +129,8 @@ public final class TxnLockManager<K> extends LockManager<K> {
 				   locker, key, forWrite, deadlockConflict);
 		    }
 		    conflict = deadlockConflict;
+		} else {
+		    maybePreempt((TxnLocker<K>) locker, conflict);
 		}
 	    } catch (RuntimeException e) {
 		if (logger.isLoggable(FINER)) {
@@ -141,6 +153,32 @@ public final class TxnLockManager<K> extends LockManager<K> {
 
     /* -- Other methods -- */
 
+    /**
+     * Preempts the locker that blocked a request if the requesting locker has
+     * a higher priority and an earlier requested start time.
+     *
+     * @param	locker the locker whose request blocked
+     * @param	conflict the conflict that blocked the request
+     */
+    private void maybePreempt(TxnLocker<K> locker, LockConflict<K> conflict) {
+	if (conflict.getType() != LockConflictType.BLOCKED) {
+	    return;
+	}
+	TxnLocker<K> conflicting =
+	    (TxnLocker<K>) conflict.getConflictingLocker();
+	if (conflicting != locker &&
+	    locker.getPriority() > conflicting.getPriority() &&
+	    (locker.getRequestedStartTime() <
+	     conflicting.getRequestedStartTime()))
+	{
+	    if (logger.isLoggable(FINER)) {
+		logger.log(FINER, "lock {0} preempts {1}", locker, conflicting);
+	    }
+	    conflicting.setConflict(
+		new LockConflict<K>(LockConflictType.PREEMPTED, locker));
+	}
+    }
+
     /** Throws IllegalArgumentException if the argument is not a TxnLocker. */
     private static void checkTxnLocker(Locker<?> locker) {
 	if (locker != null && !(locker instanceof TxnLocker<?>)) {
@@ -302,7 +340,7 @@ public final class TxnLockManager<K> extends LockManager<K> {
 		    waitingFor = null;
 		} else {
 		    K key = result.request.getKey();
-		    Map<K, Lock<K>> keyMap = getKeyMap(key);
+		    Map<K, Object> keyMap = getKeyMap(key);
 		    assert TxnLockManager.this.noteKeySync(key);
 		    try {
 			synchronized (keyMap) {
@@ -48,6 +48,9 @@ public class TxnLocker<K> extends BasicLocker<K> {
      */
     protected final long requestedStartTime;
 
+    /** The priority of this locker's lock requests. */
+    private final int priority;
+
     /**
      * A conflict that should cause this transaction's request to be
      * denied, or {@code null}.  This value is cleared after the conflict
@@ -72,6 +75,29 @@ public class TxnLocker<K> extends BasicLocker<K> {
     public TxnLocker(TxnLockManager<K> lockManager,
 		     Transaction txn,
 		     long requestedStartTime)
+    {
+	this(lockManager, txn, requestedStartTime, 0);
+    }
+
+    /**
+     * Creates an instance of this class with the specified priority.  A
+     * locker with a higher priority is queued ahead of waiters with lower
+     * priorities, and will preempt conflicting lockers with lower priorities
+     * and later requested start times.
+     *
+     * @param	lockManager the lock manager for this locker
+     * @param	txn the associated transaction
+     * @param	requestedStartTime the time in milliseconds that the task
+     *		associated with the transaction was originally
+     *		requested to start
+     * @param	priority the priority of this locker's lock requests
+     * @throws	IllegalArgumentException if {@code requestedStartTime} or
+     *		{@code priority} is less than {@code 0}
+     */
+    public TxnLocker(TxnLockManager<K> lockManager,
+		     Transaction txn,
+		     long requestedStartTime,
+		     int priority)
     {
 	super(lockManager);
 	checkNull("txn", txn);
@@ -79,8 +105,13 @@ public class TxnLocker<K> extends BasicLocker<K> {
 	    throw new IllegalArgumentException(
 		"The requestedStartTime must not be less than 0");
 	}
+	if (priority < 0) {
+	    throw new IllegalArgumentException(
+		"The priority must not be less than 0");
+	}
 	this.txn = txn;
 	this.requestedStartTime = requestedStartTime;
+	this.priority = priority;
     }
 
     /* -- Public methods -- */
@@ -107,6 +138,17 @@ public class TxnLocker<K> extends BasicLocker<K> {
 
     /* -- Protected methods -- */
 
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation returns the priority specified in the
+     * constructor.
+     */
+    @Override
+    protected int getPriority() {
+	return priority;
+    }
+
     /**
      * {@inheritDoc} <p>
      *
@@ -146,7 +188,7 @@ public class TxnLocker<K> extends BasicLocker<K> {
 	assert lockManager.checkAllowLockerSync(this);
 	synchronized (this) {
 	    if (conflict != null) {
-		if (conflict.type == LockConflictType.DEADLOCK) {
+		if (conflict.type.mustAbort()) {
 		    throw new IllegalStateException(
 			"Transaction " + this +
 			" must abort due to conflict: " + conflict);
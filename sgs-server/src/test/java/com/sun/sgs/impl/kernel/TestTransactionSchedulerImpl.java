@@ -34,13 +34,24 @@ import com.sun.sgs.kernel.schedule.SchedulerRetryAction;
 import com.sun.sgs.kernel.schedule.SchedulerRetryPolicy;
 
 import com.sun.sgs.service.Transaction;
+import com.sun.sgs.service.TransactionListener;
 import com.sun.sgs.service.TransactionProxy;
 
 import com.sun.sgs.test.util.SgsTestNode;
 import com.sun.sgs.test.util.TestAbstractKernelRunnable;
 import com.sun.sgs.tools.test.FilteredNameRunner;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.lang.reflect.Field;
 
@@ -69,11 +80,17 @@ public class TestTransactionSchedulerImpl {
 
     /** Per-test initialization */
     @Before public void startup() throws Exception {
+        startup(new Properties());
+    }
+
+    /** Starts the server node with the given additional properties */
+    private void startup(Properties extraProperties) throws Exception {
         Properties properties =
             SgsTestNode.getDefaultProperties("TestTransactionSchedulerImpl",
 					     null, null);
         properties.setProperty(StandardProperties.NODE_TYPE, 
                                NodeType.coreServerNode.name());
+        properties.putAll(extraProperties);
         serverNode = new SgsTestNode("TestTransactionSchedulerImpl",
                                      null, properties);
         txnScheduler = (TransactionSchedulerImpl) serverNode.
@@ -284,6 +301,53 @@ public class TestTransactionSchedulerImpl {
         assertEquals(10, runCount.get());
     }
 
+    @Test public void scheduleQueuedTasksConcurrentProducers()
+        throws Exception
+    {
+        final TaskQueue queue = txnScheduler.createTaskQueue();
+        final int producers = 4;
+        final int tasksPerProducer = 250;
+        final AtomicInteger runCount = new AtomicInteger(0);
+        final AtomicInteger running = new AtomicInteger(0);
+        final int[] nextExpected = new int[producers];
+        final AtomicInteger failures = new AtomicInteger(0);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < tasksPerProducer; i++) {
+                        final int seq = i;
+                        queue.addTask(new TestAbstractKernelRunnable() {
+                                public void run() {
+                                    if (running.incrementAndGet() != 1 ||
+                                        nextExpected[producer] != seq)
+                                    {
+                                        failures.incrementAndGet();
+                                    }
+                                    nextExpected[producer]++;
+                                    runCount.incrementAndGet();
+                                    running.decrementAndGet();
+                                }
+                            }, taskOwner);
+                    }
+                }
+            };
+            threads[p].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < 50; i++) {
+            if (runCount.get() == producers * tasksPerProducer) {
+                break;
+            }
+            Thread.sleep(100L);
+        }
+        assertEquals(producers * tasksPerProducer, runCount.get());
+        assertEquals(0, failures.get());
+    }
+
     @Test (expected=NullPointerException.class)
         public void scheduleQueuedTasksNull() throws Exception {
         TaskQueue queue = txnScheduler.createTaskQueue();
@@ -296,6 +360,104 @@ public class TestTransactionSchedulerImpl {
         queue.addTask(new DependentTask(null), null);
     }
 
+    /**
+     * Test batching of queued tasks.
+     */
+
+    @Test public void scheduleBatchedQueuedTasks() throws Exception {
+        restartWithBatchSize(4);
+        TaskQueue queue = txnScheduler.createTaskQueue();
+        CountDownLatch added = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(9);
+        Map<Integer, Transaction> txns =
+            new ConcurrentHashMap<Integer, Transaction>();
+        queue.addTask(new BatchTask(0, txns, added, done, false), taskOwner);
+        for (int i = 1; i < 9; i++) {
+            queue.addTask(new BatchTask(i, txns, null, done, false),
+                          taskOwner);
+        }
+        added.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        Set<Transaction> batched = new HashSet<Transaction>();
+        for (int i = 1; i < 9; i++) {
+            batched.add(txns.get(i));
+        }
+        assertTrue("Expected batched transactions: " + batched.size(),
+                   batched.size() < 8);
+    }
+
+    @Test public void scheduleBatchedQueuedTasksFailure() throws Exception {
+        restartWithBatchSize(4);
+        TaskQueue queue = txnScheduler.createTaskQueue();
+        CountDownLatch added = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        Map<Integer, Transaction> txns =
+            new ConcurrentHashMap<Integer, Transaction>();
+        queue.addTask(new BatchTask(0, txns, added, done, false), taskOwner);
+        for (int i = 1; i < 5; i++) {
+            queue.addTask(new BatchTask(i, txns, null, done, i == 2),
+                          taskOwner);
+        }
+        added.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        // the failed batch should have been run again one task at a time
+        Set<Transaction> individual = new HashSet<Transaction>();
+        individual.add(txns.get(1));
+        individual.add(txns.get(3));
+        individual.add(txns.get(4));
+        assertEquals(3, individual.size());
+    }
+
+    @Test public void scheduleBatchedQueuedTasksRetryLater()
+        throws Exception
+    {
+        restartWithBatchSize(4);
+        replaceRetryPolicy(createRetryPolicy(SchedulerRetryAction.RETRY_LATER));
+        TaskQueue queue = txnScheduler.createTaskQueue();
+        final CountDownLatch added = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<Integer> runs =
+            Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger overlaps = new AtomicInteger(0);
+        // fails in the batch and in its first individual run
+        final AtomicInteger failures = new AtomicInteger(2);
+        for (int i = 0; i < 5; i++) {
+            final int taskNumber = i;
+            queue.addTask(new TestAbstractKernelRunnable() {
+                    public void run() throws Exception {
+                        if (running.incrementAndGet() != 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        try {
+                            if (taskNumber == 0) {
+                                added.await();
+                            }
+                            runs.add(taskNumber);
+                            if (taskNumber == 1 &&
+                                failures.getAndDecrement() > 0)
+                            {
+                                throw new RuntimeException("task failed");
+                            }
+                            if (taskNumber == 4) {
+                                done.countDown();
+                            }
+                        } finally {
+                            running.decrementAndGet();
+                        }
+                    }
+                }, taskOwner);
+        }
+        added.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+        // the tasks behind the retried task only run, in order, after the
+        // retry has succeeded
+        int size = runs.size();
+        assertEquals(Arrays.asList(1, 1, 2, 3, 4), runs.subList(size - 5, size));
+        assertEquals(1, Collections.frequency(runs, 2));
+    }
+
     /**
      * Test retry policy
      */
@@ -352,6 +514,14 @@ public class TestTransactionSchedulerImpl {
      * Utility methods.
      */
 
+    private void restartWithBatchSize(int batchSize) throws Exception {
+        shutdown();
+        Properties properties = new Properties();
+        properties.setProperty(TransactionSchedulerImpl.BATCH_SIZE_PROPERTY,
+                               String.valueOf(batchSize));
+        startup(properties);
+    }
+
     private void replaceRetryPolicy(SchedulerRetryPolicy policy)
             throws Exception {
         Field policyField =
@@ -425,6 +595,47 @@ public class TestTransactionSchedulerImpl {
         }
     }
 
+    private class BatchTask implements KernelRunnable {
+        private final int taskNumber;
+        private final Map<Integer, Transaction> txns;
+        private final CountDownLatch wait;
+        private final CountDownLatch done;
+        private final boolean fail;
+        BatchTask(int taskNumber, Map<Integer, Transaction> txns,
+                  CountDownLatch wait, CountDownLatch done, boolean fail)
+        {
+            this.taskNumber = taskNumber;
+            this.txns = txns;
+            this.wait = wait;
+            this.done = done;
+            this.fail = fail;
+        }
+        public String getBaseTaskType() {
+            return BatchTask.class.getName();
+        }
+        public void run() throws Exception {
+            if (wait != null) {
+                wait.await();
+            }
+            txns.put(taskNumber, serverNode.getProxy().getCurrentTransaction());
+            if (fail) {
+                throw new RuntimeException("task failed");
+            }
+            serverNode.getProxy().getCurrentTransaction().registerListener(
+                new TransactionListener() {
+                    public void beforeCompletion() { }
+                    public void afterCompletion(boolean committed) {
+                        if (committed) {
+                            done.countDown();
+                        }
+                    }
+                    public String getTypeName() {
+                        return BatchTask.class.getName();
+                    }
+                });
+        }
+    }
+
     public static class DependentTask implements KernelRunnable {
         private static final Object lock = new Object();
         private static boolean isRunning = false;
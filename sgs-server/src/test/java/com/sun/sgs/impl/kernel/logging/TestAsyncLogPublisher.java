@@ -0,0 +1,284 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.kernel.logging;
+
+import com.sun.sgs.impl.kernel.logging.AsyncLogPublisher.FullPolicy;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the {@code AsyncLogPublisher} class.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestAsyncLogPublisher {
+
+    private AsyncLogPublisher publisher;
+
+    @After
+    public void tearDown() {
+        if (publisher != null) {
+            publisher.shutdown();
+            publisher = null;
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testConstructorZeroBufferSize() {
+        new AsyncLogPublisher(0, FullPolicy.BLOCK);
+    }
+
+    @Test(expected=NullPointerException.class)
+    public void testConstructorNullPolicy() {
+        new AsyncLogPublisher(16, null);
+    }
+
+    @Test
+    public void testPublishInOrder() {
+        publisher = new AsyncLogPublisher(16, FullPolicy.BLOCK);
+        CollectingHandler handler = new CollectingHandler();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(publisher.offer(handler, record(i)));
+        }
+        publisher.flush();
+        assertEquals(1000, handler.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(String.valueOf(i), handler.get(i).getMessage());
+        }
+        assertEquals(1000, publisher.getPublishedCount());
+        assertEquals(0, publisher.getDroppedCount());
+        assertTrue(handler.flushCount() > 0);
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        publisher = new AsyncLogPublisher(4, FullPolicy.DROP);
+        BlockingHandler handler = new BlockingHandler();
+        /* The first record occupies the consumer */
+        assertTrue(publisher.offer(handler, record(0)));
+        handler.started.await();
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(publisher.offer(handler, record(i)));
+        }
+        assertFalse(publisher.offer(handler, record(5)));
+        assertFalse(publisher.offer(handler, record(6)));
+        assertEquals(2, publisher.getDroppedCount());
+        handler.release.countDown();
+        publisher.flush();
+        assertEquals(5, handler.size());
+        assertEquals(5, publisher.getPublishedCount());
+    }
+
+    @Test
+    public void testBlockWhenFull() throws Exception {
+        publisher = new AsyncLogPublisher(4, FullPolicy.BLOCK);
+        final BlockingHandler handler = new BlockingHandler();
+        assertTrue(publisher.offer(handler, record(0)));
+        handler.started.await();
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(publisher.offer(handler, record(i)));
+        }
+        Thread producer = new Thread() {
+            public void run() {
+                publisher.offer(handler, record(5));
+            }
+        };
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+        handler.release.countDown();
+        producer.join(10000);
+        assertFalse(producer.isAlive());
+        publisher.flush();
+        assertEquals(6, handler.size());
+        assertEquals(0, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void testMultipleProducers() throws Exception {
+        publisher = new AsyncLogPublisher(64, FullPolicy.BLOCK);
+        final CollectingHandler handler = new CollectingHandler();
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            producers[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 2500; i++) {
+                        publisher.offer(handler, record(i));
+                    }
+                }
+            };
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        publisher.flush();
+        assertEquals(10000, handler.size());
+        assertEquals(10000, publisher.getPublishedCount());
+    }
+
+    @Test
+    public void testOfferAfterShutdown() {
+        publisher = new AsyncLogPublisher(16, FullPolicy.BLOCK);
+        CollectingHandler handler = new CollectingHandler();
+        publisher.offer(handler, record(0));
+        publisher.shutdown();
+        assertEquals(1, handler.size());
+        assertFalse(publisher.offer(handler, record(1)));
+        assertEquals(1, publisher.getDroppedCount());
+        publisher = null;
+    }
+
+    @Test
+    public void testBlockAfterConsumerDies() throws Exception {
+        publisher = new AsyncLogPublisher(4, FullPolicy.BLOCK);
+        final FailingHandler handler = new FailingHandler();
+        assertTrue(publisher.offer(handler, record(0)));
+        handler.started.await();
+        handler.release.countDown();
+        /* More records than the buffer holds, to fill it */
+        Thread producer = new Thread() {
+            public void run() {
+                for (int i = 1; i <= 10; i++) {
+                    publisher.offer(handler, record(i));
+                }
+                publisher.flush();
+            }
+        };
+        producer.start();
+        producer.join(10000);
+        assertFalse(producer.isAlive());
+        assertEquals(10, handler.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(String.valueOf(i + 1),
+                         handler.get(i).getMessage());
+        }
+        assertEquals(0, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void testFlushAfterConsumerDies() throws Exception {
+        publisher = new AsyncLogPublisher(16, FullPolicy.BLOCK);
+        FailingHandler handler = new FailingHandler();
+        assertTrue(publisher.offer(handler, record(0)));
+        handler.started.await();
+        /* These records are still queued when the consumer dies */
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(publisher.offer(handler, record(i)));
+        }
+        handler.release.countDown();
+        Thread flusher = new Thread() {
+            public void run() {
+                publisher.flush();
+            }
+        };
+        flusher.start();
+        flusher.join(10000);
+        assertFalse(flusher.isAlive());
+        assertEquals(3, handler.size());
+        assertEquals(4, publisher.getPublishedCount());
+    }
+
+    /* -- Other methods and classes -- */
+
+    private static LogRecord record(int i) {
+        return new LogRecord(Level.INFO, String.valueOf(i));
+    }
+
+    /** A handler that collects the records published to it. */
+    private static class CollectingHandler extends Handler {
+        private final List<LogRecord> records = new ArrayList<LogRecord>();
+        private int flushes = 0;
+        public synchronized void publish(LogRecord record) {
+            records.add(record);
+        }
+        public synchronized void flush() {
+            flushes++;
+        }
+        public void close() { }
+        synchronized int size() {
+            return records.size();
+        }
+        synchronized LogRecord get(int i) {
+            return records.get(i);
+        }
+        synchronized int flushCount() {
+            return flushes;
+        }
+    }
+
+    /**
+     * A handler that blocks publishing the first record until it is
+     * released.
+     */
+    private static class BlockingHandler extends CollectingHandler {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        public void publish(LogRecord record) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            super.publish(record);
+        }
+    }
+
+    /**
+     * A handler that blocks publishing the first record until it is
+     * released, and then throws an {@code Error}, which stops the consumer
+     * thread.
+     */
+    private static class FailingHandler extends CollectingHandler {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        private boolean failed = false;
+        public void publish(LogRecord record) {
+            synchronized (this) {
+                if (failed) {
+                    super.publish(record);
+                    return;
+                }
+                failed = true;
+            }
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            throw new Error("Handler failed");
+        }
+    }
+}
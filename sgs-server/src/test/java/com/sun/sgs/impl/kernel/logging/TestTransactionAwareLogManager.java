@@ -0,0 +1,142 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.kernel.logging;
+
+import com.sun.sgs.impl.kernel.StandardProperties;
+import com.sun.sgs.test.util.DummyTransaction;
+import com.sun.sgs.test.util.DummyTransactionProxy;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test the {@code TransactionAwareLogManager} class with asynchronous
+ * logging enabled.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestTransactionAwareLogManager {
+
+    /** The package of the application listener. */
+    private static final String APP_PACKAGE = "test.logging.app";
+
+    @Test
+    public void testAsyncRecordSource() {
+        Properties properties = new Properties();
+        properties.setProperty(StandardProperties.APP_LISTENER,
+                               APP_PACKAGE + ".Listener");
+        properties.setProperty(TransactionAwareLogManager.ASYNC_PROPERTY,
+                               "true");
+        TransactionAwareLogManager manager = new TransactionAwareLogManager();
+        manager.configure(properties, new DummyTransactionProxy());
+        Logger logger = manager.getLogger(APP_PACKAGE + ".Logger");
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.INFO);
+        CollectingHandler handler = new CollectingHandler();
+        logger.addHandler(handler);
+        logger.info("async");
+        for (Handler h : logger.getHandlers()) {
+            h.flush();
+        }
+        assertEquals(1, manager.getAsyncPublishedRecordCount());
+        assertEquals(1, handler.records.size());
+        LogRecord record = handler.records.get(0);
+        assertEquals("async", record.getMessage());
+        assertEquals(TestTransactionAwareLogManager.class.getName(),
+                     record.getSourceClassName());
+        assertEquals("testAsyncRecordSource", record.getSourceMethodName());
+    }
+
+    @Test
+    public void testBufferedRecordSource() throws Exception {
+        checkBufferedRecordSource(false);
+    }
+
+    @Test
+    public void testAsyncBufferedRecordSource() throws Exception {
+        checkBufferedRecordSource(true);
+    }
+
+    /* -- Other methods and classes -- */
+
+    /**
+     * Checks that a record logged in a transaction, and published when the
+     * transaction commits, names the method that logged it as its source.
+     */
+    private void checkBufferedRecordSource(boolean async) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(StandardProperties.APP_LISTENER,
+                               APP_PACKAGE + ".Listener");
+        properties.setProperty(TransactionAwareLogManager.ASYNC_PROPERTY,
+                               String.valueOf(async));
+        DummyTransactionProxy proxy = new DummyTransactionProxy();
+        TransactionAwareLogManager manager = new TransactionAwareLogManager();
+        manager.configure(properties, proxy);
+        Logger logger = manager.getLogger(
+            APP_PACKAGE + ".Buffered" + (async ? "Async" : "") + "Logger");
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.INFO);
+        CollectingHandler handler = new CollectingHandler();
+        logger.addHandler(handler);
+        DummyTransaction txn = new DummyTransaction();
+        proxy.setCurrentTransaction(txn);
+        logger.info("buffered");
+        assertEquals(0, handler.records.size());
+        commit(txn);
+        for (Handler h : logger.getHandlers()) {
+            h.flush();
+        }
+        assertEquals(1, handler.records.size());
+        LogRecord record = handler.records.get(0);
+        assertEquals("buffered", record.getMessage());
+        assertEquals(TestTransactionAwareLogManager.class.getName(),
+                     record.getSourceClassName());
+        assertEquals("checkBufferedRecordSource",
+                     record.getSourceMethodName());
+    }
+
+    /**
+     * Commits the transaction, from a method other than the one that
+     * logged the record.
+     */
+    private static void commit(DummyTransaction txn) throws Exception {
+        txn.commit();
+    }
+
+    /** A handler that collects the records published to it. */
+    private static class CollectingHandler extends Handler {
+        final List<LogRecord> records = new ArrayList<LogRecord>();
+        public synchronized void publish(LogRecord record) {
+            records.add(record);
+        }
+        public void flush() { }
+        public void close() { }
+    }
+}
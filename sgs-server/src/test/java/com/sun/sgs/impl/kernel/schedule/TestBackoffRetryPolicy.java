@@ -0,0 +1,205 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.kernel.schedule;
+
+import com.sun.sgs.app.ExceptionRetryStatus;
+import com.sun.sgs.app.ResourceUnavailableException;
+import com.sun.sgs.app.TransactionConflictException;
+import com.sun.sgs.app.TransactionTimeoutException;
+import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.kernel.schedule.SchedulerRetryAction;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.util.Properties;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test for the {@code BackoffRetryPolicy} class in isolation.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestBackoffRetryPolicy {
+
+    private BackoffRetryPolicy policy;
+    private ScheduledTask task;
+
+    @Before
+    public void setup() {
+        Properties emptyProps = new Properties();
+        policy = new BackoffRetryPolicy(emptyProps);
+
+        task = EasyMock.createMock(ScheduledTask.class);
+    }
+
+    @After
+    public void tearDown() {
+        policy = null;
+        task = null;
+    }
+
+    private void setupTask(Throwable result, int tryCount) {
+        EasyMock.expect(task.getLastFailure()).andStubReturn(result);
+        EasyMock.expect(task.getTryCount()).andStubReturn(tryCount);
+        EasyMock.expect(task.getStartTime()).andStubReturn(
+                System.currentTimeMillis());
+        EasyMock.expect(task.getTimeout()).andStubReturn(100L);
+        EasyMock.expect(task.isRecurring()).andStubReturn(false);
+    }
+
+    private void replayMocks() {
+        EasyMock.replay(task);
+    }
+
+    private void verifyMocks() {
+        EasyMock.verify(task);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNullTask() {
+        policy.getRetryAction(null);
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testNullResult() {
+        EasyMock.expect(task.getLastFailure()).andStubReturn(null);
+        replayMocks();
+        policy.getRetryAction(task);
+    }
+
+    @Test
+    public void testRetryableFalseResult() {
+        setupTask(new RetryableException(false), 1);
+        replayMocks();
+
+        // verify
+        SchedulerRetryAction action = policy.getRetryAction(task);
+        Assert.assertEquals(SchedulerRetryAction.DROP, action);
+        verifyMocks();
+    }
+
+    @Test
+    public void testNotRetryableException() {
+        setupTask(new Exception(), 5);
+        replayMocks();
+
+        // verify
+        SchedulerRetryAction action = policy.getRetryAction(task);
+        Assert.assertEquals(SchedulerRetryAction.DROP, action);
+        verifyMocks();
+    }
+
+    @Test
+    public void testRetryableFirstTry() {
+        setupTask(new TransactionConflictException("conflict"), 1);
+        replayMocks();
+
+        // verify
+        SchedulerRetryAction action = policy.getRetryAction(task);
+        Assert.assertEquals(SchedulerRetryAction.RETRY_NOW, action);
+        verifyMocks();
+    }
+
+    @Test
+    public void testConflictBacksOff() {
+        setupTask(new TransactionConflictException("conflict"), 3);
+        task.setRetryTime(EasyMock.anyLong());
+        replayMocks();
+
+        // verify
+        SchedulerRetryAction action = policy.getRetryAction(task);
+        Assert.assertEquals(SchedulerRetryAction.RETRY_LATER, action);
+        verifyMocks();
+    }
+
+    @Test
+    public void testTimeoutBacksOffAndDoublesTimeout() {
+        setupTask(new TransactionTimeoutException("timed out"), 2);
+        task.setTimeout(100L * 2);
+        task.setRetryTime(EasyMock.anyLong());
+        replayMocks();
+
+        // verify
+        SchedulerRetryAction action = policy.getRetryAction(task);
+        Assert.assertEquals(SchedulerRetryAction.RETRY_LATER, action);
+        verifyMocks();
+    }
+
+    @Test
+    public void testDelayLimitedByCause() {
+        Throwable conflict = new TransactionConflictException("conflict");
+        Throwable timeout = new TransactionTimeoutException("timeout");
+        Throwable resource = new ResourceUnavailableException("resource");
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(policy.getDelay(conflict, 1, 0) <=
+                              BackoffRetryPolicy.DEFAULT_CONFLICT_DELAY);
+            Assert.assertTrue(policy.getDelay(timeout, 1, 0) <=
+                              BackoffRetryPolicy.DEFAULT_TIMEOUT_DELAY);
+            Assert.assertTrue(policy.getDelay(resource, 1, 0) <=
+                              BackoffRetryPolicy.DEFAULT_RESOURCE_DELAY);
+        }
+    }
+
+    @Test
+    public void testDelayGrowsAndIsCapped() {
+        Throwable conflict = new TransactionConflictException("conflict");
+        long max = 0;
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.getDelay(conflict, 4, 0);
+            Assert.assertTrue(delay >= 0);
+            Assert.assertTrue(delay <=
+                              BackoffRetryPolicy.DEFAULT_CONFLICT_DELAY * 8);
+            max = Math.max(max, delay);
+            Assert.assertTrue(policy.getDelay(conflict, 100, 0) <=
+                              BackoffRetryPolicy.DEFAULT_MAX_DELAY);
+        }
+        Assert.assertTrue(max > BackoffRetryPolicy.DEFAULT_CONFLICT_DELAY);
+    }
+
+    @Test
+    public void testOldTasksRetrySooner() {
+        Throwable conflict = new TransactionConflictException("conflict");
+        long age = BackoffRetryPolicy.DEFAULT_AGE_THRESHOLD * 3;
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(policy.getDelay(conflict, 100, age) <=
+                              BackoffRetryPolicy.DEFAULT_MAX_DELAY / 4);
+        }
+    }
+
+    private static class RetryableException extends Exception
+            implements ExceptionRetryStatus {
+
+        private final boolean retryable;
+
+        public RetryableException(boolean retryable) {
+            this.retryable = retryable;
+        }
+
+        public boolean shouldRetry() {
+            return retryable;
+        }
+
+    }
+
+}
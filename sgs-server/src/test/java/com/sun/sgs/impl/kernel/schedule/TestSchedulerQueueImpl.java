@@ -23,7 +23,9 @@ package com.sun.sgs.impl.kernel.schedule;
 
 import com.sun.sgs.kernel.schedule.ScheduledTask;
 import com.sun.sgs.kernel.schedule.SchedulerQueue;
+import com.sun.sgs.kernel.schedule.SchedulerRetryAction;
 import com.sun.sgs.app.TaskRejectedException;
+import com.sun.sgs.app.TransactionConflictException;
 
 import com.sun.sgs.auth.Identity;
 
@@ -491,6 +493,47 @@ public class TestSchedulerQueueImpl {
         assertNull(schedulerQueue.getNextTask(false));
     }
 
+    @Test public void addAndConsumeTaskRetryDelayed() throws Exception {
+        SchedulerQueue queue = getQueueInstance();
+        ScheduledTask task = new ScheduledTaskImpl();
+        // shorter than the threshold for delaying tasks by start time
+        task.setRetryTime(System.currentTimeMillis() +
+                          TimedTaskHandler.FUTURE_THRESHOLD / 2);
+        queue.addTask(task);
+        assertNull(queue.getNextTask(false));
+        Thread.sleep(100);
+        assertEquals(task, queue.getNextTask(false));
+    }
+
+    @Test public void addAndConsumeTaskRetryPast() throws Exception {
+        SchedulerQueue queue = getQueueInstance();
+        ScheduledTask task = new ScheduledTaskImpl();
+        task.setRetryTime(System.currentTimeMillis() - 100);
+        queue.addTask(task);
+        assertEquals(task, queue.getNextTask(false));
+    }
+
+    @Test (timeout=5000)
+        public void conflictRetryRunsAfterDelay() throws Exception {
+        SchedulerQueue queue = getQueueInstance();
+        BackoffRetryPolicy policy = new BackoffRetryPolicy(new Properties());
+        for (int i = 0; i < 20; i++) {
+            ScheduledTaskImpl task = new ScheduledTaskImpl();
+            task.lastFailure = new TransactionConflictException("conflict");
+            // the third backoff, which delays by up to 8 ms
+            task.tryCount = BackoffRetryPolicy.DEFAULT_IMMEDIATE_RETRIES + 3;
+            assertEquals(SchedulerRetryAction.RETRY_LATER,
+                         policy.getRetryAction(task));
+            long retryTime = task.getNextRunTime();
+            queue.addTask(task);
+            assertEquals(task, queue.getNextTask(true));
+            assertTrue("Retried " +
+                       (retryTime - System.currentTimeMillis()) +
+                       " ms early",
+                       System.currentTimeMillis() >= retryTime);
+        }
+    }
+
     /**
      * Test scale through number of tasks and number of threads.
      */
@@ -628,6 +671,8 @@ public class TestSchedulerQueueImpl {
         private final long start;
         private final long period;
         private long timeout = 100;
+        private volatile long retryTime = 0;
+        private int tryCount = 0;
         private Throwable lastFailure = null;
         private RecurringTaskHandle handle = null;
         private boolean cancelled = false;
@@ -657,6 +702,10 @@ public class TestSchedulerQueueImpl {
         public Identity getOwner() { return owner; }
         public Priority getPriority() { return Priority.getDefaultPriority(); }
         public long getStartTime() { return start; }
+        public long getNextRunTime() { return Math.max(start, retryTime); }
+        public void setRetryTime(long retryTime) {
+            this.retryTime = retryTime;
+        }
         public long getPeriod() { return period; }
         public long getTimeout() { return timeout; }
         public Throwable getLastFailure() { return lastFailure; }
@@ -666,7 +715,7 @@ public class TestSchedulerQueueImpl {
         public void setTimeout(long timeout) {
             throw new UnsupportedOperationException("not supported");
         }
-        public int getTryCount() { return 0; }
+        public int getTryCount() { return tryCount; }
         public boolean isRecurring() { return period != NON_RECURRING; }
         void setRecurringTaskHandle(RecurringTaskHandle handle) {
             this.handle = handle;
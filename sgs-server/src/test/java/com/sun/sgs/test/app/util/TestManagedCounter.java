@@ -0,0 +1,195 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.app.util;
+
+import java.util.Properties;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.DataManager;
+import com.sun.sgs.app.util.ManagedCounter;
+import com.sun.sgs.app.util.ManagedCounter.Operation;
+import com.sun.sgs.auth.Identity;
+import com.sun.sgs.kernel.TransactionScheduler;
+import com.sun.sgs.test.util.SgsTestNode;
+import com.sun.sgs.test.util.TestAbstractKernelRunnable;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+
+/**
+ * Test the {@link ManagedCounter} class.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestManagedCounter extends Assert {
+
+    private static SgsTestNode serverNode;
+    private static TransactionScheduler txnScheduler;
+    private static Identity taskOwner;
+
+    /**
+     * Test management.
+     */
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+	Properties props = SgsTestNode.getDefaultProperties(
+	    "TestManagedCounter", null, SgsTestNode.DummyAppListener.class);
+	props.setProperty("com.sun.sgs.txn.timeout", "10000000");
+	serverNode = new SgsTestNode("TestManagedCounter", null, props);
+	txnScheduler = serverNode.getSystemRegistry().getComponent(
+	    TransactionScheduler.class);
+	taskOwner = serverNode.getProxy().getCurrentOwner();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+	serverNode.shutdown(true);
+    }
+
+    @Test
+    public void testConstructorIllegalArguments() throws Exception {
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() throws Exception {
+		try {
+		    new ManagedCounter(null, 1);
+		    fail("Expected NullPointerException");
+		} catch (NullPointerException e) {
+		}
+		try {
+		    new ManagedCounter(Operation.SUM, 0);
+		    fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+	    }
+	}, taskOwner);
+    }
+
+    @Test
+    public void testInitialValues() throws Exception {
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() throws Exception {
+		DataManager dm = AppContext.getDataManager();
+		ManagedCounter counter = new ManagedCounter();
+		assertEquals(Operation.SUM, counter.getOperation());
+		assertEquals(ManagedCounter.DEFAULT_NUM_SHARDS,
+			     counter.getNumShards());
+		assertEquals(0, counter.get());
+		dm.removeObject(counter);
+		counter = new ManagedCounter(Operation.MAX, 3);
+		assertEquals(Long.MIN_VALUE, counter.get());
+		dm.removeObject(counter);
+		counter = new ManagedCounter(Operation.MIN, 3);
+		assertEquals(Long.MAX_VALUE, counter.get());
+		dm.removeObject(counter);
+	    }
+	}, taskOwner);
+    }
+
+    @Test
+    public void testSumAcrossTasks() throws Exception {
+	final String name = "testSumAcrossTasks";
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() throws Exception {
+		ManagedCounter counter = new ManagedCounter(Operation.SUM, 4);
+		counter.increment();
+		AppContext.getDataManager().setBinding(name, counter);
+	    }
+	}, taskOwner);
+	for (int i = 0; i < 20; i++) {
+	    txnScheduler.runTask(new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+		    ManagedCounter counter = (ManagedCounter)
+			AppContext.getDataManager().getBinding(name);
+		    counter.add(5);
+		    counter.decrement();
+		}
+	    }, taskOwner);
+	}
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() throws Exception {
+		DataManager dm = AppContext.getDataManager();
+		ManagedCounter counter =
+		    (ManagedCounter) dm.getBinding(name);
+		assertEquals(81, counter.get());
+		dm.removeBinding(name);
+		dm.removeObject(counter);
+	    }
+	}, taskOwner);
+    }
+
+    @Test
+    public void testMaxAndMinAcrossTasks() throws Exception {
+	final long[] values = { 7, -3, 12, 0, 5, 12, -8 };
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() throws Exception {
+		DataManager dm = AppContext.getDataManager();
+		dm.setBinding("max", new ManagedCounter(Operation.MAX, 3));
+		dm.setBinding("min", new ManagedCounter(Operation.MIN, 3));
+	    }
+	}, taskOwner);
+	for (final long value : values) {
+	    txnScheduler.runTask(new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+		    DataManager dm = AppContext.getDataManager();
+		    ((ManagedCounter) dm.getBinding("max")).accumulate(value);
+		    ((ManagedCounter) dm.getBinding("min")).accumulate(value);
+		}
+	    }, taskOwner);
+	}
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() throws Exception {
+		DataManager dm = AppContext.getDataManager();
+		ManagedCounter max = (ManagedCounter) dm.getBinding("max");
+		ManagedCounter min = (ManagedCounter) dm.getBinding("min");
+		assertEquals(12, max.get());
+		assertEquals(-8, min.get());
+		dm.removeBinding("max");
+		dm.removeBinding("min");
+		dm.removeObject(max);
+		dm.removeObject(min);
+	    }
+	}, taskOwner);
+    }
+
+    @Test
+    public void testAddNotSum() throws Exception {
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() throws Exception {
+		ManagedCounter counter = new ManagedCounter(Operation.MAX, 2);
+		try {
+		    counter.add(1);
+		    fail("Expected IllegalStateException");
+		} catch (IllegalStateException e) {
+		}
+		try {
+		    counter.increment();
+		    fail("Expected IllegalStateException");
+		} catch (IllegalStateException e) {
+		}
+		AppContext.getDataManager().removeObject(counter);
+	    }
+	}, taskOwner);
+    }
+}
@@ -26,6 +26,7 @@ import com.sun.sgs.app.TransactionTimeoutException;
 import com.sun.sgs.impl.kernel.LockingAccessCoordinator;
 import com.sun.sgs.kernel.AccessReporter;
 import com.sun.sgs.kernel.AccessReporter.AccessType;
+import com.sun.sgs.kernel.LongAccessReporter;
 import com.sun.sgs.profile.AccessedObjectsDetail;
 import com.sun.sgs.profile.AccessedObjectsDetail.ConflictType;
 import com.sun.sgs.test.util.DummyTransaction;
@@ -245,6 +246,170 @@ public class TestLockingAccessCoordinator
 	assertEquals(null, detail.getConflictingId());
     }
 
+    /* -- Test lock priorities -- */
+
+    @Test
+    public void testRetriedTransactionPreemptsYounger() throws Exception {
+	init(100, -1);
+	final DummyTransaction txn2 = new DummyTransaction();
+	coordinator.notifyNewTransaction(txn2, 1000, 1);
+	reporter.reportObjectAccess(txn2, "o1", AccessType.WRITE);
+	final DummyTransaction txn3 = new DummyTransaction();
+	coordinator.notifyNewTransaction(
+	    txn3, 0, LockingAccessCoordinator.PRIORITY_TRY_COUNT_DEFAULT);
+	FutureTask<Exception> attempt =
+	    new FutureTask<Exception>(
+		new Callable<Exception>() {
+		    public Exception call() throws Exception {
+			try {
+			    reporter.reportObjectAccess(
+				txn3, "o1", AccessType.WRITE);
+			    return null;
+			} catch (Exception e) {
+			    e.printStackTrace();
+			    return e;
+			}
+		    }
+		});
+	new Thread(attempt).start();
+	try {
+	    attempt.get(20, TimeUnit.MILLISECONDS);
+	    fail("Expected timeout");
+	} catch (TimeoutException e) {
+	}
+	try {
+	    reporter.reportObjectAccess(txn2, "o2", AccessType.READ);
+	    fail("Expected TransactionConflictException");
+	} catch (TransactionConflictException e) {
+	    System.err.println(e);
+	}
+	assertEquals(null, attempt.get());
+	txn3.commit();
+    }
+
+    @Test
+    public void testFirstTryDoesNotPreempt() throws Exception {
+	DummyTransaction txn2 = new DummyTransaction(1);
+	coordinator.notifyNewTransaction(txn2, 1000, 1);
+	reporter.reportObjectAccess(txn2, "o1", AccessType.WRITE);
+	DummyTransaction txn3 = new DummyTransaction(1);
+	coordinator.notifyNewTransaction(txn3, 0, 1);
+	Thread.sleep(2);
+	try {
+	    reporter.reportObjectAccess(txn3, "o1", AccessType.WRITE);
+	    fail("Expected TransactionTimeoutException");
+	} catch (TransactionTimeoutException e) {
+	    System.err.println(e);
+	}
+	reporter.reportObjectAccess(txn2, "o2", AccessType.READ);
+    }
+
+    /* -- Test LongAccessReporter -- */
+
+    @Test
+    public void testLongAccessReporter() throws Exception {
+	AccessReporter<Long> longReporter =
+	    coordinator.registerAccessSource("l", Long.class);
+	assertTrue(longReporter instanceof LongAccessReporter);
+	LongAccessReporter lr = (LongAccessReporter) longReporter;
+	lr.reportObjectAccess(txn, 1L, AccessType.READ);
+	lr.reportObjectAccess(txn, 1L, AccessType.READ);
+	longReporter.reportObjectAccess(txn, 1L, AccessType.READ);
+	lr.reportObjectAccess(txn, 2L, AccessType.WRITE);
+	lr.reportObjectAccess(txn, 2L, AccessType.READ);
+	txn.commit();
+	txn = null;
+	AccessedObjectsDetail detail =
+	    profileCollector.getAccessedObjectsDetail();
+	assertObjectDetails(detail,
+			    "l", 1L, AccessType.READ, null,
+			    "l", 2L, AccessType.WRITE, null);
+    }
+
+    @Test
+    public void testLongAccessReporterUpgrade() throws Exception {
+	LongAccessReporter lr = (LongAccessReporter)
+	    coordinator.registerAccessSource("l", Long.class);
+	lr.reportObjectAccess(txn, 1L, AccessType.READ);
+	lr.reportObjectAccess(txn, 1L, AccessType.WRITE);
+	lr.reportObjectAccess(txn, 1L, AccessType.WRITE);
+	DummyTransaction txn2 = new DummyTransaction(1);
+	coordinator.notifyNewTransaction(txn2, 0, 1);
+	Thread.sleep(2);
+	try {
+	    lr.reportObjectAccess(txn2, 1L, AccessType.READ);
+	    fail("Expected TransactionTimeoutException");
+	} catch (TransactionTimeoutException e) {
+	    System.err.println(e);
+	}
+    }
+
+    @Test
+    public void testLongAccessReporterBoxedConflict() throws Exception {
+	AccessReporter<Long> longReporter =
+	    coordinator.registerAccessSource("l", Long.class);
+	longReporter.reportObjectAccess(
+	    txn, Long.valueOf(1000000), AccessType.WRITE, "Object 1");
+	DummyTransaction txn2 = new DummyTransaction(1);
+	coordinator.notifyNewTransaction(txn2, 0, 1);
+	Thread.sleep(2);
+	try {
+	    ((LongAccessReporter) longReporter).reportObjectAccess(
+		txn2, 1000000L, AccessType.WRITE);
+	    fail("Expected TransactionTimeoutException");
+	} catch (TransactionTimeoutException e) {
+	    System.err.println(e);
+	}
+	AccessedObjectsDetail detail =
+	    profileCollector.getAccessedObjectsDetail();
+	assertObjectDetails(detail, "l", 1000000L, AccessType.WRITE, null);
+    }
+
+    @Test
+    public void testLongAccessReporterSameSourceName() throws Exception {
+	LongAccessReporter lr1 = (LongAccessReporter)
+	    coordinator.registerAccessSource("l", Long.class);
+	LongAccessReporter lr2 = (LongAccessReporter)
+	    coordinator.registerAccessSource("l", Long.class);
+	lr1.reportObjectAccess(txn, 7L, AccessType.WRITE);
+	DummyTransaction txn2 = new DummyTransaction(1);
+	coordinator.notifyNewTransaction(txn2, 0, 1);
+	Thread.sleep(2);
+	try {
+	    lr2.reportObjectAccess(txn2, 7L, AccessType.READ);
+	    fail("Expected TransactionTimeoutException");
+	} catch (TransactionTimeoutException e) {
+	    System.err.println(e);
+	}
+    }
+
+    @Test
+    public void testLongAccessReporterManyObjects() throws Exception {
+	LongAccessReporter lr = (LongAccessReporter)
+	    coordinator.registerAccessSource("l", Long.class);
+	for (long i = 0; i < 1000; i++) {
+	    lr.reportObjectAccess(txn, i, AccessType.READ);
+	}
+	for (long i = 0; i < 1000; i += 2) {
+	    lr.reportObjectAccess(txn, i, AccessType.WRITE);
+	}
+	txn.commit();
+	txn = null;
+	AccessedObjectsDetail detail =
+	    profileCollector.getAccessedObjectsDetail();
+	assertEquals(1500, detail.getAccessedObjects().size());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testLongAccessReporterEndedTransaction() throws Exception {
+	LongAccessReporter lr = (LongAccessReporter)
+	    coordinator.registerAccessSource("l", Long.class);
+	DummyTransaction ended = txn;
+	txn.commit();
+	txn = null;
+	lr.reportObjectAccess(ended, 1L, AccessType.READ);
+    }
+
     /* -- Other tests -- */
 
     /**
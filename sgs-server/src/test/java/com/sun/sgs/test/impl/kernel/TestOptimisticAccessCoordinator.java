@@ -0,0 +1,195 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.kernel;
+
+import com.sun.sgs.app.TransactionConflictException;
+import com.sun.sgs.impl.kernel.OptimisticAccessCoordinator;
+import com.sun.sgs.kernel.AccessReporter.AccessType;
+import com.sun.sgs.profile.AccessedObjectsDetail;
+import com.sun.sgs.profile.AccessedObjectsDetail.ConflictType;
+import com.sun.sgs.test.util.DummyTransaction;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests the {@link OptimisticAccessCoordinator} class. */
+@RunWith(FilteredNameRunner.class)
+public class TestOptimisticAccessCoordinator
+    extends BasicAccessCoordinatorTest<OptimisticAccessCoordinator>
+{
+    /** Creates an {@code OptimisticAccessCoordinator}. */
+    protected OptimisticAccessCoordinator createAccessCoordinator() {
+	return new OptimisticAccessCoordinator(
+	    properties, txnProxy, profileCollector);
+    }
+
+    /* -- Tests -- */
+
+    /* -- Test constructor -- */
+
+    @Test(expected=NullPointerException.class)
+    public void testConstructorNullProperties() {
+	new OptimisticAccessCoordinator(null, txnProxy, profileCollector);
+    }
+
+    @Test(expected=NullPointerException.class)
+    public void testConstructorNullTxnProxy() {
+	new OptimisticAccessCoordinator(properties, null, profileCollector);
+    }
+
+    @Test(expected=NullPointerException.class)
+    public void testConstructorNullProfileCollector() {
+	new OptimisticAccessCoordinator(properties, txnProxy, null);
+    }
+
+    @Test
+    public void testConstructorIllegalNumStripes() {
+	String[] values = { "0", "-3" };
+	for (String value : values) {
+	    properties.setProperty(
+		OptimisticAccessCoordinator.NUM_STRIPES_PROPERTY, value);
+	    try {
+		new OptimisticAccessCoordinator(
+		    properties, txnProxy, profileCollector);
+		fail("Expected IllegalArgumentException");
+	    } catch (IllegalArgumentException e) {
+		System.err.println(e);
+	    }
+	}
+    }
+
+    /* -- Test validation -- */
+
+    @Test
+    public void testConflictingWritesDoNotBlock() throws Exception {
+	reporter.reportObjectAccess(txn, "o1", AccessType.WRITE);
+	DummyTransaction txn2 = new DummyTransaction();
+	coordinator.notifyNewTransaction(txn2, 0, 1);
+	reporter.reportObjectAccess(txn2, "o1", AccessType.WRITE);
+	txn2.commit();
+	try {
+	    txn.commit();
+	    fail("Expected TransactionConflictException");
+	} catch (TransactionConflictException e) {
+	    System.err.println(e);
+	}
+	txn = null;
+	AccessedObjectsDetail detail =
+	    profileCollector.getAccessedObjectsDetail();
+	assertObjectDetails(detail, "s", "o1", AccessType.WRITE, null);
+	assertEquals(ConflictType.ACCESS_NOT_GRANTED,
+		     detail.getConflictType());
+	assertArrayEquals(txn2.getId(), detail.getConflictingId());
+    }
+
+    @Test
+    public void testReadInvalidatedByWrite() throws Exception {
+	reporter.reportObjectAccess(txn, "o1", AccessType.READ);
+	reporter.reportObjectAccess(txn, "o2", AccessType.WRITE);
+	DummyTransaction txn2 = new DummyTransaction();
+	coordinator.notifyNewTransaction(txn2, 0, 1);
+	reporter.reportObjectAccess(txn2, "o1", AccessType.WRITE);
+	txn2.commit();
+	try {
+	    txn.commit();
+	    fail("Expected TransactionConflictException");
+	} catch (TransactionConflictException e) {
+	    System.err.println(e);
+	}
+	txn = null;
+	/* The aborted transaction should not have changed o2 */
+	txn2 = new DummyTransaction();
+	coordinator.notifyNewTransaction(txn2, 0, 1);
+	reporter.reportObjectAccess(txn2, "o2", AccessType.READ);
+	DummyTransaction txn3 = new DummyTransaction();
+	coordinator.notifyNewTransaction(txn3, 0, 1);
+	reporter.reportObjectAccess(txn3, "o2", AccessType.READ);
+	txn3.commit();
+	txn2.commit();
+    }
+
+    @Test
+    public void testConflictDetectedOnLaterAccess() throws Exception {
+	reporter.reportObjectAccess(txn, "o1", AccessType.READ);
+	DummyTransaction txn2 = new DummyTransaction();
+	coordinator.notifyNewTransaction(txn2, 0, 1);
+	reporter.reportObjectAccess(txn2, "o1", AccessType.WRITE);
+	txn2.commit();
+	try {
+	    reporter.reportObjectAccess(txn, "o1", AccessType.WRITE);
+	    fail("Expected TransactionConflictException");
+	} catch (TransactionConflictException e) {
+	    System.err.println(e);
+	}
+	assertTrue(txn.isAborted());
+	txn = null;
+	AccessedObjectsDetail detail =
+	    profileCollector.getAccessedObjectsDetail();
+	assertEquals(ConflictType.ACCESS_NOT_GRANTED,
+		     detail.getConflictType());
+    }
+
+    @Test
+    public void testNonConflictingTransactions() throws Exception {
+	reporter.reportObjectAccess(txn, "shared", AccessType.READ);
+	reporter.reportObjectAccess(txn, "o1", AccessType.WRITE);
+	DummyTransaction txn2 = new DummyTransaction();
+	coordinator.notifyNewTransaction(txn2, 0, 1);
+	reporter.reportObjectAccess(txn2, "shared", AccessType.READ);
+	reporter.reportObjectAccess(txn2, "o2", AccessType.WRITE);
+	txn2.commit();
+	txn.commit();
+	txn = null;
+	AccessedObjectsDetail detail =
+	    profileCollector.getAccessedObjectsDetail();
+	assertEquals(ConflictType.NONE, detail.getConflictType());
+    }
+
+    @Test
+    public void testAbortedWriterDoesNotConflict() throws Exception {
+	reporter.reportObjectAccess(txn, "o1", AccessType.READ);
+	DummyTransaction txn2 = new DummyTransaction();
+	coordinator.notifyNewTransaction(txn2, 0, 1);
+	reporter.reportObjectAccess(txn2, "o1", AccessType.WRITE);
+	txn2.abort(ABORT_EXCEPTION);
+	txn.commit();
+	txn = null;
+    }
+
+    @Test
+    public void testPreparedWriterConflicts() throws Exception {
+	DummyTransaction txn2 = new DummyTransaction(
+	    DummyTransaction.UsePrepareAndCommit.NO);
+	coordinator.notifyNewTransaction(txn2, 0, 1);
+	reporter.reportObjectAccess(txn2, "o1", AccessType.WRITE);
+	assertFalse(txn2.prepare());
+	reporter.reportObjectAccess(txn, "o1", AccessType.READ);
+	try {
+	    txn.commit();
+	    fail("Expected TransactionConflictException");
+	} catch (TransactionConflictException e) {
+	    System.err.println(e);
+	}
+	txn = null;
+	txn2.commit();
+    }
+}
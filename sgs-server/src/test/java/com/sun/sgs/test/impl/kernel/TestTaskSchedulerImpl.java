@@ -39,6 +39,8 @@ import com.sun.sgs.tools.test.FilteredNameRunner;
 
 import java.util.Properties;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.After;
@@ -77,12 +79,19 @@ public class TestTaskSchedulerImpl {
 					     null, null);
         properties.setProperty(StandardProperties.NODE_TYPE, 
                                NodeType.coreServerNode.name());
+        addProperties(properties);
         serverNode = new SgsTestNode("TestTaskSchedulerImpl", null, properties);
         taskScheduler = serverNode.getSystemRegistry().
             getComponent(TaskScheduler.class);
         taskOwner = serverNode.getProxy().getCurrentOwner();
     }
 
+    /**
+     * Adds any properties needed by subclasses to the properties used to
+     * create the test node.  This implementation does nothing.
+     */
+    protected void addProperties(Properties properties) { }
+
     /** Per-test shutdown */
     @After public void shutdown() throws Exception {
         if (serverNode != null)
@@ -361,6 +370,27 @@ public class TestTaskSchedulerImpl {
         assertEquals(2, taskCount);
     }
 
+    @Test public void cancelWhileRunningRecurringTask() throws Exception {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        RecurringTaskHandle handle =
+            taskScheduler.scheduleRecurringTask(
+                new TestAbstractKernelRunnable() {
+                    public void run() throws Exception {
+                        taskCount++;
+                        running.countDown();
+                        release.await();
+                    }
+                },
+                taskOwner, System.currentTimeMillis(), 20);
+        handle.start();
+        assertTrue(running.await(1, TimeUnit.SECONDS));
+        handle.cancel();
+        release.countDown();
+        Thread.sleep(200L);
+        assertEquals(1, taskCount);
+    }
+
     @Test public void cancelRecurringTask() throws Exception {
         RecurringTaskHandle handle =
             taskScheduler.scheduleRecurringTask(new IncrementRunner(),
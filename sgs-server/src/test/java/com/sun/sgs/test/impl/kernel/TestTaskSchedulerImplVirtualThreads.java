@@ -0,0 +1,46 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.kernel;
+
+import com.sun.sgs.tools.test.FilteredNameRunner;
+
+import java.util.Properties;
+
+import org.junit.runner.RunWith;
+
+
+/**
+ * Runs the {@code TaskScheduler} tests with tasks run in virtual threads.
+ * On runtimes without virtual threads, the scheduler falls back to its
+ * fixed pool of threads and these tests match those of the superclass.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestTaskSchedulerImplVirtualThreads
+    extends TestTaskSchedulerImpl
+{
+    /** Enables virtual threads. */
+    @Override
+    protected void addProperties(Properties properties) {
+        properties.setProperty(
+            "com.sun.sgs.impl.kernel.task.virtual.threads", "true");
+    }
+}
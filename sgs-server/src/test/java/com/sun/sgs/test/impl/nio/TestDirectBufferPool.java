@@ -0,0 +1,113 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.nio;
+
+import com.sun.sgs.impl.nio.DirectBufferPool;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the {@code DirectBufferPool} class.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestDirectBufferPool {
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testConstructorZeroMinBufferSize() {
+        new DirectBufferPool(0, 1024, 0);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testConstructorMaxLessThanMin() {
+        new DirectBufferPool(1024, 512, 0);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testConstructorNegativeMaxPooledBytes() {
+        new DirectBufferPool(512, 1024, -1);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testAcquireNegativeSize() {
+        new DirectBufferPool(512, 1024, 0).acquire(-1);
+    }
+
+    @Test
+    public void testAcquireSizeClasses() {
+        DirectBufferPool pool = new DirectBufferPool(500, 4000, 1 << 20);
+        ByteBuffer buffer = pool.acquire(1);
+        assertTrue(buffer.isDirect());
+        assertEquals(512, buffer.capacity());
+        assertEquals(0, buffer.position());
+        assertEquals(1, buffer.limit());
+        assertEquals(1024, pool.acquire(513).capacity());
+        assertEquals(4096, pool.acquire(4096).capacity());
+        assertEquals(5000, pool.acquire(5000).capacity());
+        assertEquals(4, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void testReleaseAndReuse() {
+        DirectBufferPool pool = new DirectBufferPool(512, 4096, 1 << 20);
+        ByteBuffer buffer = pool.acquire(600);
+        buffer.put((byte) 1);
+        pool.release(buffer);
+        assertEquals(1024, pool.getPooledBytes());
+        ByteBuffer reused = pool.acquire(1000);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(1000, reused.limit());
+        assertEquals(0, pool.getPooledBytes());
+        assertEquals(1, pool.getAllocatedCount());
+        assertNotSame(buffer, pool.acquire(1000));
+    }
+
+    @Test
+    public void testReleaseLimitsPooledBytes() {
+        DirectBufferPool pool = new DirectBufferPool(512, 4096, 1024);
+        ByteBuffer first = pool.acquire(1024);
+        ByteBuffer second = pool.acquire(1024);
+        pool.release(first);
+        pool.release(second);
+        assertEquals(1024, pool.getPooledBytes());
+        assertSame(first, pool.acquire(1024));
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testReleaseIgnoresForeignBuffers() {
+        DirectBufferPool pool = new DirectBufferPool(512, 4096, 1 << 20);
+        pool.release(null);
+        pool.release(ByteBuffer.allocate(1024));
+        pool.release(ByteBuffer.allocateDirect(1000));
+        pool.release(ByteBuffer.allocateDirect(256));
+        pool.release(pool.acquire(8192));
+        assertEquals(0, pool.getPooledBytes());
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.nio;
+
+import com.sun.sgs.impl.nio.DelegatingCompletionHandler;
+import com.sun.sgs.impl.nio.Nio2AsyncChannelProvider;
+import com.sun.sgs.nio.channels.AsynchronousChannelGroup;
+import com.sun.sgs.nio.channels.AsynchronousServerSocketChannel;
+import com.sun.sgs.nio.channels.AsynchronousSocketChannel;
+import com.sun.sgs.nio.channels.ClosedAsynchronousChannelException;
+import com.sun.sgs.nio.channels.CompletionHandler;
+import com.sun.sgs.nio.channels.IoFuture;
+import com.sun.sgs.nio.channels.ReadPendingException;
+import com.sun.sgs.nio.channels.ShutdownChannelGroupException;
+import com.sun.sgs.nio.channels.StandardSocketOption;
+import com.sun.sgs.nio.channels.WritePendingException;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.sun.sgs.test.util.UtilReflection.getMethod;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the {@code Nio2AsyncChannelProvider} class.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestNio2AsyncChannelProvider {
+
+    private Nio2AsyncChannelProvider provider;
+    private AsynchronousChannelGroup group;
+    private AsynchronousServerSocketChannel server;
+
+    @Before
+    public void setUp() throws Exception {
+        provider = new Nio2AsyncChannelProvider();
+        group = provider.openAsynchronousChannelGroup(
+            Executors.newCachedThreadPool());
+        server = provider.openAsynchronousServerSocketChannel(group);
+        server.bind(new InetSocketAddress(InetAddress.getLocalHost(), 0));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.close();
+        }
+        if (group != null) {
+            group.shutdownNow();
+            group.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testEcho() throws Exception {
+        IoFuture<AsynchronousSocketChannel, Void> accepted =
+            server.accept(null);
+        assertTrue(server.isAcceptPending());
+        AsynchronousSocketChannel client =
+            provider.openAsynchronousSocketChannel(group);
+        client.setOption(StandardSocketOption.TCP_NODELAY, Boolean.TRUE);
+        assertEquals(Boolean.TRUE,
+                     client.getOption(StandardSocketOption.TCP_NODELAY));
+        client.connect(server.getLocalAddress(), null).get(5, TimeUnit.SECONDS);
+        AsynchronousSocketChannel serverSide =
+            accepted.get(5, TimeUnit.SECONDS);
+        assertFalse(server.isAcceptPending());
+        assertEquals(client.getLocalAddress(),
+                     serverSide.getConnectedAddress());
+
+        ByteBuffer out = ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 });
+        while (out.hasRemaining()) {
+            client.write(out, null).get(5, TimeUnit.SECONDS);
+        }
+        ByteBuffer in = ByteBuffer.allocate(4);
+        while (in.hasRemaining()) {
+            int n = serverSide.read(in, null).get(5, TimeUnit.SECONDS);
+            assertTrue(n > 0);
+        }
+        assertEquals(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }), in.flip());
+        assertFalse(serverSide.isReadPending());
+
+        client.close();
+        in.clear();
+        assertEquals(-1, (int) serverSide.read(in, null).get(5, TimeUnit.SECONDS));
+        serverSide.close();
+    }
+
+    @Test
+    public void testCompletionHandler() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<IoFuture<AsynchronousSocketChannel, String>>
+            result =
+            new AtomicReference<IoFuture<AsynchronousSocketChannel, String>>();
+        IoFuture<AsynchronousSocketChannel, String> future = server.accept(
+            "attachment",
+            new CompletionHandler<AsynchronousSocketChannel, String>() {
+                public void completed(
+                    IoFuture<AsynchronousSocketChannel, String> r)
+                {
+                    result.set(r);
+                    latch.countDown();
+                }
+            });
+        AsynchronousSocketChannel client =
+            provider.openAsynchronousSocketChannel(group);
+        client.connect(server.getLocalAddress(), null).get(5, TimeUnit.SECONDS);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertSame(future, result.get());
+        assertEquals("attachment", result.get().attachment());
+        result.get().getNow().close();
+        client.close();
+    }
+
+    @Test
+    public void testReadPending() throws Exception {
+        IoFuture<AsynchronousSocketChannel, Void> accepted =
+            server.accept(null);
+        AsynchronousSocketChannel client =
+            provider.openAsynchronousSocketChannel(group);
+        client.connect(server.getLocalAddress(), null).get(5, TimeUnit.SECONDS);
+        accepted.get(5, TimeUnit.SECONDS);
+        client.read(ByteBuffer.allocate(1), null);
+        assertTrue(client.isReadPending());
+        try {
+            client.read(ByteBuffer.allocate(1), null);
+            fail("Expected ReadPendingException");
+        } catch (ReadPendingException e) {
+            System.err.println(e);
+        }
+        client.close();
+    }
+
+    @Test
+    public void testCancelReadStaysPending() throws Exception {
+        IoFuture<AsynchronousSocketChannel, Void> accepted =
+            server.accept(null);
+        AsynchronousSocketChannel client =
+            provider.openAsynchronousSocketChannel(group);
+        client.connect(server.getLocalAddress(), null).get(5, TimeUnit.SECONDS);
+        AsynchronousSocketChannel serverSide =
+            accepted.get(5, TimeUnit.SECONDS);
+        ByteBuffer in = ByteBuffer.allocate(1);
+        IoFuture<Integer, Void> read = client.read(in, null);
+        assertTrue(read.cancel(false));
+        assertTrue(read.isDone());
+        /* The JDK read is still outstanding */
+        assertTrue(client.isReadPending());
+        try {
+            client.read(ByteBuffer.allocate(1), null);
+            fail("Expected ReadPendingException");
+        } catch (ReadPendingException e) {
+            System.err.println(e);
+        }
+        /* Completing the JDK read clears the pending flag */
+        serverSide.write(ByteBuffer.wrap(new byte[] { 7 }), null).get(
+            5, TimeUnit.SECONDS);
+        waitForNotPending(client);
+        in.clear();
+        serverSide.write(ByteBuffer.wrap(new byte[] { 8 }), null).get(
+            5, TimeUnit.SECONDS);
+        assertEquals(1, (int) client.read(in, null).get(5, TimeUnit.SECONDS));
+        client.close();
+        serverSide.close();
+    }
+
+    @Test
+    public void testCancelDelegatingRead() throws Exception {
+        IoFuture<AsynchronousSocketChannel, Void> accepted =
+            server.accept(null);
+        final AsynchronousSocketChannel client =
+            provider.openAsynchronousSocketChannel(group);
+        client.connect(server.getLocalAddress(), null).get(5, TimeUnit.SECONDS);
+        AsynchronousSocketChannel serverSide =
+            accepted.get(5, TimeUnit.SECONDS);
+        final AtomicInteger completions = new AtomicInteger();
+        DelegatingCompletionHandler<Integer, Void, Integer, Void> read =
+            new DelegatingCompletionHandler<Integer, Void, Integer, Void>(
+                null,
+                new CompletionHandler<Integer, Void>() {
+                    public void completed(IoFuture<Integer, Void> result) {
+                        completions.incrementAndGet();
+                    }
+                })
+            {
+                protected IoFuture<Integer, Void> implStart() {
+                    return client.read(ByteBuffer.allocate(1), this);
+                }
+                protected IoFuture<Integer, Void> implCompleted(
+                    IoFuture<Integer, Void> result)
+                    throws Exception
+                {
+                    set(result.getNow());
+                    return null;
+                }
+            };
+        read.start();
+        /*
+         * The inner read notifies the delegating handler while it is being
+         * cancelled, which should not complete the outer future first
+         */
+        assertTrue(read.cancel(false));
+        assertTrue(read.isCancelled());
+        assertEquals(1, completions.get());
+        client.close();
+        serverSide.close();
+    }
+
+    @Test
+    public void testCancelAcceptClosesChannel() throws Exception {
+        IoFuture<AsynchronousSocketChannel, Void> accepted =
+            server.accept(null);
+        assertTrue(accepted.cancel(false));
+        assertTrue(server.isAcceptPending());
+        AsynchronousSocketChannel client =
+            provider.openAsynchronousSocketChannel(group);
+        client.connect(server.getLocalAddress(), null).get(5, TimeUnit.SECONDS);
+        /* The connection accepted for the cancelled operation is closed */
+        assertEquals(-1, (int) client.read(ByteBuffer.allocate(1), null).get(
+                         5, TimeUnit.SECONDS));
+        long stop = System.currentTimeMillis() + 5000;
+        while (server.isAcceptPending()) {
+            assertTrue(System.currentTimeMillis() < stop);
+            Thread.sleep(10);
+        }
+        client.close();
+    }
+
+    @Test
+    public void testTranslateStartFailure() throws Exception {
+        Method translate = getMethod(
+            Class.forName("com.sun.sgs.impl.nio.Nio2Operation"),
+            "translateStartFailure", RuntimeException.class);
+        RuntimeException readPending =
+            new java.nio.channels.ReadPendingException();
+        Object result = translate.invoke(null, readPending);
+        assertTrue(result instanceof ReadPendingException);
+        assertSame(readPending, ((Throwable) result).getCause());
+        RuntimeException writePending =
+            new java.nio.channels.WritePendingException();
+        result = translate.invoke(null, writePending);
+        assertTrue(result instanceof WritePendingException);
+        assertSame(writePending, ((Throwable) result).getCause());
+        RuntimeException other = new IllegalStateException();
+        assertSame(other, translate.invoke(null, other));
+    }
+
+    @Test
+    public void testReadClosed() throws Exception {
+        AsynchronousSocketChannel client =
+            provider.openAsynchronousSocketChannel(group);
+        client.close();
+        try {
+            client.read(ByteBuffer.allocate(1), null);
+            fail("Expected ClosedAsynchronousChannelException");
+        } catch (ClosedAsynchronousChannelException e) {
+            System.err.println(e);
+        }
+    }
+
+    @Test
+    public void testOpenAfterShutdown() throws Exception {
+        group.shutdown();
+        try {
+            provider.openAsynchronousSocketChannel(group);
+            fail("Expected ShutdownChannelGroupException");
+        } catch (ShutdownChannelGroupException e) {
+            System.err.println(e);
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testUnsupportedOption() throws Exception {
+        server.setOption(StandardSocketOption.TCP_NODELAY, Boolean.TRUE);
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testDatagramUnsupported() throws Exception {
+        provider.openAsynchronousDatagramChannel(null, group);
+    }
+
+    /** Waits for the channel to have no read pending. */
+    private static void waitForNotPending(AsynchronousSocketChannel channel)
+        throws InterruptedException
+    {
+        long stop = System.currentTimeMillis() + 5000;
+        while (channel.isReadPending()) {
+            assertTrue(System.currentTimeMillis() < stop);
+            Thread.sleep(10);
+        }
+    }
+}
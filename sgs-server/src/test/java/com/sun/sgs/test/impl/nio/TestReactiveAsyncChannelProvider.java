@@ -0,0 +1,253 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.nio;
+
+import com.sun.sgs.impl.nio.ReactiveAsyncChannelProvider;
+import com.sun.sgs.nio.channels.AsynchronousChannelGroup;
+import com.sun.sgs.nio.channels.AsynchronousServerSocketChannel;
+import com.sun.sgs.nio.channels.AsynchronousSocketChannel;
+import com.sun.sgs.nio.channels.CompletionHandler;
+import com.sun.sgs.nio.channels.IoFuture;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the {@code ReactiveAsyncChannelProvider} class, in particular
+ * that operations initiated from other threads and from completion
+ * handlers are noticed by the reactor.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestReactiveAsyncChannelProvider {
+
+    /** The number of round trips for the ping-pong test. */
+    private static final int ROUND_TRIPS = 2000;
+
+    /** The number of connections for the concurrent writers test. */
+    private static final int CONNECTIONS = 8;
+
+    private ReactiveAsyncChannelProvider provider;
+    private AsynchronousChannelGroup group;
+    private AsynchronousServerSocketChannel server;
+
+    @Before
+    public void setUp() throws Exception {
+        provider = new ReactiveAsyncChannelProvider();
+        group = provider.openAsynchronousChannelGroup(
+            Executors.newCachedThreadPool());
+        server = provider.openAsynchronousServerSocketChannel(group);
+        server.bind(new InetSocketAddress(InetAddress.getLocalHost(), 0));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.close();
+        }
+        if (group != null) {
+            group.shutdownNow();
+            group.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testPingPongFromHandlers() throws Exception {
+        AsynchronousSocketChannel[] pair = connect();
+        // The server side echoes each byte back, always initiating the
+        // next operation from within a completion handler.
+        new Echoer(pair[1]).start();
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure =
+            new AtomicReference<Throwable>();
+        final AsynchronousSocketChannel client = pair[0];
+        final ByteBuffer buf = ByteBuffer.allocate(1);
+        client.write(ByteBuffer.wrap(new byte[] { 0 }),
+            new CompletionHandler<Integer, Void>() {
+                private int count = 0;
+                public void completed(IoFuture<Integer, Void> result) {
+                    try {
+                        result.getNow();
+                        buf.clear();
+                        client.read(buf, new CompletionHandler<Integer, Void>()
+                            {
+                                public void completed(
+                                    IoFuture<Integer, Void> r)
+                                {
+                                    try {
+                                        r.getNow();
+                                        if (++count == ROUND_TRIPS) {
+                                            done.countDown();
+                                            return;
+                                        }
+                                        buf.flip();
+                                        client.write(buf, writeHandler());
+                                    } catch (Throwable t) {
+                                        failure.set(t);
+                                        done.countDown();
+                                    }
+                                }
+                            });
+                    } catch (Throwable t) {
+                        failure.set(t);
+                        done.countDown();
+                    }
+                }
+                private CompletionHandler<Integer, Void> writeHandler() {
+                    return this;
+                }
+            });
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertNull(failure.get());
+        pair[0].close();
+        pair[1].close();
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final List<AsynchronousSocketChannel[]> pairs =
+            new ArrayList<AsynchronousSocketChannel[]>();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            AsynchronousSocketChannel[] pair = connect();
+            new Echoer(pair[1]).start();
+            pairs.add(pair);
+        }
+        final CountDownLatch done = new CountDownLatch(CONNECTIONS);
+        final AtomicReference<Throwable> failure =
+            new AtomicReference<Throwable>();
+        for (final AsynchronousSocketChannel[] pair : pairs) {
+            new Thread() {
+                public void run() {
+                    try {
+                        ByteBuffer out = ByteBuffer.allocate(1);
+                        ByteBuffer in = ByteBuffer.allocate(1);
+                        for (int i = 0; i < ROUND_TRIPS / 4; i++) {
+                            out.clear();
+                            out.put(0, (byte) i);
+                            pair[0].write(out, null).get(
+                                5, TimeUnit.SECONDS);
+                            in.clear();
+                            pair[0].read(in, null).get(5, TimeUnit.SECONDS);
+                            assertEquals((byte) i, in.get(0));
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertNull(failure.get());
+        for (AsynchronousSocketChannel[] pair : pairs) {
+            pair[0].close();
+            pair[1].close();
+        }
+    }
+
+    @Test
+    public void testCloseWithPendingRead() throws Exception {
+        AsynchronousSocketChannel[] pair = connect();
+        IoFuture<Integer, Void> read =
+            pair[0].read(ByteBuffer.allocate(1), null);
+        pair[0].close();
+        try {
+            read.get(5, TimeUnit.SECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AsynchronousCloseException);
+        }
+        pair[1].close();
+    }
+
+    /**
+     * Returns a connected pair of channels, the client side followed by
+     * the server side.
+     */
+    private AsynchronousSocketChannel[] connect() throws Exception {
+        IoFuture<AsynchronousSocketChannel, Void> accepted =
+            server.accept(null);
+        AsynchronousSocketChannel client =
+            provider.openAsynchronousSocketChannel(group);
+        client.connect(server.getLocalAddress(), null).get(
+            5, TimeUnit.SECONDS);
+        return new AsynchronousSocketChannel[] {
+            client, accepted.get(5, TimeUnit.SECONDS) };
+    }
+
+    /**
+     * Echoes each byte read from a channel back to the channel, until the
+     * channel is closed.
+     */
+    private static class Echoer implements CompletionHandler<Integer, Void> {
+        private final AsynchronousSocketChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(1);
+        private boolean reading = true;
+
+        Echoer(AsynchronousSocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void start() {
+            channel.read(buf, this);
+        }
+
+        public void completed(IoFuture<Integer, Void> result) {
+            try {
+                if (result.getNow() < 0) {
+                    return;
+                }
+                if (reading) {
+                    buf.flip();
+                    reading = false;
+                    channel.write(buf, this);
+                } else {
+                    buf.clear();
+                    reading = true;
+                    channel.read(buf, this);
+                }
+            } catch (ExecutionException e) {
+                // channel closed
+            } catch (RuntimeException e) {
+                // channel closed
+            }
+        }
+    }
+}
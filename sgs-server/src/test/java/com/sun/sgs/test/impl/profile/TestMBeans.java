@@ -25,8 +25,11 @@ import com.sun.sgs.app.ManagedObject;
 import com.sun.sgs.app.NameNotBoundException;
 import com.sun.sgs.auth.Identity;
 import com.sun.sgs.impl.auth.IdentityImpl;
+import com.sun.sgs.impl.profile.ProfileCollectorHandle;
+import com.sun.sgs.impl.profile.ProfileCollectorHandleImpl;
 import com.sun.sgs.impl.profile.ProfileCollectorImpl;
 import com.sun.sgs.kernel.ComponentRegistry;
+import com.sun.sgs.kernel.KernelRunnable;
 import com.sun.sgs.kernel.NodeType;
 import com.sun.sgs.kernel.TransactionScheduler;
 import com.sun.sgs.management.ChannelServiceMXBean;
@@ -39,6 +42,8 @@ import com.sun.sgs.management.NodeMappingServiceMXBean;
 import com.sun.sgs.management.NodesMXBean;
 import com.sun.sgs.management.ProfileControllerMXBean;
 import com.sun.sgs.management.TaskServiceMXBean;
+import com.sun.sgs.management.TaskTypeInfo;
+import com.sun.sgs.management.TaskTypeMXBean;
 import com.sun.sgs.management.WatchdogServiceMXBean;
 import com.sun.sgs.profile.ProfileCollector;
 import com.sun.sgs.profile.ProfileCollector.ProfileLevel;
@@ -77,6 +82,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -590,6 +596,11 @@ public class TestMBeans {
         long setBinding = (Long) mbsc.getAttribute(name, "SetBindingCalls");
         long setServiceBinding = 
                 (Long) mbsc.getAttribute(name, "SetServiceBindingCalls");
+        long predictions =
+                (Long) mbsc.getAttribute(name, "WriteIntentPredictions");
+        long mispredictions =
+                (Long) mbsc.getAttribute(name, "WriteIntentMispredictions");
+        long upgrades = (Long) mbsc.getAttribute(name, "ReadLockUpgrades");
         
         
         // Create the proxy for the object
@@ -614,6 +625,9 @@ public class TestMBeans {
                     proxy.getRemoveServiceBindingCalls());
         assertTrue(setBinding <= proxy.getSetBindingCalls());
         assertTrue(setServiceBinding <= proxy.getSetServiceBindingCalls());
+        assertTrue(predictions <= proxy.getWriteIntentPredictions());
+        assertTrue(mispredictions <= proxy.getWriteIntentMispredictions());
+        assertTrue(upgrades <= proxy.getReadLockUpgrades());
         
         // We might have some service calls in between creating the 
         // objects and using the bean.
@@ -632,6 +646,9 @@ public class TestMBeans {
         assertTrue(removeServiceBinding <= bean.getRemoveServiceBindingCalls());
         assertTrue(setBinding <= bean.getSetBindingCalls());
         assertTrue(setServiceBinding <= proxy.getSetServiceBindingCalls());
+        assertTrue(predictions <= bean.getWriteIntentPredictions());
+        assertTrue(mispredictions <= bean.getWriteIntentMispredictions());
+        assertTrue(upgrades <= bean.getReadLockUpgrades());
         
         // Test one of the APIs
         txnScheduler.runTask(new TestAbstractKernelRunnable() {
@@ -820,6 +837,93 @@ public class TestMBeans {
         assertTrue(nondurable < bean.getScheduleNonDurableTaskCalls());
     }
  
+    @Test
+    public void testTaskTypeMXBean() throws Exception {
+        // Turn on resource measurement for tasks
+        ProfileConsumer cons = 
+            getCollector(serverNode).getConsumer(
+                ProfileCollectorImpl.CORE_CONSUMER_PREFIX + 
+                "TaskTypeStats");
+        cons.setProfileLevel(ProfileLevel.MEDIUM);
+
+        ObjectName name = new ObjectName(TaskTypeMXBean.MXBEAN_NAME);
+
+        // Ensure the object was registered at startup
+        TaskTypeMXBean bean = (TaskTypeMXBean)
+            profileCollector.getRegisteredMBean(TaskTypeMXBean.MXBEAN_NAME);
+        assertNotNull(bean);
+        bean.clear();
+
+        KernelRunnable task = new TestAbstractKernelRunnable() {
+                public void run() {
+                    byte[][] garbage = new byte[100][];
+                    for (int i = 0; i < garbage.length; i++) {
+                        garbage[i] = new byte[1000];
+                    }
+                }
+            };
+        txnScheduler.runTask(task, taskOwner);
+        txnScheduler.runTask(task, taskOwner);
+
+        // Create the proxy for the object
+        TaskTypeMXBean proxy = 
+            JMX.newMXBeanProxy(mbsc, name, TaskTypeMXBean.class);
+
+        TaskTypeInfo found = null;
+        for (TaskTypeInfo info : proxy.getTaskTypeInfo()) {
+            if (info.getTaskType().equals(task.getBaseTaskType())) {
+                found = info;
+            }
+        }
+        assertNotNull(found);
+        assertEquals(2, found.getTaskCount());
+        assertTrue(found.getCpuTime() >= -1);
+        assertTrue(found.getAllocatedBytes() == -1 ||
+                   found.getAllocatedBytes() >= 200000);
+        assertTrue(found.getLockWaitTime() >= 0);
+        assertTrue(found.getStoreWaitTime() >= 0);
+
+        proxy.clear();
+        assertEquals(0, bean.getTaskTypeInfo().length);
+    }
+
+    @Test
+    public void testTaskTypeMXBeanNestedTask() throws Exception {
+        ProfileConsumer cons = 
+            getCollector(serverNode).getConsumer(
+                ProfileCollectorImpl.CORE_CONSUMER_PREFIX + 
+                "TaskTypeStats");
+        cons.setProfileLevel(ProfileLevel.MEDIUM);
+        TaskTypeMXBean bean = (TaskTypeMXBean)
+            profileCollector.getRegisteredMBean(TaskTypeMXBean.MXBEAN_NAME);
+        bean.clear();
+
+        KernelRunnable outer = new TestAbstractKernelRunnable() {
+                public void run() { }
+            };
+        KernelRunnable nested = new TestAbstractKernelRunnable() {
+                public void run() { }
+            };
+        ProfileCollectorHandle handle = new ProfileCollectorHandleImpl(
+            (ProfileCollectorImpl) profileCollector);
+        handle.startTask(outer, taskOwner, System.currentTimeMillis(), 0);
+        handle.startTask(nested, taskOwner, System.currentTimeMillis(), 0);
+        handle.finishTask(1);
+        handle.finishTask(1);
+
+        // Only the outer task is counted, and it includes the nested one
+        TaskTypeInfo found = null;
+        for (TaskTypeInfo info : bean.getTaskTypeInfo()) {
+            assertFalse(info.getTaskType().equals(nested.getBaseTaskType()));
+            if (info.getTaskType().equals(outer.getBaseTaskType())) {
+                found = info;
+            }
+        }
+        assertNotNull(found);
+        assertEquals(1, found.getTaskCount());
+        bean.clear();
+    }
+
     @Test
     public void testSessionServiceMXBean() throws Exception {
         // Turn on profiling for the service
@@ -843,6 +947,17 @@ public class TestMBeans {
                                 "AddSessionStatusListenerCalls");
         long get = (Long) mbsc.getAttribute(name, 
                                 "GetSessionProtocolCalls");
+        long pending = (Long) mbsc.getAttribute(name, "PendingWriteBytes");
+        long maxPending = (Long) mbsc.getAttribute(name,
+                                "MaxSessionPendingWriteBytes");
+        assertTrue(pending >= 0);
+        assertTrue(maxPending >= 0 && maxPending <= pending);
+        for (String attribute : new String[] {
+                 "UncompressedBytesWritten", "CompressedBytesWritten",
+                 "UncompressedBytesRead", "CompressedBytesRead" })
+        {
+            assertTrue((Long) mbsc.getAttribute(name, attribute) >= 0);
+        }
         
         // Create the proxy for the object
         ClientSessionServiceMXBean proxy = 
@@ -850,6 +965,10 @@ public class TestMBeans {
         
         assertTrue(reg <= proxy.getAddSessionStatusListenerCalls());
         assertTrue(get <= proxy.getGetSessionProtocolCalls());
+        assertTrue(proxy.getUncompressedBytesWritten() >= 0);
+        assertTrue(proxy.getCompressedBytesWritten() >= 0);
+        assertTrue(proxy.getUncompressedBytesRead() >= 0);
+        assertTrue(proxy.getCompressedBytesRead() >= 0);
         
         serverNode.getClientSessionService().
             getSessionProtocol(new BigInteger("555"));
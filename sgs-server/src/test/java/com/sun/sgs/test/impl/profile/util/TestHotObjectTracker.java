@@ -0,0 +1,224 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.profile.util;
+
+import com.sun.sgs.impl.profile.util.HotObjectTracker;
+import com.sun.sgs.kernel.AccessReporter.AccessType;
+import com.sun.sgs.kernel.AccessedObject;
+import com.sun.sgs.management.HotObjectInfo;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests the {@link HotObjectTracker} class. */
+@RunWith(FilteredNameRunner.class)
+public class TestHotObjectTracker {
+
+    /** The window length used by the tests. */
+    private static final long WINDOW = 6000;
+
+    /** The number of slots used by the tests. */
+    private static final int SLOTS = 6;
+
+    /* -- Test constructor -- */
+
+    @Test
+    public void testConstructorIllegalArgs() {
+        try {
+            new HotObjectTracker(0, WINDOW, SLOTS);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e);
+        }
+        try {
+            new HotObjectTracker(10, WINDOW, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e);
+        }
+        try {
+            new HotObjectTracker(10, 5, SLOTS);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e);
+        }
+    }
+
+    /* -- Test recordConflict and getHotObjects -- */
+
+    @Test
+    public void testNoConflicts() {
+        HotObjectTracker tracker = new HotObjectTracker(10, WINDOW, SLOTS);
+        tracker.recordAccesses(accesses("a", "b"), 0);
+        assertEquals(0, tracker.getHotObjects(0).size());
+    }
+
+    @Test
+    public void testMostContendedFirst() {
+        HotObjectTracker tracker = new HotObjectTracker(2, WINDOW, SLOTS);
+        conflicts(tracker, "c", 1, 0);
+        conflicts(tracker, "a", 5, 0);
+        conflicts(tracker, "b", 3, 0);
+        List<HotObjectInfo> hot = tracker.getHotObjects(0);
+        System.err.println(hot);
+        assertEquals(2, hot.size());
+        assertEquals("a", hot.get(0).getObjectId());
+        assertEquals(5, hot.get(0).getConflictCount());
+        assertEquals("b", hot.get(1).getObjectId());
+        assertEquals(3, hot.get(1).getConflictCount());
+    }
+
+    @Test
+    public void testLessContendedNotAdmitted() {
+        HotObjectTracker tracker = new HotObjectTracker(1, WINDOW, SLOTS);
+        conflicts(tracker, "a", 3, 0);
+        conflicts(tracker, "b", 2, 0);
+        List<HotObjectInfo> hot = tracker.getHotObjects(0);
+        assertEquals(1, hot.size());
+        assertEquals("a", hot.get(0).getObjectId());
+        conflicts(tracker, "b", 2, 0);
+        hot = tracker.getHotObjects(0);
+        assertEquals(1, hot.size());
+        assertEquals("b", hot.get(0).getObjectId());
+        assertEquals(4, hot.get(0).getConflictCount());
+    }
+
+    @Test
+    public void testWindowSlides() {
+        HotObjectTracker tracker = new HotObjectTracker(10, WINDOW, SLOTS);
+        conflicts(tracker, "a", 4, 0);
+        conflicts(tracker, "a", 2, WINDOW / 2);
+        assertEquals(6, tracker.getHotObjects(WINDOW - 1).get(0).
+                     getConflictCount());
+        assertEquals(2, tracker.getHotObjects(WINDOW).get(0).
+                     getConflictCount());
+        assertEquals(0, tracker.getHotObjects(WINDOW * 2).size());
+    }
+
+    @Test
+    public void testExpiredObjectReplaced() {
+        HotObjectTracker tracker = new HotObjectTracker(1, WINDOW, SLOTS);
+        conflicts(tracker, "a", 5, 0);
+        conflicts(tracker, "b", 1, WINDOW);
+        List<HotObjectInfo> hot = tracker.getHotObjects(WINDOW);
+        assertEquals(1, hot.size());
+        assertEquals("b", hot.get(0).getObjectId());
+    }
+
+    @Test
+    public void testAccessCount() {
+        HotObjectTracker tracker = new HotObjectTracker(10, WINDOW, SLOTS);
+        for (int i = 0; i < 7; i++) {
+            tracker.recordAccesses(accesses("a", "b"), i * 100);
+        }
+        conflicts(tracker, "a", 1, 1000);
+        HotObjectInfo info = tracker.getHotObjects(1000).get(0);
+        assertEquals("a", info.getObjectId());
+        assertEquals("test", info.getSource());
+        assertEquals("description of a", info.getDescription());
+        assertEquals(8, info.getAccessCount());
+    }
+
+    @Test
+    public void testTaskTypesAndWaitTime() {
+        HotObjectTracker tracker = new HotObjectTracker(10, WINDOW, SLOTS);
+        tracker.recordConflict(access("a"), "TaskA", -1, 0);
+        HotObjectInfo info = tracker.getHotObjects(0).get(0);
+        assertEquals(-1, info.getAverageWaitTime());
+        tracker.recordConflict(access("a"), "TaskB", 100, 0);
+        tracker.recordConflict(access("a"), "TaskA", 300, 0);
+        info = tracker.getHotObjects(0).get(0);
+        assertEquals(200, info.getAverageWaitTime());
+        assertEquals(Arrays.asList("TaskA", "TaskB"),
+                     Arrays.asList(info.getTaskTypes()));
+    }
+
+    @Test
+    public void testManyObjects() {
+        HotObjectTracker tracker = new HotObjectTracker(5, WINDOW, SLOTS);
+        for (int i = 0; i < 2000; i++) {
+            conflicts(tracker, String.valueOf(i), 1, 0);
+        }
+        conflicts(tracker, "hot", 50, 0);
+        List<HotObjectInfo> hot = tracker.getHotObjects(0);
+        assertTrue(hot.size() <= 5);
+        assertEquals("hot", hot.get(0).getObjectId());
+        assertTrue(hot.get(0).getConflictCount() >= 50);
+    }
+
+    /* -- Test clear -- */
+
+    @Test
+    public void testClear() {
+        HotObjectTracker tracker = new HotObjectTracker(10, WINDOW, SLOTS);
+        conflicts(tracker, "a", 3, 0);
+        tracker.clear();
+        assertEquals(0, tracker.getHotObjects(0).size());
+        conflicts(tracker, "a", 1, 0);
+        assertEquals(1, tracker.getHotObjects(0).get(0).getConflictCount());
+    }
+
+    /* -- Other methods and classes -- */
+
+    /** Records the specified number of conflicts on an object. */
+    private static void conflicts(
+        HotObjectTracker tracker, String id, int count, long now)
+    {
+        for (int i = 0; i < count; i++) {
+            tracker.recordAccesses(accesses(id), now);
+            tracker.recordConflict(access(id), "TestTask", -1, now);
+        }
+    }
+
+    /** Returns accesses to the objects with the specified IDs. */
+    private static List<AccessedObject> accesses(String... ids) {
+        List<AccessedObject> result = new ArrayList<AccessedObject>();
+        for (String id : ids) {
+            result.add(access(id));
+        }
+        return result;
+    }
+
+    /** Returns a write access to the object with the specified ID. */
+    private static AccessedObject access(final String id) {
+        return new AccessedObject() {
+            public Object getObjectId() {
+                return id;
+            }
+            public AccessType getAccessType() {
+                return AccessType.WRITE;
+            }
+            public Object getDescription() {
+                return "description of " + id;
+            }
+            public String getSource() {
+                return "test";
+            }
+        };
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.profile.util;
+
+import com.sun.sgs.impl.profile.util.ThreadWaitTimes;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests the {@link ThreadWaitTimes} class. */
+@RunWith(FilteredNameRunner.class)
+public class TestThreadWaitTimes {
+
+    /** The number of nanoseconds in a millisecond. */
+    private static final long MILLIS = 1000 * 1000;
+
+    @Test
+    public void testLockWaitTime() {
+        long lock = ThreadWaitTimes.getLockWaitTime();
+        long store = ThreadWaitTimes.getStoreWaitTime();
+        ThreadWaitTimes.addLockWaitTime(5 * MILLIS);
+        assertEquals(lock + 5 * MILLIS, ThreadWaitTimes.getLockWaitTime());
+        assertEquals(store, ThreadWaitTimes.getStoreWaitTime());
+    }
+
+    @Test
+    public void testStoreWaitTime() throws Exception {
+        long lock = ThreadWaitTimes.getLockWaitTime();
+        long store = ThreadWaitTimes.getStoreWaitTime();
+        long before = System.nanoTime();
+        long start = ThreadWaitTimes.startStoreWait();
+        Thread.sleep(20);
+        ThreadWaitTimes.endStoreWait(start);
+        long elapsed = System.nanoTime() - before;
+        assertEquals(lock, ThreadWaitTimes.getLockWaitTime());
+        long storeWait = ThreadWaitTimes.getStoreWaitTime() - store;
+        assertTrue(storeWait >= 20 * MILLIS);
+        assertTrue(storeWait <= elapsed);
+    }
+
+    @Test
+    public void testStoreWaitTimeExcludesLockWait() throws Exception {
+        long lock = ThreadWaitTimes.getLockWaitTime();
+        long store = ThreadWaitTimes.getStoreWaitTime();
+        long before = System.nanoTime();
+        long start = ThreadWaitTimes.startStoreWait();
+        Thread.sleep(30);
+        /* Pretend that the store operation waited 20 ms for a lock */
+        ThreadWaitTimes.addLockWaitTime(20 * MILLIS);
+        ThreadWaitTimes.endStoreWait(start);
+        long elapsed = System.nanoTime() - before;
+        assertEquals(lock + 20 * MILLIS, ThreadWaitTimes.getLockWaitTime());
+        long storeWait = ThreadWaitTimes.getStoreWaitTime() - store;
+        assertTrue(storeWait >= 10 * MILLIS);
+        assertTrue(storeWait <= elapsed - 20 * MILLIS);
+    }
+
+    @Test
+    public void testTimesPerThread() throws Exception {
+        final long[] otherTimes = new long[2];
+        Thread thread = new Thread() {
+            public void run() {
+                ThreadWaitTimes.addLockWaitTime(MILLIS);
+                long start = ThreadWaitTimes.startStoreWait();
+                ThreadWaitTimes.endStoreWait(start);
+                otherTimes[0] = ThreadWaitTimes.getLockWaitTime();
+                otherTimes[1] = ThreadWaitTimes.getStoreWaitTime();
+            }
+        };
+        long lock = ThreadWaitTimes.getLockWaitTime();
+        long store = ThreadWaitTimes.getStoreWaitTime();
+        thread.start();
+        thread.join();
+        assertEquals(MILLIS, otherTimes[0]);
+        assertTrue(otherTimes[1] >= 0 && otherTimes[1] < MILLIS * 1000);
+        assertEquals(lock, ThreadWaitTimes.getLockWaitTime());
+        assertEquals(store, ThreadWaitTimes.getStoreWaitTime());
+    }
+}
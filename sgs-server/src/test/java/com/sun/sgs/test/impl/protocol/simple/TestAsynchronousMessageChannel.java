@@ -0,0 +1,568 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.protocol.simple;
+
+import com.sun.sgs.impl.nio.DirectBufferPool;
+import com.sun.sgs.impl.nio.Nio2AsyncChannelProvider;
+import com.sun.sgs.impl.protocol.simple.AsynchronousMessageChannel;
+import com.sun.sgs.impl.protocol.simple.MessageCompression;
+import com.sun.sgs.impl.protocol.simple.SimpleSgsProtocolImpl;
+import com.sun.sgs.nio.channels.AsynchronousChannelGroup;
+import com.sun.sgs.nio.channels.AsynchronousServerSocketChannel;
+import com.sun.sgs.nio.channels.AsynchronousSocketChannel;
+import com.sun.sgs.nio.channels.CompletionHandler;
+import com.sun.sgs.nio.channels.IoFuture;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.sun.sgs.impl.protocol.simple.AsynchronousMessageChannel.PREFIX_LENGTH;
+import static com.sun.sgs.test.util.UtilReflection.getField;
+import static com.sun.sgs.test.util.UtilReflection.getMethod;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test writing batches of messages with the {@code
+ * AsynchronousMessageChannel} class over a loopback connection.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestAsynchronousMessageChannel {
+
+    /** The method that moves queued messages into a write batch. */
+    private static final Method fillBatch =
+	getMethod(SimpleSgsProtocolImpl.class, "fillBatch",
+		  Queue.class, List.class, int.class);
+
+    /** The method that sets the compression used for writing messages. */
+    private static final Method setCompression =
+	getMethod(AsynchronousMessageChannel.class, "setCompression",
+		  MessageCompression.class);
+
+    /** The method that returns the number of bytes in messages written. */
+    private static final Method getUncompressedBytesWritten =
+	getMethod(AsynchronousMessageChannel.class,
+		  "getUncompressedBytesWritten");
+
+    /** The method that returns the number of bytes sent for messages. */
+    private static final Method getCompressedBytesWritten =
+	getMethod(AsynchronousMessageChannel.class,
+		  "getCompressedBytesWritten");
+
+    /** The compression threshold used by the compression tests. */
+    private static final int COMPRESSION_THRESHOLD = 64;
+
+    /** The read buffer of a channel. */
+    private static final Field readBufferField =
+	getField(AsynchronousMessageChannel.class, "readBuffer");
+
+    /** The size of the read buffer of an idle channel that uses a pool. */
+    private static final int IDLE_READ_BUFFER_SIZE =
+	getIdleReadBufferSize();
+
+    private AsynchronousChannelGroup group;
+    private AsynchronousServerSocketChannel server;
+
+    /** The channel that writes messages. */
+    private AsynchronousMessageChannel writer;
+
+    /** The other end of the connection, which reads the bytes written. */
+    private AsynchronousSocketChannel reader;
+
+    /** The buffer pool used by the pool tests. */
+    private DirectBufferPool pool;
+
+    /**
+     * A channel for the other end of the connection that uses {@link
+     * #pool}, or {@code null}.
+     */
+    private AsynchronousMessageChannel pooled;
+
+    @Before
+    public void setUp() throws Exception {
+	Nio2AsyncChannelProvider provider = new Nio2AsyncChannelProvider();
+	group = provider.openAsynchronousChannelGroup(
+	    Executors.newCachedThreadPool());
+	server = provider.openAsynchronousServerSocketChannel(group);
+	server.bind(new InetSocketAddress(InetAddress.getLocalHost(), 0));
+	IoFuture<AsynchronousSocketChannel, Void> accepted =
+	    server.accept(null);
+	AsynchronousSocketChannel client =
+	    provider.openAsynchronousSocketChannel(group);
+	client.connect(server.getLocalAddress(), null).get(5, TimeUnit.SECONDS);
+	reader = accepted.get(5, TimeUnit.SECONDS);
+	writer = new AsynchronousMessageChannel(client, 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+	if (pooled != null) {
+	    pooled.close();
+	}
+	if (writer != null) {
+	    writer.close();
+	}
+	if (reader != null) {
+	    reader.close();
+	}
+	if (server != null) {
+	    server.close();
+	}
+	if (group != null) {
+	    group.shutdownNow();
+	    group.awaitTermination(5, TimeUnit.SECONDS);
+	}
+    }
+
+    /* -- Tests -- */
+
+    @Test
+    public void testWriteListFramed() throws Exception {
+	List<ByteBuffer> messages =
+	    Arrays.asList(message(1, 10), message(2, 0), message(3, 300));
+	write(messages);
+	for (ByteBuffer message : messages) {
+	    assertEquals(0, message.remaining());
+	}
+	checkRead(Arrays.asList(message(1, 10), message(2, 0),
+				message(3, 300)));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testWriteListEmpty() throws Exception {
+	writer.write(new ArrayList<ByteBuffer>(), null);
+    }
+
+    @Test
+    public void testWriteBatchLimit() throws Exception {
+	/* Each message occupies 52 bytes with its length prefix */
+	List<ByteBuffer> messages = new ArrayList<ByteBuffer>();
+	for (int i = 0; i < 10; i++) {
+	    messages.add(message(i, 50));
+	}
+	List<Integer> batches = writeQueue(messages, 160);
+	assertEquals(Arrays.asList(3, 3, 3, 1), batches);
+	checkRead(messages);
+    }
+
+    @Test
+    public void testWriteBatchLimitExact() throws Exception {
+	List<ByteBuffer> messages = new ArrayList<ByteBuffer>();
+	for (int i = 0; i < 4; i++) {
+	    messages.add(message(i, 50));
+	}
+	List<Integer> batches = writeQueue(messages, 104);
+	assertEquals(Arrays.asList(2, 2), batches);
+	checkRead(messages);
+    }
+
+    @Test
+    public void testWriteBatchOversizedMessage() throws Exception {
+	List<ByteBuffer> messages = Arrays.asList(
+	    message(1, 10), message(2, 500), message(3, 10), message(4, 10));
+	List<Integer> batches = writeQueue(messages, 100);
+	assertEquals(Arrays.asList(1, 1, 2), batches);
+	checkRead(messages);
+    }
+
+    @Test
+    public void testWriteBatchSizeZero() throws Exception {
+	List<ByteBuffer> messages = new ArrayList<ByteBuffer>();
+	for (int i = 0; i < 5; i++) {
+	    messages.add(message(i, i));
+	}
+	List<Integer> batches = writeQueue(messages, 0);
+	assertEquals(Arrays.asList(1, 1, 1, 1, 1), batches);
+	checkRead(messages);
+    }
+
+    @Test
+    public void testWriteCountsBytes() throws Exception {
+	write(Arrays.asList(message(1, 10), message(2, 300)));
+	readFrames(2);
+	assertEquals(310L, getUncompressedBytesWritten.invoke(writer));
+	assertEquals(310L, getCompressedBytesWritten.invoke(writer));
+    }
+
+    @Test
+    public void testWriteCompressed() throws Exception {
+	setCompression.invoke(
+	    writer, new MessageCompression(Deflater.BEST_COMPRESSION,
+					   COMPRESSION_THRESHOLD));
+	/* A message below the threshold, then two compressible ones */
+	List<ByteBuffer> messages = Arrays.asList(
+	    message(1, 10), message(2, 500), message(3, 1000));
+	write(messages);
+	List<byte[]> frames = readFrames(3);
+	MessageCompression reader = new MessageCompression(
+	    Deflater.BEST_COMPRESSION, COMPRESSION_THRESHOLD);
+	assertFalse(MessageCompression.isCompressed(
+			ByteBuffer.wrap(frames.get(0))));
+	assertArrayEquals(message(1, 10).array(), frames.get(0));
+	long compressedBytes = frames.get(0).length;
+	for (int i = 1; i < 3; i++) {
+	    byte[] frame = frames.get(i);
+	    compressedBytes += frame.length;
+	    assertTrue(MessageCompression.isCompressed(ByteBuffer.wrap(frame)));
+	    assertTrue(frame.length < messages.get(i).capacity());
+	    assertArrayEquals(messages.get(i).array(),
+			      reader.read(ByteBuffer.wrap(frame)));
+	}
+	reader.end();
+	assertEquals(1510L, getUncompressedBytesWritten.invoke(writer));
+	assertEquals(compressedBytes,
+		     getCompressedBytesWritten.invoke(writer));
+    }
+
+    @Test
+    public void testPooledReadBufferGrows() throws Exception {
+	createPooled();
+	writer.write(message(1, 4000), null);
+	assertEquals(message(1, 4000), read(pooled));
+	assertTrue(getReadBuffer(pooled).capacity() >= 4000 + PREFIX_LENGTH);
+	/* The idle buffer was returned when the buffer grew */
+	assertEquals(IDLE_READ_BUFFER_SIZE, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testPooledReadBufferShrinksWhenIdle() throws Exception {
+	createPooled();
+	writer.write(message(1, 4000), null);
+	assertEquals(message(1, 4000), read(pooled));
+	int largeCapacity = getReadBuffer(pooled).capacity();
+	writer.write(message(2, 10), null);
+	assertEquals(message(2, 10), read(pooled));
+	/* The large buffer was exchanged for the idle one */
+	assertEquals(IDLE_READ_BUFFER_SIZE,
+		     getReadBuffer(pooled).capacity());
+	assertEquals(largeCapacity, pool.getPooledBytes());
+	assertEquals(2, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void testPooledReadBufferReleasedOnClose() throws Exception {
+	createPooled();
+	final CountDownLatch done = new CountDownLatch(1);
+	IoFuture<ByteBuffer, Void> future = pooled.read(
+	    new CompletionHandler<ByteBuffer, Void>() {
+		public void completed(IoFuture<ByteBuffer, Void> result) {
+		    done.countDown();
+		}
+	    });
+	assertEquals(0, pool.getPooledBytes());
+	pooled.close();
+	assertTrue(done.await(5, TimeUnit.SECONDS));
+	try {
+	    future.getNow();
+	    fail("Expected ExecutionException");
+	} catch (ExecutionException e) {
+	    System.err.println(e);
+	}
+	assertNull(getReadBuffer(pooled));
+	assertEquals(IDLE_READ_BUFFER_SIZE, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testPooledReadBufferDroppedOnCancel() throws Exception {
+	createPooled();
+	IoFuture<ByteBuffer, Void> future = pooled.read(null);
+	assertNotNull(getReadBuffer(pooled));
+	assertTrue(future.cancel(false));
+	/*
+	 * The underlying read may still use the buffer, so it is neither
+	 * kept nor returned to the pool, even once the channel is closed
+	 */
+	assertNull(getReadBuffer(pooled));
+	pooled.close();
+	assertEquals(0, pool.getPooledBytes());
+	assertEquals(1, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void testPooledWriteBufferDroppedOnCancel() throws Exception {
+	createPooled();
+	/* Fill the socket buffers so that a write stays underway */
+	IoFuture<Void, Void> future = null;
+	for (int i = 0; i < 1000; i++) {
+	    final CountDownLatch done = new CountDownLatch(1);
+	    future = pooled.write(
+		message(i, 8000),
+		new CompletionHandler<Void, Void>() {
+		    public void completed(IoFuture<Void, Void> result) {
+			done.countDown();
+		    }
+		});
+	    if (!done.await(100, TimeUnit.MILLISECONDS)) {
+		break;
+	    }
+	}
+	assertFalse(future.isDone());
+	long pooledBytes = pool.getPooledBytes();
+	assertTrue(future.cancel(false));
+	/* The underlying write may still use the buffer */
+	assertEquals(pooledBytes, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testPooledReadBufferReleasedOnCloseWhenIdle()
+	throws Exception
+    {
+	createPooled();
+	writer.write(message(1, 10), null);
+	assertEquals(message(1, 10), read(pooled));
+	assertEquals(0, pool.getPooledBytes());
+	pooled.close();
+	assertNull(getReadBuffer(pooled));
+	assertEquals(IDLE_READ_BUFFER_SIZE, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testPooledWriteBufferReleased() throws Exception {
+	createPooled();
+	write(pooled, message(1, 100));
+	/* The 102 byte frame used a 128 byte buffer */
+	assertEquals(128, pool.getPooledBytes());
+	assertEquals(message(1, 100), read(writer));
+	write(pooled, message(2, 100));
+	assertEquals(128, pool.getPooledBytes());
+	assertEquals(1, pool.getAllocatedCount());
+    }
+
+    @Test
+    public void testPooledWriteBufferReleasedOnClose() throws Exception {
+	createPooled();
+	pooled.close();
+	try {
+	    write(pooled, message(1, 100));
+	    fail("Expected ExecutionException");
+	} catch (ExecutionException e) {
+	    System.err.println(e);
+	}
+	assertEquals(128, pool.getPooledBytes());
+    }
+
+    /* -- Other methods -- */
+
+    /**
+     * Creates a pool, and a channel for the other end of the connection
+     * that uses the pool.
+     */
+    private void createPooled() {
+	pool = new DirectBufferPool(64, 16384, 1 << 20);
+	pooled = new AsynchronousMessageChannel(reader, 8192, pool);
+    }
+
+    /** Returns the read buffer of the channel. */
+    private static ByteBuffer getReadBuffer(AsynchronousMessageChannel channel)
+	throws Exception
+    {
+	return (ByteBuffer) readBufferField.get(channel);
+    }
+
+    /** Returns the size of the read buffer of an idle pooled channel. */
+    private static int getIdleReadBufferSize() {
+	try {
+	    return getField(AsynchronousMessageChannel.class,
+			    "IDLE_READ_BUFFER_SIZE").getInt(null);
+	} catch (IllegalAccessException e) {
+	    throw new RuntimeException("Unexpected exception: " + e, e);
+	}
+    }
+
+    /**
+     * Reads a message from the channel, waiting for the read to complete,
+     * and returns a copy of the message.
+     */
+    private static ByteBuffer read(AsynchronousMessageChannel channel)
+	throws Exception
+    {
+	final CountDownLatch done = new CountDownLatch(1);
+	IoFuture<ByteBuffer, Void> future = channel.read(
+	    new CompletionHandler<ByteBuffer, Void>() {
+		public void completed(IoFuture<ByteBuffer, Void> result) {
+		    done.countDown();
+		}
+	    });
+	assertTrue(done.await(5, TimeUnit.SECONDS));
+	ByteBuffer message = future.getNow();
+	ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+	copy.put(message).flip();
+	return copy;
+    }
+
+    /**
+     * Writes a message to the channel, and waits for the write to
+     * complete.
+     */
+    private static void write(AsynchronousMessageChannel channel,
+			      ByteBuffer message)
+	throws Exception
+    {
+	final CountDownLatch done = new CountDownLatch(1);
+	IoFuture<Void, Void> future = channel.write(
+	    message,
+	    new CompletionHandler<Void, Void>() {
+		public void completed(IoFuture<Void, Void> result) {
+		    done.countDown();
+		}
+	    });
+	assertTrue(done.await(5, TimeUnit.SECONDS));
+	future.getNow();
+    }
+
+    /**
+     * Reads the specified number of messages written to the connection,
+     * using the length prefix written before each one, and checks that no
+     * more bytes were written.
+     */
+    private List<byte[]> readFrames(int count) throws Exception {
+	ByteBuffer in = ByteBuffer.allocate(8192);
+	List<byte[]> frames = new ArrayList<byte[]>();
+	while (frames.size() < count) {
+	    int n = reader.read(in, null).get(5, TimeUnit.SECONDS);
+	    assertTrue(n > 0);
+	    in.flip();
+	    while (in.remaining() >= PREFIX_LENGTH) {
+		int length = in.getShort(in.position()) & 0xffff;
+		if (in.remaining() < PREFIX_LENGTH + length) {
+		    break;
+		}
+		in.position(in.position() + PREFIX_LENGTH);
+		byte[] frame = new byte[length];
+		in.get(frame);
+		frames.add(frame);
+	    }
+	    in.compact();
+	}
+	assertEquals("Read more messages than were written",
+		     count, frames.size());
+	assertEquals("Read more bytes than were written", 0, in.position());
+	return frames;
+    }
+
+    /**
+     * Returns a message of the specified length whose bytes are all
+     * {@code value}.
+     */
+    private static ByteBuffer message(int value, int length) {
+	byte[] bytes = new byte[length];
+	Arrays.fill(bytes, (byte) value);
+	return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Writes the messages the way a session's write handler does, moving
+     * batches of at most {@code maxBytes} from a queue and writing each
+     * batch with a single write operation, and returns the number of
+     * messages in each batch.  Duplicates the messages, so the caller can
+     * compare them with the messages read.
+     */
+    private List<Integer> writeQueue(List<ByteBuffer> messages, int maxBytes)
+	throws Exception
+    {
+	Queue<ByteBuffer> queue = new LinkedList<ByteBuffer>();
+	for (ByteBuffer message : messages) {
+	    queue.add(message.duplicate());
+	}
+	List<Integer> batches = new ArrayList<Integer>();
+	while (!queue.isEmpty()) {
+	    List<ByteBuffer> batch = new ArrayList<ByteBuffer>();
+	    int bytes = (Integer) fillBatch.invoke(null, queue, batch, maxBytes);
+	    int expectedBytes = 0;
+	    for (ByteBuffer message : batch) {
+		expectedBytes += PREFIX_LENGTH + message.remaining();
+	    }
+	    assertEquals(expectedBytes, bytes);
+	    assertTrue(batch.size() == 1 || bytes <= maxBytes);
+	    write(batch);
+	    batches.add(batch.size());
+	}
+	return batches;
+    }
+
+    /**
+     * Writes the messages with a single write operation, and waits for the
+     * completion handler to be called, as the write handler does before
+     * starting the next write.
+     */
+    private void write(List<ByteBuffer> messages) throws Exception {
+	final CountDownLatch done = new CountDownLatch(1);
+	IoFuture<Void, Void> future = writer.write(
+	    messages,
+	    new CompletionHandler<Void, Void>() {
+		public void completed(IoFuture<Void, Void> result) {
+		    done.countDown();
+		}
+	    });
+	assertTrue(done.await(5, TimeUnit.SECONDS));
+	future.getNow();
+    }
+
+    /**
+     * Reads the bytes written to the connection and checks that they are
+     * the specified messages, in order, each preceded by its length.
+     */
+    private void checkRead(List<ByteBuffer> messages) throws Exception {
+	int total = 0;
+	for (ByteBuffer message : messages) {
+	    total += PREFIX_LENGTH + message.remaining();
+	}
+	ByteBuffer in = ByteBuffer.allocate(total + 1);
+	while (in.position() < total) {
+	    int n = reader.read(in, null).get(5, TimeUnit.SECONDS);
+	    assertTrue(n > 0);
+	}
+	assertEquals("Read more bytes than were written", total, in.position());
+	in.flip();
+	for (ByteBuffer message : messages) {
+	    int length = in.getShort() & 0xffff;
+	    assertEquals(message.remaining(), length);
+	    byte[] expected = new byte[length];
+	    message.duplicate().get(expected);
+	    byte[] actual = new byte[length];
+	    in.get(actual);
+	    assertArrayEquals(expected, actual);
+	}
+    }
+}
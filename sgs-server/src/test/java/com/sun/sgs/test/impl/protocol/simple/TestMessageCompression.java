@@ -0,0 +1,252 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.protocol.simple;
+
+import com.sun.sgs.impl.protocol.simple.MessageCompression;
+import com.sun.sgs.protocol.simple.SimpleSgsProtocol;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Test the MessageCompression class. */
+@RunWith(FilteredNameRunner.class)
+public class TestMessageCompression {
+
+    /** The compression threshold used by the tests. */
+    private static final int THRESHOLD = 64;
+
+    /** The compression for messages sent by the writer. */
+    private MessageCompression writer;
+
+    /** The compression for messages received by the reader. */
+    private MessageCompression reader;
+
+    @Before
+    public void setUp() {
+	writer = new MessageCompression(
+	    Deflater.DEFAULT_COMPRESSION, THRESHOLD);
+	reader = new MessageCompression(
+	    Deflater.DEFAULT_COMPRESSION, THRESHOLD);
+    }
+
+    @After
+    public void tearDown() {
+	writer.end();
+	reader.end();
+    }
+
+    /* -- Tests -- */
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testConstructorBadLevel() {
+	new MessageCompression(10, THRESHOLD);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testConstructorNegativeThreshold() {
+	new MessageCompression(Deflater.DEFAULT_COMPRESSION, -1);
+    }
+
+    @Test
+    public void testWriteBelowThreshold() {
+	byte[] message = message(SimpleSgsProtocol.SESSION_MESSAGE,
+				 THRESHOLD - 1);
+	ByteBuffer written = write(message);
+	assertFalse(MessageCompression.isCompressed(written));
+	assertArrayEquals(message, toArray(written));
+    }
+
+    @Test
+    public void testWriteAboveThreshold() throws Exception {
+	byte[] message = message(SimpleSgsProtocol.SESSION_MESSAGE, 1000);
+	ByteBuffer written = write(message);
+	assertTrue(MessageCompression.isCompressed(written));
+	assertTrue(written.remaining() < message.length);
+	assertArrayEquals(message, reader.read(written));
+	assertFalse(written.hasRemaining());
+    }
+
+    @Test
+    public void testWriteLoginSuccessBelowThreshold() throws Exception {
+	byte[] message = message(SimpleSgsProtocol.LOGIN_SUCCESS, 8);
+	ByteBuffer written = write(message);
+	assertTrue(MessageCompression.isCompressed(written));
+	assertArrayEquals(message, reader.read(written));
+    }
+
+    @Test
+    public void testWriteSequence() throws Exception {
+	byte[] message = message(SimpleSgsProtocol.SESSION_MESSAGE, 500);
+	int firstLength = 0;
+	for (int i = 0; i < 20; i++) {
+	    byte[] next = message.clone();
+	    next[next.length - 1] = (byte) i;
+	    ByteBuffer written = write(next);
+	    if (i == 0) {
+		firstLength = written.remaining();
+	    } else {
+		/* Later messages are compressed in the context of the first */
+		assertTrue(written.remaining() < firstLength);
+	    }
+	    assertArrayEquals(next, reader.read(written));
+	}
+    }
+
+    @Test
+    public void testWriteIncompressible() throws Exception {
+	byte[] message = new byte[2000];
+	new Random(1).nextBytes(message);
+	message[0] = SimpleSgsProtocol.SESSION_MESSAGE;
+	ByteBuffer src = ByteBuffer.wrap(message);
+	int maxLength = writer.getMaxWriteLength(src);
+	assertTrue(maxLength > message.length);
+	ByteBuffer written = write(message);
+	assertTrue(written.remaining() <= maxLength);
+	assertArrayEquals(message, reader.read(written));
+    }
+
+    @Test
+    public void testWriteMaxMessage() throws Exception {
+	byte[] message = message(SimpleSgsProtocol.SESSION_MESSAGE,
+				 SimpleSgsProtocol.MAX_PAYLOAD_LENGTH);
+	ByteBuffer src = ByteBuffer.wrap(message);
+	/* Too large to compress without risking exceeding the maximum */
+	assertEquals(message.length, writer.getMaxWriteLength(src));
+	ByteBuffer written = write(message);
+	assertFalse(MessageCompression.isCompressed(written));
+    }
+
+    @Test
+    public void testReadUncompressed() {
+	byte[] message = message(SimpleSgsProtocol.SESSION_MESSAGE, 10);
+	try {
+	    reader.read(ByteBuffer.wrap(message));
+	    fail("Expected IOException");
+	} catch (IOException e) {
+	    System.err.println(e);
+	}
+    }
+
+    @Test
+    public void testReadInvalid() {
+	byte[] message = message(SimpleSgsProtocol.SESSION_MESSAGE, 100);
+	message[0] |= MessageCompression.COMPRESSED_FLAG;
+	Arrays.fill(message, 1, message.length, (byte) 0xff);
+	try {
+	    reader.read(ByteBuffer.wrap(message));
+	    fail("Expected IOException");
+	} catch (IOException e) {
+	    System.err.println(e);
+	}
+    }
+
+    @Test
+    public void testReadTooLong() {
+	/* Compresses well, so the compressed message is short */
+	byte[] payload = new byte[SimpleSgsProtocol.MAX_MESSAGE_LENGTH];
+	Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	deflater.setInput(payload);
+	byte[] compressed = new byte[payload.length];
+	compressed[0] = (byte) (SimpleSgsProtocol.SESSION_MESSAGE |
+				MessageCompression.COMPRESSED_FLAG);
+	int length = 1 + deflater.deflate(
+	    compressed, 1, compressed.length - 1, Deflater.SYNC_FLUSH);
+	deflater.end();
+	assertTrue(length < SimpleSgsProtocol.MAX_MESSAGE_LENGTH);
+	try {
+	    reader.read(ByteBuffer.wrap(compressed, 0, length));
+	    fail("Expected IOException");
+	} catch (IOException e) {
+	    System.err.println(e);
+	}
+    }
+
+    @Test
+    public void testWriteAfterEnd() {
+	writer.end();
+	byte[] message = message(SimpleSgsProtocol.SESSION_MESSAGE, 1000);
+	ByteBuffer written = write(message);
+	assertFalse(MessageCompression.isCompressed(written));
+	assertArrayEquals(message, toArray(written));
+    }
+
+    @Test
+    public void testReadAfterEnd() {
+	ByteBuffer written =
+	    write(message(SimpleSgsProtocol.SESSION_MESSAGE, 1000));
+	reader.end();
+	try {
+	    reader.read(written);
+	    fail("Expected IOException");
+	} catch (IOException e) {
+	    System.err.println(e);
+	}
+    }
+
+    /* -- Other methods -- */
+
+    /**
+     * Returns a repetitive message with the specified opcode and payload
+     * length.
+     */
+    private static byte[] message(byte opcode, int payloadLength) {
+	byte[] message = new byte[1 + payloadLength];
+	message[0] = opcode;
+	for (int i = 1; i < message.length; i++) {
+	    message[i] = (byte) ('a' + (i % 7));
+	}
+	return message;
+    }
+
+    /**
+     * Writes the message with the writer, and returns a buffer containing
+     * the result.
+     */
+    private ByteBuffer write(byte[] message) {
+	ByteBuffer src = ByteBuffer.wrap(message);
+	ByteBuffer dst = ByteBuffer.allocate(writer.getMaxWriteLength(src));
+	writer.write(src, dst);
+	assertFalse(src.hasRemaining());
+	dst.flip();
+	return dst;
+    }
+
+    /** Returns the remaining bytes of the buffer. */
+    private static byte[] toArray(ByteBuffer buf) {
+	byte[] result = new byte[buf.remaining()];
+	buf.get(result);
+	return result;
+    }
+}
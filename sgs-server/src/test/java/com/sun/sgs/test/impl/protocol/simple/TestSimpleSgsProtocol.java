@@ -25,16 +25,21 @@ import com.sun.sgs.app.Delivery;
 import com.sun.sgs.auth.Identity;
 import com.sun.sgs.impl.kernel.StandardProperties;
 import com.sun.sgs.impl.nio.AttachedFuture;
+import com.sun.sgs.impl.protocol.simple.MessageCompression;
 import com.sun.sgs.impl.protocol.simple.SimpleSgsProtocolAcceptor;
+import com.sun.sgs.impl.protocol.simple.SimpleSgsProtocolAcceptor.
+    WriteQueueOverflowPolicy;
 import com.sun.sgs.impl.sharedutil.MessageBuffer;
 import com.sun.sgs.nio.channels.AsynchronousByteChannel;
 import com.sun.sgs.nio.channels.CompletionHandler;
 import com.sun.sgs.nio.channels.IoFuture;
+import com.sun.sgs.protocol.ChannelMessage;
 import com.sun.sgs.protocol.ProtocolAcceptor;
 import com.sun.sgs.protocol.ProtocolListener;
 import com.sun.sgs.protocol.RequestCompletionHandler;
 import com.sun.sgs.protocol.SessionProtocol;
 import com.sun.sgs.protocol.SessionProtocolHandler;
+import com.sun.sgs.protocol.SessionRelocationProtocol;
 import com.sun.sgs.protocol.simple.SimpleSgsProtocol;
 import com.sun.sgs.test.util.SgsTestNode;
 import com.sun.sgs.test.util.SgsTestNode.DummyAppListener;
@@ -42,21 +47,34 @@ import com.sun.sgs.tools.test.FilteredNameRunner;
 import com.sun.sgs.transport.ConnectionHandler;
 import com.sun.sgs.transport.Transport;
 import com.sun.sgs.transport.TransportDescriptor;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 /**
  * Test the simple sgs protocol.
  */
@@ -64,10 +82,38 @@ import org.junit.runner.RunWith;
 public class TestSimpleSgsProtocol {
 
     private static final String APP_NAME = "TestSimpleSgsProtocol";
+
+    /** The write queue high watermark used by the write queue tests. */
+    private static final int HIGH_WATERMARK =
+	SimpleSgsProtocolAcceptor.MIN_WRITE_QUEUE_HIGH_WATERMARK;
+
+    /** The write queue low watermark used by the write queue tests. */
+    private static final int LOW_WATERMARK = 16 * 1024;
+
+    /** The payload size of the messages sent by the write queue tests. */
+    private static final int PAYLOAD_LENGTH = 1000;
+
+    /**
+     * The number of bytes each message sent by the write queue tests adds
+     * to the write queue: the length prefix, opcode, and payload.
+     */
+    private static final int MESSAGE_LENGTH = 2 + 1 + PAYLOAD_LENGTH;
+
+    /** The length of the prefix that holds the length of a message. */
+    private static final int PREFIX_LENGTH = 2;
+
+    /** The compression threshold used by the compression tests. */
+    private static final int COMPRESSION_THRESHOLD = 64;
     
     private SgsTestNode serverNode;
     
     private volatile ProtocolAcceptor acceptor;
+
+    /** The listener for the write queue tests. */
+    private DummyListener listener;
+
+    /** The session protocol for the write queue tests. */
+    private SessionProtocol protocol;
     
     @Before
     public void setUp() throws Exception {
@@ -116,6 +162,36 @@ public class TestSimpleSgsProtocol {
                                                  serverNode.getProxy());
     }
     
+    @Test(expected=IllegalArgumentException.class)
+    public void testWriteQueueLowWatermarkAboveHighWatermark()
+	throws Exception
+    {
+        final Properties props = new Properties();
+        props.setProperty(StandardProperties.APP_NAME, APP_NAME);
+        props.setProperty(
+	    SimpleSgsProtocolAcceptor.WRITE_QUEUE_HIGH_WATERMARK_PROPERTY,
+	    "100000");
+        props.setProperty(
+	    SimpleSgsProtocolAcceptor.WRITE_QUEUE_LOW_WATERMARK_PROPERTY,
+	    "100001");
+        acceptor = new SimpleSgsProtocolAcceptor(props,
+                                                 serverNode.getSystemRegistry(),
+                                                 serverNode.getProxy());
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testWriteQueueHighWatermarkTooSmall() throws Exception {
+        final Properties props = new Properties();
+        props.setProperty(StandardProperties.APP_NAME, APP_NAME);
+        props.setProperty(
+	    SimpleSgsProtocolAcceptor.WRITE_QUEUE_HIGH_WATERMARK_PROPERTY,
+	    String.valueOf(
+		SimpleSgsProtocolAcceptor.MIN_WRITE_QUEUE_HIGH_WATERMARK - 1));
+        acceptor = new SimpleSgsProtocolAcceptor(props,
+                                                 serverNode.getSystemRegistry(),
+                                                 serverNode.getProxy());
+    }
+    
     @Test
     public void testAcceptNPE() throws Exception {
         final Properties props = new Properties();
@@ -146,6 +222,296 @@ public class TestSimpleSgsProtocol {
         acceptor.accept(listener);
         close();
     }
+
+    @Test
+    public void testWriteQueueDropsUnreliableAboveHighWatermark()
+	throws Exception
+    {
+	StalledChannel channel = login(WriteQueueOverflowPolicy.QUEUE);
+	int accepted = fillWithUnreliable();
+	long pending = protocol.getPendingWriteBytes();
+	assertTrue(pending <= HIGH_WATERMARK);
+	assertTrue(pending + MESSAGE_LENGTH > HIGH_WATERMARK);
+	assertFalse(sendMessage(Delivery.UNRELIABLE));
+	assertFalse(sendMessage(Delivery.UNRELIABLE));
+	assertEquals(pending, protocol.getPendingWriteBytes());
+	channel.releaseAll();
+	checkSessionMessages(channel, accepted);
+    }
+
+    @Test
+    public void testWriteQueueAcceptsUnreliableAtLowWatermark()
+	throws Exception
+    {
+	StalledChannel channel = login(WriteQueueOverflowPolicy.QUEUE);
+	int accepted = fillWithUnreliable();
+	/* A reliable message is queued, and fills the queue */
+	assertTrue(sendMessage(Delivery.RELIABLE));
+	accepted++;
+	assertTrue(protocol.getPendingWriteBytes() > HIGH_WATERMARK);
+	/* Unreliable messages are dropped until the queue drains */
+	while (protocol.getPendingWriteBytes() > LOW_WATERMARK) {
+	    assertFalse(sendMessage(Delivery.UNRELIABLE));
+	    assertTrue(channel.releaseWrite());
+	}
+	assertTrue(sendMessage(Delivery.UNRELIABLE));
+	accepted++;
+	channel.releaseAll();
+	checkSessionMessages(channel, accepted);
+    }
+
+    @Test
+    public void testWriteQueueOverflowDisconnect() throws Exception {
+	StalledChannel channel = login(WriteQueueOverflowPolicy.DISCONNECT);
+	/* The number of messages that fit below the high watermark */
+	int count = (int) (HIGH_WATERMARK - protocol.getPendingWriteBytes()) /
+	    MESSAGE_LENGTH;
+	for (int i = 0; i < count; i++) {
+	    assertTrue(sendMessage(Delivery.RELIABLE));
+	}
+	Thread.sleep(100);
+	assertTrue(channel.isOpen());
+	assertEquals(1, listener.disconnected.getCount());
+	/* The session is closed asynchronously */
+	protocol.sessionMessage(
+	    ByteBuffer.allocate(PAYLOAD_LENGTH), Delivery.RELIABLE);
+	assertTrue(listener.disconnected.await(5, TimeUnit.SECONDS));
+	assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void testWriteQueueOverflowQueue() throws Exception {
+	StalledChannel channel = login(WriteQueueOverflowPolicy.QUEUE);
+	int count = 2 * HIGH_WATERMARK / PAYLOAD_LENGTH;
+	for (int i = 0; i < count; i++) {
+	    assertTrue(sendMessage(Delivery.RELIABLE));
+	}
+	assertTrue(protocol.getPendingWriteBytes() > HIGH_WATERMARK);
+	Thread.sleep(100);
+	assertTrue(channel.isOpen());
+	assertEquals(1, listener.disconnected.getCount());
+	channel.releaseAll();
+	checkSessionMessages(channel, count);
+	assertEquals(0, protocol.getPendingWriteBytes());
+    }
+    
+    @Test
+    public void testChannelMessageSharedFrame() throws Exception {
+	createStalledAcceptor(WriteQueueOverflowPolicy.QUEUE);
+	StalledChannel channel1 = connect();
+	SessionProtocol protocol1 = protocol;
+	StalledChannel channel2 = connect();
+	SessionProtocol protocol2 = protocol;
+	BigInteger channelId = BigInteger.valueOf(0x1234);
+	byte[] payload = { 1, 2, 3, 4, 5 };
+	ChannelMessage message = new ChannelMessage(
+	    channelId, ByteBuffer.wrap(payload), Delivery.RELIABLE);
+	protocol1.channelMessage(message);
+	/*
+	 * Change the payload, which the message does not copy, so that the
+	 * second session only sends the right bytes if it reuses the
+	 * encoding stored by the first session.
+	 */
+	Arrays.fill(payload, (byte) 0);
+	protocol2.channelMessage(message);
+	channel1.releaseAll();
+	channel2.releaseAll();
+	ByteBuffer expected = ByteBuffer.allocate(1 + 2 + 2 + 5);
+	expected.put(SimpleSgsProtocol.CHANNEL_MESSAGE).
+	    putShort((short) 2).
+	    putShort((short) 0x1234).
+	    put(new byte[] { 1, 2, 3, 4, 5 });
+	for (StalledChannel channel : Arrays.asList(channel1, channel2)) {
+	    List<byte[]> messages = channel.getMessages();
+	    assertEquals(2, messages.size());
+	    assertEquals(SimpleSgsProtocol.LOGIN_SUCCESS, messages.get(0)[0]);
+	    assertArrayEquals(expected.array(), messages.get(1));
+	}
+    }
+    
+    @Test
+    public void testChannelMessageSuspended() throws Exception {
+	StalledChannel channel = login(WriteQueueOverflowPolicy.QUEUE);
+	((SessionRelocationProtocol) protocol).suspend(
+	    new RequestCompletionHandler<Void>() {
+		public void completed(Future<Void> future) { }
+	    });
+	ChannelMessage message = new ChannelMessage(
+	    BigInteger.ONE, ByteBuffer.wrap(new byte[] { 1, 2, 3 }),
+	    Delivery.RELIABLE);
+	try {
+	    protocol.channelMessage(message);
+	    fail("Expected IllegalStateException");
+	} catch (IllegalStateException e) {
+	    System.err.println(e);
+	}
+	channel.releaseAll();
+	List<byte[]> messages = channel.getMessages();
+	assertEquals(2, messages.size());
+	assertEquals(SimpleSgsProtocol.SUSPEND_MESSAGES, messages.get(1)[0]);
+    }
+    
+    @Test
+    public void testCompressionNotRequested() throws Exception {
+	createStalledAcceptor(WriteQueueOverflowPolicy.QUEUE,
+			      compressionProperties());
+	StalledChannel channel = connect(false);
+	channel.releaseAll();
+	List<byte[]> messages = channel.getMessages();
+	assertEquals(1, messages.size());
+	assertEquals(SimpleSgsProtocol.LOGIN_SUCCESS, messages.get(0)[0]);
+	protocol.sessionMessage(
+	    ByteBuffer.wrap(new byte[COMPRESSION_THRESHOLD * 4]),
+	    Delivery.RELIABLE);
+	messages = channel.getMessages();
+	assertEquals(2, messages.size());
+	assertEquals(SimpleSgsProtocol.SESSION_MESSAGE, messages.get(1)[0]);
+	assertEquals(1 + COMPRESSION_THRESHOLD * 4, messages.get(1).length);
+    }
+
+    @Test
+    public void testCompressionNegotiated() throws Exception {
+	createStalledAcceptor(WriteQueueOverflowPolicy.QUEUE,
+			      compressionProperties());
+	StalledChannel channel = connect(true);
+	channel.releaseAll();
+	/* The client's side of the compressed connection */
+	MessageCompression client = new MessageCompression(
+	    Deflater.BEST_COMPRESSION, COMPRESSION_THRESHOLD);
+
+	/* The login acknowledgment is compressed to accept the request */
+	List<byte[]> messages = channel.getMessages();
+	assertEquals(1, messages.size());
+	assertEquals(
+	    (byte) (SimpleSgsProtocol.LOGIN_SUCCESS |
+		    MessageCompression.COMPRESSED_FLAG),
+	    messages.get(0)[0]);
+	assertEquals(SimpleSgsProtocol.LOGIN_SUCCESS,
+		     client.read(ByteBuffer.wrap(messages.get(0)))[0]);
+
+	/*
+	 * A large message is compressed, and its length prefix, which is
+	 * filled in after compressing, frames it correctly.
+	 */
+	byte[] payload = new byte[COMPRESSION_THRESHOLD * 4];
+	Arrays.fill(payload, (byte) 7);
+	long uncompressedWritten = protocol.getUncompressedBytesWritten();
+	long compressedWritten = protocol.getCompressedBytesWritten();
+	protocol.sessionMessage(ByteBuffer.wrap(payload), Delivery.RELIABLE);
+	messages = channel.getMessages();
+	assertEquals(2, messages.size());
+	byte[] written = messages.get(1);
+	assertTrue(MessageCompression.isCompressed(ByteBuffer.wrap(written)));
+	assertTrue(written.length < 1 + payload.length);
+	byte[] expected = new byte[1 + payload.length];
+	expected[0] = SimpleSgsProtocol.SESSION_MESSAGE;
+	System.arraycopy(payload, 0, expected, 1, payload.length);
+	assertArrayEquals(expected, client.read(ByteBuffer.wrap(written)));
+	assertEquals(uncompressedWritten + expected.length,
+		     protocol.getUncompressedBytesWritten());
+	assertEquals(compressedWritten + written.length,
+		     protocol.getCompressedBytesWritten());
+
+	/* A compressed message from the client is decompressed */
+	Arrays.fill(payload, (byte) 3);
+	ByteBuffer message = ByteBuffer.allocate(1 + payload.length);
+	message.put(SimpleSgsProtocol.SESSION_MESSAGE).put(payload).flip();
+	ByteBuffer compressed =
+	    ByteBuffer.allocate(client.getMaxWriteLength(message));
+	client.write(message, compressed);
+	compressed.flip();
+	byte[] received = new byte[compressed.remaining()];
+	compressed.get(received);
+	assertTrue(MessageCompression.isCompressed(ByteBuffer.wrap(received)));
+	long uncompressedRead = protocol.getUncompressedBytesRead();
+	long compressedRead = protocol.getCompressedBytesRead();
+	channel.receive(received);
+	assertEquals(1, listener.sessionMessages.size());
+	assertEquals(ByteBuffer.wrap(payload), listener.sessionMessages.get(0));
+	assertEquals(uncompressedRead + 1 + payload.length,
+		     protocol.getUncompressedBytesRead());
+	assertEquals(compressedRead + received.length,
+		     protocol.getCompressedBytesRead());
+	client.end();
+    }
+
+    @Test
+    public void testUnreliablePairingIgnoresLaterKeys() throws Exception {
+	Properties props = new Properties();
+	props.setProperty(
+	    SimpleSgsProtocolAcceptor.UNRELIABLE_TRANSPORT_PROPERTY,
+	    StalledUnreliableTransport.class.getName());
+	createStalledAcceptor(WriteQueueOverflowPolicy.QUEUE, props);
+	StalledChannel channel1 = connect();
+	channel1.releaseAll();
+	SessionProtocol protocol1 = protocol;
+	byte[] key1 = getReconnectKey(channel1);
+	StalledChannel channel2 = connect();
+	channel2.releaseAll();
+	SessionProtocol protocol2 = protocol;
+	byte[] key2 = getReconnectKey(channel2);
+
+	/* The first key pairs the flow with the first session */
+	StalledFlow flow = StalledUnreliableTransport.connect();
+	flow.receive(key1);
+	assertTrue(flow.isOpen());
+	protocol1.sessionMessage(ByteBuffer.allocate(1), Delivery.UNRELIABLE);
+	assertEquals(1, flow.getDatagramCount());
+
+	/* Later keys, even another session's, do not change the pairing */
+	flow.receive(key1);
+	flow.receive(key2);
+	assertTrue(flow.isOpen());
+	protocol2.sessionMessage(ByteBuffer.allocate(1), Delivery.UNRELIABLE);
+	assertEquals(1, flow.getDatagramCount());
+	assertEquals(1, channel2.getSessionMessageCount());
+	protocol1.sessionMessage(ByteBuffer.allocate(1), Delivery.UNRELIABLE);
+	assertEquals(2, flow.getDatagramCount());
+	assertEquals(0, channel1.getSessionMessageCount());
+    }
+
+    @Test
+    public void testUnreliablePairingUnknownKey() throws Exception {
+	Properties props = new Properties();
+	props.setProperty(
+	    SimpleSgsProtocolAcceptor.UNRELIABLE_TRANSPORT_PROPERTY,
+	    StalledUnreliableTransport.class.getName());
+	createStalledAcceptor(WriteQueueOverflowPolicy.QUEUE, props);
+	StalledChannel channel = connect();
+	channel.releaseAll();
+	byte[] key = getReconnectKey(channel);
+	key[0]++;
+	StalledFlow flow = StalledUnreliableTransport.connect();
+	flow.receive(key);
+	assertFalse(flow.isOpen());
+    }
+
+    @Test
+    public void testReceivedMessagesReadOnly() throws Exception {
+	StalledChannel channel = login(WriteQueueOverflowPolicy.QUEUE);
+	channel.receive(new byte[] {
+	    SimpleSgsProtocol.SESSION_MESSAGE, 1, 2, 3, 4, 5 });
+	channel.receive(new byte[] {
+	    SimpleSgsProtocol.CHANNEL_MESSAGE, 0, 2, 0x12, 0x34, 6, 7, 8 });
+	/* Longer than the earlier messages, to overwrite their bytes */
+	byte[] last = new byte[64];
+	Arrays.fill(last, (byte) 9);
+	last[0] = SimpleSgsProtocol.SESSION_MESSAGE;
+	channel.receive(last);
+	assertEquals(2, listener.sessionMessages.size());
+	assertEquals(1, listener.channelMessages.size());
+	ByteBuffer first = listener.sessionMessages.get(0);
+	ByteBuffer channelMessage = listener.channelMessages.get(0);
+	ByteBuffer second = listener.sessionMessages.get(1);
+	for (ByteBuffer message : Arrays.asList(first, channelMessage, second))
+	{
+	    assertTrue(message.isReadOnly());
+	}
+	assertEquals(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 }), first);
+	assertEquals(BigInteger.valueOf(0x1234), listener.channelIds.get(0));
+	assertEquals(ByteBuffer.wrap(new byte[] { 6, 7, 8 }), channelMessage);
+	assertEquals(ByteBuffer.wrap(last, 1, last.length - 1), second);
+    }
     
 //    @Test
 //    public void testSessionMessage() throws Exception {
@@ -171,12 +537,176 @@ public class TestSimpleSgsProtocol {
             acceptor = null;
         }
     }
+
+    /**
+     * Creates an acceptor for a {@link StalledTransport} with the write
+     * queue watermarks used by the tests and the specified overflow
+     * policy, logs in a session, and returns the session's channel.
+     */
+    private StalledChannel login(WriteQueueOverflowPolicy policy)
+	throws Exception
+    {
+	createStalledAcceptor(policy);
+	return connect();
+    }
+
+    /**
+     * Creates an acceptor for a {@link StalledTransport} with the write
+     * queue watermarks used by the tests and the specified overflow
+     * policy.
+     */
+    private void createStalledAcceptor(WriteQueueOverflowPolicy policy)
+	throws Exception
+    {
+	createStalledAcceptor(policy, new Properties());
+    }
+
+    /**
+     * Creates an acceptor for a {@link StalledTransport} with the write
+     * queue watermarks used by the tests, the specified overflow policy,
+     * and the specified additional properties.
+     */
+    private void createStalledAcceptor(WriteQueueOverflowPolicy policy,
+				       Properties extraProps)
+	throws Exception
+    {
+        Properties props = new Properties();
+	props.putAll(extraProps);
+        props.setProperty(StandardProperties.APP_NAME, APP_NAME);
+        props.setProperty(SimpleSgsProtocolAcceptor.TRANSPORT_PROPERTY,
+                          StalledTransport.class.getName());
+        props.setProperty(
+	    SimpleSgsProtocolAcceptor.WRITE_QUEUE_HIGH_WATERMARK_PROPERTY,
+	    String.valueOf(HIGH_WATERMARK));
+        props.setProperty(
+	    SimpleSgsProtocolAcceptor.WRITE_QUEUE_LOW_WATERMARK_PROPERTY,
+	    String.valueOf(LOW_WATERMARK));
+        props.setProperty(
+	    SimpleSgsProtocolAcceptor.WRITE_QUEUE_OVERFLOW_POLICY_PROPERTY,
+	    policy.name());
+        acceptor = new SimpleSgsProtocolAcceptor(props,
+                                                 serverNode.getSystemRegistry(),
+                                                 serverNode.getProxy());
+        listener = new DummyListener();
+        acceptor.accept(listener);
+    }
+
+    /**
+     * Returns the reconnect key from the login acknowledgment written to
+     * the channel.
+     */
+    private static byte[] getReconnectKey(StalledChannel channel) {
+	byte[] loginSuccess = channel.getMessages().get(0);
+	assertEquals(SimpleSgsProtocol.LOGIN_SUCCESS, loginSuccess[0]);
+	return Arrays.copyOfRange(loginSuccess, 1, loginSuccess.length);
+    }
+
+    /**
+     * Returns the acceptor properties that enable compression, with the
+     * threshold used by the compression tests.
+     */
+    private static Properties compressionProperties() {
+	Properties props = new Properties();
+	props.setProperty(
+	    SimpleSgsProtocolAcceptor.COMPRESSION_ENABLED_PROPERTY, "true");
+	props.setProperty(
+	    SimpleSgsProtocolAcceptor.COMPRESSION_THRESHOLD_PROPERTY,
+	    String.valueOf(COMPRESSION_THRESHOLD));
+	props.setProperty(
+	    SimpleSgsProtocolAcceptor.COMPRESSION_LEVEL_PROPERTY,
+	    String.valueOf(Deflater.BEST_COMPRESSION));
+	return props;
+    }
+
+    /**
+     * Logs in a new session with the acceptor created by {@link
+     * #createStalledAcceptor createStalledAcceptor}, sets {@code protocol}
+     * to the session's protocol, and returns the session's channel.  The
+     * {@code LOGIN_SUCCESS} message is the first write to the channel, so
+     * all messages sent afterwards are queued until the test releases
+     * writes.
+     */
+    private StalledChannel connect() throws Exception {
+	return connect(false);
+    }
+
+    /**
+     * Logs in a new session, as {@link #connect() connect} does, with a
+     * login request that asks for compression if {@code
+     * requestCompression} is {@code true}.
+     */
+    private StalledChannel connect(boolean requestCompression)
+	throws Exception
+    {
+	listener.protocol = null;
+	StalledChannel channel = StalledTransport.connect(requestCompression);
+	long stop = System.currentTimeMillis() + 5000;
+	while (listener.protocol == null) {
+	    if (System.currentTimeMillis() > stop) {
+		fail("Login request was not received");
+	    }
+	    Thread.sleep(10);
+	}
+	protocol = listener.protocol;
+	listener.completionHandler.completed(
+	    new LoginFuture(listener.new SessionHandler()));
+	assertEquals(1, channel.getWriteCount());
+	return channel;
+    }
+
+    /**
+     * Sends a session message with the specified delivery requirement, and
+     * returns whether it was added to the write queue.
+     */
+    private boolean sendMessage(Delivery delivery) {
+	long pending = protocol.getPendingWriteBytes();
+	protocol.sessionMessage(ByteBuffer.allocate(PAYLOAD_LENGTH), delivery);
+	return protocol.getPendingWriteBytes() != pending;
+    }
+
+    /**
+     * Sends unreliable session messages until one is dropped, and returns
+     * the number of messages added to the write queue.
+     */
+    private int fillWithUnreliable() {
+	int accepted = 0;
+	while (sendMessage(Delivery.UNRELIABLE)) {
+	    accepted++;
+	    assertTrue(accepted <= HIGH_WATERMARK / MESSAGE_LENGTH);
+	}
+	return accepted;
+    }
+
+    /**
+     * Checks that the specified number of session messages were written
+     * to the channel.
+     */
+    private static void checkSessionMessages(StalledChannel channel,
+					     int count)
+	throws InterruptedException
+    {
+	long stop = System.currentTimeMillis() + 5000;
+	while (channel.getSessionMessageCount() < count &&
+	       System.currentTimeMillis() < stop)
+	{
+	    Thread.sleep(10);
+	}
+	assertEquals(count, channel.getSessionMessageCount());
+    }
     
     private static class DummyListener implements ProtocolListener {
 
-        Identity identity = null;
-        SessionProtocol protocol = null;
-	RequestCompletionHandler<SessionProtocolHandler> completionHandler;
+        volatile Identity identity = null;
+        volatile SessionProtocol protocol = null;
+	volatile RequestCompletionHandler<SessionProtocolHandler>
+	    completionHandler;
+	final CountDownLatch disconnected = new CountDownLatch(1);
+	final List<ByteBuffer> sessionMessages =
+	    Collections.synchronizedList(new ArrayList<ByteBuffer>());
+	final List<BigInteger> channelIds =
+	    Collections.synchronizedList(new ArrayList<BigInteger>());
+	final List<ByteBuffer> channelMessages =
+	    Collections.synchronizedList(new ArrayList<ByteBuffer>());
         
         public void newLogin(
 	    Identity identity, SessionProtocol protocol,
@@ -205,6 +735,7 @@ public class TestSimpleSgsProtocol {
 	    {
                 System.err.println("***** sessionMessage called..." +
 				   message.remaining());
+		sessionMessages.add(message);
 		completionHandler.completed(new CompletedFuture());
             }
 
@@ -212,7 +743,9 @@ public class TestSimpleSgsProtocol {
 		BigInteger channelId, ByteBuffer message,
 		RequestCompletionHandler<Void> completionHandler)
 	    {
-                throw new UnsupportedOperationException("Not supported yet.");
+		channelIds.add(channelId);
+		channelMessages.add(message);
+		completionHandler.completed(new CompletedFuture());
             }
 
             public void logoutRequest(
@@ -224,11 +757,42 @@ public class TestSimpleSgsProtocol {
             public void disconnect(
 		RequestCompletionHandler<Void> completionHandler)
 	    {
-                throw new UnsupportedOperationException("Not supported yet.");
+		disconnected.countDown();
             }
         }
     }
 
+    /** A future for a completed login. */
+    private static class LoginFuture
+	implements Future<SessionProtocolHandler>
+    {
+	private final SessionProtocolHandler handler;
+
+	LoginFuture(SessionProtocolHandler handler) {
+	    this.handler = handler;
+	}
+
+	public boolean cancel(boolean mayInterrupteIfRunning) {
+	    return false;
+	}
+
+	public boolean isCancelled() {
+	    return false;
+	}
+
+	public boolean isDone() {
+	    return true;
+	}
+
+	public SessionProtocolHandler get() {
+	    return handler;
+	}
+	
+	public SessionProtocolHandler get(long timeout, TimeUnit unit) {
+	    return handler;
+	}
+    }
+
     private static class CompletedFuture implements Future<Void> {
 
 	CompletedFuture() {
@@ -438,4 +1002,451 @@ public class TestSimpleSgsProtocol {
             }
         }
     }
+
+    /**
+     * A transport whose connections model a client that does not read: the
+     * connection receives a login request, and then its writes do not
+     * complete until the test releases them.
+     */
+    public static class StalledTransport implements Transport {
+
+	/** The handler passed to the most recent call to accept. */
+	private static volatile ConnectionHandler lastHandler;
+
+        public StalledTransport(Properties properties) { }
+
+        public TransportDescriptor getDescriptor() {
+            return new TransportDescriptor() {
+		public boolean supportsTransport(
+		    TransportDescriptor descriptor)
+		{
+		    return true;
+		}
+		public byte[] getConnectionData() {
+		    throw new UnsupportedOperationException();
+		}
+	    };
+        }
+
+        public Delivery getDelivery() {
+            return Delivery.RELIABLE;
+        }
+
+        public void accept(ConnectionHandler handler) {
+	    lastHandler = handler;
+        }
+
+        public void shutdown() { }
+
+	/**
+	 * Passes a new connection to the handler passed to the most recent
+	 * call to accept, and returns the connection's channel.
+	 */
+	static StalledChannel connect(boolean requestCompression)
+	    throws Exception
+	{
+	    StalledChannel channel = new StalledChannel(requestCompression);
+	    lastHandler.newConnection(channel);
+	    return channel;
+	}
+    }
+
+    /**
+     * An unreliable transport whose connections are created by the test,
+     * which supplies the datagrams they receive.
+     */
+    public static class StalledUnreliableTransport implements Transport {
+
+	/** The handler passed to the most recent call to accept. */
+	private static volatile ConnectionHandler lastHandler;
+
+        public StalledUnreliableTransport(Properties properties) { }
+
+        public TransportDescriptor getDescriptor() {
+            return new TransportDescriptor() {
+		public boolean supportsTransport(
+		    TransportDescriptor descriptor)
+		{
+		    return true;
+		}
+		public byte[] getConnectionData() {
+		    throw new UnsupportedOperationException();
+		}
+	    };
+        }
+
+        public Delivery getDelivery() {
+            return Delivery.UNRELIABLE;
+        }
+
+        public void accept(ConnectionHandler handler) {
+	    lastHandler = handler;
+        }
+
+        public void shutdown() { }
+
+	/**
+	 * Passes a new connection to the handler passed to the most recent
+	 * call to accept, and returns the connection's channel.
+	 */
+	static StalledFlow connect() {
+	    StalledFlow flow = new StalledFlow();
+	    lastHandler.newConnection(flow);
+	    return flow;
+	}
+    }
+
+    /**
+     * An unreliable connection whose reads each return a datagram supplied
+     * by the test, and which counts the datagrams written.
+     */
+    private static class StalledFlow implements AsynchronousByteChannel {
+
+	/** The buffer for the pending read, or null. */
+	private ByteBuffer readDst = null;
+
+	/** Completes the pending read with a byte count, or null. */
+	private ReadCompletion pendingRead = null;
+
+	/** The number of datagrams written. */
+	private int datagramCount = 0;
+
+	private volatile boolean open = true;
+
+	public <A> IoFuture<Integer, A> read(
+	    ByteBuffer dst, final A attachment,
+	    final CompletionHandler<Integer, ? super A> handler)
+	{
+	    synchronized (this) {
+		readDst = dst;
+		notifyAll();
+		pendingRead = new ReadCompletion() {
+		    public void complete(int n) {
+			StalledChannel.complete(
+			    handler, attachment, new DoneFuture(n, true));
+		    }
+		};
+	    }
+	    return AttachedFuture.wrap(new DoneFuture(0, false), attachment);
+	}
+
+	public <A> IoFuture<Integer, A> read(
+	    ByteBuffer dst, CompletionHandler<Integer, ? super A> handler)
+	{
+	    return read(dst, null, handler);
+	}
+
+	public <A> IoFuture<Integer, A> write(
+	    ByteBuffer src, A attachment,
+	    CompletionHandler<Integer, ? super A> handler)
+	{
+	    int n = src.remaining();
+	    src.position(src.limit());
+	    synchronized (this) {
+		datagramCount++;
+	    }
+	    StalledChannel.complete(
+		handler, attachment, new DoneFuture(n, true));
+	    return AttachedFuture.wrap(new DoneFuture(n, true), attachment);
+	}
+
+	public <A> IoFuture<Integer, A> write(
+	    ByteBuffer src, CompletionHandler<Integer, ? super A> handler)
+	{
+	    return write(src, null, handler);
+	}
+
+	public boolean isOpen() {
+	    return open;
+	}
+
+	public void close() {
+	    open = false;
+	}
+
+	/**
+	 * Waits for a read to be pending, and completes it with the
+	 * specified datagram.  The acceptor handles the datagram before this
+	 * method returns.
+	 */
+	void receive(byte[] datagram) throws InterruptedException {
+	    ByteBuffer dst;
+	    ReadCompletion read;
+	    long stop = System.currentTimeMillis() + 5000;
+	    synchronized (this) {
+		while (pendingRead == null) {
+		    long wait = stop - System.currentTimeMillis();
+		    if (wait <= 0) {
+			fail("No read is pending");
+		    }
+		    wait(wait);
+		}
+		dst = readDst;
+		read = pendingRead;
+		readDst = null;
+		pendingRead = null;
+	    }
+	    dst.put(datagram);
+	    read.complete(datagram.length);
+	}
+
+	/** Returns the number of datagrams written. */
+	synchronized int getDatagramCount() {
+	    return datagramCount;
+	}
+    }
+
+    /**
+     * A channel that returns a login request for the first read, never
+     * completes later reads, and records the bytes written but does not
+     * complete a write until it is released.
+     */
+    private static class StalledChannel implements AsynchronousByteChannel {
+
+	/** The login request, or null if it has been read. */
+	private ByteBuffer loginRequest;
+
+	/** The bytes written. */
+	private final ByteArrayOutputStream written =
+	    new ByteArrayOutputStream();
+
+	/** The number of write operations. */
+	private int writeCount = 0;
+
+	/** Completes the pending write, or null. */
+	private Runnable pendingWrite = null;
+
+	/** Whether to complete writes immediately. */
+	private boolean released = false;
+
+	/** The buffer for the pending read, or null. */
+	private ByteBuffer readDst = null;
+
+	/** Completes the pending read with a byte count, or null. */
+	private ReadCompletion pendingRead = null;
+
+	private volatile boolean open = true;
+
+	StalledChannel(boolean requestCompression) {
+	    MessageBuffer msg =
+		new MessageBuffer(4 + MessageBuffer.getSize("username") +
+				  MessageBuffer.getSize("password") +
+				  (requestCompression ? 1 : 0));
+	    msg.putShort(msg.capacity() - 2);
+	    msg.putByte(SimpleSgsProtocol.LOGIN_REQUEST);
+	    msg.putByte(SimpleSgsProtocol.VERSION);
+	    msg.putString("username");
+	    msg.putString("password");
+	    if (requestCompression) {
+		msg.putByte(MessageCompression.COMPRESSION_REQUESTED);
+	    }
+	    loginRequest = ByteBuffer.wrap(msg.getBuffer());
+	}
+
+	public <A> IoFuture<Integer, A> read(
+	    ByteBuffer dst, final A attachment,
+	    final CompletionHandler<Integer, ? super A> handler)
+	{
+	    ByteBuffer request;
+	    synchronized (this) {
+		request = loginRequest;
+		loginRequest = null;
+		if (request == null) {
+		    /* Completed by receive */
+		    readDst = dst;
+		    notifyAll();
+		    pendingRead = new ReadCompletion() {
+			public void complete(int n) {
+			    StalledChannel.complete(
+				handler, attachment, new DoneFuture(n, true));
+			}
+		    };
+		    return AttachedFuture.wrap(
+			new DoneFuture(0, false), attachment);
+		}
+	    }
+	    int n = request.remaining();
+	    dst.put(request);
+	    complete(handler, attachment, new DoneFuture(n, true));
+	    return AttachedFuture.wrap(new DoneFuture(n, true), attachment);
+	}
+
+	public <A> IoFuture<Integer, A> read(
+	    ByteBuffer dst, CompletionHandler<Integer, ? super A> handler)
+	{
+	    return read(dst, null, handler);
+	}
+
+	public <A> IoFuture<Integer, A> write(
+	    ByteBuffer src, final A attachment,
+	    final CompletionHandler<Integer, ? super A> handler)
+	{
+	    final int n = src.remaining();
+	    byte[] bytes = new byte[n];
+	    src.get(bytes);
+	    boolean completeNow;
+	    synchronized (this) {
+		written.write(bytes, 0, n);
+		writeCount++;
+		completeNow = released;
+		if (!completeNow) {
+		    pendingWrite = new Runnable() {
+			public void run() {
+			    complete(handler, attachment,
+				     new DoneFuture(n, true));
+			}
+		    };
+		}
+	    }
+	    if (completeNow) {
+		complete(handler, attachment, new DoneFuture(n, true));
+	    }
+	    return AttachedFuture.wrap(new DoneFuture(n, true), attachment);
+	}
+
+	public <A> IoFuture<Integer, A> write(
+	    ByteBuffer src, CompletionHandler<Integer, ? super A> handler)
+	{
+	    return write(src, null, handler);
+	}
+
+	public boolean isOpen() {
+	    return open;
+	}
+
+	public void close() {
+	    open = false;
+	}
+
+	/**
+	 * Waits for a read to be pending, and completes it with the
+	 * specified message, preceded by its length.  The protocol handles
+	 * the message before this method returns.
+	 */
+	void receive(byte[] message) throws InterruptedException {
+	    ByteBuffer dst;
+	    ReadCompletion read;
+	    long stop = System.currentTimeMillis() + 5000;
+	    synchronized (this) {
+		while (pendingRead == null) {
+		    long wait = stop - System.currentTimeMillis();
+		    if (wait <= 0) {
+			fail("No read is pending");
+		    }
+		    wait(wait);
+		}
+		dst = readDst;
+		read = pendingRead;
+		readDst = null;
+		pendingRead = null;
+	    }
+	    dst.putShort((short) message.length).put(message);
+	    read.complete(PREFIX_LENGTH + message.length);
+	}
+
+	/**
+	 * Completes the pending write, if any, and returns whether there was
+	 * one.  The write handler starts the next write, if any, before this
+	 * method returns.
+	 */
+	boolean releaseWrite() {
+	    Runnable write;
+	    synchronized (this) {
+		write = pendingWrite;
+		pendingWrite = null;
+	    }
+	    if (write == null) {
+		return false;
+	    }
+	    write.run();
+	    return true;
+	}
+
+	/** Completes the pending write and all future writes. */
+	void releaseAll() {
+	    synchronized (this) {
+		released = true;
+	    }
+	    releaseWrite();
+	}
+
+	/** Returns the number of write operations. */
+	synchronized int getWriteCount() {
+	    return writeCount;
+	}
+
+	/**
+	 * Returns the messages written, without their length prefixes, in
+	 * the order they were written.
+	 */
+	synchronized List<byte[]> getMessages() {
+	    ByteBuffer buf = ByteBuffer.wrap(written.toByteArray());
+	    List<byte[]> messages = new ArrayList<byte[]>();
+	    while (buf.hasRemaining()) {
+		byte[] message = new byte[buf.getShort() & 0xffff];
+		buf.get(message);
+		messages.add(message);
+	    }
+	    return messages;
+	}
+
+	/** Returns the number of session messages written. */
+	int getSessionMessageCount() {
+	    int count = 0;
+	    for (byte[] message : getMessages()) {
+		if (message[0] == SimpleSgsProtocol.SESSION_MESSAGE) {
+		    count++;
+		}
+	    }
+	    return count;
+	}
+
+	/**
+	 * Calls the handler with the result.  Declaring the attachment type
+	 * here lets callers pass a handler for a supertype of it.
+	 */
+	private static <R, A> void complete(CompletionHandler<R, A> handler,
+					    A attachment,
+					    Future<R> future)
+	{
+	    handler.completed(AttachedFuture.wrap(future, attachment));
+	}
+    }
+
+    /** Completes a read with the number of bytes read. */
+    private interface ReadCompletion {
+	void complete(int n);
+    }
+
+    /** A future with the specified result and completion status. */
+    private static class DoneFuture implements Future<Integer> {
+
+	private final int bytes;
+	private final boolean done;
+
+	DoneFuture(int bytes, boolean done) {
+	    this.bytes = bytes;
+	    this.done = done;
+	}
+
+	public boolean cancel(boolean mayInterruptIfRunning) {
+	    return false;
+	}
+
+	public boolean isCancelled() {
+	    return false;
+	}
+
+	public boolean isDone() {
+	    return done;
+	}
+
+	public Integer get() {
+	    return bytes;
+	}
+
+	public Integer get(long timeout, TimeUnit unit) {
+	    return bytes;
+	}
+    }
 }
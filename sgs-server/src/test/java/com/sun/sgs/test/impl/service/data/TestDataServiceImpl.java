@@ -44,6 +44,8 @@ import com.sun.sgs.impl.service.transaction.TransactionCoordinator;
 import static com.sun.sgs.impl.sharedutil.Objects.uncheckedCast;
 import com.sun.sgs.kernel.ComponentRegistry;
 import com.sun.sgs.kernel.TransactionScheduler;
+import com.sun.sgs.management.DataServiceMXBean;
+import com.sun.sgs.profile.ProfileCollector;
 import com.sun.sgs.service.DataService;
 import com.sun.sgs.service.Transaction;
 import com.sun.sgs.service.TransactionListener;
@@ -2491,6 +2493,38 @@ public class TestDataServiceImpl extends Assert {
 	}
     }
 
+    /* -- Test write intent prediction -- */
+
+    @Test
+    public void testPredictWriteIntent() throws Exception {
+        Properties properties = getProperties();
+        properties.setProperty(
+            DataServiceImpl.PREDICT_WRITE_INTENT_PROPERTY, "true");
+        serverNodeRestart(properties, true);
+        txnScheduler.runTask(new InitialTestRunnable(), taskOwner);
+        DataServiceMXBean bean = (DataServiceMXBean)
+            componentRegistry.getComponent(ProfileCollector.class).
+            getRegisteredMBean(DataServiceMXBean.MXBEAN_NAME);
+        long upgrades = bean.getReadLockUpgrades();
+        long predictions = bean.getWriteIntentPredictions();
+        for (int i = 0; i < 10; i++) {
+            txnScheduler.runTask(new ReadThenModifyRunnable(), taskOwner);
+        }
+        assertTrue(bean.getReadLockUpgrades() > upgrades);
+        assertTrue(bean.getWriteIntentPredictions() > predictions);
+        assertEquals(0, bean.getWriteIntentMispredictions());
+    }
+
+    /** Reads the "dummy" binding and then marks it for update. */
+    private class ReadThenModifyRunnable extends TestAbstractKernelRunnable {
+        public void run() {
+            DummyManagedObject dummy =
+                (DummyManagedObject) service.getBinding("dummy");
+            service.markForUpdate(dummy);
+            dummy.value = "x";
+        }
+    }
+
     /* -- Test markForUpdate -- */
 
     @Test 
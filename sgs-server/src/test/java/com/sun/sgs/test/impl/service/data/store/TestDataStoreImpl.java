@@ -1430,6 +1430,23 @@ public class TestDataStoreImpl extends Assert {
 	Thread.sleep(1000);
     }
 
+    @Test
+    public void testPrepareReadOnlyReleasesLocks() throws Exception {
+	store.setObject(txn, id, new byte[] { 1 });
+	txn.commit();
+	for (UsePrepareAndCommit use : UsePrepareAndCommit.values()) {
+	    txn = createTransaction(use);
+	    assertTrue(Arrays.equals(new byte[] { 1 },
+				     store.getObject(txn, id, true)));
+	    store.nextObjectId(txn, -1);
+	    txn.commit();
+	    txn = createTransaction(use, 1000);
+	    store.setObject(txn, id, new byte[] { 2 });
+	    txn.abort(new RuntimeException("abort"));
+	}
+	txn = null;
+    }
+
     /* -- Unusual states -- */
     private final Action prepare = new Action() {
 	private TransactionParticipant participant;
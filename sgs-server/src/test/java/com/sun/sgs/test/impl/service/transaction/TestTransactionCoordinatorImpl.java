@@ -702,6 +702,68 @@ public class TestTransactionCoordinatorImpl {
 	}
     }
 
+    @Test
+    public void testCommitManyParticipants() throws Exception {
+	DummyTransactionParticipant durable = new DummyTransactionParticipant();
+	txn.join(durable);
+	DummyTransactionParticipant[] participants =
+	    new DummyTransactionParticipant[20];
+	DummyTransactionListener[] listeners = new DummyTransactionListener[20];
+	for (int i = 0; i < participants.length; i++) {
+	    participants[i] = new DummyNonDurableTransactionParticipant();
+	    txn.join(participants[i]);
+	    listeners[i] = new DummyTransactionListener();
+	    txn.registerListener(listeners[i]);
+	}
+	handle.commit();
+	assertEquals(State.COMMITTED, durable.getState());
+	for (int i = 0; i < participants.length; i++) {
+	    assertEquals(State.COMMITTED, participants[i].getState());
+	    listeners[i].assertCalled(true, CalledAfter.COMMIT);
+	}
+	assertCommitted();
+    }
+
+    @Test
+    public void testCommitThenCommitNewTransaction() throws Exception {
+	DummyTransactionParticipant participant =
+	    new DummyNonDurableTransactionParticipant();
+	DummyTransactionListener listener = new DummyTransactionListener();
+	txn.join(participant);
+	txn.registerListener(listener);
+	handle.commit();
+	TransactionHandle handle2 =
+	    coordinator.createTransaction(coordinator.getDefaultTimeout());
+	DummyTransactionParticipant participant2 =
+	    new DummyNonDurableTransactionParticipant();
+	DummyTransactionListener listener2 = new DummyTransactionListener();
+	handle2.getTransaction().join(participant2);
+	handle2.getTransaction().registerListener(listener2);
+	handle2.getTransaction().abort(abortXcp);
+	assertEquals(State.COMMITTED, participant.getState());
+	listener.assertCalled(true, CalledAfter.COMMIT);
+	assertEquals(State.ABORTED, participant2.getState());
+	listener2.assertCalled(false, CalledAfter.ABORT);
+    }
+
+    @Test
+    public void testCommitNestedTransactionSameThread() throws Exception {
+	DummyTransactionParticipant participant =
+	    new DummyNonDurableTransactionParticipant();
+	txn.join(participant);
+	TransactionHandle handle2 =
+	    coordinator.createTransaction(coordinator.getDefaultTimeout());
+	DummyTransactionParticipant participant2 =
+	    new DummyNonDurableTransactionParticipant();
+	handle2.getTransaction().join(participant2);
+	handle2.commit();
+	assertEquals(State.COMMITTED, participant2.getState());
+	assertEquals(State.ACTIVE, participant.getState());
+	handle.commit();
+	assertEquals(State.COMMITTED, participant.getState());
+	assertCommitted();
+    }
+
     /* -- Test TransactionHandle.getTransaction -- */
 
     @Test
@@ -158,6 +158,53 @@ public class TestTcpTransport {
         shutdown();
     }
       
+    @Test
+    public void testAdditionalPortsAcceptConnect() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(TcpTransport.LISTEN_ADDITIONAL_PORTS_PROPERTY,
+                          (TcpTransport.DEFAULT_PORT + 1) + ":" +
+                          (TcpTransport.DEFAULT_PORT + 2));
+        transport = new TcpTransport(props);
+        CountingHandler handler = new CountingHandler();
+        transport.accept(handler);
+        for (int i = 0; i < 3; i++) {
+            new DummyClient("testAdditionalPortsAcceptConnect" + i).
+                connect(TcpTransport.DEFAULT_PORT + i);
+        }
+        handler.waitForConnections(3);
+        shutdown();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testAdditionalPortsInvalid() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(TcpTransport.LISTEN_ADDITIONAL_PORTS_PROPERTY,
+                          "65536");
+        transport = new TcpTransport(props);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testAdditionalPortsRepeatPrimaryPort() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(TcpTransport.LISTEN_ADDITIONAL_PORTS_PROPERTY,
+                          String.valueOf(TcpTransport.DEFAULT_PORT));
+        transport = new TcpTransport(props);
+    }
+
+    @Test
+    public void testNewConnectionThrows() throws Exception {
+        transport = new TcpTransport(new Properties());
+        CountingHandler handler = new CountingHandler();
+        handler.failNext = true;
+        transport.accept(handler);
+        new DummyClient("testNewConnectionThrows1").
+            connect(TcpTransport.DEFAULT_PORT);
+        new DummyClient("testNewConnectionThrows2").
+            connect(TcpTransport.DEFAULT_PORT);
+        handler.waitForConnections(2);
+        shutdown();
+    }
+      
     private void shutdown() {
         if (transport != null) {
             transport.shutdown();
@@ -187,6 +234,44 @@ public class TestTcpTransport {
         }
     }
         
+    /**
+     * Connection handler that counts new connections, and can be made to
+     * throw from {@code newConnection}.
+     */
+    private static class CountingHandler implements ConnectionHandler {
+
+        private int connections = 0;
+        volatile boolean failNext = false;
+
+        public synchronized void newConnection(AsynchronousByteChannel channel)
+            throws Exception
+        {
+            connections++;
+            notifyAll();
+            if (failNext) {
+                failNext = false;
+                throw new Exception("newConnection failed");
+            }
+        }
+
+        public void shutdown() {
+            throw new UnsupportedOperationException("Not supported yet.");
+        }
+
+        synchronized void waitForConnections(int count) throws Exception {
+            long stop = System.currentTimeMillis() + 5000;
+            while (connections < count) {
+                long wait = stop - System.currentTimeMillis();
+                if (wait <= 0) {
+                    throw new Exception(
+                        "Expected " + count + " connections, got " +
+                        connections);
+                }
+                wait(wait);
+            }
+        }
+    }
+        
     /**
      * Dummy client code for testing purposes.
      */
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.transport.udp;
+
+import com.sun.sgs.app.Delivery;
+import com.sun.sgs.impl.transport.udp.UdpTransport;
+import com.sun.sgs.nio.channels.AsynchronousByteChannel;
+import com.sun.sgs.nio.channels.ClosedAsynchronousChannelException;
+import com.sun.sgs.nio.channels.IoFuture;
+import com.sun.sgs.nio.channels.ReadPendingException;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import com.sun.sgs.transport.ConnectionHandler;
+import com.sun.sgs.transport.Transport;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the UdpTransport transport.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestUdpTransport {
+
+    private static final int WAIT_TIME = 5000;
+    
+    private volatile Transport transport;
+
+    private DatagramSocket client;
+    
+    @Before
+    public void setUp() throws Exception {
+        transport = null;
+        client = new DatagramSocket();
+        client.setSoTimeout(WAIT_TIME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        shutdown();
+        client.close();
+    }
+    
+    @Test(expected=NullPointerException.class)
+    public void testNullProperties() throws Exception {        
+        transport = new UdpTransport(null); 
+    }
+    
+    @Test
+    public void testDefaults() throws Exception {
+        transport = new UdpTransport(new Properties());
+        assertNotNull(transport.getDescriptor());
+        assertEquals(Delivery.UNRELIABLE, transport.getDelivery());
+        shutdown();
+    }
+    
+    @Test
+    public void testShutdownAfterShutdown() throws Exception {
+        transport = new UdpTransport(new Properties());
+        transport.shutdown();
+        shutdown();
+    }
+    
+    @Test(expected=NullPointerException.class)
+    public void testNullHandler() throws Exception {
+        transport = new UdpTransport(new Properties());
+        transport.accept(null);
+    }
+    
+    @Test(expected=IllegalStateException.class)
+    public void testAcceptAfterShutdown() throws Exception {
+        transport = new UdpTransport(new Properties());
+        Transport t = transport;
+        shutdown();
+        t.accept(new DummyHandler());
+    }
+    
+    @Test(expected=IllegalStateException.class)
+    public void testMultipleAccept() throws Exception {
+        transport = new UdpTransport(new Properties());
+        transport.accept(new DummyHandler());
+        transport.accept(new DummyHandler());
+    }
+
+    @Test
+    public void testReadDatagrams() throws Exception {
+        transport = new UdpTransport(new Properties());
+        DummyHandler handler = new DummyHandler();
+        transport.accept(handler);
+        send(new byte[] { 1, 2, 3 });
+        send(new byte[] { 4, 5 });
+        AsynchronousByteChannel flow = handler.waitForConnection();
+        assertTrue(flow.isOpen());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, read(flow, 16));
+        // Bytes that do not fit in the buffer are discarded
+        assertArrayEquals(new byte[] { 4 }, read(flow, 1));
+        send(new byte[] { 6 });
+        assertArrayEquals(new byte[] { 6 }, read(flow, 16));
+        assertNull(handler.connections.poll());
+    }
+
+    @Test
+    public void testWriteDatagrams() throws Exception {
+        transport = new UdpTransport(new Properties());
+        DummyHandler handler = new DummyHandler();
+        transport.accept(handler);
+        send(new byte[] { 0 });
+        AsynchronousByteChannel flow = handler.waitForConnection();
+        IoFuture<Integer, Void> first =
+            flow.write(ByteBuffer.wrap(new byte[] { 1, 2 }), null);
+        IoFuture<Integer, Void> second =
+            flow.write(ByteBuffer.wrap(new byte[] { 3 }), null);
+        assertEquals(2, (int) first.get(WAIT_TIME, TimeUnit.MILLISECONDS));
+        assertEquals(1, (int) second.get(WAIT_TIME, TimeUnit.MILLISECONDS));
+        assertArrayEquals(new byte[] { 1, 2 }, receive());
+        assertArrayEquals(new byte[] { 3 }, receive());
+    }
+
+    @Test
+    public void testWriteTooLarge() throws Exception {
+        transport = new UdpTransport(new Properties());
+        DummyHandler handler = new DummyHandler();
+        transport.accept(handler);
+        send(new byte[] { 0 });
+        AsynchronousByteChannel flow = handler.waitForConnection();
+        try {
+            flow.write(ByteBuffer.allocate(UdpTransport.MAX_DATAGRAM_SIZE + 1),
+                       null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e);
+        }
+    }
+
+    @Test
+    public void testReadPending() throws Exception {
+        transport = new UdpTransport(new Properties());
+        DummyHandler handler = new DummyHandler();
+        transport.accept(handler);
+        send(new byte[] { 0 });
+        AsynchronousByteChannel flow = handler.waitForConnection();
+        read(flow, 1);
+        flow.read(ByteBuffer.allocate(1), null);
+        try {
+            flow.read(ByteBuffer.allocate(1), null);
+            fail("Expected ReadPendingException");
+        } catch (ReadPendingException e) {
+            System.err.println(e);
+        }
+    }
+
+    @Test
+    public void testCloseFlow() throws Exception {
+        transport = new UdpTransport(new Properties());
+        DummyHandler handler = new DummyHandler();
+        transport.accept(handler);
+        send(new byte[] { 0 });
+        AsynchronousByteChannel flow = handler.waitForConnection();
+        read(flow, 1);
+        IoFuture<Integer, Void> pending =
+            flow.read(ByteBuffer.allocate(1), null);
+        flow.close();
+        assertFalse(flow.isOpen());
+        try {
+            pending.get(WAIT_TIME, TimeUnit.MILLISECONDS);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AsynchronousCloseException);
+        }
+        try {
+            flow.write(ByteBuffer.allocate(1), null);
+            fail("Expected ClosedAsynchronousChannelException");
+        } catch (ClosedAsynchronousChannelException e) {
+            System.err.println(e);
+        }
+        // The next datagram from the same address creates a new flow
+        send(new byte[] { 1 });
+        AsynchronousByteChannel newFlow = handler.waitForConnection();
+        assertTrue(newFlow != flow);
+        assertArrayEquals(new byte[] { 1 }, read(newFlow, 1));
+    }
+
+    @Test
+    public void testRefuseFlow() throws Exception {
+        transport = new UdpTransport(new Properties());
+        DummyHandler handler = new DummyHandler();
+        handler.refuse = true;
+        transport.accept(handler);
+        send(new byte[] { 0 });
+        AsynchronousByteChannel flow = handler.waitForConnection();
+        assertFalse(flow.isOpen());
+        handler.refuse = false;
+        send(new byte[] { 1 });
+        AsynchronousByteChannel newFlow = handler.waitForConnection();
+        assertTrue(newFlow.isOpen());
+        assertArrayEquals(new byte[] { 1 }, read(newFlow, 1));
+    }
+
+    @Test
+    public void testShutdownClosesFlows() throws Exception {
+        transport = new UdpTransport(new Properties());
+        DummyHandler handler = new DummyHandler();
+        transport.accept(handler);
+        send(new byte[] { 0 });
+        AsynchronousByteChannel flow = handler.waitForConnection();
+        shutdown();
+        assertFalse(flow.isOpen());
+    }
+      
+    private void shutdown() {
+        if (transport != null) {
+            transport.shutdown();
+            transport = null;
+        }
+    }
+
+    /** Sends a datagram to the transport's default port. */
+    private void send(byte[] bytes) throws Exception {
+        client.send(new DatagramPacket(
+            bytes, bytes.length,
+            new InetSocketAddress(InetAddress.getLocalHost(),
+                                  UdpTransport.DEFAULT_PORT)));
+    }
+
+    /** Receives a datagram from the transport. */
+    private byte[] receive() throws Exception {
+        byte[] bytes = new byte[UdpTransport.MAX_DATAGRAM_SIZE];
+        DatagramPacket packet = new DatagramPacket(bytes, bytes.length);
+        client.receive(packet);
+        byte[] result = new byte[packet.getLength()];
+        System.arraycopy(bytes, 0, result, 0, result.length);
+        return result;
+    }
+
+    /** Reads a datagram from a flow into a buffer of the given size. */
+    private static byte[] read(AsynchronousByteChannel flow, int size)
+        throws Exception
+    {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        int n = flow.read(buf, null).get(WAIT_TIME, TimeUnit.MILLISECONDS);
+        assertEquals(n, buf.position());
+        byte[] result = new byte[n];
+        buf.flip();
+        buf.get(result);
+        return result;
+    }
+
+    /**
+     * Dummy connection handler.
+     */
+    private static class DummyHandler implements ConnectionHandler {
+
+        final BlockingQueue<AsynchronousByteChannel> connections =
+            new LinkedBlockingQueue<AsynchronousByteChannel>();
+
+        volatile boolean refuse = false;
+        
+        public void newConnection(AsynchronousByteChannel channel)
+            throws Exception
+        {
+            connections.add(channel);
+            if (refuse) {
+                throw new Exception("refused");
+            }
+        }
+        
+        public void shutdown() {
+            throw new UnsupportedOperationException("Not supported yet.");
+        }
+
+        AsynchronousByteChannel waitForConnection() throws Exception {
+            AsynchronousByteChannel channel =
+                connections.poll(WAIT_TIME, TimeUnit.MILLISECONDS);
+            if (channel == null) {
+                throw new Exception("No connection");
+            }
+            return channel;
+        }
+    }
+}
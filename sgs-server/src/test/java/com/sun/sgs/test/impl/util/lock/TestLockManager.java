@@ -41,6 +41,8 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -541,6 +543,58 @@ public class TestLockManager extends Assert {
 	}
     }
 
+    /* -- Test concurrent use -- */
+
+    @Test
+    public void testConcurrentLockRelease() throws Exception {
+	final String[] keys = { "o1", "o2", "o3" };
+	final AtomicIntegerArray readers = new AtomicIntegerArray(keys.length);
+	final AtomicIntegerArray writers = new AtomicIntegerArray(keys.length);
+	final AtomicInteger failures = new AtomicInteger();
+	Thread[] threads = new Thread[4];
+	for (int t = 0; t < threads.length; t++) {
+	    final int seed = t;
+	    threads[t] = new Thread() {
+		public void run() {
+		    for (int i = 0; i < 2000; i++) {
+			int k = (i + seed) % keys.length;
+			boolean forWrite = ((i + seed) % 3) != 0;
+			Locker<String> locker2 = createLocker(lockManager);
+			if (lockManager.lock(locker2, keys[k], forWrite) !=
+			    null)
+			{
+			    continue;
+			}
+			if (forWrite) {
+			    if (writers.incrementAndGet(k) != 1 ||
+				readers.get(k) != 0)
+			    {
+				failures.incrementAndGet();
+			    }
+			    writers.decrementAndGet(k);
+			} else {
+			    readers.incrementAndGet(k);
+			    if (writers.get(k) != 0) {
+				failures.incrementAndGet();
+			    }
+			    readers.decrementAndGet(k);
+			}
+			lockManager.releaseLock(locker2, keys[k]);
+		    }
+		}
+	    };
+	    threads[t].start();
+	}
+	for (Thread thread : threads) {
+	    thread.join();
+	}
+	assertEquals(0, failures.get());
+	for (String key : keys) {
+	    assertEquals(0, lockManager.getOwners(key).size());
+	    assertEquals(0, lockManager.getWaiters(key).size());
+	}
+    }
+
     /* -- Methods for asserting the lock conflict status -- */
 
     /** Asserts that the lock was granted. */
@@ -70,7 +70,17 @@ public class TestTxnLockManager extends TestLockManager {
 				      long requestedStartTime)
     {
 	return new StringTxnLocker(
-	    (TxnLockManager<String>) lockManager, txn, requestedStartTime);
+	    (TxnLockManager<String>) lockManager, txn, requestedStartTime, 0);
+    }
+
+    /** Create a TxnLocker with the specified priority. */
+    TxnLocker<String> createTxnLocker(LockManager<String> lockManager,
+				      long requestedStartTime,
+				      int priority)
+    {
+	return new StringTxnLocker(
+	    (TxnLockManager<String>) lockManager, new DummyTransaction(),
+	    requestedStartTime, priority);
     }
 
     /** A transaction-locker with a nice toString method. */
@@ -79,9 +89,10 @@ public class TestTxnLockManager extends TestLockManager {
 	private final long id;
 	StringTxnLocker(TxnLockManager<String> lockManager,
 			Transaction txn,
-			long requestedStartTime)
+			long requestedStartTime,
+			int priority)
 	{
-	    super(lockManager, txn, requestedStartTime);
+	    super(lockManager, txn, requestedStartTime, priority);
 	    synchronized (StringTxnLocker.class) {
 		id = nextId++;
 	    }
@@ -539,6 +550,120 @@ public class TestTxnLockManager extends TestLockManager {
 		   conflict.getType() == LockConflictType.DEADLOCK);
     }
 
+    /* -- Test priorities -- */
+
+    @Test
+    public void testCreateNegativePriority() {
+	try {
+	    createTxnLocker(lockManager, 0, -1);
+	    fail("Expected IllegalArgumentException");
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e);
+	}
+    }
+
+    /**
+     * Test that a higher priority waiter is granted the lock before an
+     * earlier, lower priority waiter.
+     *
+     * locker:  write o1	=> granted
+     * locker2: write o1	=> blocked
+     * locker3: write o1	=> blocked (priority 1)
+     * locker:  release o1
+     * locker3:			=> granted
+     * locker3: release o1
+     * locker2:			=> granted
+     */
+    @Test
+    public void testPriorityWaiterGrantedFirst() throws Exception {
+	Locker<String> locker2 = createTxnLocker(lockManager, 0);
+	Locker<String> locker3 = createTxnLocker(lockManager, 0, 1);
+	assertGranted(acquireLock(locker, "o1", true));
+	AcquireLock acquire2 = new AcquireLock(locker2, "o1", true);
+	acquire2.assertBlocked();
+	AcquireLock acquire3 = new AcquireLock(locker3, "o1", true);
+	acquire3.assertBlocked();
+	assertEquals(2, lockManager.getWaiters("o1").size());
+	assertSame(locker3,
+		   lockManager.getWaiters("o1").get(0).getLocker());
+	lockManager.releaseLock(locker, "o1");
+	assertGranted(acquire3.getResult());
+	acquire2.assertBlocked();
+	lockManager.releaseLock(locker3, "o1");
+	assertGranted(acquire2.getResult());
+    }
+
+    /**
+     * Test that a higher priority read request is not blocked by a lower
+     * priority waiting writer.
+     *
+     * locker:  read o1		=> granted
+     * locker2: write o1	=> blocked
+     * locker3: read o1		=> granted (priority 1)
+     */
+    @Test
+    public void testPriorityReadNotBlockedByLowerWaiter() throws Exception {
+	Locker<String> locker2 = createTxnLocker(lockManager, 0);
+	Locker<String> locker3 = createTxnLocker(lockManager, 0, 1);
+	assertGranted(acquireLock(locker, "o1", false));
+	AcquireLock acquire2 = new AcquireLock(locker2, "o1", true);
+	acquire2.assertBlocked();
+	assertGranted(acquireLock(locker3, "o1", false));
+	lockManager.releaseLock(locker, "o1");
+	acquire2.assertBlocked();
+	lockManager.releaseLock(locker3, "o1");
+	assertGranted(acquire2.getResult());
+    }
+
+    /**
+     * Test that an older, higher priority locker preempts a younger, lower
+     * priority owner.
+     *
+     * locker2 is newer than locker3, which has priority 1
+     *
+     * locker2: write o1	=> granted
+     * locker3: write o1	=> blocked
+     * locker2: read o2		=> preempted
+     * locker2: read o3		=> preempted
+     * locker2: abort
+     * locker3:			=> granted
+     */
+    @Test
+    public void testPriorityPreemptsYoungerOwner() throws Exception {
+	Locker<String> locker2 = createTxnLocker(lockManager, 1000);
+	Locker<String> locker3 = createTxnLocker(lockManager, 0, 1);
+	assertGranted(acquireLock(locker2, "o1", true));
+	AcquireLock acquire3 = new AcquireLock(locker3, "o1", true);
+	acquire3.assertBlocked();
+	assertDenied(LockConflictType.PREEMPTED,
+		     acquireLock(locker2, "o2", false), locker3);
+	assertDenied(LockConflictType.PREEMPTED,
+		     acquireLock(locker2, "o3", false), locker3);
+	lockManager.releaseLock(locker2, "o1");
+	assertGranted(acquire3.getResult());
+    }
+
+    /**
+     * Test that a higher priority locker does not preempt an older owner.
+     *
+     * locker2 is newer than locker, and has priority 1
+     *
+     * locker:  write o1	=> granted
+     * locker2: write o1	=> blocked
+     * locker:  read o2		=> granted
+     */
+    @Test
+    public void testPriorityNoPreemptOlderOwner() throws Exception {
+	locker = createTxnLocker(lockManager, 0);
+	Locker<String> locker2 = createTxnLocker(lockManager, 1000, 1);
+	assertGranted(acquireLock(locker, "o1", true));
+	AcquireLock acquire2 = new AcquireLock(locker2, "o1", true);
+	acquire2.assertBlocked();
+	assertGranted(acquireLock(locker, "o2", false));
+	lockManager.releaseLock(locker, "o1");
+	assertGranted(acquire2.getResult());
+    }
+
     /* -- Test waitForLock -- */
 
     @Test
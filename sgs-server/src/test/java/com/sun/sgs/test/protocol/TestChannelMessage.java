@@ -0,0 +1,169 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.protocol;
+
+import com.sun.sgs.app.Delivery;
+import com.sun.sgs.protocol.ChannelMessage;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Test the ChannelMessage class. */
+@RunWith(FilteredNameRunner.class)
+public class TestChannelMessage {
+
+    private static final BigInteger CHANNEL_ID = BigInteger.valueOf(42);
+
+    private final ChannelMessage message = new ChannelMessage(
+	CHANNEL_ID, ByteBuffer.wrap(new byte[] { 1, 2, 3 }),
+	Delivery.RELIABLE);
+
+    /* -- Tests -- */
+
+    @Test(expected=NullPointerException.class)
+    public void testConstructorNullChannelId() {
+	new ChannelMessage(null, ByteBuffer.allocate(1), Delivery.RELIABLE);
+    }
+
+    @Test(expected=NullPointerException.class)
+    public void testConstructorNullMessage() {
+	new ChannelMessage(CHANNEL_ID, null, Delivery.RELIABLE);
+    }
+
+    @Test(expected=NullPointerException.class)
+    public void testConstructorNullDelivery() {
+	new ChannelMessage(CHANNEL_ID, ByteBuffer.allocate(1), null);
+    }
+
+    @Test
+    public void testGetters() {
+	assertSame(CHANNEL_ID, message.getChannelId());
+	assertSame(Delivery.RELIABLE, message.getDelivery());
+	assertEquals(ByteBuffer.wrap(new byte[] { 1, 2, 3 }),
+		     message.getMessage());
+    }
+
+    @Test
+    public void testGetMessageIndependentReadOnly() {
+	ByteBuffer first = message.getMessage();
+	ByteBuffer second = message.getMessage();
+	assertTrue(first.isReadOnly());
+	first.get();
+	assertEquals(1, first.position());
+	assertEquals(0, second.position());
+	assertEquals(3, message.getMessage().remaining());
+	checkReadOnly(first);
+    }
+
+    @Test
+    public void testGetFrameNone() {
+	assertNull(message.getFrame("key"));
+    }
+
+    @Test
+    public void testPutFrame() {
+	ByteBuffer stored = message.putFrame("key", frame(7, 4));
+	assertEquals(frame(7, 4), stored);
+	assertEquals(frame(7, 4), message.getFrame("key"));
+	assertNull(message.getFrame("other"));
+    }
+
+    @Test
+    public void testPutFrameKeepsFirst() {
+	message.putFrame("key", frame(7, 4));
+	assertEquals(frame(7, 4), message.putFrame("key", frame(8, 5)));
+	assertEquals(frame(7, 4), message.getFrame("key"));
+	/* Keys are compared with equals */
+	assertEquals(frame(7, 4),
+		     message.putFrame(new String("key"), frame(9, 6)));
+	assertEquals(frame(7, 4), message.getFrame(new String("key")));
+    }
+
+    @Test
+    public void testPutFrameSeveralKeys() {
+	message.putFrame("a", frame(1, 1));
+	message.putFrame("b", frame(2, 2));
+	message.putFrame("c", frame(3, 3));
+	assertEquals(frame(2, 2), message.putFrame("b", frame(4, 4)));
+	assertEquals(frame(1, 1), message.getFrame("a"));
+	assertEquals(frame(2, 2), message.getFrame("b"));
+	assertEquals(frame(3, 3), message.getFrame("c"));
+	assertNull(message.getFrame("d"));
+    }
+
+    @Test
+    public void testFramesIndependentReadOnly() {
+	ByteBuffer stored = message.putFrame("key", frame(7, 4));
+	ByteBuffer first = message.getFrame("key");
+	ByteBuffer second = message.getFrame("key");
+	assertTrue(stored.isReadOnly());
+	assertTrue(first.isReadOnly());
+	/* Reading one view does not affect the others */
+	stored.get();
+	first.get(new byte[3]);
+	assertEquals(1, stored.position());
+	assertEquals(3, first.position());
+	assertEquals(0, second.position());
+	assertEquals(frame(7, 4), message.getFrame("key"));
+	checkReadOnly(first);
+    }
+
+    @Test
+    public void testPutFrameEncodedPosition() {
+	/* Only the bytes from the position to the limit are stored */
+	ByteBuffer encoded = frame(7, 6);
+	encoded.position(2);
+	assertEquals(frame(7, 4), message.putFrame("key", encoded));
+	assertEquals(frame(7, 4), message.getFrame("key"));
+	assertEquals(2, encoded.position());
+    }
+
+    /* -- Other methods -- */
+
+    /** Returns a buffer of the specified length filled with value. */
+    private static ByteBuffer frame(int value, int length) {
+	ByteBuffer buf = ByteBuffer.allocate(length);
+	while (buf.hasRemaining()) {
+	    buf.put((byte) value);
+	}
+	buf.flip();
+	return buf;
+    }
+
+    /** Checks that the buffer cannot be modified. */
+    private static void checkReadOnly(ByteBuffer buf) {
+	try {
+	    buf.put(0, (byte) 0);
+	    fail("Expected ReadOnlyBufferException");
+	} catch (ReadOnlyBufferException e) {
+	}
+    }
+}